@@ -1,24 +1,58 @@
 package com.coldary;
 
 import com.coldary.objects.Camera;
+import com.coldary.objects.ParticleEmitter;
+import com.coldary.objects.RenderSnapshot;
 import com.coldary.objects.Skybox;
+import com.coldary.objects.TerrainChunkSource;
+import com.coldary.utils.Assets;
+import com.coldary.utils.AudioEngine;
+import com.coldary.utils.ClusteredLighting;
+import com.coldary.utils.CubeMap;
+import com.coldary.utils.DrawList;
+import com.coldary.utils.DynamicResolution;
+import com.coldary.utils.FrameCapture;
+import com.coldary.utils.GlBackend;
+import com.coldary.utils.GltfModel;
+import com.coldary.utils.Impostor;
+import com.coldary.utils.ImpostorRenderer;
+import com.coldary.utils.InputHandler;
+import com.coldary.utils.LatencyTracker;
+import com.coldary.utils.MeshletCuller;
 import com.coldary.utils.ModelLoader;
+import com.coldary.utils.NativeMemory;
+import com.coldary.utils.RenderBackend;
+import com.coldary.utils.RenderStats;
+import com.coldary.utils.ParticleSystem;
+import com.coldary.utils.PerformanceHud;
+import com.coldary.utils.Resources;
+import com.coldary.utils.ShaderVariant;
+import com.coldary.utils.ShaderVariants;
 import com.coldary.utils.Shaders;
+import com.coldary.utils.ShadowCascades;
+import com.coldary.utils.StartupGraph;
+import com.coldary.utils.StreamingBuffer;
+import com.coldary.utils.VulkanBackend;
+import com.coldary.utils.WorldStreamer;
+import org.joml.FrustumIntersection;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
 import org.lwjgl.Version;
-import org.lwjgl.glfw.GLFWCursorPosCallback;
 import org.lwjgl.glfw.GLFWErrorCallback;
 import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
 import org.lwjgl.system.MemoryUtil;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.lwjgl.glfw.Callbacks.glfwFreeCallbacks;
 import static org.lwjgl.glfw.GLFW.*;
-import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
 
 public class Main {
 
@@ -31,19 +65,141 @@ public class Main {
     private long window;
 
     // Shader program
+    private ShaderVariants shaderVariants;
     private Shaders shader;
     private int shaderProgram;
 
+    // Per-frame uniform data, triple buffered
+    private static final int CAMERA_BLOCK_BINDING = 0;
+    private static final int CAMERA_BLOCK_SIZE = 2 * 64 + 16;
+    private StreamingBuffer frameData;
+    private int uniformAlignment;
+    private ClusteredLighting lighting;
+    private MeshletCuller meshletCuller;
+    // Kept current by the framebuffer size callback
+    private final int[] framebufferWidth = new int[1];
+    private final int[] framebufferHeight = new int[1];
+
+    // The scene is drawn offscreen at a scale that keeps its GPU time within
+    // -Ddrift.frameBudgetMs (default: the monitor's refresh interval, 0 fixes the scale),
+    // between -Ddrift.minRenderScale and -Ddrift.renderScale, then upscaled to the window
+    // with -Ddrift.sharpness (0 for plain bilinear).
+    private DynamicResolution resolution;
+
     // Scene objects
     Skybox skybox;
     private Camera camera;
 
-    //Camera utils
-    private double lastX, lastY;
-    private boolean firstMouse = true;
+    // Camera and input run here, the GL thread only consumes its snapshots
+    private SimulationThread simulation;
+    private long lastSnapshotSequence;
+    private long frameInputNanos;
+
+    // -Ddrift.waitEvents=true sleeps in glfwWaitEventsTimeout between frames and keeps
+    // rendering from the refresh callback while the OS holds the event loop (move/resize)
+    private final boolean waitEvents = Boolean.getBoolean("drift.waitEvents");
+    private LatencyTracker latency;
+    private final Matrix4f viewMatrix = new Matrix4f();
+    private final Matrix4f skyboxView = new Matrix4f();
+    private final Matrix4f modelMatrix = new Matrix4f();
 
     // Model loader
     private ModelLoader model;
+    // Optional glTF scene from -Ddrift.scene=<path>, drawn at the origin
+    private GltfModel scene;
+
+    // Copies of the model further than -Ddrift.impostorDistance (default 60, 0 disables) are
+    // drawn as an octahedral impostor, cross-fading with the mesh over the next 20% of distance
+    // by screen-door dither so neither side needs blending or sorting
+    private static final float IMPOSTOR_FADE_BAND = 0.2f;
+    private final float impostorDistance = Float.parseFloat(System.getProperty("drift.impostorDistance", "60"));
+    private Impostor modelImpostor;
+    private ImpostorRenderer impostors;
+    private Shaders fadingShader;
+    private int[] fadingDraws = new int[64];
+    private float[] fadingAmounts = new float[64];
+
+    // Sun shadows: -Ddrift.shadowCascades cascades (default 4, 0 turns the sun off) of
+    // -Ddrift.shadowMapSize texels (default 2048) out to -Ddrift.shadowDistance (default 150).
+    // From cascade -Ddrift.shadowCachedFrom on (default 2) static casters are cached.
+    private static final Vector3f SUN_DIRECTION = new Vector3f(0.4f, 1.0f, 0.3f);
+    private static final Vector3f SUN_COLOR = new Vector3f(0.6f, 0.58f, 0.52f);
+    private final int shadowCascadeCount = Integer.getInteger("drift.shadowCascades", 4);
+    private final int sceneVariant = ShaderVariant.CLUSTERED_LIGHTING | (shadowCascadeCount > 0 ? ShaderVariant.SUN_SHADOWS : 0);
+    private ShadowCascades shadows;
+    private final SnapshotCasters shadowCasters = new SnapshotCasters();
+    private long shadowStaticVersion = -1;
+    private long shadowResidencyVersion = -1;
+    private float shadowCasterRadius = -1;
+
+    // Sound on its own thread, -Ddrift.engineSound, -Ddrift.ambientSound and -Ddrift.skidSound
+    // name Opus assets
+    private AudioEngine audio;
+
+    // Terrain chunks streamed around the camera. -Ddrift.streamRadius=<units> sets the load
+    // radius, -Ddrift.streamBudgetKB=<n> the upload budget per frame, 0 disables streaming.
+    private static final float CHUNK_SIZE = 32.0f;
+    private static final float CHUNK_HYSTERESIS = 32.0f;
+    private static final float TERRAIN_BASE_HEIGHT = -4.0f;
+    private WorldStreamer world;
+
+    // F12 saves a PNG screenshot. -Ddrift.capture=true records every frame into
+    // -Ddrift.captureDir (default captures/) as -Ddrift.captureFormat=qoi|png|raw, stopping
+    // after -Ddrift.captureFrames frames when set, e.g. for reference images in regression runs.
+    private FrameCapture capture;
+    private int lastScreenshotRequests;
+
+    // Pool of -Ddrift.particleCapacity particles (default 1M). Until vehicles exist, a smoke
+    // and a debris emitter at the origin spawn -Ddrift.particleRate particles per second.
+    private ParticleSystem particles;
+    private List<ParticleEmitter> emitters;
+    private long lastFrameNanos;
+
+    // F3 toggles the performance overlay, -Ddrift.hud=true shows it from the start
+    private PerformanceHud hud;
+    private int lastHudToggles;
+
+    // Startup runs as a task graph: loading and decoding on worker threads while the main
+    // thread brings up the window and GL objects, with a timing report printed at the end.
+    // -Ddrift.exitAfterFrames=<n> closes the window after n frames, for startup timing and
+    // the class list training run of the appcds profile.
+    private static final int STARTUP_WORKERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    private static final String MODEL_PATH = "/Objects/Cube.obj";
+    private static final String BACKEND_VERTEX_FILE = "/Shaders/backend/Vertex.mesh.glsl";
+    private static final String BACKEND_FRAGMENT_FILE = "/Shaders/backend/Fragment.mesh.glsl";
+    private static final String[] SHADER_FILES = {
+            "/Shaders/Vertex.glsl", "/Shaders/Fragment.glsl",
+            "/Shaders/skybox/Vertex.skybox.glsl", "/Shaders/skybox/Fragment.skybox.glsl",
+            "/Shaders/post/Vertex.fullscreen.glsl", "/Shaders/post/Fragment.upscale.glsl",
+            "/Shaders/hud/Vertex.hud.glsl", "/Shaders/hud/Fragment.hud.glsl",
+            "/Shaders/particles/Compute.particles.glsl", "/Shaders/particles/VertexGpu.particles.glsl",
+            "/Shaders/particles/Vertex.particles.glsl", "/Shaders/particles/Fragment.particles.glsl",
+            Impostor.BAKE_VERTEX_FILE, Impostor.BAKE_FRAGMENT_FILE,
+            ImpostorRenderer.VERTEX_FILE, ImpostorRenderer.FRAGMENT_FILE,
+            ShadowCascades.VERTEX_FILE, ShadowCascades.FRAGMENT_FILE,
+            BACKEND_VERTEX_FILE, BACKEND_FRAGMENT_FILE
+    };
+    private static final List<String> SKYBOX_FACES = List.of(
+            "/null_Plainsky/null_plainsky512_dn.jpg",
+            "/null_Plainsky/null_plainsky512_dn.jpg",
+            "/null_Plainsky/null_plainsky512_dn.jpg",
+            "/null_Plainsky/null_plainsky512_dn.jpg",
+            "/null_Plainsky/null_plainsky512_dn.jpg",
+            "/null_Plainsky/null_plainsky512_dn.jpg"
+    );
+    private final long exitAfterFrames = Long.getLong("drift.exitAfterFrames", 0);
+    private long framesRendered;
+
+    // -Ddrift.renderer picks the renderer: gl (default) is the full GL renderer, gl-backend
+    // and vulkan draw the simulation's meshes through a RenderBackend instead, without the
+    // skybox, lighting, terrain, particles and post effects that only exist in GL so far.
+    // -Ddrift.backendInstances=<n> adds a grid of n cubes to load the backend's submission.
+    private final String renderer = System.getProperty("drift.renderer", "gl");
+    private final int backendInstances = Integer.getInteger("drift.backendInstances", 0);
+    private RenderBackend backend;
+    private RenderBackend.Mesh backendMesh;
+    private RenderBackend.Pipeline backendPipeline;
+    private final DrawList drawList = new DrawList(256);
 
     public static void main(String[] args) {
         new Main().run();
@@ -68,6 +224,184 @@ public class Main {
     }
 
     private void init() {
+        StartupGraph startup = new StartupGraph(STARTUP_WORKERS);
+
+        // Use the packed assets when available, classpath resources otherwise
+        StartupGraph.Task<Void> assets = startup.cpu("mount assets", Assets::mountDefault);
+        StartupGraph.Task<Integer> display = startup.main("window and context", this::createWindow);
+        // Opens the device on its own thread, while the renderer comes up
+        startup.cpu("audio", () -> {
+            audio = new AudioEngine(System.getProperty("drift.engineSound", "/Sounds/engine.opus"),
+                    System.getProperty("drift.ambientSound"), Long.getLong("drift.soundCacheKB", 4096) * 1024);
+            audio.start();
+        }, assets);
+
+        // File reads, parsing and image decoding, off the GL thread
+        StartupGraph.Task<Void> shaderSources = startup.cpu("shader sources", () -> Shaders.preload(SHADER_FILES), assets);
+        StartupGraph.Task<ModelLoader.MeshData> cubeMesh = startup.cpu("parse " + MODEL_PATH,
+                () -> ModelLoader.parse(Assets.openStream(MODEL_PATH)), assets);
+        if (renderer.equals("gl")) {
+            initGl(startup, assets, display, shaderSources, cubeMesh);
+        } else {
+            startup.main("render backend", () -> {
+                backend = renderer.equals("vulkan") ? new VulkanBackend(window) : new GlBackend(CAMERA_BLOCK_BINDING);
+                backendMesh = backend.createMesh(cubeMesh.get());
+                backendPipeline = backend.createPipeline(
+                        new RenderBackend.PipelineDescription(BACKEND_VERTEX_FILE, BACKEND_FRAGMENT_FILE));
+                System.out.println("Render backend: " + backend.getName());
+            }, display, shaderSources, cubeMesh);
+        }
+
+        startup.main("camera and input", () -> {
+            // Initialize Camera
+            camera = new Camera(new Vector3f(0, 0, 3), new Vector3f(0, 1, 0), -90.0f, 0);
+
+            InputHandler.init(window);
+            glfwSetInputMode(window, GLFW_CURSOR, GLFW_CURSOR_DISABLED);
+            // Unaccelerated, unscaled motion straight from the device when the platform has it
+            if (glfwRawMouseMotionSupported()) {
+                glfwSetInputMode(window, GLFW_RAW_MOUSE_MOTION, GLFW_TRUE);
+            }
+            // GPU timestamps come from GL queries
+            if (!renderer.equals("vulkan")) {
+                latency = new LatencyTracker();
+            }
+            startInputCapture();
+        }, display);
+
+        // Last, everything it starts or calls back into has to exist by then
+        startup.main("simulation and callbacks", () -> {
+            simulation = new SimulationThread(camera, audio, System.getProperty("drift.skidSound", "/Sounds/skid.opus"));
+            if (framebufferHeight[0] > 0) {
+                simulation.setAspectRatio((float) framebufferWidth[0] / framebufferHeight[0]);
+            }
+            glfwSetFramebufferSizeCallback(window, (w, newWidth, newHeight) -> {
+                framebufferWidth[0] = newWidth;
+                framebufferHeight[0] = newHeight;
+                // Minimized windows report 0 x 0, keep the last projection and target
+                if (newWidth > 0 && newHeight > 0) {
+                    if (resolution != null) {
+                        resolution.resize(newWidth, newHeight);
+                    }
+                    simulation.setAspectRatio((float) newWidth / newHeight);
+                }
+            });
+            if (waitEvents) {
+                glfwSetWindowRefreshCallback(window, w -> drawFrame());
+            }
+        }, startup.getTasks().toArray(new StartupGraph.Task<?>[0]));
+
+        startup.run();
+        System.out.println(startup.report());
+    }
+
+    // The full GL renderer's objects, in the order the main thread gets to them
+    private void initGl(StartupGraph startup, StartupGraph.Task<Void> assets, StartupGraph.Task<Integer> display,
+                        StartupGraph.Task<Void> shaderSources, StartupGraph.Task<ModelLoader.MeshData> cubeMesh) {
+        List<StartupGraph.Task<CubeMap.Face>> skyboxFaces = new ArrayList<>();
+        for (String face : SKYBOX_FACES) {
+            skyboxFaces.add(startup.cpu("decode " + face, () -> CubeMap.decodeFace(face), assets));
+        }
+
+        StartupGraph.Task<Void> sceneShaders = startup.main("scene shaders", () -> {
+            shaderVariants = new ShaderVariants("/Shaders/Vertex.glsl", "/Shaders/Fragment.glsl");
+            if (Boolean.getBoolean("drift.validateShaders")) {
+                shaderVariants.validate(ShaderVariant.permutations(ShaderVariant.FEATURE_MASK, 4));
+            }
+            shader = shaderVariants.get(sceneVariant);
+            shaderProgram = shader.getShaderProgram();
+            shader.bindUniformBlock("CameraBlock", CAMERA_BLOCK_BINDING);
+        }, display, shaderSources);
+        startup.main("frame data, lighting, culling", () -> {
+            frameData = new StreamingBuffer(GL_UNIFORM_BUFFER, 64 * 1024);
+            uniformAlignment = StreamingBuffer.uniformBufferAlignment();
+            lighting = new ClusteredLighting();
+            float streamRadius = Float.parseFloat(System.getProperty("drift.streamRadius", "128"));
+            if (streamRadius > 0) {
+                world = new WorldStreamer(new TerrainChunkSource(64, 1, TERRAIN_BASE_HEIGHT, 3.0f), CHUNK_SIZE, streamRadius,
+                        CHUNK_HYSTERESIS, Long.getLong("drift.streamBudgetKB", 2048) * 1024);
+            }
+            meshletCuller = new MeshletCuller(16 * 1024);
+        }, display, shaderSources);
+        if (shadowCascadeCount > 0) {
+            startup.main("shadows", () -> {
+                shadows = new ShadowCascades(shadowCascadeCount, Integer.getInteger("drift.shadowMapSize", 2048),
+                        Float.parseFloat(System.getProperty("drift.shadowDistance", "150")),
+                        Integer.getInteger("drift.shadowCachedFrom", 2));
+                shadows.setSun(SUN_DIRECTION, SUN_COLOR);
+            }, display, shaderSources);
+        }
+        startup.main("resolution and HUD", () -> {
+            int refreshRate = display.get();
+            float frameBudgetMs = Float.parseFloat(System.getProperty("drift.frameBudgetMs", Float.toString(1000.0f / refreshRate)));
+            resolution = new DynamicResolution(framebufferWidth[0], framebufferHeight[0],
+                    Float.parseFloat(System.getProperty("drift.minRenderScale", "0.5")),
+                    Float.parseFloat(System.getProperty("drift.renderScale", "1.0")),
+                    frameBudgetMs,
+                    Float.parseFloat(System.getProperty("drift.sharpness", "0.5")));
+            hud = new PerformanceHud("/Fonts/DejaVuSansMono.ttf", 14.0f,
+                    frameBudgetMs > 0 ? frameBudgetMs : 1000.0f / refreshRate, Boolean.getBoolean("drift.hud"));
+        }, display, shaderSources);
+        startup.main("particles", () -> {
+            particles = new ParticleSystem(Integer.getInteger("drift.particleCapacity", 1 << 20), CAMERA_BLOCK_BINDING);
+            particles.groundHeight = TERRAIN_BASE_HEIGHT;
+            particles.wind.set(1.0f, 0.0f, 0.0f);
+            float particleRate = Float.parseFloat(System.getProperty("drift.particleRate", "0"));
+            ParticleEmitter smoke = ParticleEmitter.tyreSmoke();
+            smoke.position.set(0.0f, TERRAIN_BASE_HEIGHT, -6.0f);
+            smoke.rate = particleRate;
+            ParticleEmitter debris = ParticleEmitter.debris();
+            debris.position.set(smoke.position);
+            debris.rate = particleRate * 0.1f;
+            emitters = List.of(smoke, debris);
+            System.out.println(particles);
+        }, display, shaderSources);
+        startup.main("frame capture", () -> {
+            capture = new FrameCapture(Path.of(System.getProperty("drift.captureDir", "captures")),
+                    FrameCapture.Format.valueOf(System.getProperty("drift.captureFormat", "qoi").toUpperCase()),
+                    6, Math.max(1, Runtime.getRuntime().availableProcessors() / 4));
+            if (Boolean.getBoolean("drift.capture")) {
+                capture.startRecording(Long.getLong("drift.captureFrames", 0));
+            }
+        }, display);
+
+        // Upload the 3D model parsed on a worker
+        StartupGraph.Task<ModelLoader> modelUpload = startup.main("upload " + MODEL_PATH,
+                () -> model = Resources.acquireMesh(MODEL_PATH, cubeMesh.get()), display, cubeMesh);
+        if (impostorDistance > 0) {
+            startup.main("impostors", () -> {
+                Vector3f center = new Vector3f();
+                float radius = cubeMesh.get().getBoundingRadius(center);
+                modelImpostor = Impostor.bake(model, center, radius, Integer.getInteger("drift.impostorFrames", 8),
+                        Integer.getInteger("drift.impostorFrameSize", 128));
+                impostors = new ImpostorRenderer(Integer.getInteger("drift.impostorCapacity", 16 * 1024), CAMERA_BLOCK_BINDING,
+                        sceneVariant);
+                fadingShader = shaderVariants.get(sceneVariant | ShaderVariant.DITHER_FADE);
+                fadingShader.bindUniformBlock("CameraBlock", CAMERA_BLOCK_BINDING);
+                System.out.println(modelImpostor);
+            }, display, shaderSources, sceneShaders, modelUpload);
+        }
+        String scenePath = System.getProperty("drift.scene");
+        if (scenePath != null) {
+            startup.main("scene " + scenePath, () -> {
+                scene = Resources.acquireGltf(scenePath);
+                System.out.println(scene);
+            }, display, assets);
+        }
+        List<StartupGraph.Task<?>> skyboxDependencies = new ArrayList<>(skyboxFaces);
+        skyboxDependencies.add(display);
+        skyboxDependencies.add(shaderSources);
+        startup.main("upload skybox", () -> {
+            CubeMap.Face[] faces = new CubeMap.Face[skyboxFaces.size()];
+            for (int i = 0; i < faces.length; i++) {
+                faces[i] = skyboxFaces.get(i).get();
+            }
+            skybox = new Skybox(SKYBOX_FACES, faces);
+        }, skyboxDependencies.toArray(new StartupGraph.Task<?>[0]));
+    }
+
+    // Returns the monitor's refresh rate, which the frame budget defaults to
+    private int createWindow() {
         // Initialize GLFW
         if (!glfwInit()) {
             throw new IllegalStateException("Unable to initialize GLFW");
@@ -77,6 +411,11 @@ public class Main {
         glfwDefaultWindowHints();
         glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
         glfwWindowHint(GLFW_RESIZABLE, GLFW_TRUE);
+        // Vulkan brings its own swapchain, the window must not own a GL context
+        boolean vulkan = renderer.equals("vulkan");
+        if (vulkan) {
+            glfwWindowHint(GLFW_CLIENT_API, GLFW_NO_API);
+        }
 
         // Create the window
         window = glfwCreateWindow(width, height, title, MemoryUtil.NULL, MemoryUtil.NULL);
@@ -92,152 +431,465 @@ public class Main {
                 (vidmode.height() - height) / 2
         );
 
-        // Make the OpenGL context current
-        glfwMakeContextCurrent(window);
+        if (!vulkan) {
+            // Make the OpenGL context current
+            glfwMakeContextCurrent(window);
 
-        // Enable v-sync
-        glfwSwapInterval(1);
+            // Enable v-sync
+            glfwSwapInterval(1);
+        }
 
         // Make the window visible
         glfwShowWindow(window);
 
-        // Initialize OpenGL bindings
-        GL.createCapabilities();
-
-        // Initialize shaders and geometry
-        shader = new Shaders("/Shaders/skybox/Vertex.skybox.glsl", "/Shaders/skybox/Fragment.skybox.glsl");
-        //shader.createShaderProgram();
-        shaderProgram = shader.getShaderProgram();
-
-        // Load the 3D model
-        model = new ModelLoader(Main.class.getResourceAsStream("/Objects/Cube.obj"));
-
-        // Initialize Camera
-        camera = new Camera(new Vector3f(0, 0, 3), new Vector3f(0, 1, 0), -90.0f, 0);
-
-        glfwSetCursorPosCallback(window, this::mouseCallback);
-        glfwSetInputMode(window, GLFW_CURSOR, GLFW_CURSOR_DISABLED);
-        List<String> faces = List.of(
-                "/null_Plainsky/null_plainsky512_dn.jpg",
-                "/null_Plainsky/null_plainsky512_dn.jpg",
-                "/null_Plainsky/null_plainsky512_dn.jpg",
-                "/null_Plainsky/null_plainsky512_dn.jpg",
-                "/null_Plainsky/null_plainsky512_dn.jpg",
-                "/null_Plainsky/null_plainsky512_dn.jpg"
-        );
-        skybox = new Skybox(faces);
+        if (!vulkan) {
+            // Initialize OpenGL bindings
+            GL.createCapabilities();
+        }
+        glfwGetFramebufferSize(window, framebufferWidth, framebufferHeight);
+        return vidmode.refreshRate() > 0 ? vidmode.refreshRate() : 60;
+    }
+
+    // -Ddrift.recordInput=<file> records the session, -Ddrift.replayInput=<file> plays one back
+    private void startInputCapture() {
+        try {
+            String replayFile = System.getProperty("drift.replayInput");
+            String recordFile = System.getProperty("drift.recordInput");
+            if (replayFile != null) {
+                InputHandler.startReplay(Path.of(replayFile), SimulationThread.TICK_RATE);
+            } else if (recordFile != null) {
+                InputHandler.startRecording(Path.of(recordFile), SimulationThread.TICK_RATE);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open input recording", e);
+        }
     }
 
     private void loop() {
-        // Set the clear color
-        GL11.glClearColor(0.0f, 0.0f, 0.5f, 1.0f);
+        if (backend == null) {
+            // Set the clear color
+            GL11.glClearColor(0.0f, 0.0f, 0.5f, 1.0f);
+
+            // Enable depth testing
+            GL11.glEnable(GL11.GL_DEPTH_TEST);
+        }
 
-        // Enable depth testing
-        GL11.glEnable(GL11.GL_DEPTH_TEST);
+        simulation.start();
 
         // Render loop
         while (!glfwWindowShouldClose(window)) {
-            // Clear the framebuffer and depth buffer
-            GL11.glClear(GL11.GL_COLOR_BUFFER_BIT | GL11.GL_DEPTH_BUFFER_BIT);
+            // Events are handled here, the simulation thread drains them on its own ticks
+            if (waitEvents) {
+                glfwWaitEventsTimeout(1.0 / SimulationThread.TICK_RATE);
+            } else {
+                glfwPollEvents();
+            }
 
-            // Set the view and projection matrices for the skybox
-            Matrix4f view = new Matrix4f(camera.getViewMatrix()).m30(0).m31(0).m32(0); // Remove translation
-            Matrix4f projection = camera.getPerspectiveMatrix();
+            drawFrame();
 
-            // Render the skybox first
-            skybox.render(view, projection);
+            if (exitAfterFrames > 0 && ++framesRendered >= exitAfterFrames) {
+                glfwSetWindowShouldClose(window, true);
+            }
+        }
 
-            // Use the shader program for the model
-            glUseProgram(shaderProgram);
+        simulation.stop();
+        audio.stop();
+        System.out.println(audio);
+        glfwSetInputMode(window, GLFW_CURSOR, GLFW_CURSOR_NORMAL);
+        InputHandler.shutdown();
+        if (latency != null) {
+            System.out.println(latency);
+            latency.cleanup();
+        }
+        System.out.println(simulation.getOcclusion());
+        if (backend != null) {
+            System.out.println(backend);
+            backendMesh.dispose();
+            backendPipeline.dispose();
+            backend.dispose();
+            Resources.shutdown();
+            Assets.unmount();
+            NativeMemory.reportLeaks();
+            NativeMemory.shutdown();
+            return;
+        }
+        System.out.println(lighting);
+        if (shadows != null) {
+            System.out.println(shadows);
+        }
+        System.out.println(meshletCuller);
+        if (world != null) {
+            System.out.println(world);
+        }
+        if (impostors != null) {
+            System.out.println(impostors);
+        }
+        System.out.println(particles);
+        System.out.println(resolution);
+        capture.dispose();
+        System.out.println(capture);
 
-            // Set the view and projection matrices for the model shader
-            shader.setMatrixUniform(shaderProgram, "view", camera.getViewMatrix());
-            shader.setMatrixUniform(shaderProgram, "projection", camera.getPerspectiveMatrix());
+        // Cleanup
+        Resources.release(model);
+        if (scene != null) {
+            Resources.release(scene);
+        }
+        shaderVariants.cleanUp();
+        skybox.cleanup();
+        frameData.dispose();
+        lighting.dispose();
+        if (shadows != null) {
+            shadows.dispose();
+        }
+        if (world != null) {
+            world.dispose();
+        }
+        meshletCuller.dispose();
+        if (impostors != null) {
+            impostors.dispose();
+            modelImpostor.dispose();
+        }
+        particles.dispose();
+        resolution.dispose();
+        hud.dispose();
+        Resources.shutdown();
+        Assets.unmount();
+        NativeMemory.reportLeaks();
+        NativeMemory.shutdown();
+    }
 
-            // Model matrix
-            Matrix4f matrixModel = new Matrix4f().identity();
+    // Renders and presents one frame with whichever renderer is active
+    private void drawFrame() {
+        if (backend != null) {
+            renderFrameBackend();
+        } else {
+            renderFrame();
+        }
+        if (!renderer.equals("vulkan")) {
+            // Swap the color buffers
+            glfwSwapBuffers(window);
+        }
+        if (latency != null) {
+            latency.frameSubmitted(frameInputNanos);
+        }
+    }
 
-            int viewPosLoc = glGetUniformLocation(shaderProgram, "viewPos");
-            glUniform3f(viewPosLoc, camera.getPosition().x, camera.getPosition().y, camera.getPosition().z);
+    private void renderFrame() {
+        RenderSnapshot snapshot = simulation.acquireSnapshot();
+        boolean freshSnapshot = snapshot.sequence != lastSnapshotSequence;
+        lastSnapshotSequence = snapshot.sequence;
+        if (snapshot.replayFinished) {
+            glfwSetWindowShouldClose(window, true);
+        }
 
-            int lightPosLoc = glGetUniformLocation(shaderProgram, "light.position");
-            glUniform3f(lightPosLoc, 1.2f, 1.0f, 2.0f);
+        // Nothing to draw into while minimized
+        if (framebufferWidth[0] == 0 || framebufferHeight[0] == 0) {
+            return;
+        }
 
-            int lightAmbientLoc = glGetUniformLocation(shaderProgram, "light.ambient");
-            glUniform3f(lightAmbientLoc, 0.2f, 0.2f, 0.2f);
+        // Bind and clear the scene target at this frame's resolution
+        resolution.begin();
 
-            int lightDiffuseLoc = glGetUniformLocation(shaderProgram, "light.diffuse");
-            glUniform3f(lightDiffuseLoc, 0.5f, 0.5f, 0.5f);
+        frameData.beginFrame();
 
-            int lightSpecularLoc = glGetUniformLocation(shaderProgram, "light.specular");
-            glUniform3f(lightSpecularLoc, 1.0f, 1.0f, 1.0f);
+        latchView(snapshot, freshSnapshot);
 
-            // Set the material properties
-            int matAmbientLoc = glGetUniformLocation(shaderProgram, "material.ambient");
-            glUniform3f(matAmbientLoc, 1.0f, 0.5f, 0.31f);
+        // Set the view and projection matrices for the skybox
+        Matrix4f view = skyboxView.set(viewMatrix).m30(0).m31(0).m32(0); // Remove translation
+        Matrix4f projection = snapshot.projection;
 
-            int matDiffuseLoc = glGetUniformLocation(shaderProgram, "material.diffuse");
-            glUniform3f(matDiffuseLoc, 1.0f, 0.5f, 0.31f);
+        // Sun shadows from the latched view, into their own targets
+        if (shadows != null) {
+            renderShadows(snapshot);
+        }
 
-            int matSpecularLoc = glGetUniformLocation(shaderProgram, "material.specular");
-            glUniform3f(matSpecularLoc, 0.5f, 0.5f, 0.5f);
+        // Render the skybox first
+        skybox.render(view, projection);
+
+        // Use the shader program for the model
+        glUseProgram(shaderProgram);
+        RenderStats.stateChange();
+
+        // Write the camera block into the streaming buffer and bind this frame's slice
+        int cameraOffset = frameData.allocate(CAMERA_BLOCK_SIZE, uniformAlignment);
+        long cameraAddress = frameData.address(cameraOffset);
+        viewMatrix.getToAddress(cameraAddress);
+        snapshot.projection.getToAddress(cameraAddress + 64);
+        snapshot.cameraPosition.getToAddress(cameraAddress + 128);
+        frameData.flush();
+        glBindBufferRange(GL_UNIFORM_BUFFER, CAMERA_BLOCK_BINDING, frameData.getBufferID(), cameraOffset, CAMERA_BLOCK_SIZE);
+
+        // Assign this frame's lights to clusters with the latched view the frame is drawn with,
+        // tiles are in the pixels of the scene target
+        lighting.update(viewMatrix, snapshot.projection, resolution.getRenderWidth(), resolution.getRenderHeight(),
+                snapshot.lights, snapshot.lightCount);
+        setSceneUniforms(shaderProgram, snapshot.cameraPosition);
+
+        // Render every renderable the simulation extracted, the model is the only mesh so far.
+        // Meshes with meshlets only submit the clusters that face the camera and are on screen,
+        // distant ones are queued as impostors instead.
+        meshletCuller.beginFrame(viewMatrix, snapshot.projection, snapshot.cameraPosition);
+        int fadingCount = 0;
+        for (int i = 0; i < snapshot.drawCount; i++) {
+            if (snapshot.meshHandles[i] != SimulationThread.MESH_MODEL) {
+                continue;
+            }
+            snapshot.getTransform(i, modelMatrix);
+            float fade = impostors != null ? impostorFade(modelMatrix, snapshot.cameraPosition) : 0.0f;
+            if (fade > 0.0f && impostors.add(modelImpostor, modelMatrix, fade)) {
+                if (fade < 1.0f) {
+                    fadingCount = queueFading(fadingCount, i, fade);
+                }
+                continue;
+            }
+            shader.setMatrixUniform(shaderProgram, "model", modelMatrix);  // Set the model matrix uniform
+            meshletCuller.draw(model, modelMatrix);
+        }
+        if (fadingCount > 0) {
+            // The mesh half of the cross-fade, keeping the pixels the impostor discards
+            int fadingProgram = fadingShader.getShaderProgram();
+            fadingShader.start();
+            setSceneUniforms(fadingProgram, snapshot.cameraPosition);
+            int ditherFadeLoc = glGetUniformLocation(fadingProgram, "ditherFade");
+            for (int n = 0; n < fadingCount; n++) {
+                snapshot.getTransform(fadingDraws[n], modelMatrix);
+                glUniform1f(ditherFadeLoc, fadingAmounts[n]);
+                fadingShader.setMatrixUniform(fadingProgram, "model", modelMatrix);
+                meshletCuller.draw(model, modelMatrix);
+            }
+            glUseProgram(shaderProgram);
+            RenderStats.stateChange();
+        }
+        meshletCuller.endFrame();
 
+        if (scene != null) {
+            scene.render(shader, modelMatrix.identity());
+        }
+
+        if (world != null) {
+            world.update(snapshot.cameraPosition, snapshot.cameraFront);
+            int matAmbientLoc = glGetUniformLocation(shaderProgram, "material.ambient");
+            int matDiffuseLoc = glGetUniformLocation(shaderProgram, "material.diffuse");
+            int matSpecularLoc = glGetUniformLocation(shaderProgram, "material.specular");
             int matShineLoc = glGetUniformLocation(shaderProgram, "material.shininess");
-            glUniform1f(matShineLoc, 32.0f);
+            glUniform3f(matAmbientLoc, 0.35f, 0.4f, 0.3f);
+            glUniform3f(matDiffuseLoc, 0.35f, 0.4f, 0.3f);
+            glUniform3f(matSpecularLoc, 0.05f, 0.05f, 0.05f);
+            glUniform1f(matShineLoc, 8.0f);
+            world.render(shader, viewMatrix, snapshot.projection);
+        }
+
+        if (impostors != null) {
+            Shaders impostorShader = impostors.getShader();
+            impostorShader.start();
+            setSceneUniforms(impostorShader.getShaderProgram(), snapshot.cameraPosition);
+            impostors.render();
+            impostorShader.stop();
+        }
 
-            shader.setMatrixUniform(shaderProgram, "model", matrixModel);  // Set the model matrix uniform
+        // Transparent, after all opaque geometry
+        long now = System.nanoTime();
+        float frameMillis = lastFrameNanos == 0 ? 0 : (now - lastFrameNanos) / 1e6f;
+        lastFrameNanos = now;
+        particles.update(Math.min(frameMillis / 1000.0f, 0.1f), emitters);
+        particles.render();
 
-            if (glfwGetKey(window, GLFW_KEY_W) == GLFW_PRESS) {
-                camera.processKeyboardInput(GLFW_KEY_W, 0.0005f);
-            }
-            if (glfwGetKey(window, GLFW_KEY_S) == GLFW_PRESS) {
-                camera.processKeyboardInput(GLFW_KEY_S, 0.0005f);
-            }
-            if (glfwGetKey(window, GLFW_KEY_A) == GLFW_PRESS) {
-                camera.processKeyboardInput(GLFW_KEY_A, 0.0005f);
-            }
-            if (glfwGetKey(window, GLFW_KEY_D) == GLFW_PRESS) {
-                camera.processKeyboardInput(GLFW_KEY_D, 0.0005f);
-            }
-            if (glfwGetKey(window, GLFW_KEY_Q) == GLFW_PRESS) {
-                camera.processKeyboardInput(GLFW_KEY_Q, 0.0005f);
-            }
-            if (glfwGetKey(window, GLFW_KEY_E) == GLFW_PRESS) {
-                camera.processKeyboardInput(GLFW_KEY_E, 0.0005f);
-            }
+        // Scene done, everything after this is drawn at native resolution
+        resolution.end();
 
-            // Render the 3D model
-            model.render();
+        // Read back after everything is drawn, the previous frames' results are collected first
+        if (snapshot.screenshotRequests != lastScreenshotRequests) {
+            lastScreenshotRequests = snapshot.screenshotRequests;
+            capture.requestScreenshot();
+        }
+        capture.poll();
+        capture.capture(0, framebufferWidth[0], framebufferHeight[0]);
 
-            System.out.println(camera.getYaw() + " " + camera.getPitch());
+        // After the capture, so recorded frames stay free of the overlay
+        if (snapshot.hudToggles != lastHudToggles) {
+            lastHudToggles = snapshot.hudToggles;
+            hud.toggle();
+        }
+        hud.recordFrame(frameMillis, resolution.getLastGpuMillis());
+        if (hud.wantsText()) {
+            hud.setText(hudText());
+        }
+        hud.render(framebufferWidth[0], framebufferHeight[0]);
 
-            // Swap the color buffers
-            glfwSwapBuffers(window);
+        frameData.endFrame();
+        RenderStats.endFrame();
+    }
 
-            // Poll for window events
-            glfwPollEvents();
+    // Camera, lights and the model's material on a program in use, shared by every shader the
+    // model is drawn with so the mesh and its impostor light alike
+    private void setSceneUniforms(int program, Vector3f viewPos) {
+        glUniform3f(glGetUniformLocation(program, "viewPos"), viewPos.x, viewPos.y, viewPos.z);
+        lighting.bind(program);
+        glUniform3f(glGetUniformLocation(program, "ambientLight"), 0.2f, 0.2f, 0.2f);
+        glUniform3f(glGetUniformLocation(program, "material.ambient"), 1.0f, 0.5f, 0.31f);
+        glUniform3f(glGetUniformLocation(program, "material.diffuse"), 1.0f, 0.5f, 0.31f);
+        glUniform3f(glGetUniformLocation(program, "material.specular"), 0.5f, 0.5f, 0.5f);
+        glUniform1f(glGetUniformLocation(program, "material.shininess"), 32.0f);
+        if (shadows != null) {
+            shadows.bind(program);
         }
+    }
 
-        glfwSetInputMode(window, GLFW_CURSOR, GLFW_CURSOR_NORMAL);
+    private void renderShadows(RenderSnapshot snapshot) {
+        // Cached cascades hold static casters, redrawn when any of them may have changed:
+        // entities moved, terrain streamed, or the snapshot gathered casters over another reach
+        long residencyVersion = world != null ? world.getResidencyVersion() : 0;
+        if (snapshot.staticCasterVersion != shadowStaticVersion || residencyVersion != shadowResidencyVersion
+                || snapshot.casterRadius != shadowCasterRadius) {
+            shadowStaticVersion = snapshot.staticCasterVersion;
+            shadowResidencyVersion = residencyVersion;
+            shadowCasterRadius = snapshot.casterRadius;
+            shadows.invalidateStatic();
+        }
+        shadows.update(viewMatrix, snapshot.projection, snapshot.cameraPosition);
+        simulation.setShadowCasterRadius(shadows.getCasterReach());
+        shadowCasters.snapshot = snapshot;
+        shadows.render(shadowCasters);
+    }
 
-        // Cleanup
-        model.cleanup();
-        shader.cleanUp();
-        skybox.cleanup();
+    // 0 draws the mesh, 1 the impostor alone, in between both with complementary dither
+    private float impostorFade(Matrix4f model, Vector3f cameraPosition) {
+        float distance = cameraPosition.distance(model.m30(), model.m31(), model.m32());
+        float t = Math.max(0.0f, Math.min(1.0f, (distance - impostorDistance) / (impostorDistance * IMPOSTOR_FADE_BAND)));
+        return t * t * (3 - 2 * t);
     }
 
-    private void mouseCallback(long window, double xpos, double ypos) {
-        if (firstMouse) {
-            lastX = xpos;
-            lastY = ypos;
-            firstMouse = false;
+    private int queueFading(int count, int draw, float fade) {
+        if (count == fadingDraws.length) {
+            fadingDraws = Arrays.copyOf(fadingDraws, count * 2);
+            fadingAmounts = Arrays.copyOf(fadingAmounts, count * 2);
         }
+        fadingDraws[count] = draw;
+        fadingAmounts[count] = fade;
+        return count + 1;
+    }
 
-        float xOffset = (float) (xpos - lastX);
-        float yOffset = (float) (lastY - ypos); // reversed since y-coordinates range from bottom to top
-        lastX = xpos;
-        lastY = ypos;
+    // View from the latest mouse position, including movement the simulation has not consumed yet
+    private void latchView(RenderSnapshot snapshot, boolean freshSnapshot) {
+        InputHandler.latchMouseDelta(snapshot.cursorValid, snapshot.cursorX, snapshot.cursorY);
+        float latchedX = InputHandler.getLatchedDeltaX();
+        float latchedY = InputHandler.getLatchedDeltaY();
+        Camera.viewFromAngles(snapshot.cameraPosition,
+                snapshot.yaw + latchedX * snapshot.mouseSensitivity,
+                snapshot.pitch + latchedY * snapshot.mouseSensitivity,
+                viewMatrix);
+
+        frameInputNanos = freshSnapshot ? snapshot.inputTimeNanos : 0;
+        if (frameInputNanos == 0 && (latchedX != 0 || latchedY != 0)) {
+            frameInputNanos = InputHandler.getLatestCursorNanos();
+        }
+    }
 
-        camera.processMouseMovement(xOffset, yOffset);
+    // The same renderables through the RenderBackend, with the model's material color
+    private void renderFrameBackend() {
+        RenderSnapshot snapshot = simulation.acquireSnapshot();
+        boolean freshSnapshot = snapshot.sequence != lastSnapshotSequence;
+        lastSnapshotSequence = snapshot.sequence;
+        if (snapshot.replayFinished) {
+            glfwSetWindowShouldClose(window, true);
+        }
+
+        if (!backend.beginFrame(framebufferWidth[0], framebufferHeight[0], 0.0f, 0.0f, 0.5f)) {
+            return;
+        }
+        latchView(snapshot, freshSnapshot);
+        backend.setCamera(viewMatrix, snapshot.projection, snapshot.cameraPosition);
+
+        drawList.clear();
+        for (int i = 0; i < snapshot.drawCount; i++) {
+            if (snapshot.meshHandles[i] == SimulationThread.MESH_MODEL) {
+                snapshot.getTransform(i, modelMatrix);
+                drawList.add(backendPipeline, backendMesh, null, modelMatrix, 1.0f, 0.5f, 0.31f, 1.0f);
+            }
+        }
+        int side = (int) Math.ceil(Math.sqrt(backendInstances));
+        for (int i = 0; i < backendInstances; i++) {
+            modelMatrix.translation((i % side - side * 0.5f) * 3.0f, -2.0f, -(i / side) * 3.0f - 6.0f);
+            drawList.add(backendPipeline, backendMesh, null, modelMatrix, 0.6f, 0.6f, 0.65f, 1.0f);
+        }
+
+        backend.submit(drawList);
+        backend.endFrame();
+        RenderStats.endFrame();
+    }
+
+    // Engine side lines of the HUD, only built a few times a second
+    private String hudText() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("Scene %dx%d of %dx%d, scale %.2f, %.2f ms GPU\n",
+                resolution.getRenderWidth(), resolution.getRenderHeight(), resolution.getWindowWidth(),
+                resolution.getWindowHeight(), resolution.getScale(), resolution.getSmoothedGpuMillis()));
+        text.append(String.format("Native %.1f MB in %d allocations, GPU cache %.1f MB\n",
+                NativeMemory.getTotalLiveBytes() / (1024.0 * 1024.0), NativeMemory.getLiveAllocationCount(),
+                Resources.getCache().getResidentBytes() / (1024.0 * 1024.0)));
+        if (world != null) {
+            text.append(String.format("Streaming %d queued, %d resident, %d drawn, %.2f MB/s\n",
+                    world.getPendingCount(), world.getResidentCount(), world.getDrawnCount(),
+                    world.getThroughputBytesPerSecond() / (1024.0 * 1024.0)));
+        }
+        if (shadows != null) {
+            text.append(String.format("Shadows %.2f ms GPU, %d caster draws, %d cache redraws\n",
+                    shadows.getAverageGpuMillis(), shadows.getLastFrameCasterDraws(), shadows.getCacheRenders()));
+        }
+        if (audio.isEnabled()) {
+            text.append(String.format("Audio %d underruns, %.2f ms worst update\n",
+                    audio.getUnderruns(), audio.getWorstUpdateMillis()));
+        }
+        text.append(String.format("Particles %,d/%,d", particles.getAliveCount(), particles.getCapacity()));
+        return text.toString();
+    }
+
+    // Shadow casters from the latest snapshot: the model entities the simulation gathered
+    // around the camera, plus the glTF scene and resident terrain as static casters
+    private final class SnapshotCasters implements ShadowCascades.Casters {
+        private final Matrix4f casterMatrix = new Matrix4f();
+        private RenderSnapshot snapshot;
+
+        @Override
+        public int draw(Shaders shader, FrustumIntersection cascade, boolean dynamic) {
+            int program = shader.getShaderProgram();
+            int draws = 0;
+            for (int i = 0; i < snapshot.casterCount; i++) {
+                if (snapshot.casterDynamic[i] != dynamic || snapshot.casterMeshHandles[i] != SimulationThread.MESH_MODEL
+                        || !touches(cascade, i)) {
+                    continue;
+                }
+                snapshot.getCasterTransform(i, casterMatrix);
+                shader.setMatrixUniform(program, "model", casterMatrix);
+                model.render();
+                draws++;
+            }
+            if (!dynamic) {
+                if (scene != null) {
+                    scene.render(shader, casterMatrix.identity());
+                    draws++;
+                }
+                if (world != null) {
+                    draws += world.renderCasters(shader, cascade);
+                }
+            }
+            return draws;
+        }
+
+        @Override
+        public boolean hasDynamic(FrustumIntersection cascade) {
+            for (int i = 0; i < snapshot.casterCount; i++) {
+                if (snapshot.casterDynamic[i] && touches(cascade, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean touches(FrustumIntersection cascade, int i) {
+            float[] b = snapshot.casterBounds;
+            int base = i * 6;
+            return cascade.testAab(b[base], b[base + 1], b[base + 2], b[base + 3], b[base + 4], b[base + 5]);
+        }
     }
-}
\ No newline at end of file
+}
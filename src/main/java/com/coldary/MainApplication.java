@@ -1,6 +1,7 @@
 package com.coldary;
 
 import com.coldary.objects.Camera;
+import com.coldary.utils.Assets;
 import com.coldary.utils.ModelLoader;
 import org.joml.Matrix4f;
 import org.joml.Vector3f;
@@ -57,7 +58,8 @@ public class MainApplication {
         GL.createCapabilities();
 
         // Load model
-        InputStream modelStream = getClass().getResourceAsStream("/bmw_m4.obj");
+        Assets.mountDefault();
+        InputStream modelStream = Assets.openStream("/bmw_m4.obj");
         model = new ModelLoader(modelStream);
 
         // Compile and link shaders
@@ -0,0 +1,285 @@
+package com.coldary;
+
+import com.coldary.objects.Camera;
+import com.coldary.objects.EntityStore;
+import com.coldary.objects.EntitySystems;
+import com.coldary.objects.LightList;
+import com.coldary.objects.OcclusionCuller;
+import com.coldary.objects.RenderSnapshot;
+import com.coldary.utils.AudioEngine;
+import com.coldary.utils.InputHandler;
+import com.coldary.utils.TripleBuffer;
+
+import org.joml.Vector3f;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.lwjgl.glfw.GLFW.*;
+
+// Runs input consumption and the camera (and later vehicle physics) at a fixed tick rate on
+// its own thread. After each batch of ticks it fills a preallocated RenderSnapshot and
+// publishes it through a triple buffer, so the GL thread never waits on the simulation.
+public class SimulationThread implements Runnable {
+
+    // Fixed simulation rate, input is consumed per tick so recordings replay exactly
+    public static final int TICK_RATE = 120;
+    private static final long TICK_NANOS = 1_000_000_000L / TICK_RATE;
+    private static final float TICK_SECONDS = 1.0f / TICK_RATE;
+    private static final int MAX_TICKS_PER_FRAME = 10;
+
+    // Mesh handles the renderer resolves, entities without a mesh are never extracted
+    public static final int MESH_MODEL = 0;
+
+    private static final int[] MOVEMENT_KEYS = {
+            GLFW_KEY_W, GLFW_KEY_S, GLFW_KEY_A, GLFW_KEY_D, GLFW_KEY_Q, GLFW_KEY_E
+    };
+
+    // Engine note: idle pitch and gain, what full revs add, and how fast the revs follow (1/s)
+    private static final float ENGINE_IDLE_PITCH = 0.6f;
+    private static final float ENGINE_PITCH_RANGE = 1.2f;
+    private static final float ENGINE_IDLE_GAIN = 0.35f;
+    private static final float ENGINE_THROTTLE_GAIN = 0.45f;
+    private static final float ENGINE_RESPONSE = 6.0f;
+
+    // Skid cue: played when the speed collapses from at least SKID_MIN_SPEED of full speed to
+    // below SKID_STOPPED within SKID_WINDOW seconds, at most once per SKID_COOLDOWN seconds
+    private static final float SKID_MIN_SPEED = 0.5f;
+    private static final float SKID_STOPPED = 0.1f;
+    private static final float SKID_WINDOW = 0.15f;
+    private static final float SKID_COOLDOWN = 0.5f;
+
+    private final Camera camera;
+    private final AudioEngine audio;
+    private final String skidSound;
+    private final TripleBuffer<RenderSnapshot> snapshots = new TripleBuffer<>(RenderSnapshot::new);
+    private final EntityStore entities = new EntityStore(1024);
+    private final EntitySystems systems = new EntitySystems();
+    private final LightList lights = new LightList();
+
+    // Counted rather than flagged so a press survives snapshots the renderer skips
+    private int screenshotRequests;
+    private int hudToggles;
+
+    // Set from the framebuffer size callback on the GL thread, applied to the camera here
+    private volatile float aspectRatio;
+    private float appliedAspectRatio;
+
+    // Reach of the renderer's shadow cascades around the camera, 0 while shadows are off
+    private volatile float shadowCasterRadius;
+
+    // Until there is a vehicle the camera's travel stands in for it
+    private final Vector3f lastPosition = new Vector3f();
+    private float engineRevs;
+    private float fastSeconds = Float.MAX_VALUE;
+    private float skidCooldown;
+
+    private volatile boolean running;
+    private Thread thread;
+    private long sequence;
+
+    // skidSound is an Opus effect asset, or null for no skid cue
+    public SimulationThread(Camera camera, AudioEngine audio, String skidSound) {
+        this.camera = camera;
+        this.audio = audio;
+        this.skidSound = skidSound;
+        lastPosition.set(camera.getPosition());
+
+        // The scene is a single static model for now
+        int model = entities.create();
+        entities.setMesh(model, MESH_MODEL);
+        entities.setLocalBounds(model, -1, -1, -1, 1, 1, 1);
+        lights.addPoint(1.2f, 1.0f, 2.0f, 15.0f, 1.0f, 1.0f, 1.0f);
+        addTestLights(Integer.getInteger("drift.testLights", 0));
+        addTestProps(Integer.getInteger("drift.testProps", 0));
+
+        // Publish once up front so the renderer has a valid snapshot before the first tick
+        writeSnapshot(snapshots.getWriteSlot());
+        snapshots.publish();
+    }
+
+    // -Ddrift.testLights=<n> scatters n colored point and spot lights around the origin,
+    // seeded so every run lights the scene the same way
+    private void addTestLights(int count) {
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            float x = random.nextFloat() * 60 - 30;
+            float y = random.nextFloat() * 4 - 1;
+            float z = random.nextFloat() * 60 - 30;
+            float radius = 2 + random.nextFloat() * 6;
+            float r = random.nextFloat(), g = random.nextFloat(), b = random.nextFloat();
+            if (i % 4 == 3) {
+                lights.addSpot(x, y + 4, z, radius * 2, r, g, b, 0, -1, 0, 20, 35);
+            } else {
+                lights.addPoint(x, y, z, radius, r, g, b);
+            }
+        }
+    }
+
+    // -Ddrift.testProps=<n> scatters n copies of the model over a wide area at random yaw
+    // and scale, enough distant repeats to exercise the impostor path
+    private void addTestProps(int count) {
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            int prop = entities.create();
+            entities.setMesh(prop, MESH_MODEL);
+            entities.setLocalBounds(prop, -1, -1, -1, 1, 1, 1);
+            entities.setPosition(prop, random.nextFloat() * 500 - 250, -3, random.nextFloat() * 500 - 250);
+            float yaw = random.nextFloat() * (float) Math.PI;
+            entities.setRotation(prop, 0, (float) Math.sin(yaw), 0, (float) Math.cos(yaw));
+            float scale = 1 + random.nextFloat() * 2;
+            entities.setScale(prop, scale, scale, scale);
+        }
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long previousTime = System.nanoTime();
+        long accumulator = 0;
+
+        while (running) {
+            // Run the simulation in fixed steps, catching up on at most a few after a hitch
+            long now = System.nanoTime();
+            accumulator = Math.min(accumulator + now - previousTime, MAX_TICKS_PER_FRAME * TICK_NANOS);
+            previousTime = now;
+
+            boolean ticked = false;
+            while (accumulator >= TICK_NANOS) {
+                InputHandler.tick();
+                update(TICK_SECONDS);
+                accumulator -= TICK_NANOS;
+                ticked = true;
+            }
+
+            if (ticked) {
+                writeSnapshot(snapshots.getWriteSlot());
+                snapshots.publish();
+            }
+
+            // Sleep until the next tick is due
+            LockSupport.parkNanos(TICK_NANOS - accumulator);
+        }
+    }
+
+    private void update(float deltaTime) {
+        float mouseX = InputHandler.getMouseDeltaX();
+        float mouseY = InputHandler.getMouseDeltaY();
+        if (mouseX != 0 || mouseY != 0) {
+            camera.processMouseMovement(mouseX, mouseY);
+        }
+
+        boolean throttle = false;
+        for (int key : MOVEMENT_KEYS) {
+            if (InputHandler.keyDown(key)) {
+                camera.processKeyboardInput(key, deltaTime);
+                throttle = true;
+            }
+        }
+        float speed = Math.min(camera.getPosition().distance(lastPosition) / deltaTime / camera.getMovementSpeed(), 1.0f);
+        lastPosition.set(camera.getPosition());
+        updateEngineSound(throttle, speed, deltaTime);
+        updateSkidSound(speed, deltaTime);
+
+        if (InputHandler.keyPressed(GLFW_KEY_F12)) {
+            screenshotRequests++;
+        }
+        if (InputHandler.keyPressed(GLFW_KEY_F3)) {
+            hudToggles++;
+        }
+    }
+
+    // Revs follow the speed (a fraction of full speed), smoothed so a tap does not jump the
+    // pitch; the audio thread picks the values up within a couple of milliseconds
+    private void updateEngineSound(boolean throttle, float speed, float deltaTime) {
+        engineRevs += (speed - engineRevs) * Math.min(deltaTime * ENGINE_RESPONSE, 1.0f);
+        audio.setEngine(ENGINE_IDLE_PITCH + engineRevs * ENGINE_PITCH_RANGE,
+                ENGINE_IDLE_GAIN + (throttle ? ENGINE_THROTTLE_GAIN : 0.0f));
+    }
+
+    // Until there is a vehicle a sudden stop stands in for locking the wheels. speed is a
+    // fraction of full speed; the faster the stop came from, the louder and lower the skid.
+    private void updateSkidSound(float speed, float deltaTime) {
+        skidCooldown = Math.max(skidCooldown - deltaTime, 0.0f);
+        if (speed >= SKID_MIN_SPEED) {
+            fastSeconds = 0.0f;
+            return;
+        }
+        fastSeconds += deltaTime;
+        if (speed < SKID_STOPPED && fastSeconds <= SKID_WINDOW && skidCooldown == 0.0f
+                && skidSound != null && audio.isEnabled()) {
+            audio.playEffect(skidSound, 0.4f + 0.6f * engineRevs, 1.1f - 0.2f * engineRevs);
+            skidCooldown = SKID_COOLDOWN;
+            fastSeconds = Float.MAX_VALUE;
+        }
+    }
+
+    private void writeSnapshot(RenderSnapshot snapshot) {
+        snapshot.sequence = ++sequence;
+        snapshot.tick = InputHandler.getTick();
+
+        float aspect = aspectRatio;
+        if (aspect > 0 && aspect != appliedAspectRatio) {
+            camera.setAspectRatio(aspect);
+            appliedAspectRatio = aspect;
+        }
+
+        camera.getViewMatrix(snapshot.view);
+        snapshot.projection.set(camera.getPerspectiveMatrix());
+        snapshot.cameraPosition.set(camera.getPosition());
+        snapshot.cameraFront.set(camera.getFront());
+        snapshot.yaw = camera.getYaw();
+        snapshot.pitch = camera.getPitch();
+        snapshot.mouseSensitivity = camera.getMouseSensitivity();
+
+        snapshot.cursorValid = InputHandler.isCursorConsumed();
+        snapshot.cursorX = InputHandler.getConsumedCursorX();
+        snapshot.cursorY = InputHandler.getConsumedCursorY();
+
+        snapshot.inputTimeNanos = InputHandler.takeFrameInputTime();
+        snapshot.replayFinished = InputHandler.isReplayFinished();
+        snapshot.screenshotRequests = screenshotRequests;
+        snapshot.hudToggles = hudToggles;
+
+        systems.propagateTransforms(entities);
+        systems.updateBounds(entities);
+        systems.extractRenderables(entities, snapshot.view, snapshot.projection, snapshot);
+        systems.extractShadowCasters(entities, snapshot.cameraPosition, shadowCasterRadius, snapshot);
+        lights.copyTo(snapshot);
+    }
+
+    public void setAspectRatio(float aspectRatio) {
+        this.aspectRatio = aspectRatio;
+    }
+
+    public void setShadowCasterRadius(float radius) {
+        shadowCasterRadius = radius;
+    }
+
+    // Only read once the thread is stopped, the counters are not synchronized
+    public OcclusionCuller getOcclusion() {
+        return systems.getOcclusion();
+    }
+
+    // Render thread side: the latest published snapshot
+    public RenderSnapshot acquireSnapshot() {
+        return snapshots.acquire();
+    }
+}
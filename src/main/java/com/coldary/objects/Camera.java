@@ -42,7 +42,7 @@ public class Camera {
 
         // Default projection parameters
         this.fov = 70.0f;
-        this.aspectRatio = 16.0f / 9.0f; // Assuming default aspect ratio
+        this.aspectRatio = 16.0f / 9.0f; // Until the first framebuffer size is known
         this.nearPlane = 0.1f;
         this.farPlane = 100.0f;
 
@@ -107,6 +107,12 @@ public class Camera {
     }
 
 
+    // Width over height of the framebuffer, follows window resizes
+    public void setAspectRatio(float aspectRatio) {
+        this.aspectRatio = aspectRatio;
+        updateProjectionMatrix();
+    }
+
     private void updateCameraVectors() {
         // Calculate direction vector
         Vector3f direction = new Vector3f();
@@ -143,6 +149,27 @@ public class Camera {
         return new Matrix4f().lookAt(position, position.add(front, new Vector3f()), up);
     }
 
+    public Matrix4f getViewMatrix(Matrix4f dest) {
+        return dest.setLookAt(position.x, position.y, position.z,
+                position.x + front.x, position.y + front.y, position.z + front.z,
+                up.x, up.y, up.z);
+    }
+
+    // Same view as updateCameraVectors would produce for the given angles. The render thread
+    // uses it to rebuild the view from a snapshot with late-latched mouse movement applied.
+    public static Matrix4f viewFromAngles(Vector3f position, float yaw, float pitch, Matrix4f dest) {
+        pitch = Math.max(-89.0f, Math.min(89.0f, pitch));
+
+        float x = (float) Math.cos(Math.toRadians(yaw));
+        float y = (float) Math.sin(Math.toRadians(pitch));
+        float z = (float) Math.sin(Math.toRadians(yaw));
+        float invLength = 1.0f / (float) Math.sqrt(x * x + y * y + z * z);
+
+        return dest.setLookAt(position.x, position.y, position.z,
+                position.x + x * invLength, position.y + y * invLength, position.z + z * invLength,
+                0, 1, 0);
+    }
+
     public Matrix4f getPerspectiveMatrix() {
         return projectionMatrix;
     }
@@ -170,4 +197,12 @@ public class Camera {
     public float getPitch() {
         return pitch;
     }
+
+    public float getMouseSensitivity() {
+        return mouseSensitivity;
+    }
+
+    public float getMovementSpeed() {
+        return movementSpeed;
+    }
 }
@@ -0,0 +1,41 @@
+package com.coldary.objects;
+
+import com.coldary.utils.NativeMemory;
+
+import java.nio.ByteBuffer;
+
+// Geometry of one world chunk as built by a ChunkSource on a streaming worker: interleaved
+// vertices in world space and an index buffer, both in native memory so the GL thread can
+// upload them without another copy. Owned by the streamer once returned, which frees it.
+public final class ChunkMesh {
+
+    // position xyz, normal xyz, uv
+    public static final int VERTEX_FLOATS = 8;
+    public static final int VERTEX_BYTES = VERTEX_FLOATS * Float.BYTES;
+    public static final int NORMAL_OFFSET = 3 * Float.BYTES;
+    public static final int TEXCOORD_OFFSET = 6 * Float.BYTES;
+
+    public final ByteBuffer vertices;
+    public final ByteBuffer indices;
+    public final int indexCount;
+    // 2 for unsigned shorts, 4 for unsigned ints
+    public final int indexSize;
+    // World space AABB: min xyz, max xyz
+    public final float[] bounds = new float[6];
+
+    public ChunkMesh(ByteBuffer vertices, ByteBuffer indices, int indexCount, int indexSize) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.indexCount = indexCount;
+        this.indexSize = indexSize;
+    }
+
+    public long getByteSize() {
+        return (long) vertices.remaining() + indices.remaining();
+    }
+
+    public void free() {
+        NativeMemory.free(vertices);
+        NativeMemory.free(indices);
+    }
+}
@@ -0,0 +1,11 @@
+package com.coldary.objects;
+
+// Produces the geometry of a world chunk, generated or read from disk. Called from the
+// streaming workers concurrently, so implementations must be thread-safe.
+@FunctionalInterface
+public interface ChunkSource {
+
+    // Chunk (x, z) covers [x * size, (x + 1) * size) on both horizontal axes.
+    // Returns null for chunks that have nothing to draw.
+    ChunkMesh build(int chunkX, int chunkZ, float chunkSize);
+}
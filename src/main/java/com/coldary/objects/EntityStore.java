@@ -0,0 +1,375 @@
+package com.coldary.objects;
+
+import java.util.Arrays;
+
+// Entities with transform, bounds, mesh and material components stored as dense primitive
+// columns (structure of arrays). Entity ids are generational: the low bits index a sparse
+// array that maps to the dense row, the high bits must match the slot's generation, so a
+// stale id of a destroyed entity never resolves to whatever reuses the slot.
+// Rows stay packed on destroy (swap-remove), so systems can sweep 0..size() linearly.
+public class EntityStore {
+
+    public static final int INVALID = 0;
+
+    private static final int INDEX_BITS = 20;
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (32 - INDEX_BITS)) - 1;
+    public static final int MAX_ENTITIES = 1 << INDEX_BITS;
+
+    // Sparse side, indexed by entity index
+    private int[] sparse;
+    private int[] generations;
+    private int[] freeIndices;
+    private int freeCount;
+    private int nextIndex = 1; // index 0 is never handed out so that id 0 stays INVALID
+
+    // Dense side, indexed by row
+    private int count;
+    int[] entities;
+
+    // Transform: local translation, rotation (quaternion), scale, parent entity and world matrix
+    float[] posX, posY, posZ;
+    float[] rotX, rotY, rotZ, rotW;
+    float[] scaleX, scaleY, scaleZ;
+    int[] parent;
+    float[] world;
+
+    // Bounds: local and world space AABBs, min xyz followed by max xyz
+    float[] localBounds;
+    float[] worldBounds;
+
+    int[] mesh;
+    int[] material;
+
+    // Occlusion: whether the entity's local box is rasterized as an occluder, and for how
+    // many consecutive frames (saturating) it has tested occluded
+    boolean[] occluder;
+    byte[] occludedFrames;
+
+    // Shadows: dynamic entities are drawn into every shadow cascade each frame, static ones
+    // are cached, so any change to a static entity bumps staticVersion to invalidate caches
+    boolean[] dynamic;
+    private long staticVersion;
+
+    // Rows ordered by hierarchy depth so parents are always propagated before children
+    int[] depth;
+    int[] depthOrder;
+    int[] levelStart;
+    int levelCount;
+    private boolean hierarchyDirty = true;
+
+    public EntityStore(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        sparse = new int[capacity];
+        generations = new int[capacity];
+        freeIndices = new int[capacity];
+        Arrays.fill(sparse, -1);
+        allocateColumns(capacity);
+    }
+
+    private void allocateColumns(int capacity) {
+        entities = new int[capacity];
+        posX = new float[capacity];
+        posY = new float[capacity];
+        posZ = new float[capacity];
+        rotX = new float[capacity];
+        rotY = new float[capacity];
+        rotZ = new float[capacity];
+        rotW = new float[capacity];
+        scaleX = new float[capacity];
+        scaleY = new float[capacity];
+        scaleZ = new float[capacity];
+        parent = new int[capacity];
+        world = new float[capacity * 16];
+        localBounds = new float[capacity * 6];
+        worldBounds = new float[capacity * 6];
+        mesh = new int[capacity];
+        material = new int[capacity];
+        occluder = new boolean[capacity];
+        occludedFrames = new byte[capacity];
+        dynamic = new boolean[capacity];
+        depth = new int[capacity];
+        depthOrder = new int[capacity];
+        levelStart = new int[2];
+    }
+
+    // Only ever called when the store outgrows its columns, never per frame
+    private void growColumns(int capacity) {
+        entities = Arrays.copyOf(entities, capacity);
+        posX = Arrays.copyOf(posX, capacity);
+        posY = Arrays.copyOf(posY, capacity);
+        posZ = Arrays.copyOf(posZ, capacity);
+        rotX = Arrays.copyOf(rotX, capacity);
+        rotY = Arrays.copyOf(rotY, capacity);
+        rotZ = Arrays.copyOf(rotZ, capacity);
+        rotW = Arrays.copyOf(rotW, capacity);
+        scaleX = Arrays.copyOf(scaleX, capacity);
+        scaleY = Arrays.copyOf(scaleY, capacity);
+        scaleZ = Arrays.copyOf(scaleZ, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        world = Arrays.copyOf(world, capacity * 16);
+        localBounds = Arrays.copyOf(localBounds, capacity * 6);
+        worldBounds = Arrays.copyOf(worldBounds, capacity * 6);
+        mesh = Arrays.copyOf(mesh, capacity);
+        material = Arrays.copyOf(material, capacity);
+        occluder = Arrays.copyOf(occluder, capacity);
+        occludedFrames = Arrays.copyOf(occludedFrames, capacity);
+        dynamic = Arrays.copyOf(dynamic, capacity);
+        depth = Arrays.copyOf(depth, capacity);
+        depthOrder = Arrays.copyOf(depthOrder, capacity);
+    }
+
+    public int create() {
+        int index;
+        if (freeCount > 0) {
+            index = freeIndices[--freeCount];
+        } else {
+            if (nextIndex >= MAX_ENTITIES) {
+                throw new IllegalStateException("Entity limit reached: " + MAX_ENTITIES);
+            }
+            index = nextIndex++;
+            if (index >= sparse.length) {
+                int capacity = Math.min(MAX_ENTITIES, sparse.length * 2);
+                int oldLength = sparse.length;
+                sparse = Arrays.copyOf(sparse, capacity);
+                Arrays.fill(sparse, oldLength, capacity, -1);
+                generations = Arrays.copyOf(generations, capacity);
+                freeIndices = Arrays.copyOf(freeIndices, capacity);
+            }
+        }
+
+        if (count == entities.length) {
+            growColumns(entities.length * 2);
+        }
+
+        int row = count++;
+        int id = (generations[index] << INDEX_BITS) | index;
+        sparse[index] = row;
+        entities[row] = id;
+
+        posX[row] = posY[row] = posZ[row] = 0;
+        rotX[row] = rotY[row] = rotZ[row] = 0;
+        rotW[row] = 1;
+        scaleX[row] = scaleY[row] = scaleZ[row] = 1;
+        parent[row] = INVALID;
+        Arrays.fill(localBounds, row * 6, row * 6 + 6, 0);
+        mesh[row] = -1;
+        material[row] = -1;
+        occluder[row] = false;
+        occludedFrames[row] = 0;
+        dynamic[row] = false;
+        staticVersion++;
+        hierarchyDirty = true;
+        return id;
+    }
+
+    public void destroy(int entity) {
+        int row = row(entity);
+        int index = entity & INDEX_MASK;
+        staticChanged(row);
+
+        // Move the last row into the hole so the columns stay dense
+        int last = --count;
+        if (row != last) {
+            copyRow(last, row);
+            sparse[entities[row] & INDEX_MASK] = row;
+        }
+
+        sparse[index] = -1;
+        generations[index] = (generations[index] + 1) & GENERATION_MASK;
+        freeIndices[freeCount++] = index;
+        hierarchyDirty = true;
+    }
+
+    private void copyRow(int from, int to) {
+        entities[to] = entities[from];
+        posX[to] = posX[from];
+        posY[to] = posY[from];
+        posZ[to] = posZ[from];
+        rotX[to] = rotX[from];
+        rotY[to] = rotY[from];
+        rotZ[to] = rotZ[from];
+        rotW[to] = rotW[from];
+        scaleX[to] = scaleX[from];
+        scaleY[to] = scaleY[from];
+        scaleZ[to] = scaleZ[from];
+        parent[to] = parent[from];
+        System.arraycopy(world, from * 16, world, to * 16, 16);
+        System.arraycopy(localBounds, from * 6, localBounds, to * 6, 6);
+        System.arraycopy(worldBounds, from * 6, worldBounds, to * 6, 6);
+        mesh[to] = mesh[from];
+        material[to] = material[from];
+        occluder[to] = occluder[from];
+        occludedFrames[to] = occludedFrames[from];
+        dynamic[to] = dynamic[from];
+    }
+
+    public boolean isAlive(int entity) {
+        int index = entity & INDEX_MASK;
+        return entity != INVALID && index < sparse.length && sparse[index] >= 0
+                && generations[index] == ((entity >>> INDEX_BITS) & GENERATION_MASK);
+    }
+
+    // Dense row of a live entity, only valid until the next destroy()
+    public int row(int entity) {
+        if (!isAlive(entity)) {
+            throw new IllegalArgumentException("Stale or invalid entity id: " + entity);
+        }
+        return sparse[entity & INDEX_MASK];
+    }
+
+    // Like row() but returns -1 instead of throwing, used for parent links
+    int rowOrMissing(int entity) {
+        return isAlive(entity) ? sparse[entity & INDEX_MASK] : -1;
+    }
+
+    public void setPosition(int entity, float x, float y, float z) {
+        int row = row(entity);
+        staticChanged(row);
+        posX[row] = x;
+        posY[row] = y;
+        posZ[row] = z;
+    }
+
+    public void setRotation(int entity, float x, float y, float z, float w) {
+        int row = row(entity);
+        staticChanged(row);
+        rotX[row] = x;
+        rotY[row] = y;
+        rotZ[row] = z;
+        rotW[row] = w;
+    }
+
+    public void setScale(int entity, float x, float y, float z) {
+        int row = row(entity);
+        staticChanged(row);
+        scaleX[row] = x;
+        scaleY[row] = y;
+        scaleZ[row] = z;
+    }
+
+    public void setParent(int entity, int parentEntity) {
+        if (parentEntity != INVALID && !isAlive(parentEntity)) {
+            throw new IllegalArgumentException("Stale or invalid parent id: " + parentEntity);
+        }
+        parent[row(entity)] = parentEntity;
+        staticChanged(row(entity));
+        hierarchyDirty = true;
+    }
+
+    public void setLocalBounds(int entity, float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        staticChanged(row(entity));
+        int offset = row(entity) * 6;
+        localBounds[offset] = minX;
+        localBounds[offset + 1] = minY;
+        localBounds[offset + 2] = minZ;
+        localBounds[offset + 3] = maxX;
+        localBounds[offset + 4] = maxY;
+        localBounds[offset + 5] = maxZ;
+    }
+
+    public void setMesh(int entity, int meshHandle) {
+        staticChanged(row(entity));
+        mesh[row(entity)] = meshHandle;
+    }
+
+    public void setMaterial(int entity, int materialHandle) {
+        material[row(entity)] = materialHandle;
+    }
+
+    // Occluders should have solid local bounds, their whole box is treated as opaque
+    public void setOccluder(int entity, boolean occluder) {
+        this.occluder[row(entity)] = occluder;
+    }
+
+    // Marks an entity that moves, its shadow is redrawn every frame instead of cached
+    public void setDynamic(int entity, boolean dynamic) {
+        int row = row(entity);
+        if (this.dynamic[row] != dynamic) {
+            this.dynamic[row] = dynamic;
+            staticVersion++;
+        }
+    }
+
+    private void staticChanged(int row) {
+        if (!dynamic[row]) {
+            staticVersion++;
+        }
+    }
+
+    // Changes whenever static geometry is added, removed or moved
+    public long getStaticVersion() {
+        return staticVersion;
+    }
+
+    public float getWorld(int entity, int element) {
+        return world[row(entity) * 16 + element];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int capacity() {
+        return entities.length;
+    }
+
+    // Recomputes depths and the depth-sorted row order after the hierarchy changed
+    void updateHierarchy() {
+        if (!hierarchyDirty) {
+            return;
+        }
+
+        int maxDepth = 0;
+        Arrays.fill(depth, 0, count, -1);
+        for (int row = 0; row < count; row++) {
+            maxDepth = Math.max(maxDepth, resolveDepth(row));
+        }
+
+        // Counting sort of rows by depth
+        levelCount = maxDepth + 1;
+        if (levelStart.length < levelCount + 1) {
+            levelStart = new int[levelCount + 1];
+        }
+        Arrays.fill(levelStart, 0, levelCount + 1, 0);
+        for (int row = 0; row < count; row++) {
+            levelStart[depth[row] + 1]++;
+        }
+        for (int level = 0; level < levelCount; level++) {
+            levelStart[level + 1] += levelStart[level];
+        }
+        int[] cursor = Arrays.copyOf(levelStart, levelCount);
+        for (int row = 0; row < count; row++) {
+            depthOrder[cursor[depth[row]]++] = row;
+        }
+
+        hierarchyDirty = false;
+    }
+
+    private int resolveDepth(int row) {
+        if (depth[row] >= 0) {
+            return depth[row];
+        }
+        // Walk up to the first resolved ancestor, guarding against cycles
+        int d = 0;
+        int current = row;
+        int steps = 0;
+        while (true) {
+            int parentRow = rowOrMissing(parent[current]);
+            if (parentRow < 0) {
+                break;
+            }
+            if (depth[parentRow] >= 0) {
+                d += depth[parentRow] + 1;
+                break;
+            }
+            d++;
+            current = parentRow;
+            if (++steps > count) {
+                throw new IllegalStateException("Cycle in entity hierarchy at entity " + entities[row]);
+            }
+        }
+        depth[row] = d;
+        return d;
+    }
+}
@@ -0,0 +1,363 @@
+package com.coldary.objects;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Per-frame systems over an EntityStore. Each one sweeps the dense columns in fixed-size
+// chunks on a ForkJoinPool; chunks only write their own rows so no locking is needed.
+// Nothing here allocates per entity, the only garbage is one small task per chunk.
+public class EntitySystems {
+
+    // Per-row outcome of extraction
+    private static final byte CULLED_FRUSTUM = 0;
+    private static final byte VISIBLE = 1;
+    private static final byte CULLED_OCCLUSION = 2;
+    private static final byte VISIBLE_GRACE = 3;
+
+    // Consecutive occluded frames before an entity is actually dropped; the first one is
+    // still drawn so objects that just slid behind an occluder don't pop
+    private static final int OCCLUSION_GRACE_FRAMES = 1;
+
+    // Rows per task, large enough that a chunk's columns outweigh the fork/join overhead
+    private static final int CHUNK_SIZE = 2048;
+
+    private final ForkJoinPool pool;
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f viewProjection = new Matrix4f();
+    private final OcclusionCuller occlusion = new OcclusionCuller();
+    private byte[] cullState = new byte[0];
+    private boolean[] casterState = new boolean[0];
+
+    private long lastTransformNanos;
+    private long lastBoundsNanos;
+    private long lastExtractNanos;
+    private long lastCasterNanos;
+
+    public EntitySystems() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public EntitySystems(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Local TRS to world matrices, one hierarchy level at a time so parents are done first
+    public void propagateTransforms(EntityStore store) {
+        long start = System.nanoTime();
+        store.updateHierarchy();
+        for (int level = 0; level < store.levelCount; level++) {
+            int from = store.levelStart[level];
+            int to = store.levelStart[level + 1];
+            forEachChunk(from, to, (chunkStart, chunkEnd) -> {
+                int[] order = store.depthOrder;
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    composeWorld(store, order[i]);
+                }
+            });
+        }
+        lastTransformNanos = System.nanoTime() - start;
+    }
+
+    // Local AABBs to world space AABBs through the world matrices
+    public void updateBounds(EntityStore store) {
+        long start = System.nanoTime();
+        forEachChunk(0, store.size(), (chunkStart, chunkEnd) -> {
+            for (int row = chunkStart; row < chunkEnd; row++) {
+                transformBounds(store, row);
+            }
+        });
+        lastBoundsNanos = System.nanoTime() - start;
+    }
+
+    // Frustum culls the world bounds and occlusion culls the survivors in parallel, then packs
+    // the visible renderables into the snapshot in row order so the output is deterministic
+    public void extractRenderables(EntityStore store, Matrix4f view, Matrix4f projection, RenderSnapshot snapshot) {
+        long start = System.nanoTime();
+        int count = store.size();
+        if (cullState.length < count) {
+            cullState = new byte[store.capacity()];
+        }
+        projection.mul(view, viewProjection);
+        frustum.set(viewProjection, false);
+
+        byte[] state = cullState;
+        forEachChunk(0, count, (chunkStart, chunkEnd) -> {
+            float[] bounds = store.worldBounds;
+            int[] mesh = store.mesh;
+            for (int row = chunkStart; row < chunkEnd; row++) {
+                int b = row * 6;
+                boolean inside = mesh[row] >= 0 && frustum.testAab(
+                        bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5]);
+                state[row] = inside ? VISIBLE : CULLED_FRUSTUM;
+                if (!inside) {
+                    store.occludedFrames[row] = 0;
+                }
+            }
+        });
+
+        // Occluders are few, rasterizing them serially keeps the depth buffer single-writer
+        occlusion.begin(viewProjection);
+        for (int row = 0; row < count; row++) {
+            if (store.occluder[row] && state[row] == VISIBLE) {
+                occlusion.rasterizeBox(store.world, row * 16, store.localBounds, row * 6);
+            }
+        }
+        occlusion.buildPyramid();
+
+        if (occlusion.hasOccluders()) {
+            forEachChunk(0, count, (chunkStart, chunkEnd) -> {
+                float[] bounds = store.worldBounds;
+                byte[] occluded = store.occludedFrames;
+                for (int row = chunkStart; row < chunkEnd; row++) {
+                    if (state[row] != VISIBLE) {
+                        continue;
+                    }
+                    int b = row * 6;
+                    if (occlusion.isOccluded(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3], bounds[b + 4], bounds[b + 5])) {
+                        if (occluded[row] <= OCCLUSION_GRACE_FRAMES) {
+                            occluded[row]++;
+                        }
+                        state[row] = occluded[row] > OCCLUSION_GRACE_FRAMES ? CULLED_OCCLUSION : VISIBLE_GRACE;
+                    } else {
+                        occluded[row] = 0;
+                    }
+                }
+            });
+        } else {
+            Arrays.fill(store.occludedFrames, 0, count, (byte) 0);
+        }
+
+        int drawCount = 0;
+        int frustumCulled = 0;
+        int occlusionCulled = 0;
+        int graced = 0;
+        float coverageSaved = 0;
+        for (int row = 0; row < count; row++) {
+            switch (state[row]) {
+                case CULLED_FRUSTUM -> frustumCulled++;
+                case CULLED_OCCLUSION -> {
+                    occlusionCulled++;
+                    int b = row * 6;
+                    coverageSaved += occlusion.screenCoverage(store.worldBounds[b], store.worldBounds[b + 1],
+                            store.worldBounds[b + 2], store.worldBounds[b + 3], store.worldBounds[b + 4], store.worldBounds[b + 5]);
+                }
+                case VISIBLE_GRACE -> {
+                    graced++;
+                    drawCount++;
+                }
+                default -> drawCount++;
+            }
+        }
+        occlusion.recordFrame(occlusionCulled, graced, coverageSaved);
+        snapshot.ensureCapacity(drawCount);
+
+        int draw = 0;
+        for (int row = 0; row < count; row++) {
+            if (state[row] == VISIBLE || state[row] == VISIBLE_GRACE) {
+                System.arraycopy(store.world, row * 16, snapshot.transforms, draw * 16, 16);
+                snapshot.meshHandles[draw] = store.mesh[row];
+                snapshot.materialHandles[draw] = store.material[row];
+                draw++;
+            }
+        }
+        snapshot.drawCount = drawCount;
+        snapshot.frustumCulledCount = frustumCulled;
+        snapshot.occlusionCulledCount = occlusionCulled;
+        snapshot.occlusionCoverageSaved = coverageSaved;
+        lastExtractNanos = System.nanoTime() - start;
+    }
+
+    // Packs every meshed entity whose bounds reach within radius of center, visible or not,
+    // as the shadow casters of this snapshot. Radius 0 extracts none.
+    public void extractShadowCasters(EntityStore store, Vector3f center, float radius, RenderSnapshot snapshot) {
+        long start = System.nanoTime();
+        snapshot.staticCasterVersion = store.getStaticVersion();
+        snapshot.casterRadius = radius;
+        int count = store.size();
+        if (radius <= 0) {
+            snapshot.casterCount = 0;
+            lastCasterNanos = System.nanoTime() - start;
+            return;
+        }
+        if (casterState.length < count) {
+            casterState = new boolean[store.capacity()];
+        }
+
+        boolean[] state = casterState;
+        float radiusSquared = radius * radius;
+        forEachChunk(0, count, (chunkStart, chunkEnd) -> {
+            float[] bounds = store.worldBounds;
+            int[] mesh = store.mesh;
+            for (int row = chunkStart; row < chunkEnd; row++) {
+                int b = row * 6;
+                // Squared distance from the center to the box, zero inside it
+                float dx = Math.max(Math.max(bounds[b] - center.x, center.x - bounds[b + 3]), 0);
+                float dy = Math.max(Math.max(bounds[b + 1] - center.y, center.y - bounds[b + 4]), 0);
+                float dz = Math.max(Math.max(bounds[b + 2] - center.z, center.z - bounds[b + 5]), 0);
+                state[row] = mesh[row] >= 0 && dx * dx + dy * dy + dz * dz <= radiusSquared;
+            }
+        });
+
+        int casterCount = 0;
+        for (int row = 0; row < count; row++) {
+            if (state[row]) {
+                casterCount++;
+            }
+        }
+        snapshot.ensureCasterCapacity(casterCount);
+        int caster = 0;
+        for (int row = 0; row < count; row++) {
+            if (state[row]) {
+                System.arraycopy(store.world, row * 16, snapshot.casterTransforms, caster * 16, 16);
+                System.arraycopy(store.worldBounds, row * 6, snapshot.casterBounds, caster * 6, 6);
+                snapshot.casterMeshHandles[caster] = store.mesh[row];
+                snapshot.casterDynamic[caster] = store.dynamic[row];
+                caster++;
+            }
+        }
+        snapshot.casterCount = casterCount;
+        lastCasterNanos = System.nanoTime() - start;
+    }
+
+    private void forEachChunk(int from, int to, RangeBody body) {
+        if (to - from <= CHUNK_SIZE) {
+            body.run(from, to);
+        } else {
+            pool.invoke(new ChunkTask(body, from, to));
+        }
+    }
+
+    private static void composeWorld(EntityStore store, int row) {
+        float x = store.rotX[row], y = store.rotY[row], z = store.rotZ[row], w = store.rotW[row];
+        float sx = store.scaleX[row], sy = store.scaleY[row], sz = store.scaleZ[row];
+
+        // Rotation matrix from the quaternion, columns scaled
+        float m00 = (1 - 2 * (y * y + z * z)) * sx;
+        float m01 = (2 * (x * y + z * w)) * sx;
+        float m02 = (2 * (x * z - y * w)) * sx;
+        float m10 = (2 * (x * y - z * w)) * sy;
+        float m11 = (1 - 2 * (x * x + z * z)) * sy;
+        float m12 = (2 * (y * z + x * w)) * sy;
+        float m20 = (2 * (x * z + y * w)) * sz;
+        float m21 = (2 * (y * z - x * w)) * sz;
+        float m22 = (1 - 2 * (x * x + y * y)) * sz;
+        float m30 = store.posX[row], m31 = store.posY[row], m32 = store.posZ[row];
+
+        float[] world = store.world;
+        int o = row * 16;
+        int parentRow = store.rowOrMissing(store.parent[row]);
+        if (parentRow < 0) {
+            world[o] = m00;      world[o + 1] = m01;  world[o + 2] = m02;  world[o + 3] = 0;
+            world[o + 4] = m10;  world[o + 5] = m11;  world[o + 6] = m12;  world[o + 7] = 0;
+            world[o + 8] = m20;  world[o + 9] = m21;  world[o + 10] = m22; world[o + 11] = 0;
+            world[o + 12] = m30; world[o + 13] = m31; world[o + 14] = m32; world[o + 15] = 1;
+            return;
+        }
+
+        // world = parentWorld * local, both affine
+        int p = parentRow * 16;
+        float p00 = world[p], p01 = world[p + 1], p02 = world[p + 2];
+        float p10 = world[p + 4], p11 = world[p + 5], p12 = world[p + 6];
+        float p20 = world[p + 8], p21 = world[p + 9], p22 = world[p + 10];
+        float p30 = world[p + 12], p31 = world[p + 13], p32 = world[p + 14];
+
+        world[o] = p00 * m00 + p10 * m01 + p20 * m02;
+        world[o + 1] = p01 * m00 + p11 * m01 + p21 * m02;
+        world[o + 2] = p02 * m00 + p12 * m01 + p22 * m02;
+        world[o + 3] = 0;
+        world[o + 4] = p00 * m10 + p10 * m11 + p20 * m12;
+        world[o + 5] = p01 * m10 + p11 * m11 + p21 * m12;
+        world[o + 6] = p02 * m10 + p12 * m11 + p22 * m12;
+        world[o + 7] = 0;
+        world[o + 8] = p00 * m20 + p10 * m21 + p20 * m22;
+        world[o + 9] = p01 * m20 + p11 * m21 + p21 * m22;
+        world[o + 10] = p02 * m20 + p12 * m21 + p22 * m22;
+        world[o + 11] = 0;
+        world[o + 12] = p00 * m30 + p10 * m31 + p20 * m32 + p30;
+        world[o + 13] = p01 * m30 + p11 * m31 + p21 * m32 + p31;
+        world[o + 14] = p02 * m30 + p12 * m31 + p22 * m32 + p32;
+        world[o + 15] = 1;
+    }
+
+    // Transforms an AABB by an affine matrix using the center/extent form
+    private static void transformBounds(EntityStore store, int row) {
+        float[] local = store.localBounds;
+        float[] m = store.world;
+        int b = row * 6;
+        int o = row * 16;
+
+        float cx = (local[b] + local[b + 3]) * 0.5f;
+        float cy = (local[b + 1] + local[b + 4]) * 0.5f;
+        float cz = (local[b + 2] + local[b + 5]) * 0.5f;
+        float ex = (local[b + 3] - local[b]) * 0.5f;
+        float ey = (local[b + 4] - local[b + 1]) * 0.5f;
+        float ez = (local[b + 5] - local[b + 2]) * 0.5f;
+
+        float wcx = m[o] * cx + m[o + 4] * cy + m[o + 8] * cz + m[o + 12];
+        float wcy = m[o + 1] * cx + m[o + 5] * cy + m[o + 9] * cz + m[o + 13];
+        float wcz = m[o + 2] * cx + m[o + 6] * cy + m[o + 10] * cz + m[o + 14];
+        float wex = Math.abs(m[o]) * ex + Math.abs(m[o + 4]) * ey + Math.abs(m[o + 8]) * ez;
+        float wey = Math.abs(m[o + 1]) * ex + Math.abs(m[o + 5]) * ey + Math.abs(m[o + 9]) * ez;
+        float wez = Math.abs(m[o + 2]) * ex + Math.abs(m[o + 6]) * ey + Math.abs(m[o + 10]) * ez;
+
+        float[] out = store.worldBounds;
+        out[b] = wcx - wex;
+        out[b + 1] = wcy - wey;
+        out[b + 2] = wcz - wez;
+        out[b + 3] = wcx + wex;
+        out[b + 4] = wcy + wey;
+        out[b + 5] = wcz + wez;
+    }
+
+    public OcclusionCuller getOcclusion() {
+        return occlusion;
+    }
+
+    public long getLastTransformNanos() {
+        return lastTransformNanos;
+    }
+
+    public long getLastBoundsNanos() {
+        return lastBoundsNanos;
+    }
+
+    public long getLastExtractNanos() {
+        return lastExtractNanos;
+    }
+
+    public long getLastCasterNanos() {
+        return lastCasterNanos;
+    }
+
+    @FunctionalInterface
+    private interface RangeBody {
+        void run(int start, int end);
+    }
+
+    private static class ChunkTask extends RecursiveAction {
+        private final RangeBody body;
+        private final int start;
+        private final int end;
+
+        ChunkTask(RangeBody body, int start, int end) {
+            this.body = body;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= CHUNK_SIZE) {
+                body.run(start, end);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new ChunkTask(body, start, middle), new ChunkTask(body, middle, end));
+        }
+    }
+}
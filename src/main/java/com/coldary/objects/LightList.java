@@ -0,0 +1,95 @@
+package com.coldary.objects;
+
+import java.util.Arrays;
+
+// Dynamic point and spot lights, packed LightList.STRIDE floats per light in the layout the
+// clustered lighting pass uploads: position + radius, color + inner cone cosine, spot
+// direction + outer cone cosine. Point lights use cone cosines below -1 so every
+// direction is inside the cone.
+public class LightList {
+
+    public static final int STRIDE = 12;
+
+    private static final float POINT_COS_INNER = -1.0f;
+    private static final float POINT_COS_OUTER = -2.0f;
+
+    private float[] data = new float[64 * STRIDE];
+    private int count;
+
+    public int addPoint(float x, float y, float z, float radius, float r, float g, float b) {
+        return add(x, y, z, radius, r, g, b, 0, -1, 0, POINT_COS_INNER, POINT_COS_OUTER);
+    }
+
+    // Direction must be normalized, angles are the half angles of the cone in degrees
+    public int addSpot(float x, float y, float z, float radius, float r, float g, float b,
+                       float dirX, float dirY, float dirZ, float innerAngle, float outerAngle) {
+        return add(x, y, z, radius, r, g, b, dirX, dirY, dirZ,
+                (float) Math.cos(Math.toRadians(innerAngle)), (float) Math.cos(Math.toRadians(outerAngle)));
+    }
+
+    private int add(float x, float y, float z, float radius, float r, float g, float b,
+                    float dirX, float dirY, float dirZ, float cosInner, float cosOuter) {
+        if (radius <= 0) {
+            throw new IllegalArgumentException("Light radius must be positive: " + radius);
+        }
+        if ((count + 1) * STRIDE > data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        int o = count * STRIDE;
+        data[o] = x;
+        data[o + 1] = y;
+        data[o + 2] = z;
+        data[o + 3] = radius;
+        data[o + 4] = r;
+        data[o + 5] = g;
+        data[o + 6] = b;
+        data[o + 7] = cosInner;
+        data[o + 8] = dirX;
+        data[o + 9] = dirY;
+        data[o + 10] = dirZ;
+        data[o + 11] = cosOuter;
+        return count++;
+    }
+
+    public void setPosition(int light, float x, float y, float z) {
+        int o = checkIndex(light) * STRIDE;
+        data[o] = x;
+        data[o + 1] = y;
+        data[o + 2] = z;
+    }
+
+    public void setColor(int light, float r, float g, float b) {
+        int o = checkIndex(light) * STRIDE;
+        data[o + 4] = r;
+        data[o + 5] = g;
+        data[o + 6] = b;
+    }
+
+    public void setDirection(int light, float x, float y, float z) {
+        int o = checkIndex(light) * STRIDE;
+        data[o + 8] = x;
+        data[o + 9] = y;
+        data[o + 10] = z;
+    }
+
+    private int checkIndex(int light) {
+        if (light < 0 || light >= count) {
+            throw new IndexOutOfBoundsException("Light index out of range: " + light);
+        }
+        return light;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void copyTo(RenderSnapshot snapshot) {
+        snapshot.ensureLightCapacity(count);
+        System.arraycopy(data, 0, snapshot.lights, 0, count * STRIDE);
+        snapshot.lightCount = count;
+    }
+}
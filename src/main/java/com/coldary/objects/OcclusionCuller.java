@@ -0,0 +1,295 @@
+package com.coldary.objects;
+
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+// CPU hierarchical-Z occlusion culling. Designated occluders (buildings, terrain blocks) are
+// rasterized as oriented boxes into a small depth buffer, which is max-reduced into a mip
+// pyramid. Occludees then test their projected world AABB against the coarsest level where
+// it covers at most 2x2 texels.
+//
+// Everything errs on the visible side: occluder triangles write their farthest vertex depth,
+// the pyramid keeps the farthest depth of each block, occludees use their nearest corner,
+// and anything crossing the near plane is neither an occluder nor culled.
+public class OcclusionCuller {
+
+    public static final int WIDTH = 256;
+    public static final int HEIGHT = 144;
+
+    // Clip space w below which a point counts as on or behind the near plane
+    private static final float MIN_W = 1e-3f;
+
+    // Corner indices are xyz bits into min/max, each face is a quad split into two triangles
+    private static final int[] BOX_TRIANGLES = {
+            0, 2, 6, 0, 6, 4,   // -X
+            1, 5, 7, 1, 7, 3,   // +X
+            0, 4, 5, 0, 5, 1,   // -Y
+            2, 3, 7, 2, 7, 6,   // +Y
+            0, 1, 3, 0, 3, 2,   // -Z
+            4, 6, 7, 4, 7, 5    // +Z
+    };
+
+    private final float[][] levels;
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+
+    private final float[] viewProjection = new float[16];
+    private final float[] screenX = new float[8];
+    private final float[] screenY = new float[8];
+    private final float[] screenDepth = new float[8];
+    private int occluderCount;
+
+    // Stats
+    private int lastCulled;
+    private int lastGraced;
+    private float lastCoverageSaved;
+    private long totalCulled;
+    private double totalCoverageSaved;
+    private long frames;
+
+    public OcclusionCuller() {
+        int count = 1;
+        for (int w = WIDTH, h = HEIGHT; w > 1 || h > 1; w = (w + 1) / 2, h = (h + 1) / 2) {
+            count++;
+        }
+        levels = new float[count][];
+        levelWidths = new int[count];
+        levelHeights = new int[count];
+        int w = WIDTH, h = HEIGHT;
+        for (int level = 0; level < count; level++) {
+            levels[level] = new float[w * h];
+            levelWidths[level] = w;
+            levelHeights[level] = h;
+            w = Math.max(1, (w + 1) / 2);
+            h = Math.max(1, (h + 1) / 2);
+        }
+    }
+
+    public void begin(Matrix4f viewProjection) {
+        viewProjection.get(this.viewProjection);
+        Arrays.fill(levels[0], 1.0f);
+        occluderCount = 0;
+    }
+
+    // Rasterizes the local bounds of one entity transformed by its world matrix
+    public void rasterizeBox(float[] world, int worldOffset, float[] localBounds, int boundsOffset) {
+        float[] m = world;
+        int o = worldOffset;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = localBounds[boundsOffset + ((corner & 1) != 0 ? 3 : 0)];
+            float y = localBounds[boundsOffset + ((corner & 2) != 0 ? 4 : 1)];
+            float z = localBounds[boundsOffset + ((corner & 4) != 0 ? 5 : 2)];
+            float wx = m[o] * x + m[o + 4] * y + m[o + 8] * z + m[o + 12];
+            float wy = m[o + 1] * x + m[o + 5] * y + m[o + 9] * z + m[o + 13];
+            float wz = m[o + 2] * x + m[o + 6] * y + m[o + 10] * z + m[o + 14];
+            if (!project(wx, wy, wz, corner)) {
+                // Clipping occluders is not worth it, skipping one is always safe
+                return;
+            }
+        }
+
+        for (int i = 0; i < BOX_TRIANGLES.length; i += 3) {
+            rasterizeTriangle(BOX_TRIANGLES[i], BOX_TRIANGLES[i + 1], BOX_TRIANGLES[i + 2]);
+        }
+        occluderCount++;
+    }
+
+    private boolean project(float x, float y, float z, int corner) {
+        float[] vp = viewProjection;
+        float cw = vp[3] * x + vp[7] * y + vp[11] * z + vp[15];
+        if (cw < MIN_W) {
+            return false;
+        }
+        float cx = vp[0] * x + vp[4] * y + vp[8] * z + vp[12];
+        float cy = vp[1] * x + vp[5] * y + vp[9] * z + vp[13];
+        float cz = vp[2] * x + vp[6] * y + vp[10] * z + vp[14];
+        screenX[corner] = (cx / cw * 0.5f + 0.5f) * WIDTH;
+        screenY[corner] = (cy / cw * 0.5f + 0.5f) * HEIGHT;
+        screenDepth[corner] = cz / cw * 0.5f + 0.5f;
+        return true;
+    }
+
+    private void rasterizeTriangle(int a, int b, int c) {
+        float ax = screenX[a], ay = screenY[a];
+        float bx = screenX[b], by = screenY[b];
+        float cx = screenX[c], cy = screenY[c];
+
+        float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        if (area == 0) {
+            return;
+        }
+        float sign = area > 0 ? 1 : -1;
+        float depth = Math.max(screenDepth[a], Math.max(screenDepth[b], screenDepth[c]));
+
+        int minX = Math.max(0, (int) Math.floor(Math.min(ax, Math.min(bx, cx))));
+        int maxX = Math.min(WIDTH - 1, (int) Math.ceil(Math.max(ax, Math.max(bx, cx))));
+        int minY = Math.max(0, (int) Math.floor(Math.min(ay, Math.min(by, cy))));
+        int maxY = Math.min(HEIGHT - 1, (int) Math.ceil(Math.max(ay, Math.max(by, cy))));
+
+        float[] depths = levels[0];
+        for (int y = minY; y <= maxY; y++) {
+            float py = y + 0.5f;
+            int rowOffset = y * WIDTH;
+            for (int x = minX; x <= maxX; x++) {
+                float px = x + 0.5f;
+                float w0 = ((bx - ax) * (py - ay) - (by - ay) * (px - ax)) * sign;
+                float w1 = ((cx - bx) * (py - by) - (cy - by) * (px - bx)) * sign;
+                float w2 = ((ax - cx) * (py - cy) - (ay - cy) * (px - cx)) * sign;
+                if (w0 >= 0 && w1 >= 0 && w2 >= 0 && depth < depths[rowOffset + x]) {
+                    depths[rowOffset + x] = depth;
+                }
+            }
+        }
+    }
+
+    // Max-reduces level 0 into the rest of the pyramid
+    public void buildPyramid() {
+        if (occluderCount == 0) {
+            return;
+        }
+        for (int level = 1; level < levels.length; level++) {
+            float[] src = levels[level - 1];
+            float[] dst = levels[level];
+            int srcWidth = levelWidths[level - 1];
+            int srcHeight = levelHeights[level - 1];
+            int width = levelWidths[level];
+            int height = levelHeights[level];
+            for (int y = 0; y < height; y++) {
+                int y0 = y * 2;
+                int y1 = Math.min(y0 + 1, srcHeight - 1);
+                for (int x = 0; x < width; x++) {
+                    int x0 = x * 2;
+                    int x1 = Math.min(x0 + 1, srcWidth - 1);
+                    dst[y * width + x] = Math.max(
+                            Math.max(src[y0 * srcWidth + x0], src[y0 * srcWidth + x1]),
+                            Math.max(src[y1 * srcWidth + x0], src[y1 * srcWidth + x1]));
+                }
+            }
+        }
+    }
+
+    public boolean hasOccluders() {
+        return occluderCount > 0;
+    }
+
+    // Read only after buildPyramid(), safe to call from several threads at once
+    public boolean isOccluded(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        if (occluderCount == 0) {
+            return false;
+        }
+
+        float[] vp = viewProjection;
+        float left = Float.POSITIVE_INFINITY, right = Float.NEGATIVE_INFINITY;
+        float bottom = Float.POSITIVE_INFINITY, top = Float.NEGATIVE_INFINITY;
+        float nearest = Float.POSITIVE_INFINITY;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) != 0 ? maxX : minX;
+            float y = (corner & 2) != 0 ? maxY : minY;
+            float z = (corner & 4) != 0 ? maxZ : minZ;
+            float cw = vp[3] * x + vp[7] * y + vp[11] * z + vp[15];
+            if (cw < MIN_W) {
+                return false;
+            }
+            float sx = ((vp[0] * x + vp[4] * y + vp[8] * z + vp[12]) / cw * 0.5f + 0.5f) * WIDTH;
+            float sy = ((vp[1] * x + vp[5] * y + vp[9] * z + vp[13]) / cw * 0.5f + 0.5f) * HEIGHT;
+            float sz = (vp[2] * x + vp[6] * y + vp[10] * z + vp[14]) / cw * 0.5f + 0.5f;
+            left = Math.min(left, sx);
+            right = Math.max(right, sx);
+            bottom = Math.min(bottom, sy);
+            top = Math.max(top, sy);
+            nearest = Math.min(nearest, sz);
+        }
+
+        int x0 = Math.max(0, (int) Math.floor(left));
+        int x1 = Math.min(WIDTH - 1, (int) Math.floor(right));
+        int y0 = Math.max(0, (int) Math.floor(bottom));
+        int y1 = Math.min(HEIGHT - 1, (int) Math.floor(top));
+        if (x0 > x1 || y0 > y1) {
+            return false;
+        }
+
+        // Coarsest useful level is the one where the rectangle spans at most 2x2 texels
+        int level = 0;
+        while (level < levels.length - 1
+                && ((x1 >> level) - (x0 >> level) > 1 || (y1 >> level) - (y0 >> level) > 1)) {
+            level++;
+        }
+
+        float[] depths = levels[level];
+        int width = levelWidths[level];
+        float farthest = 0;
+        for (int y = y0 >> level; y <= y1 >> level; y++) {
+            for (int x = x0 >> level; x <= x1 >> level; x++) {
+                farthest = Math.max(farthest, depths[y * width + x]);
+            }
+        }
+        return nearest > farthest;
+    }
+
+    // Fraction of the screen covered by the bounds' projected rectangle, for the stats
+    public float screenCoverage(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+        float left = 1, right = 0, bottom = 1, top = 0;
+        float[] vp = viewProjection;
+        for (int corner = 0; corner < 8; corner++) {
+            float x = (corner & 1) != 0 ? maxX : minX;
+            float y = (corner & 2) != 0 ? maxY : minY;
+            float z = (corner & 4) != 0 ? maxZ : minZ;
+            float cw = vp[3] * x + vp[7] * y + vp[11] * z + vp[15];
+            if (cw < MIN_W) {
+                return 1;
+            }
+            float sx = (vp[0] * x + vp[4] * y + vp[8] * z + vp[12]) / cw * 0.5f + 0.5f;
+            float sy = (vp[1] * x + vp[5] * y + vp[9] * z + vp[13]) / cw * 0.5f + 0.5f;
+            left = Math.min(left, sx);
+            right = Math.max(right, sx);
+            bottom = Math.min(bottom, sy);
+            top = Math.max(top, sy);
+        }
+        left = Math.max(left, 0);
+        right = Math.min(right, 1);
+        bottom = Math.max(bottom, 0);
+        top = Math.min(top, 1);
+        return right > left && top > bottom ? (right - left) * (top - bottom) : 0;
+    }
+
+    void recordFrame(int culled, int graced, float coverageSaved) {
+        lastCulled = culled;
+        lastGraced = graced;
+        lastCoverageSaved = coverageSaved;
+        totalCulled += culled;
+        totalCoverageSaved += coverageSaved;
+        frames++;
+    }
+
+    public int getOccluderCount() {
+        return occluderCount;
+    }
+
+    public int getLastCulledCount() {
+        return lastCulled;
+    }
+
+    public int getLastGraceCount() {
+        return lastGraced;
+    }
+
+    // Screens worth of fragments that were not shaded last frame (1.0 = one full screen)
+    public float getLastCoverageSaved() {
+        return lastCoverageSaved;
+    }
+
+    public double getAverageCulledCount() {
+        return frames == 0 ? 0 : (double) totalCulled / frames;
+    }
+
+    public double getAverageCoverageSaved() {
+        return frames == 0 ? 0 : totalCoverageSaved / frames;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Occlusion culling: last %d culled (%d in grace, %.2f screens saved), avg %.1f culled and %.2f screens saved over %d frames",
+                lastCulled, lastGraced, lastCoverageSaved, getAverageCulledCount(), getAverageCoverageSaved(), frames);
+    }
+}
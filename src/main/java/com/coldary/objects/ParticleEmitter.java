@@ -0,0 +1,68 @@
+package com.coldary.objects;
+
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+// A point that spawns particles at a steady rate, e.g. behind a sliding tyre. Fields are
+// read every frame by ParticleSystem.update, so they can be moved and retuned freely.
+public class ParticleEmitter {
+
+    public final Vector3f position = new Vector3f();
+    public final Vector3f velocity = new Vector3f();
+    // Random offset radius around position and random velocity per axis, both +-
+    public float positionSpread;
+    public float velocitySpread;
+    // Particles per second, 0 pauses the emitter
+    public float rate;
+    public float minLifetime = 1.0f;
+    public float maxLifetime = 1.0f;
+    public float startSize = 0.1f;
+    public float endSize = 0.1f;
+    // Rate at which particles take on the air velocity, per second
+    public float drag;
+    public float gravityScale = 1.0f;
+    public final Vector4f color = new Vector4f(1.0f);
+
+    // Fractional particle left over from previous frames, so low rates still emit
+    private float carry;
+
+    // Number of particles due this frame
+    public int take(float deltaTime) {
+        carry += rate * deltaTime;
+        int count = (int) carry;
+        carry -= count;
+        return count;
+    }
+
+    // Large, slow, buoyant puffs that linger and spread with the wind
+    public static ParticleEmitter tyreSmoke() {
+        ParticleEmitter emitter = new ParticleEmitter();
+        emitter.positionSpread = 0.15f;
+        emitter.velocitySpread = 0.6f;
+        emitter.velocity.set(0.0f, 0.8f, 0.0f);
+        emitter.minLifetime = 2.5f;
+        emitter.maxLifetime = 5.0f;
+        emitter.startSize = 0.4f;
+        emitter.endSize = 3.0f;
+        emitter.drag = 1.5f;
+        emitter.gravityScale = -0.05f;
+        emitter.color.set(0.85f, 0.85f, 0.85f, 0.25f);
+        return emitter;
+    }
+
+    // Small, fast, heavy bits of gravel that fall and bounce
+    public static ParticleEmitter debris() {
+        ParticleEmitter emitter = new ParticleEmitter();
+        emitter.positionSpread = 0.05f;
+        emitter.velocitySpread = 2.5f;
+        emitter.velocity.set(0.0f, 3.0f, 0.0f);
+        emitter.minLifetime = 0.8f;
+        emitter.maxLifetime = 1.6f;
+        emitter.startSize = 0.04f;
+        emitter.endSize = 0.03f;
+        emitter.drag = 0.1f;
+        emitter.gravityScale = 1.0f;
+        emitter.color.set(0.35f, 0.3f, 0.25f, 1.0f);
+        return emitter;
+    }
+}
@@ -0,0 +1,105 @@
+package com.coldary.objects;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+// Everything the render thread needs from one simulation step. Allocated up front and
+// reused through the triple buffer, the simulation only ever overwrites fields.
+public class RenderSnapshot {
+
+    public static final int INITIAL_CAPACITY = 1024;
+
+    public long sequence;
+    public long tick;
+
+    // Camera
+    public final Matrix4f view = new Matrix4f();
+    public final Matrix4f projection = new Matrix4f();
+    public final Vector3f cameraPosition = new Vector3f();
+    public final Vector3f cameraFront = new Vector3f();
+    public float yaw;
+    public float pitch;
+    public float mouseSensitivity;
+
+    // Cursor position the camera above already reflects, used for late latching
+    public boolean cursorValid;
+    public double cursorX;
+    public double cursorY;
+
+    // Running count of screenshot key presses, the renderer captures when it changes
+    public int screenshotRequests;
+    // Same for the performance HUD toggle
+    public int hudToggles;
+
+    // Oldest input timestamp consumed since the previous snapshot, 0 if none
+    public long inputTimeNanos;
+    public boolean replayFinished;
+
+    // Renderables that survived culling: column-major 4x4 world matrices and their handles.
+    // Grown on the simulation thread only when the visible count exceeds the capacity.
+    public float[] transforms = new float[INITIAL_CAPACITY * 16];
+    public int[] meshHandles = new int[INITIAL_CAPACITY];
+    public int[] materialHandles = new int[INITIAL_CAPACITY];
+    public int drawCount;
+
+    // Culling counters for the frame that produced this snapshot
+    public int frustumCulledCount;
+    public int occlusionCulledCount;
+    public float occlusionCoverageSaved;
+
+    // Shadow casters within reach of the sun's cascades, whether or not the camera sees them:
+    // world matrices, world AABBs (min xyz, max xyz), handles and the dynamic flag. Static
+    // casters only need redrawing into cached cascades when staticCasterVersion changes.
+    public float[] casterTransforms = new float[INITIAL_CAPACITY * 16];
+    public float[] casterBounds = new float[INITIAL_CAPACITY * 6];
+    public int[] casterMeshHandles = new int[INITIAL_CAPACITY];
+    public boolean[] casterDynamic = new boolean[INITIAL_CAPACITY];
+    public int casterCount;
+    public long staticCasterVersion;
+    // Reach the casters were gathered within, what the renderer last asked for
+    public float casterRadius;
+
+    // Dynamic lights packed as LightList.STRIDE floats each, grown like the draw list
+    public float[] lights = new float[64 * LightList.STRIDE];
+    public int lightCount;
+
+    public void ensureCapacity(int count) {
+        if (count <= meshHandles.length) {
+            return;
+        }
+        int capacity = Math.max(count, meshHandles.length * 2);
+        transforms = new float[capacity * 16];
+        meshHandles = new int[capacity];
+        materialHandles = new int[capacity];
+    }
+
+    public void ensureCasterCapacity(int count) {
+        if (count <= casterMeshHandles.length) {
+            return;
+        }
+        int capacity = Math.max(count, casterMeshHandles.length * 2);
+        casterTransforms = new float[capacity * 16];
+        casterBounds = new float[capacity * 6];
+        casterMeshHandles = new int[capacity];
+        casterDynamic = new boolean[capacity];
+    }
+
+    public void ensureLightCapacity(int count) {
+        if (count * LightList.STRIDE <= lights.length) {
+            return;
+        }
+        lights = new float[Math.max(count * LightList.STRIDE, lights.length * 2)];
+    }
+
+    public void getTransform(int index, Matrix4f dest) {
+        dest.set(transforms, index * 16);
+    }
+
+    public void getCasterTransform(int index, Matrix4f dest) {
+        dest.set(casterTransforms, index * 16);
+    }
+
+    public void setTransform(int index, Matrix4f transform) {
+        transform.get(transforms, index * 16);
+    }
+}
@@ -0,0 +1,131 @@
+package com.coldary.objects;
+
+import com.coldary.utils.NativeMemory;
+
+import java.nio.ByteBuffer;
+
+// Procedural heightfield terrain: fractal value noise sampled on a regular grid per chunk.
+// Heights and normals are pure functions of world position, so neighbouring chunks built
+// on different threads meet without cracks or lighting seams.
+public class TerrainChunkSource implements ChunkSource {
+
+    private static final int OCTAVES = 4;
+    // Horizontal size of the coarsest noise feature in world units
+    private static final float FEATURE_SIZE = 48.0f;
+    // Texture repeats every this many world units
+    private static final float UV_SCALE = 1.0f / 4.0f;
+
+    private final int resolution;
+    private final long seed;
+    private final float baseHeight;
+    private final float amplitude;
+
+    // resolution quads per chunk side; up to 255 keeps the indices 16-bit
+    public TerrainChunkSource(int resolution, long seed, float baseHeight, float amplitude) {
+        this.resolution = resolution;
+        this.seed = seed;
+        this.baseHeight = baseHeight;
+        this.amplitude = amplitude;
+    }
+
+    @Override
+    public ChunkMesh build(int chunkX, int chunkZ, float chunkSize) {
+        int row = resolution + 1;
+        int vertexCount = row * row;
+        int indexCount = resolution * resolution * 6;
+        int indexSize = vertexCount <= 0x10000 ? Short.BYTES : Integer.BYTES;
+
+        ByteBuffer vertices = NativeMemory.alloc(NativeMemory.Tag.MESH, vertexCount * ChunkMesh.VERTEX_BYTES);
+        ByteBuffer indices = NativeMemory.alloc(NativeMemory.Tag.MESH, indexCount * indexSize);
+        ChunkMesh mesh = new ChunkMesh(vertices, indices, indexCount, indexSize);
+
+        float cell = chunkSize / resolution;
+        float originX = chunkX * chunkSize;
+        float originZ = chunkZ * chunkSize;
+        float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for (int j = 0; j <= resolution; j++) {
+            for (int i = 0; i <= resolution; i++) {
+                // From the global grid index, so both chunks sharing an edge compute it identically
+                float x = (chunkX * resolution + i) * cell;
+                float z = (chunkZ * resolution + j) * cell;
+                float y = height(x, z);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+
+                // Central differences, the same at a chunk edge from either side
+                float dx = height(x + cell, z) - height(x - cell, z);
+                float dz = height(x, z + cell) - height(x, z - cell);
+                float nx = -dx, ny = 2 * cell, nz = -dz;
+                float inverseLength = (float) (1.0 / Math.sqrt(nx * nx + ny * ny + nz * nz));
+
+                vertices.putFloat(x).putFloat(y).putFloat(z);
+                vertices.putFloat(nx * inverseLength).putFloat(ny * inverseLength).putFloat(nz * inverseLength);
+                vertices.putFloat(x * UV_SCALE).putFloat(z * UV_SCALE);
+            }
+        }
+        vertices.flip();
+
+        for (int j = 0; j < resolution; j++) {
+            for (int i = 0; i < resolution; i++) {
+                int v = j * row + i;
+                putIndex(indices, indexSize, v);
+                putIndex(indices, indexSize, v + row);
+                putIndex(indices, indexSize, v + 1);
+                putIndex(indices, indexSize, v + 1);
+                putIndex(indices, indexSize, v + row);
+                putIndex(indices, indexSize, v + row + 1);
+            }
+        }
+        indices.flip();
+
+        mesh.bounds[0] = originX;
+        mesh.bounds[1] = minY;
+        mesh.bounds[2] = originZ;
+        mesh.bounds[3] = originX + chunkSize;
+        mesh.bounds[4] = maxY;
+        mesh.bounds[5] = originZ + chunkSize;
+        return mesh;
+    }
+
+    private static void putIndex(ByteBuffer indices, int indexSize, int index) {
+        if (indexSize == Short.BYTES) {
+            indices.putShort((short) index);
+        } else {
+            indices.putInt(index);
+        }
+    }
+
+    public float height(float x, float z) {
+        float sum = 0;
+        float weight = 1;
+        float frequency = 1.0f / FEATURE_SIZE;
+        for (int octave = 0; octave < OCTAVES; octave++) {
+            sum += valueNoise(x * frequency, z * frequency, octave) * weight;
+            weight *= 0.5f;
+            frequency *= 2.0f;
+        }
+        return baseHeight + sum * amplitude;
+    }
+
+    // Smoothly interpolated lattice noise in [-1, 1]
+    private float valueNoise(float x, float z, int octave) {
+        int x0 = (int) Math.floor(x);
+        int z0 = (int) Math.floor(z);
+        float fx = x - x0, fz = z - z0;
+        float sx = fx * fx * (3 - 2 * fx);
+        float sz = fz * fz * (3 - 2 * fz);
+        float a = lattice(x0, z0, octave), b = lattice(x0 + 1, z0, octave);
+        float c = lattice(x0, z0 + 1, octave), d = lattice(x0 + 1, z0 + 1, octave);
+        float top = a + (b - a) * sx;
+        float bottom = c + (d - c) * sx;
+        return top + (bottom - top) * sz;
+    }
+
+    private float lattice(int x, int z, int octave) {
+        long h = seed ^ (x * 0x9E3779B97F4A7C15L) ^ (z * 0xC2B2AE3D27D4EB4FL) ^ (octave * 0x165667B19E3779F9L);
+        h = (h ^ (h >>> 31)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 29)) * 0x94D049BB133111EBL;
+        h ^= h >>> 32;
+        return (h & 0xFFFFFF) / (float) 0x7FFFFF - 1.0f;
+    }
+}
@@ -0,0 +1,205 @@
+package com.coldary.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.lwjgl.util.lz4.LZ4.LZ4_decompress_safe;
+import static org.lwjgl.util.zstd.Zstd.*;
+
+public class AssetPack implements AutoCloseable {
+
+    // Layout (little endian):
+    //   header   MAGIC, VERSION, entryCount, namesSize
+    //   toc      entryCount * TOC_ENTRY_SIZE, sorted by (hash, name)
+    //   names    UTF-8 paths referenced by the toc
+    //   data     entry payloads, each stored raw, LZ4 or zstd compressed
+    public static final int MAGIC = 0x4B505244; // "DRPK"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int TOC_ENTRY_SIZE = 32;
+
+    public static final int COMPRESSION_NONE = 0;
+    public static final int COMPRESSION_LZ4 = 1;
+    public static final int COMPRESSION_ZSTD = 2;
+
+    // Offsets inside a toc entry
+    private static final int TOC_HASH = 0;
+    private static final int TOC_DATA_OFFSET = 8;
+    private static final int TOC_STORED_SIZE = 16;
+    private static final int TOC_ORIGINAL_SIZE = 20;
+    private static final int TOC_NAME_OFFSET = 24;
+    private static final int TOC_NAME_LENGTH = 28;
+    private static final int TOC_COMPRESSION = 30;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final int entryCount;
+    private final int namesOffset;
+
+    public AssetPack(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (channel.size() > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Asset pack larger than 2 GB is not supported: " + path);
+        }
+
+        // Mapped once, every lookup after this is a page cache hit
+        this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mapped.getInt(0) != MAGIC) {
+            close();
+            throw new IOException("Not an asset pack: " + path);
+        }
+        if (mapped.getInt(4) != VERSION) {
+            close();
+            throw new IOException("Unsupported asset pack version " + mapped.getInt(4) + ": " + path);
+        }
+        this.entryCount = mapped.getInt(8);
+        this.namesOffset = HEADER_SIZE + entryCount * TOC_ENTRY_SIZE;
+    }
+
+    public boolean contains(String name) {
+        return find(name) >= 0;
+    }
+
+    // Returns a read-only view of the entry. Uncompressed entries are slices of the
+    // mapping itself, compressed ones are decoded into a fresh direct buffer.
+    public ByteBuffer get(String name) {
+        int entry = find(name);
+        if (entry < 0) {
+            return null;
+        }
+
+        int toc = HEADER_SIZE + entry * TOC_ENTRY_SIZE;
+        int dataOffset = (int) mapped.getLong(toc + TOC_DATA_OFFSET);
+        int storedSize = mapped.getInt(toc + TOC_STORED_SIZE);
+        int originalSize = mapped.getInt(toc + TOC_ORIGINAL_SIZE);
+        int compression = mapped.get(toc + TOC_COMPRESSION);
+
+        ByteBuffer stored = mapped.slice(dataOffset, storedSize).order(ByteOrder.LITTLE_ENDIAN);
+        switch (compression) {
+            case COMPRESSION_NONE:
+                return stored.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            case COMPRESSION_LZ4:
+                return decompressLZ4(name, stored, originalSize);
+            case COMPRESSION_ZSTD:
+                return decompressZstd(name, stored, originalSize);
+            default:
+                throw new RuntimeException("Unknown compression " + compression + " for asset: " + name);
+        }
+    }
+
+    private ByteBuffer decompressLZ4(String name, ByteBuffer stored, int originalSize) {
+        ByteBuffer out = ByteBuffer.allocateDirect(originalSize).order(ByteOrder.LITTLE_ENDIAN);
+        int written = LZ4_decompress_safe(stored, out);
+        if (written != originalSize) {
+            throw new RuntimeException("Corrupt LZ4 asset: " + name);
+        }
+        return out.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private ByteBuffer decompressZstd(String name, ByteBuffer stored, int originalSize) {
+        ByteBuffer out = ByteBuffer.allocateDirect(originalSize).order(ByteOrder.LITTLE_ENDIAN);
+        long written = ZSTD_decompress(out, stored);
+        if (ZSTD_isError(written) || written != originalSize) {
+            throw new RuntimeException("Corrupt zstd asset: " + name);
+        }
+        return out.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Binary search on the hash, then a short scan over colliding entries
+    private int find(String name) {
+        byte[] key = normalize(name).getBytes(StandardCharsets.UTF_8);
+        long hash = hash(key);
+
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midHash = hashAt(mid);
+            int cmp = Long.compareUnsigned(midHash, hash);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                int first = mid;
+                while (first > 0 && hashAt(first - 1) == hash) {
+                    first--;
+                }
+                for (int i = first; i < entryCount && hashAt(i) == hash; i++) {
+                    if (nameEquals(i, key)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private long hashAt(int entry) {
+        return mapped.getLong(HEADER_SIZE + entry * TOC_ENTRY_SIZE + TOC_HASH);
+    }
+
+    private boolean nameEquals(int entry, byte[] key) {
+        int toc = HEADER_SIZE + entry * TOC_ENTRY_SIZE;
+        int nameOffset = namesOffset + mapped.getInt(toc + TOC_NAME_OFFSET);
+        int nameLength = Short.toUnsignedInt(mapped.getShort(toc + TOC_NAME_LENGTH));
+        if (nameLength != key.length) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (mapped.get(nameOffset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getName(int entry) {
+        int toc = HEADER_SIZE + entry * TOC_ENTRY_SIZE;
+        int nameOffset = namesOffset + mapped.getInt(toc + TOC_NAME_OFFSET);
+        int nameLength = Short.toUnsignedInt(mapped.getShort(toc + TOC_NAME_LENGTH));
+        byte[] bytes = new byte[nameLength];
+        mapped.get(nameOffset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Pack keys are resource paths without the leading slash used by getResourceAsStream
+    public static String normalize(String name) {
+        return name.startsWith("/") ? name.substring(1) : name;
+    }
+
+    // 64-bit FNV-1a, cheap and good enough to spread resource paths
+    public static long hash(byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            hash ^= (b & 0xff);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,186 @@
+package com.coldary.utils;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.lwjgl.util.lz4.LZ4.LZ4_compressBound;
+import static org.lwjgl.util.lz4.LZ4.LZ4_compress_default;
+import static org.lwjgl.util.zstd.Zstd.*;
+
+public class AssetPacker {
+
+    // Small files are not worth a decompression step, and a result has to save
+    // at least this fraction of the input to be stored compressed.
+    private static final int MIN_COMPRESS_SIZE = 4096;
+    private static final double MIN_SAVING = 0.1;
+    private static final int ZSTD_LEVEL = 19;
+
+    private static class Entry {
+        String name;
+        byte[] nameBytes;
+        long hash;
+        byte[] data;
+        int originalSize;
+        int compression;
+    }
+
+    public static void pack(Path sourceDir, Path packFile, int compression) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(sourceDir)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                Entry entry = new Entry();
+                entry.name = sourceDir.relativize(file).toString().replace('\\', '/');
+                entry.nameBytes = entry.name.getBytes(StandardCharsets.UTF_8);
+                if (entry.nameBytes.length > 0xFFFF) {
+                    throw new IOException("Asset path too long: " + entry.name);
+                }
+                entry.hash = AssetPack.hash(entry.nameBytes);
+                byte[] raw = Files.readAllBytes(file);
+                entry.originalSize = raw.length;
+                compress(entry, raw, isMappedBinary(entry.name) ? AssetPack.COMPRESSION_NONE : compression);
+                entries.add(entry);
+            }
+        }
+
+        // Sorted by hash so the reader can binary search without building an index
+        entries.sort(Comparator.<Entry>comparingLong(e -> e.hash ^ Long.MIN_VALUE).thenComparing(e -> e.name));
+
+        int namesSize = 0;
+        for (Entry entry : entries) {
+            namesSize += entry.nameBytes.length;
+        }
+        long dataStart = AssetPack.HEADER_SIZE + (long) entries.size() * AssetPack.TOC_ENTRY_SIZE + namesSize;
+        // Keep payloads 16-byte aligned so they can be handed to GL as-is
+        dataStart = align(dataStart, 16);
+
+        ByteBuffer header = ByteBuffer.allocate((int) dataStart).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(AssetPack.MAGIC);
+        header.putInt(AssetPack.VERSION);
+        header.putInt(entries.size());
+        header.putInt(namesSize);
+
+        long dataOffset = dataStart;
+        int nameOffset = 0;
+        for (Entry entry : entries) {
+            header.putLong(entry.hash);
+            header.putLong(dataOffset);
+            header.putInt(entry.data.length);
+            header.putInt(entry.originalSize);
+            header.putInt(nameOffset);
+            header.putShort((short) entry.nameBytes.length);
+            header.put((byte) entry.compression);
+            header.put((byte) 0);
+            nameOffset += entry.nameBytes.length;
+            dataOffset = align(dataOffset + entry.data.length, 16);
+        }
+        for (Entry entry : entries) {
+            header.put(entry.nameBytes);
+        }
+        header.position(0);
+
+        try (FileChannel out = FileChannel.open(packFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(header);
+            long position = dataStart;
+            for (Entry entry : entries) {
+                out.write(ByteBuffer.wrap(entry.data), position);
+                position = align(position + entry.data.length, 16);
+            }
+            // Pad the tail so the last aligned entry is fully inside the file
+            if (out.size() < position) {
+                out.write(ByteBuffer.allocate((int) (position - out.size())), out.size());
+            }
+        }
+
+        long rawTotal = 0;
+        long storedTotal = 0;
+        for (Entry entry : entries) {
+            rawTotal += entry.originalSize;
+            storedTotal += entry.data.length;
+        }
+        System.out.println("Packed " + entries.size() + " assets into " + packFile + ": " + rawTotal + " -> " + storedTotal + " bytes");
+    }
+
+    private static void compress(Entry entry, byte[] raw, int compression) {
+        entry.data = raw;
+        entry.compression = AssetPack.COMPRESSION_NONE;
+        if (compression == AssetPack.COMPRESSION_NONE || raw.length < MIN_COMPRESS_SIZE) {
+            return;
+        }
+
+        ByteBuffer src = MemoryUtil.memAlloc(raw.length);
+        ByteBuffer dst = null;
+        try {
+            src.put(raw).flip();
+            long compressedSize;
+            if (compression == AssetPack.COMPRESSION_LZ4) {
+                dst = MemoryUtil.memAlloc(LZ4_compressBound(raw.length));
+                compressedSize = LZ4_compress_default(src, dst);
+                if (compressedSize <= 0) {
+                    return;
+                }
+            } else {
+                dst = MemoryUtil.memAlloc((int) ZSTD_compressBound(raw.length));
+                compressedSize = ZSTD_compress(dst, src, ZSTD_LEVEL);
+                if (ZSTD_isError(compressedSize)) {
+                    return;
+                }
+            }
+
+            if (compressedSize <= raw.length * (1.0 - MIN_SAVING)) {
+                byte[] packed = new byte[(int) compressedSize];
+                dst.get(0, packed);
+                entry.data = packed;
+                entry.compression = compression;
+            }
+        } finally {
+            MemoryUtil.memFree(src);
+            if (dst != null) {
+                MemoryUtil.memFree(dst);
+            }
+        }
+    }
+
+    // glTF binaries are uploaded straight from the mapped pack, so they stay uncompressed
+    // and loading them costs only the page-ins
+    private static boolean isMappedBinary(String name) {
+        return name.endsWith(".glb") || name.endsWith(".bin");
+    }
+
+    private static long align(long value, int alignment) {
+        return (value + alignment - 1) & -alignment;
+    }
+
+    // Usage: AssetPacker <sourceDir> <packFile> [none|lz4|zstd]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: AssetPacker <sourceDir> <packFile> [none|lz4|zstd]");
+            System.exit(2);
+        }
+
+        int compression = AssetPack.COMPRESSION_LZ4;
+        if (args.length > 2) {
+            switch (args[2]) {
+                case "none": compression = AssetPack.COMPRESSION_NONE; break;
+                case "lz4": compression = AssetPack.COMPRESSION_LZ4; break;
+                case "zstd": compression = AssetPack.COMPRESSION_ZSTD; break;
+                default:
+                    System.err.println("Unknown compression: " + args[2]);
+                    System.exit(2);
+            }
+        }
+
+        pack(Path.of(args[0]), Path.of(args[1]), compression);
+    }
+}
@@ -0,0 +1,140 @@
+package com.coldary.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class Assets {
+
+    // Mounted pack, or null when running straight from the classpath (development)
+    private static AssetPack pack;
+
+    private Assets() {
+    }
+
+    public static void mount(Path packFile) {
+        try {
+            AssetPack opened = new AssetPack(packFile);
+            unmount();
+            pack = opened;
+            System.out.println("Mounted asset pack " + packFile + " (" + opened.getEntryCount() + " entries)");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to mount asset pack: " + packFile, e);
+        }
+    }
+
+    // Mounts the pack named by -Ddrift.assetPack, or assets.pak in the working directory if present
+    public static void mountDefault() {
+        String configured = System.getProperty("drift.assetPack");
+        Path packFile = Path.of(configured != null ? configured : "assets.pak");
+        if (Files.isRegularFile(packFile)) {
+            mount(packFile);
+        } else if (configured != null) {
+            System.err.println("Asset pack not found, using classpath resources: " + packFile);
+        }
+    }
+
+    public static void unmount() {
+        if (pack != null) {
+            try {
+                pack.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            pack = null;
+        }
+    }
+
+    public static boolean exists(String path) {
+        if (pack != null && pack.contains(path)) {
+            return true;
+        }
+        return Assets.class.getResource(classpathName(path)) != null;
+    }
+
+    public static ByteBuffer load(String path) {
+        if (pack != null) {
+            ByteBuffer buffer = pack.get(path);
+            if (buffer != null) {
+                return buffer;
+            }
+        }
+        return loadFromClasspath(path);
+    }
+
+    public static String readText(String path) {
+        ByteBuffer buffer = load(path);
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+
+    public static InputStream openStream(String path) {
+        return new ByteBufferInputStream(load(path));
+    }
+
+    private static ByteBuffer loadFromClasspath(String path) {
+        // Resources on disk (an exploded build) are mapped like pack entries
+        URL url = Assets.class.getResource(classpathName(path));
+        if (url != null && "file".equals(url.getProtocol())) {
+            try (FileChannel channel = FileChannel.open(Path.of(url.toURI()), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            } catch (IOException | URISyntaxException e) {
+                throw new RuntimeException("Failed to map asset: " + path, e);
+            }
+        }
+        try (InputStream inputStream = Assets.class.getResourceAsStream(classpathName(path))) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("File not found: " + path);
+            }
+            byte[] bytes = inputStream.readAllBytes();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(bytes).flip();
+            return buffer;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load asset: " + path, e);
+        }
+    }
+
+    private static String classpathName(String path) {
+        return path.startsWith("/") ? path : "/" + path;
+    }
+
+    // Streams straight out of the (possibly mapped) buffer without copying it first
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
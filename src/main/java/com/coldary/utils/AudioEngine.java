@@ -0,0 +1,394 @@
+package com.coldary.utils;
+
+import org.lwjgl.openal.AL;
+import org.lwjgl.openal.ALC;
+import org.lwjgl.openal.ALCCapabilities;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.lwjgl.openal.AL10.*;
+import static org.lwjgl.openal.ALC10.*;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+// OpenAL output on its own thread. Everything that touches OpenAL or a decoder happens there:
+// long sounds (the engine loop, ambience) are decoded from Opus a few milliseconds ahead into
+// a ring of RING_BUFFERS small buffers per stream, short effects are decoded once into the
+// SoundCache and played on a fixed pool of sources.
+//
+// Other threads only write parameters and queue effects, neither of which waits or allocates:
+// setEngine() stores two volatiles the audio thread applies on its next wake, within
+// UPDATE_NANOS, and since pitch and gain act at mix time the change is heard without waiting
+// for the queued PCM to drain. The render thread does not call in at all.
+//
+// A stream whose queue runs dry before it is refilled stops in OpenAL; that is counted as an
+// underrun and the stream restarted from freshly decoded buffers.
+public class AudioEngine implements Runnable {
+
+    // 4 x 1024 frames at 48 kHz: about 85 ms queued per stream
+    private static final int RING_BUFFERS = 4;
+    private static final int RING_FRAMES = 1024;
+    private static final long UPDATE_NANOS = 2_000_000L;
+    private static final int EFFECT_VOICES = 16;
+    // Power of two, effects queued between two wakes of the audio thread
+    private static final int EFFECT_QUEUE = 64;
+
+    private final String engineSound;
+    private final String ambientSound;
+    private final long cacheBudgetBytes;
+
+    // Written by the simulation, applied by the audio thread
+    private volatile float enginePitch = 1.0f;
+    private volatile float engineGain;
+
+    // Single producer / single consumer ring of effect requests, laid out like InputEventQueue.
+    // head: next slot to play, tail: next slot to write.
+    private final String[] effectPaths = new String[EFFECT_QUEUE];
+    private final float[] effectGains = new float[EFFECT_QUEUE];
+    private final float[] effectPitches = new float[EFFECT_QUEUE];
+    private final AtomicLong effectHead = new AtomicLong();
+    private final AtomicLong effectTail = new AtomicLong();
+    private final AtomicLong droppedEffects = new AtomicLong();
+
+    private volatile boolean running;
+    private volatile boolean enabled;
+    private Thread thread;
+
+    // Audio thread only
+    private long device;
+    private long context;
+    private StreamingVoice engine;
+    private StreamingVoice ambient;
+    private final int[] effectSources = new int[EFFECT_VOICES];
+    private int nextVoice;
+    private SoundCache cache;
+    private final Set<String> failedEffects = new HashSet<>();
+    private float appliedPitch = Float.NaN;
+    private float appliedGain = Float.NaN;
+
+    // Stats, written by the audio thread
+    private volatile long underruns;
+    private volatile long stolenVoices;
+    private volatile long effectsPlayed;
+    private volatile float worstUpdateMillis;
+    private long updates;
+    private double totalUpdateMillis;
+    private String cacheReport = "Sound cache: not opened";
+
+    // One streamed sound: a looping decoder feeding a source through a ring of buffers
+    private final class StreamingVoice {
+        private final OpusStream stream;
+        private final int source;
+        private final int[] buffers = new int[RING_BUFFERS];
+        private final ShortBuffer pcm;
+        private boolean ended;
+
+        private StreamingVoice(OpusStream stream) {
+            this.stream = stream;
+            source = alGenSources();
+            alGenBuffers(buffers);
+            pcm = NativeMemory.allocShort(NativeMemory.Tag.AUDIO, RING_FRAMES * stream.getChannels());
+            // Heard from the listener's position, no attenuation or panning
+            alSourcei(source, AL_SOURCE_RELATIVE, AL_TRUE);
+        }
+
+        private void start() {
+            for (int buffer : buffers) {
+                if (fill(buffer)) {
+                    alSourceQueueBuffers(source, buffer);
+                }
+            }
+            alSourcePlay(source);
+        }
+
+        private boolean fill(int buffer) {
+            if (ended || stream.read(pcm) == 0) {
+                ended = true;
+                return false;
+            }
+            alBufferData(buffer, stream.getAlFormat(), pcm, OpusStream.SAMPLE_RATE);
+            return true;
+        }
+
+        // Refills whatever OpenAL has finished with, restarting the source if it ran dry
+        private void service() {
+            for (int processed = alGetSourcei(source, AL_BUFFERS_PROCESSED); processed > 0; processed--) {
+                int buffer = alSourceUnqueueBuffers(source);
+                if (fill(buffer)) {
+                    alSourceQueueBuffers(source, buffer);
+                }
+            }
+            if (!ended && alGetSourcei(source, AL_SOURCE_STATE) != AL_PLAYING) {
+                if (underruns++ == 0) {
+                    System.err.println("Audio underrun in " + stream.getPath() + ", the stream is decoded too late");
+                }
+                alSourcePlay(source);
+            }
+        }
+
+        private void dispose() {
+            alSourceStop(source);
+            alDeleteSources(source);
+            alDeleteBuffers(buffers);
+            NativeMemory.free(pcm);
+            stream.free();
+        }
+    }
+
+    // ambientSound may be null. Nothing is opened until start().
+    public AudioEngine(String engineSound, String ambientSound, long cacheBudgetBytes) {
+        this.engineSound = engineSound;
+        this.ambientSound = ambientSound;
+        this.cacheBudgetBytes = cacheBudgetBytes;
+    }
+
+    // Opens the device on the audio thread, so a slow driver does not hold up the caller
+    public void start() {
+        running = true;
+        thread = new Thread(this, "Audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Any thread. Takes effect within UPDATE_NANOS.
+    public void setEngine(float pitch, float gain) {
+        enginePitch = pitch;
+        engineGain = gain;
+    }
+
+    // Producer side, one thread only (the simulation). The path should be a constant, the
+    // queue keeps the reference. Dropped and counted if the audio thread is a full ring behind.
+    public boolean playEffect(String path, float gain, float pitch) {
+        long t = effectTail.get();
+        if (t - effectHead.get() >= EFFECT_QUEUE) {
+            droppedEffects.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) t & (EFFECT_QUEUE - 1);
+        effectPaths[slot] = path;
+        effectGains[slot] = gain;
+        effectPitches[slot] = pitch;
+        effectTail.lazySet(t + 1);
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!open()) {
+                return;
+            }
+            while (running) {
+                long start = System.nanoTime();
+                update();
+                float millis = (System.nanoTime() - start) / 1e6f;
+                worstUpdateMillis = Math.max(worstUpdateMillis, millis);
+                totalUpdateMillis += millis;
+                updates++;
+
+                LockSupport.parkNanos(UPDATE_NANOS);
+            }
+        } catch (RuntimeException | LinkageError e) {
+            // Sound is not worth taking the game down for, nor is a missing OpenAL library
+            System.err.println("Audio thread failed, sound is off");
+            e.printStackTrace();
+        } finally {
+            close();
+            NativeMemory.threadExit();
+        }
+    }
+
+    // False when there is no device; close() cleans up after a partial open either way
+    private boolean open() {
+        device = alcOpenDevice((ByteBuffer) null);
+        if (device == NULL) {
+            System.err.println("No audio device, sound is off");
+            return false;
+        }
+        ALCCapabilities deviceCapabilities = ALC.createCapabilities(device);
+        context = alcCreateContext(device, (IntBuffer) null);
+        if (context == NULL || !alcMakeContextCurrent(context)) {
+            System.err.println("Failed to create an OpenAL context, sound is off");
+            return false;
+        }
+        AL.createCapabilities(deviceCapabilities);
+
+        alGenSources(effectSources);
+        for (int source : effectSources) {
+            alSourcei(source, AL_SOURCE_RELATIVE, AL_TRUE);
+        }
+        cache = new SoundCache(cacheBudgetBytes, this::detachBuffer);
+
+        engine = openStream(engineSound);
+        ambient = ambientSound != null ? openStream(ambientSound) : null;
+        if (engine != null) {
+            applyEngine();
+            engine.start();
+        }
+        if (ambient != null) {
+            ambient.start();
+        }
+        System.out.println("Audio: " + alcGetString(device, ALC_DEVICE_SPECIFIER));
+        enabled = true;
+        return true;
+    }
+
+    private StreamingVoice openStream(String path) {
+        if (!Assets.exists(path)) {
+            System.err.println("Sound not found, skipping: " + path);
+            return null;
+        }
+        return new StreamingVoice(OpusStream.open(path, true));
+    }
+
+    private void update() {
+        if (engine != null) {
+            applyEngine();
+            engine.service();
+        }
+        if (ambient != null) {
+            ambient.service();
+        }
+        drainEffects();
+    }
+
+    private void applyEngine() {
+        float pitch = enginePitch;
+        float gain = engineGain;
+        if (pitch != appliedPitch) {
+            // OpenAL only promises pitch in (0, 2]
+            alSourcef(engine.source, AL_PITCH, Math.max(0.05f, Math.min(pitch, 2.0f)));
+            appliedPitch = pitch;
+        }
+        if (gain != appliedGain) {
+            alSourcef(engine.source, AL_GAIN, gain);
+            appliedGain = gain;
+        }
+    }
+
+    private void drainEffects() {
+        long h = effectHead.get();
+        while (h != effectTail.get()) {
+            int slot = (int) h & (EFFECT_QUEUE - 1);
+            String path = effectPaths[slot];
+            float gain = effectGains[slot];
+            float pitch = effectPitches[slot];
+            effectPaths[slot] = null;
+            effectHead.lazySet(++h);
+            play(path, gain, pitch);
+        }
+    }
+
+    private void play(String path, float gain, float pitch) {
+        if (failedEffects.contains(path)) {
+            return;
+        }
+        int buffer;
+        try {
+            buffer = cache.get(path);
+        } catch (RuntimeException e) {
+            // Reported once, later requests for it are ignored
+            failedEffects.add(path);
+            System.err.println("Effect unavailable: " + path + " (" + e.getMessage() + ")");
+            return;
+        }
+        int source = claimVoice();
+        alSourceStop(source);
+        alSourcei(source, AL_BUFFER, buffer);
+        alSourcef(source, AL_GAIN, gain);
+        alSourcef(source, AL_PITCH, pitch);
+        alSourcePlay(source);
+        effectsPlayed++;
+    }
+
+    // An idle source, or the one after the last claimed when every voice is busy
+    private int claimVoice() {
+        for (int i = 0; i < EFFECT_VOICES; i++) {
+            int voice = (nextVoice + i) % EFFECT_VOICES;
+            if (alGetSourcei(effectSources[voice], AL_SOURCE_STATE) != AL_PLAYING) {
+                nextVoice = (voice + 1) % EFFECT_VOICES;
+                return effectSources[voice];
+            }
+        }
+        stolenVoices++;
+        int source = effectSources[nextVoice];
+        nextVoice = (nextVoice + 1) % EFFECT_VOICES;
+        return source;
+    }
+
+    // OpenAL refuses to delete a buffer a source still holds
+    private void detachBuffer(int buffer) {
+        for (int source : effectSources) {
+            if (alGetSourcei(source, AL_BUFFER) == buffer) {
+                alSourceStop(source);
+                alSourcei(source, AL_BUFFER, 0);
+            }
+        }
+    }
+
+    private void close() {
+        enabled = false;
+        if (context != NULL) {
+            if (engine != null) {
+                engine.dispose();
+            }
+            if (ambient != null) {
+                ambient.dispose();
+            }
+            if (cache != null) {
+                cacheReport = cache.toString();
+                cache.dispose();
+                alDeleteSources(effectSources);
+            }
+            alcMakeContextCurrent(NULL);
+            alcDestroyContext(context);
+            context = NULL;
+        }
+        if (device != NULL) {
+            alcCloseDevice(device);
+            device = NULL;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public long getDroppedEffects() {
+        return droppedEffects.get();
+    }
+
+    public float getWorstUpdateMillis() {
+        return worstUpdateMillis;
+    }
+
+    // Once stop() has returned
+    @Override
+    public String toString() {
+        return String.format("Audio: %d underruns, %.3f ms average / %.3f ms worst update, %d effects played, %d dropped, %d voices stolen%n  %s",
+                underruns, totalUpdateMillis / Math.max(updates, 1), worstUpdateMillis, effectsPlayed,
+                droppedEffects.get(), stolenVoices, cacheReport);
+    }
+}
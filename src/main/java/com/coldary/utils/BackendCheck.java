@@ -0,0 +1,225 @@
+package com.coldary.utils;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.stb.STBImageWrite;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL33.*;
+
+// Renders a grid of cubes offscreen through one backend, writes the image and optionally
+// compares it with another run's, so the GL and Vulkan paths can be checked against each
+// other without a display:
+//
+//   BackendCheck gl gl.png
+//   BackendCheck vulkan vulkan.png 1280 720 4096 gl.png
+//
+// Arguments: backend (gl or vulkan), output png, width, height, cube count, reference png.
+// The Vulkan run needs no window system at all. On a machine without a GPU Mesa's lavapipe
+// runs it on the CPU: install mesa-vulkan-drivers and start the JVM with
+// VK_ICD_FILENAMES=/usr/share/vulkan/icd.d/lvp_icd.x86_64.json, with a build for Linux
+// (-Dlwjgl.natives=natives-linux). The GL run needs a context, under xvfb-run llvmpipe
+// provides one. The comparison line reports the mean and max channel difference; the GL
+// run also fails if the frames left anything in the GL error queue.
+public class BackendCheck {
+
+    private static final String MODEL_PATH = "/Objects/Cube.obj";
+    private static final String VERTEX_FILE = "/Shaders/backend/Vertex.mesh.glsl";
+    private static final String FRAGMENT_FILE = "/Shaders/backend/Fragment.mesh.glsl";
+    private static final int FRAMES = 3;
+    // Mean channel difference allowed between backends, rasterization rules differ at edges
+    private static final double MEAN_TOLERANCE = 1.0;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: BackendCheck <gl|vulkan> <output.png> [width] [height] [cubes] [reference.png]");
+            System.exit(2);
+        }
+        String backendName = args[0];
+        String output = args[1];
+        int width = args.length > 2 ? Integer.parseInt(args[2]) : 640;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : 360;
+        int cubes = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        String reference = args.length > 5 ? args[5] : null;
+
+        ModelLoader.MeshData meshData = ModelLoader.parse(Assets.openStream(MODEL_PATH));
+        ByteBuffer pixels = NativeMemory.alloc(NativeMemory.Tag.STAGING, width * height * 4);
+        long window = 0;
+        int framebuffer = 0;
+        RenderBackend backend;
+        if (backendName.equals("gl")) {
+            window = createHiddenContext();
+            framebuffer = createFramebuffer(width, height);
+            backend = new GlBackend(0);
+        } else if (backendName.equals("vulkan")) {
+            backend = new VulkanBackend(0);
+        } else {
+            throw new IllegalArgumentException("Unknown backend: " + backendName);
+        }
+        System.out.println("Backend: " + backend.getName());
+
+        RenderBackend.Mesh mesh = backend.createMesh(meshData);
+        RenderBackend.Pipeline pipeline = backend.createPipeline(new RenderBackend.PipelineDescription(VERTEX_FILE, FRAGMENT_FILE));
+        DrawList draws = new DrawList(cubes);
+        fillGrid(draws, pipeline, mesh, cubes);
+
+        Matrix4f projection = new Matrix4f().perspective((float) Math.toRadians(60.0), (float) width / height, 0.1f, 200.0f);
+        Vector3f eye = new Vector3f(0.0f, 6.0f, 14.0f);
+        Matrix4f view = new Matrix4f().lookAt(eye, new Vector3f(0.0f, 0.0f, 0.0f), new Vector3f(0.0f, 1.0f, 0.0f));
+
+        // Frames after the first show steady state cost, the last one is read back
+        long start = System.nanoTime();
+        for (int frame = 0; frame < FRAMES; frame++) {
+            if (framebuffer != 0) {
+                glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+            }
+            backend.beginFrame(width, height, 0.25f, 0.35f, 0.45f);
+            backend.setCamera(view, projection, eye);
+            backend.submit(draws);
+            backend.endFrame();
+            RenderStats.endFrame();
+        }
+        backend.readPixels(pixels);
+        // A GL error leaves the image looking fine often enough, fail on it instead
+        boolean glErrors = framebuffer != 0 && reportGlErrors();
+        System.out.printf("%d frames of %d cubes in %.1f ms%n", FRAMES, cubes, (System.nanoTime() - start) / 1_000_000.0);
+        System.out.println(backend);
+
+        // readPixels is bottom row first, the png is written top row first
+        STBImageWrite.stbi_flip_vertically_on_write(true);
+        if (!STBImageWrite.stbi_write_png(output, width, height, 4, pixels, width * 4)) {
+            throw new RuntimeException("stbi_write_png failed: " + output);
+        }
+        System.out.println("Wrote " + output);
+
+        mesh.dispose();
+        pipeline.dispose();
+        backend.dispose();
+        if (framebuffer != 0) {
+            glDeleteFramebuffers(framebuffer);
+        }
+        if (window != 0) {
+            glfwDestroyWindow(window);
+            glfwTerminate();
+        }
+
+        boolean matches = reference == null || compare(pixels, width, height, reference);
+        NativeMemory.free(pixels);
+        NativeMemory.checkStagingReleased("BackendCheck");
+        NativeMemory.shutdown();
+        if (!matches || glErrors) {
+            System.exit(1);
+        }
+    }
+
+    // A square grid of cubes, each turned a little further and tinted by its position
+    private static void fillGrid(DrawList draws, RenderBackend.Pipeline pipeline, RenderBackend.Mesh mesh, int cubes) {
+        int side = (int) Math.ceil(Math.sqrt(cubes));
+        float spacing = 16.0f / side;
+        float scale = spacing * 0.35f;
+        Matrix4f model = new Matrix4f();
+        for (int i = 0; i < cubes; i++) {
+            int x = i % side;
+            int z = i / side;
+            float px = (x - (side - 1) * 0.5f) * spacing;
+            float pz = (z - (side - 1) * 0.5f) * spacing;
+            model.translation(px, 0.0f, pz).rotateY(i * 0.3f).rotateX(i * 0.17f).scale(scale);
+            draws.add(pipeline, mesh, null, model, (float) x / side, 0.6f, (float) z / side, 1.0f);
+        }
+    }
+
+    private static long createHiddenContext() {
+        if (!glfwInit()) {
+            throw new IllegalStateException("Unable to initialize GLFW");
+        }
+        glfwDefaultWindowHints();
+        glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
+        glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
+        glfwWindowHint(GLFW_OPENGL_FORWARD_COMPAT, GLFW_TRUE);
+        long window = glfwCreateWindow(16, 16, "BackendCheck", 0, 0);
+        if (window == 0) {
+            throw new RuntimeException("Failed to create a hidden GL window");
+        }
+        glfwMakeContextCurrent(window);
+        GL.createCapabilities();
+        return window;
+    }
+
+    // Drains the error queue, printing each one; true if there were any
+    private static boolean reportGlErrors() {
+        boolean any = false;
+        for (int error = glGetError(); error != GL_NO_ERROR; error = glGetError()) {
+            System.out.printf("GL error 0x%04X%n", error);
+            any = true;
+        }
+        return any;
+    }
+
+    // A hidden window's default framebuffer may not be backed by anything, render to our own
+    private static int createFramebuffer(int width, int height) {
+        int framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        int color = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, color);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_RGBA8, width, height);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, color);
+        int depth = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depth);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depth);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Offscreen framebuffer incomplete");
+        }
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+        return framebuffer;
+    }
+
+    private static boolean compare(ByteBuffer pixels, int width, int height, String reference) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer w = stack.mallocInt(1);
+            IntBuffer h = stack.mallocInt(1);
+            IntBuffer channels = stack.mallocInt(1);
+            // Loaded bottom row first to line up with readPixels
+            STBImage.stbi_set_flip_vertically_on_load(true);
+            ByteBuffer expected = STBImage.stbi_load(reference, w, h, channels, 4);
+            STBImage.stbi_set_flip_vertically_on_load(false);
+            if (expected == null) {
+                throw new RuntimeException("Failed to load reference " + reference + ": " + STBImage.stbi_failure_reason());
+            }
+            try {
+                if (w.get(0) != width || h.get(0) != height) {
+                    System.out.printf("Reference is %dx%d, rendered %dx%d%n", w.get(0), h.get(0), width, height);
+                    return false;
+                }
+                long total = 0;
+                int max = 0;
+                long differing = 0;
+                for (int i = 0; i < width * height * 4; i++) {
+                    if ((i & 3) == 3) {
+                        continue;
+                    }
+                    int difference = Math.abs((pixels.get(i) & 0xFF) - (expected.get(i) & 0xFF));
+                    total += difference;
+                    max = Math.max(max, difference);
+                    if (difference > 8) {
+                        differing++;
+                    }
+                }
+                double mean = total / (width * height * 3.0);
+                System.out.printf("Against %s: mean difference %.3f, max %d, %.2f%% of channels off by more than 8%n",
+                        reference, mean, max, differing * 100.0 / (width * height * 3.0));
+                return mean <= MEAN_TOLERANCE;
+            } finally {
+                STBImage.stbi_image_free(expected);
+            }
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.coldary.utils;
+
+import com.coldary.objects.LightList;
+import org.joml.Matrix4f;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static org.lwjgl.opengl.GL31.*;
+
+// Clustered forward lighting. The view frustum is split into a 16x9 grid of screen tiles
+// with 24 exponential depth slices, every frame each light is assigned to the clusters its
+// sphere touches (one worker task per depth slice), and the light data, per-cluster
+// offset/count grid and light index list are uploaded into texture buffers. The fragment
+// shader looks up its cluster and only shades the lights in that list, so per-pixel cost
+// tracks the local light density instead of the total light count.
+public class ClusteredLighting implements GpuResource {
+
+    public static final int CLUSTERS_X = 16;
+    public static final int CLUSTERS_Y = 9;
+    public static final int CLUSTERS_Z = 24;
+    public static final int CLUSTER_COUNT = CLUSTERS_X * CLUSTERS_Y * CLUSTERS_Z;
+
+    // Lights past this in one cluster are dropped and counted as overflow
+    public static final int MAX_LIGHTS_PER_CLUSTER = 128;
+    // Indices are uploaded as 16 bit
+    public static final int MAX_LIGHTS = 0xFFFF;
+
+    // Texture units the cluster buffers are bound to, unit 0 is left to material textures
+    public static final int LIGHTS_UNIT = 1;
+    public static final int GRID_UNIT = 2;
+    public static final int INDICES_UNIT = 3;
+
+    private static final int LIGHT_BYTES = LightList.STRIDE * Float.BYTES;
+    private static final int GRID_BYTES = CLUSTER_COUNT * 2 * Integer.BYTES;
+
+    private final int lightBuffer;
+    private final int gridBuffer;
+    private final int indexBuffer;
+    private final int lightTexture;
+    private final int gridTexture;
+    private final int indexTexture;
+    private long lightBufferBytes;
+    private long indexBufferBytes;
+
+    // View space cluster AABBs (x, y and positive depth), rebuilt when the projection changes
+    private final float[] clusterBounds = new float[CLUSTER_COUNT * 6];
+    private float boundsM00 = Float.NaN;
+    private float boundsM11 = Float.NaN;
+    private float near;
+    private float far;
+
+    // Per-frame assignment state, only grows
+    private float[] lightViewX = new float[0];
+    private float[] lightViewY = new float[0];
+    private float[] lightDepth = new float[0];
+    private float[] lightRadius = new float[0];
+    private int[] lightMinSlice = new int[0];
+    private int[] lightMaxSlice = new int[0];
+    private final int[] clusterCounts = new int[CLUSTER_COUNT];
+    private final short[] clusterLights = new short[CLUSTER_COUNT * MAX_LIGHTS_PER_CLUSTER];
+    private final int[] sliceOverflow = new int[CLUSTERS_Z];
+    private int lightCount;
+
+    // Shader uniforms, looked up again whenever a different program is bound
+    private int boundProgram = -1;
+    private int dimsLocation;
+    private int tileSizeLocation;
+    private int depthParamsLocation;
+    private float tileWidth;
+    private float tileHeight;
+
+    // Stats
+    private int lastAssignments;
+    private int lastMaxPerCluster;
+    private int lastOverflow;
+    private long assignNanos;
+
+    public ClusteredLighting() {
+        lightBuffer = glGenBuffers();
+        gridBuffer = glGenBuffers();
+        indexBuffer = glGenBuffers();
+        lightTexture = glGenTextures();
+        gridTexture = glGenTextures();
+        indexTexture = glGenTextures();
+
+        lightBufferBytes = allocate(lightBuffer, 64L * LIGHT_BYTES);
+        allocate(gridBuffer, GRID_BYTES);
+        indexBufferBytes = allocate(indexBuffer, 4096L * Short.BYTES);
+
+        attach(lightTexture, GL_RGBA32F, lightBuffer);
+        attach(gridTexture, GL_RG32UI, gridBuffer);
+        attach(indexTexture, GL_R16UI, indexBuffer);
+    }
+
+    private static long allocate(int buffer, long bytes) {
+        glBindBuffer(GL_TEXTURE_BUFFER, buffer);
+        glBufferData(GL_TEXTURE_BUFFER, bytes, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+        return bytes;
+    }
+
+    private static void attach(int texture, int format, int buffer) {
+        glBindTexture(GL_TEXTURE_BUFFER, texture);
+        glTexBuffer(GL_TEXTURE_BUFFER, format, buffer);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+    }
+
+    // Assigns the packed lights to clusters for this view and uploads the result
+    public void update(Matrix4f view, Matrix4f projection, int viewportWidth, int viewportHeight,
+                       float[] lights, int count) {
+        long start = System.nanoTime();
+        if (count > MAX_LIGHTS) {
+            throw new IllegalArgumentException("Too many lights: " + count + " > " + MAX_LIGHTS);
+        }
+        tileWidth = (float) viewportWidth / CLUSTERS_X;
+        tileHeight = (float) viewportHeight / CLUSTERS_Y;
+        updateClusterBounds(projection);
+        prepareLights(view, lights, count);
+
+        IntStream.range(0, CLUSTERS_Z).parallel().forEach(this::assignSlice);
+
+        upload(lights);
+        assignNanos = System.nanoTime() - start;
+    }
+
+    private void updateClusterBounds(Matrix4f projection) {
+        if (projection.m00() == boundsM00 && projection.m11() == boundsM11
+                && projection.perspectiveNear() == near && projection.perspectiveFar() == far) {
+            return;
+        }
+        boundsM00 = projection.m00();
+        boundsM11 = projection.m11();
+        near = projection.perspectiveNear();
+        far = projection.perspectiveFar();
+
+        // View space x at depth d for a symmetric projection is ndc.x * d / m00
+        for (int z = 0; z < CLUSTERS_Z; z++) {
+            float sliceNear = sliceDepth(z);
+            float sliceFar = sliceDepth(z + 1);
+            for (int y = 0; y < CLUSTERS_Y; y++) {
+                float ndcY0 = -1 + 2.0f * y / CLUSTERS_Y;
+                float ndcY1 = -1 + 2.0f * (y + 1) / CLUSTERS_Y;
+                for (int x = 0; x < CLUSTERS_X; x++) {
+                    float ndcX0 = -1 + 2.0f * x / CLUSTERS_X;
+                    float ndcX1 = -1 + 2.0f * (x + 1) / CLUSTERS_X;
+                    int b = clusterIndex(x, y, z) * 6;
+                    clusterBounds[b] = Math.min(ndcX0 * sliceNear, ndcX0 * sliceFar) / boundsM00;
+                    clusterBounds[b + 1] = Math.min(ndcY0 * sliceNear, ndcY0 * sliceFar) / boundsM11;
+                    clusterBounds[b + 2] = sliceNear;
+                    clusterBounds[b + 3] = Math.max(ndcX1 * sliceNear, ndcX1 * sliceFar) / boundsM00;
+                    clusterBounds[b + 4] = Math.max(ndcY1 * sliceNear, ndcY1 * sliceFar) / boundsM11;
+                    clusterBounds[b + 5] = sliceFar;
+                }
+            }
+        }
+    }
+
+    private float sliceDepth(int slice) {
+        return near * (float) Math.pow(far / near, (double) slice / CLUSTERS_Z);
+    }
+
+    private int depthToSlice(float depth) {
+        if (depth <= near) {
+            return 0;
+        }
+        int slice = (int) (Math.log(depth / near) / Math.log(far / near) * CLUSTERS_Z);
+        return Math.min(slice, CLUSTERS_Z - 1);
+    }
+
+    private static int clusterIndex(int x, int y, int z) {
+        return (z * CLUSTERS_Y + y) * CLUSTERS_X + x;
+    }
+
+    // Moves light centers to view space and finds the depth slices each one can reach
+    private void prepareLights(Matrix4f view, float[] lights, int count) {
+        if (lightViewX.length < count) {
+            int capacity = Math.max(count, lightViewX.length * 2);
+            lightViewX = new float[capacity];
+            lightViewY = new float[capacity];
+            lightDepth = new float[capacity];
+            lightRadius = new float[capacity];
+            lightMinSlice = new int[capacity];
+            lightMaxSlice = new int[capacity];
+        }
+        lightCount = count;
+
+        for (int i = 0; i < count; i++) {
+            int o = i * LightList.STRIDE;
+            float x = lights[o], y = lights[o + 1], z = lights[o + 2];
+            float radius = lights[o + 3];
+            lightViewX[i] = view.m00() * x + view.m10() * y + view.m20() * z + view.m30();
+            lightViewY[i] = view.m01() * x + view.m11() * y + view.m21() * z + view.m31();
+            float depth = -(view.m02() * x + view.m12() * y + view.m22() * z + view.m32());
+            lightDepth[i] = depth;
+            lightRadius[i] = radius;
+
+            if (depth + radius < near || depth - radius > far) {
+                // Entirely in front of the near plane or past the far plane
+                lightMinSlice[i] = 1;
+                lightMaxSlice[i] = 0;
+            } else {
+                lightMinSlice[i] = depthToSlice(depth - radius);
+                lightMaxSlice[i] = depthToSlice(depth + radius);
+            }
+        }
+    }
+
+    // Runs on a worker thread, only touches the clusters of its own slice
+    private void assignSlice(int z) {
+        int first = clusterIndex(0, 0, z);
+        int last = first + CLUSTERS_X * CLUSTERS_Y;
+        Arrays.fill(clusterCounts, first, last, 0);
+        int overflow = 0;
+
+        for (int i = 0; i < lightCount; i++) {
+            if (z < lightMinSlice[i] || z > lightMaxSlice[i]) {
+                continue;
+            }
+            float cx = lightViewX[i];
+            float cy = lightViewY[i];
+            float cd = lightDepth[i];
+            float radiusSquared = lightRadius[i] * lightRadius[i];
+
+            for (int cluster = first; cluster < last; cluster++) {
+                int b = cluster * 6;
+                float dx = Math.max(0, Math.max(clusterBounds[b] - cx, cx - clusterBounds[b + 3]));
+                float dy = Math.max(0, Math.max(clusterBounds[b + 1] - cy, cy - clusterBounds[b + 4]));
+                float dz = Math.max(0, Math.max(clusterBounds[b + 2] - cd, cd - clusterBounds[b + 5]));
+                if (dx * dx + dy * dy + dz * dz > radiusSquared) {
+                    continue;
+                }
+                int n = clusterCounts[cluster];
+                if (n == MAX_LIGHTS_PER_CLUSTER) {
+                    overflow++;
+                    continue;
+                }
+                clusterLights[cluster * MAX_LIGHTS_PER_CLUSTER + n] = (short) i;
+                clusterCounts[cluster] = n + 1;
+            }
+        }
+        sliceOverflow[z] = overflow;
+    }
+
+    private void upload(float[] lights) {
+        int total = 0;
+        int maxPerCluster = 0;
+        for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+            total += clusterCounts[cluster];
+            maxPerCluster = Math.max(maxPerCluster, clusterCounts[cluster]);
+        }
+        int overflow = 0;
+        for (int z = 0; z < CLUSTERS_Z; z++) {
+            overflow += sliceOverflow[z];
+        }
+        lastAssignments = total;
+        lastMaxPerCluster = maxPerCluster;
+        lastOverflow = overflow;
+
+        if (lightCount > 0) {
+            long bytes = (long) lightCount * LIGHT_BYTES;
+            if (bytes > lightBufferBytes) {
+                lightBufferBytes = allocate(lightBuffer, Math.max(bytes, lightBufferBytes * 2));
+            }
+            ByteBuffer mapped = map(lightBuffer, bytes);
+            for (int i = 0; i < lightCount * LightList.STRIDE; i++) {
+                mapped.putFloat(lights[i]);
+            }
+            unmap(lightBuffer);
+        }
+
+        if (total > 0) {
+            long bytes = (long) total * Short.BYTES;
+            if (bytes > indexBufferBytes) {
+                indexBufferBytes = allocate(indexBuffer, Math.max(bytes, indexBufferBytes * 2));
+            }
+            ByteBuffer indices = map(indexBuffer, bytes);
+            for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+                int base = cluster * MAX_LIGHTS_PER_CLUSTER;
+                for (int k = 0; k < clusterCounts[cluster]; k++) {
+                    indices.putShort(clusterLights[base + k]);
+                }
+            }
+            unmap(indexBuffer);
+        }
+
+        ByteBuffer grid = map(gridBuffer, GRID_BYTES);
+        int offset = 0;
+        for (int cluster = 0; cluster < CLUSTER_COUNT; cluster++) {
+            grid.putInt(offset).putInt(clusterCounts[cluster]);
+            offset += clusterCounts[cluster];
+        }
+        unmap(gridBuffer);
+    }
+
+    // Orphans the previous contents so the driver never waits for the GPU to finish with them
+    private static ByteBuffer map(int buffer, long bytes) {
+        glBindBuffer(GL_TEXTURE_BUFFER, buffer);
+        ByteBuffer mapped = glMapBufferRange(GL_TEXTURE_BUFFER, 0, bytes, GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+        if (mapped == null) {
+            throw new RuntimeException("Failed to map cluster buffer");
+        }
+        return mapped;
+    }
+
+    private static void unmap(int buffer) {
+        glBindBuffer(GL_TEXTURE_BUFFER, buffer);
+        glUnmapBuffer(GL_TEXTURE_BUFFER);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+    }
+
+    // Binds the cluster buffers and sets the lookup uniforms on the current program
+    public void bind(int program) {
+        if (program != boundProgram) {
+            boundProgram = program;
+            glUniform1i(glGetUniformLocation(program, "clusterLights"), LIGHTS_UNIT);
+            glUniform1i(glGetUniformLocation(program, "clusterGrid"), GRID_UNIT);
+            glUniform1i(glGetUniformLocation(program, "clusterIndices"), INDICES_UNIT);
+            dimsLocation = glGetUniformLocation(program, "clusterDims");
+            tileSizeLocation = glGetUniformLocation(program, "clusterTileSize");
+            depthParamsLocation = glGetUniformLocation(program, "clusterDepthParams");
+        }
+
+        // slice = log(depth) * scale + bias, matching depthToSlice()
+        float scale = (float) (CLUSTERS_Z / Math.log(far / near));
+        float bias = (float) (-CLUSTERS_Z * Math.log(near) / Math.log(far / near));
+        glUniform3ui(dimsLocation, CLUSTERS_X, CLUSTERS_Y, CLUSTERS_Z);
+        glUniform2f(tileSizeLocation, tileWidth, tileHeight);
+        glUniform2f(depthParamsLocation, scale, bias);
+
+        bindTexture(LIGHTS_UNIT, lightTexture);
+        bindTexture(GRID_UNIT, gridTexture);
+        bindTexture(INDICES_UNIT, indexTexture);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    private static void bindTexture(int unit, int texture) {
+        glActiveTexture(GL_TEXTURE0 + unit);
+        glBindTexture(GL_TEXTURE_BUFFER, texture);
+    }
+
+    public int getLastLightCount() {
+        return lightCount;
+    }
+
+    // Light/cluster pairs written last frame
+    public int getLastAssignments() {
+        return lastAssignments;
+    }
+
+    public int getLastMaxLightsPerCluster() {
+        return lastMaxPerCluster;
+    }
+
+    public int getLastOverflow() {
+        return lastOverflow;
+    }
+
+    public long getLastAssignNanos() {
+        return assignNanos;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return lightBufferBytes + GRID_BYTES + indexBufferBytes;
+    }
+
+    @Override
+    public void dispose() {
+        glDeleteTextures(new int[]{lightTexture, gridTexture, indexTexture});
+        glDeleteBuffers(new int[]{lightBuffer, gridBuffer, indexBuffer});
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Clustered lighting: %d lights, %d assignments, max %d per cluster, %d dropped, %.2f ms",
+                lightCount, lastAssignments, lastMaxPerCluster, lastOverflow, assignNanos / 1e6);
+    }
+}
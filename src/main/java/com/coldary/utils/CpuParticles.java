@@ -0,0 +1,265 @@
+package com.coldary.utils;
+
+import com.coldary.objects.ParticleEmitter;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.SplittableRandom;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Fallback for contexts without compute shaders: the same emission and motion model as
+// Compute.particles.glsl over flat arrays, compacted by swapping the last live particle
+// into each dead slot, and drawn as instanced billboards streamed every frame.
+class CpuParticles implements ParticleBackend {
+
+    // Streaming a million instances per frame is not an option, the pool is capped instead
+    static final int MAX_CAPACITY = 1 << 16;
+
+    // center xyz, size, rgba
+    private static final int INSTANCE_FLOATS = 8;
+    private static final int INSTANCE_BYTES = INSTANCE_FLOATS * Float.BYTES;
+
+    private final int capacity;
+    private int alive;
+    private long emittedTotal;
+    private long diedTotal;
+
+    private final float[] positionX, positionY, positionZ, age;
+    private final float[] velocityX, velocityY, velocityZ, lifetime;
+    private final float[] startSize, endSize, drag, gravityScale;
+    private final float[] red, green, blue, alpha;
+    private final SplittableRandom random = new SplittableRandom(1);
+
+    private final StreamingBuffer instances;
+    private final int vao;
+    private final Shaders renderProgram;
+
+    CpuParticles(int requestedCapacity, int cameraBlockBinding) {
+        capacity = Math.min(requestedCapacity, MAX_CAPACITY);
+        positionX = new float[capacity];
+        positionY = new float[capacity];
+        positionZ = new float[capacity];
+        age = new float[capacity];
+        velocityX = new float[capacity];
+        velocityY = new float[capacity];
+        velocityZ = new float[capacity];
+        lifetime = new float[capacity];
+        startSize = new float[capacity];
+        endSize = new float[capacity];
+        drag = new float[capacity];
+        gravityScale = new float[capacity];
+        red = new float[capacity];
+        green = new float[capacity];
+        blue = new float[capacity];
+        alpha = new float[capacity];
+
+        instances = new StreamingBuffer(GL_ARRAY_BUFFER, capacity * INSTANCE_BYTES);
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+        glEnableVertexAttribArray(0);
+        glEnableVertexAttribArray(1);
+        glVertexAttribDivisor(0, 1);
+        glVertexAttribDivisor(1, 1);
+        glBindVertexArray(0);
+
+        renderProgram = Resources.acquireShader("/Shaders/particles/Vertex.particles.glsl",
+                "/Shaders/particles/Fragment.particles.glsl", 0);
+        renderProgram.bindUniformBlock("CameraBlock", cameraBlockBinding);
+    }
+
+    @Override
+    public void emit(ParticleEmitter emitter, int count, int seed) {
+        count = Math.min(count, capacity - alive);
+        for (int n = 0; n < count; n++) {
+            int i = alive++;
+            positionX[i] = emitter.position.x + signed() * emitter.positionSpread;
+            positionY[i] = emitter.position.y + signed() * emitter.positionSpread;
+            positionZ[i] = emitter.position.z + signed() * emitter.positionSpread;
+            age[i] = 0;
+            velocityX[i] = emitter.velocity.x + signed() * emitter.velocitySpread;
+            velocityY[i] = emitter.velocity.y + signed() * emitter.velocitySpread;
+            velocityZ[i] = emitter.velocity.z + signed() * emitter.velocitySpread;
+            lifetime[i] = emitter.minLifetime + (emitter.maxLifetime - emitter.minLifetime) * (float) random.nextDouble();
+            startSize[i] = emitter.startSize;
+            endSize[i] = emitter.endSize;
+            drag[i] = emitter.drag;
+            gravityScale[i] = emitter.gravityScale;
+            red[i] = emitter.color.x;
+            green[i] = emitter.color.y;
+            blue[i] = emitter.color.z;
+            alpha[i] = emitter.color.w;
+        }
+        emittedTotal += count;
+    }
+
+    private float signed() {
+        return (float) random.nextDouble() * 2.0f - 1.0f;
+    }
+
+    @Override
+    public void simulate(ParticleSystem system, float deltaTime, float time) {
+        int i = 0;
+        while (i < alive) {
+            age[i] += deltaTime;
+            if (age[i] >= lifetime[i]) {
+                moveParticle(--alive, i);
+                diedTotal++;
+                continue;
+            }
+
+            float gravityStep = gravityScale[i] * deltaTime;
+            float vx = velocityX[i] + system.gravity.x * gravityStep;
+            float vy = velocityY[i] + system.gravity.y * gravityStep;
+            float vz = velocityZ[i] + system.gravity.z * gravityStep;
+
+            float nx = positionX[i] * system.noiseFrequency;
+            float ny = positionY[i] * system.noiseFrequency;
+            float nz = positionZ[i] * system.noiseFrequency + time * 0.5f;
+            float coupling = 1.0f - (float) Math.exp(-drag[i] * deltaTime);
+            vx += (system.wind.x + valueNoise(nx, ny, nz) * system.noiseStrength - vx) * coupling;
+            vy += (system.wind.y + valueNoise(nx + 31.7f, ny + 11.3f, nz + 5.1f) * system.noiseStrength - vy) * coupling;
+            vz += (system.wind.z + valueNoise(nx + 7.9f, ny + 43.1f, nz + 19.3f) * system.noiseStrength - vz) * coupling;
+
+            positionX[i] += vx * deltaTime;
+            positionY[i] += vy * deltaTime;
+            positionZ[i] += vz * deltaTime;
+            if (positionY[i] < system.groundHeight) {
+                positionY[i] = system.groundHeight;
+                vy = Math.abs(vy) * 0.3f;
+                vx *= 0.7f;
+                vz *= 0.7f;
+            }
+            velocityX[i] = vx;
+            velocityY[i] = vy;
+            velocityZ[i] = vz;
+            i++;
+        }
+    }
+
+    private void moveParticle(int from, int to) {
+        positionX[to] = positionX[from];
+        positionY[to] = positionY[from];
+        positionZ[to] = positionZ[from];
+        age[to] = age[from];
+        velocityX[to] = velocityX[from];
+        velocityY[to] = velocityY[from];
+        velocityZ[to] = velocityZ[from];
+        lifetime[to] = lifetime[from];
+        startSize[to] = startSize[from];
+        endSize[to] = endSize[from];
+        drag[to] = drag[from];
+        gravityScale[to] = gravityScale[from];
+        red[to] = red[from];
+        green[to] = green[from];
+        blue[to] = blue[from];
+        alpha[to] = alpha[from];
+    }
+
+    // Trilinear value noise in [-1, 1], the CPU twin of the one in Compute.particles.glsl
+    private static float valueNoise(float x, float y, float z) {
+        int x0 = (int) Math.floor(x), y0 = (int) Math.floor(y), z0 = (int) Math.floor(z);
+        float fx = x - x0, fy = y - y0, fz = z - z0;
+        float sx = fx * fx * (3 - 2 * fx), sy = fy * fy * (3 - 2 * fy), sz = fz * fz * (3 - 2 * fz);
+        float x00 = lerp(lattice(x0, y0, z0), lattice(x0 + 1, y0, z0), sx);
+        float x10 = lerp(lattice(x0, y0 + 1, z0), lattice(x0 + 1, y0 + 1, z0), sx);
+        float x01 = lerp(lattice(x0, y0, z0 + 1), lattice(x0 + 1, y0, z0 + 1), sx);
+        float x11 = lerp(lattice(x0, y0 + 1, z0 + 1), lattice(x0 + 1, y0 + 1, z0 + 1), sx);
+        return lerp(lerp(x00, x10, sy), lerp(x01, x11, sy), sz);
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    private static float lattice(int x, int y, int z) {
+        return (hash(x ^ hash(y ^ hash(z))) >>> 8) * (2.0f / 16777216.0f) - 1.0f;
+    }
+
+    private static int hash(int x) {
+        x ^= x >>> 16;
+        x *= 0x7feb352d;
+        x ^= x >>> 15;
+        x *= 0x846ca68b;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    @Override
+    public void render() {
+        if (alive == 0) {
+            return;
+        }
+        // Sizes and fades are resolved here, the vertex shader only expands the quads
+        instances.beginFrame();
+        int offset = instances.allocate(alive * INSTANCE_BYTES, INSTANCE_BYTES);
+        long address = instances.address(offset);
+        for (int i = 0; i < alive; i++) {
+            float t = Math.min(age[i] / lifetime[i], 1.0f);
+            long instance = address + (long) i * INSTANCE_BYTES;
+            MemoryUtil.memPutFloat(instance, positionX[i]);
+            MemoryUtil.memPutFloat(instance + 4, positionY[i]);
+            MemoryUtil.memPutFloat(instance + 8, positionZ[i]);
+            MemoryUtil.memPutFloat(instance + 12, lerp(startSize[i], endSize[i], t));
+            MemoryUtil.memPutFloat(instance + 16, red[i]);
+            MemoryUtil.memPutFloat(instance + 20, green[i]);
+            MemoryUtil.memPutFloat(instance + 24, blue[i]);
+            MemoryUtil.memPutFloat(instance + 28, alpha[i] * fade(t));
+        }
+        instances.flush();
+
+        renderProgram.start();
+        glBindVertexArray(vao);
+        glBindBuffer(GL_ARRAY_BUFFER, instances.getBufferID());
+        glVertexAttribPointer(0, 4, GL_FLOAT, false, INSTANCE_BYTES, offset);
+        glVertexAttribPointer(1, 4, GL_FLOAT, false, INSTANCE_BYTES, offset + 16L);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glDrawArraysInstanced(GL_TRIANGLE_STRIP, 0, 4, alive);
+        RenderStats.stateChange();
+        RenderStats.draw(alive * 2L);
+        glBindVertexArray(0);
+        renderProgram.stop();
+        instances.endFrame();
+    }
+
+    // Same curve as particleFade in Billboard.glsl
+    private static float fade(float t) {
+        return smoothstep(0.0f, 0.05f, t) * (1.0f - smoothstep(0.6f, 1.0f, t));
+    }
+
+    private static float smoothstep(float edge0, float edge1, float x) {
+        float t = Math.max(0.0f, Math.min(1.0f, (x - edge0) / (edge1 - edge0)));
+        return t * t * (3 - 2 * t);
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getAliveCount() {
+        return alive;
+    }
+
+    @Override
+    public long getEmittedTotal() {
+        return emittedTotal;
+    }
+
+    @Override
+    public long getDiedTotal() {
+        return diedTotal;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return instances.getGpuMemoryBytes();
+    }
+
+    @Override
+    public void dispose() {
+        instances.dispose();
+        glDeleteVertexArrays(vao);
+        Resources.release(renderProgram);
+    }
+}
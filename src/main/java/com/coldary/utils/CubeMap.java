@@ -0,0 +1,111 @@
+package com.coldary.utils;
+
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.stb.STBImage.*;
+import static org.lwjgl.system.MemoryStack.stackPush;
+
+// An RGBA8 cube map texture made from six face images in GL_TEXTURE_CUBE_MAP_POSITIVE_X
+// order, clamped and linearly filtered. Acquired through Resources so skyboxes sharing
+// faces share the texture and it counts against the VRAM budget.
+public class CubeMap implements GpuResource {
+
+    // One decoded cube face, RGBA8 pixels owned by stb until the upload frees them
+    public static final class Face {
+        private ByteBuffer pixels;
+        private final int width;
+        private final int height;
+
+        private Face(ByteBuffer pixels, int width, int height) {
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+
+        // Safe to call twice, a face the upload consumed is already freed
+        void free() {
+            if (pixels != null) {
+                stbi_image_free(pixels);
+                pixels = null;
+            }
+        }
+    }
+
+    private final int textureID;
+    private final long gpuMemoryBytes;
+
+    // GL thread only. Takes ownership of the faces, null entries are left empty.
+    CubeMap(Face[] faces) {
+        textureID = glGenTextures();
+        glBindTexture(GL_TEXTURE_CUBE_MAP, textureID);
+
+        long bytes = 0;
+        for (int i = 0; i < faces.length; i++) {
+            Face face = faces[i];
+            if (face == null) {
+                continue;
+            }
+            glTexImage2D(GL_TEXTURE_CUBE_MAP_POSITIVE_X + i, 0, GL_RGBA, face.width, face.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, face.pixels);
+            bytes += (long) face.width * face.height * 4;
+            face.free();
+        }
+        gpuMemoryBytes = bytes;
+
+        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
+
+        glBindTexture(GL_TEXTURE_CUBE_MAP, 0);
+    }
+
+    static Face[] decodeFaces(List<String> faces) {
+        Face[] decoded = new Face[faces.size()];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = decodeFace(faces.get(i));
+        }
+        return decoded;
+    }
+
+    // Any thread, the expensive half of loading. Null if the face is missing or broken.
+    public static Face decodeFace(String facePath) {
+        if (!Assets.exists(facePath)) {
+            System.err.println("Failed to find texture file: " + facePath);
+            return null;
+        }
+
+        try (MemoryStack stack = stackPush()) {
+            IntBuffer width = stack.mallocInt(1);
+            IntBuffer height = stack.mallocInt(1);
+            IntBuffer channels = stack.mallocInt(1);
+
+            // Decoded straight from the asset bytes, no intermediate image objects
+            ByteBuffer pixels = stbi_load_from_memory(Assets.load(facePath), width, height, channels, 4);
+            if (pixels == null) {
+                System.err.println("Failed to load texture file: " + facePath + " (" + stbi_failure_reason() + ")");
+                return null;
+            }
+            return new Face(pixels, width.get(0), height.get(0));
+        }
+    }
+
+    public int getTextureID() {
+        return textureID;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return gpuMemoryBytes;
+    }
+
+    @Override
+    public void dispose() {
+        glDeleteTextures(textureID);
+    }
+}
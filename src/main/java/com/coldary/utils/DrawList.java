@@ -0,0 +1,92 @@
+package com.coldary.utils;
+
+import org.joml.Matrix4f;
+
+import java.util.Arrays;
+
+// One frame's draws for a RenderBackend, kept as parallel arrays that are reused from frame
+// to frame. Draws are submitted in the order they were added; sorting by pipeline and mesh
+// is up to whoever fills the list, the backends only skip redundant binds.
+public class DrawList {
+
+    // Floats per draw: model matrix, then RGBA color
+    public static final int TRANSFORM_FLOATS = 16;
+    public static final int COLOR_FLOATS = 4;
+
+    private RenderBackend.Pipeline[] pipelines;
+    private RenderBackend.Mesh[] meshes;
+    private RenderBackend.Texture[] textures;
+    private float[] transforms;
+    private float[] colors;
+    private int count;
+
+    public DrawList(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        pipelines = new RenderBackend.Pipeline[capacity];
+        meshes = new RenderBackend.Mesh[capacity];
+        textures = new RenderBackend.Texture[capacity];
+        transforms = new float[capacity * TRANSFORM_FLOATS];
+        colors = new float[capacity * COLOR_FLOATS];
+    }
+
+    public void clear() {
+        // References are dropped so a released mesh is not kept alive by last frame's list
+        Arrays.fill(pipelines, 0, count, null);
+        Arrays.fill(meshes, 0, count, null);
+        Arrays.fill(textures, 0, count, null);
+        count = 0;
+    }
+
+    // A null texture samples as opaque white
+    public void add(RenderBackend.Pipeline pipeline, RenderBackend.Mesh mesh, RenderBackend.Texture texture,
+                    Matrix4f model, float red, float green, float blue, float alpha) {
+        if (count == pipelines.length) {
+            grow();
+        }
+        pipelines[count] = pipeline;
+        meshes[count] = mesh;
+        textures[count] = texture;
+        model.get(transforms, count * TRANSFORM_FLOATS);
+        int color = count * COLOR_FLOATS;
+        colors[color] = red;
+        colors[color + 1] = green;
+        colors[color + 2] = blue;
+        colors[color + 3] = alpha;
+        count++;
+    }
+
+    private void grow() {
+        int capacity = pipelines.length * 2;
+        pipelines = Arrays.copyOf(pipelines, capacity);
+        meshes = Arrays.copyOf(meshes, capacity);
+        textures = Arrays.copyOf(textures, capacity);
+        transforms = Arrays.copyOf(transforms, capacity * TRANSFORM_FLOATS);
+        colors = Arrays.copyOf(colors, capacity * COLOR_FLOATS);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public RenderBackend.Pipeline getPipeline(int index) {
+        return pipelines[index];
+    }
+
+    public RenderBackend.Mesh getMesh(int index) {
+        return meshes[index];
+    }
+
+    public RenderBackend.Texture getTexture(int index) {
+        return textures[index];
+    }
+
+    // Column major, TRANSFORM_FLOATS per draw starting at index * TRANSFORM_FLOATS
+    public float[] getTransforms() {
+        return transforms;
+    }
+
+    // COLOR_FLOATS per draw starting at index * COLOR_FLOATS
+    public float[] getColors() {
+        return colors;
+    }
+}
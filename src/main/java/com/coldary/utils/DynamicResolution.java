@@ -0,0 +1,275 @@
+package com.coldary.utils;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Renders the scene into an offscreen target at a fraction of the window resolution and
+// upscales it to the window. The fraction follows the GPU time of the scene pass, read
+// from timestamp queries a few frames late: above the budget the resolution drops right
+// away, comfortably below it the resolution creeps back up, so the frame rate holds when
+// the view gets busy. The target is allocated at full size and only the rendered
+// rectangle changes, so a new scale never reallocates anything; resizing the window does.
+public class DynamicResolution implements GpuResource {
+
+    // Timestamp pairs in flight, results are picked up once available, never waited on
+    private static final int TIMER_FRAMES = 4;
+    // Weight of the newest GPU time in the smoothed value the controller follows
+    private static final float SMOOTHING = 0.15f;
+    // The controller aims below the budget so one expensive frame does not miss it
+    private static final float TARGET_FRACTION = 0.85f;
+    // Scale changes smaller than this are ignored, so the resolution does not jitter
+    private static final float DEAD_BAND = 0.02f;
+    // Largest change per frame down and up; dropping fast avoids missed frames
+    private static final float MAX_DECREASE = 0.85f;
+    private static final float MAX_INCREASE = 1.03f;
+
+    private final float minScale;
+    private final float maxScale;
+    private final float budgetMillis;
+    private final boolean adaptive;
+    private final float sharpness;
+
+    private int framebuffer;
+    private int colorTexture;
+    private int depthRenderbuffer;
+    private int targetWidth;
+    private int targetHeight;
+    private final int emptyVao;
+    private final Shaders upscaleShader;
+    private final int sourceScaleLoc;
+    private final int sourceTexelLoc;
+    private final int sharpnessLoc;
+
+    private float scale;
+    private int renderWidth;
+    private int renderHeight;
+    private int windowWidth;
+    private int windowHeight;
+
+    private final int[] beginQueries = new int[TIMER_FRAMES];
+    private final int[] endQueries = new int[TIMER_FRAMES];
+    private final boolean[] queryPending = new boolean[TIMER_FRAMES];
+    private int querySlot;
+    private float smoothedMillis;
+    private float lastMillis;
+
+    // Stats
+    private long frames;
+    private double scaleSum;
+    private int scaleChanges;
+    private int resizes;
+    private double gpuMillisSum;
+    private long gpuSamples;
+
+    // budgetMillis <= 0 keeps the scale fixed at maxScale, sharpness 0 upscales bilinearly
+    public DynamicResolution(int windowWidth, int windowHeight, float minScale, float maxScale,
+                             float budgetMillis, float sharpness) {
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.budgetMillis = budgetMillis;
+        this.adaptive = budgetMillis > 0 && minScale < maxScale;
+        this.sharpness = sharpness;
+        this.scale = maxScale;
+
+        upscaleShader = Resources.acquireShader("/Shaders/post/Vertex.fullscreen.glsl", "/Shaders/post/Fragment.upscale.glsl", 0);
+        int program = upscaleShader.getShaderProgram();
+        sourceScaleLoc = glGetUniformLocation(program, "sourceScale");
+        sourceTexelLoc = glGetUniformLocation(program, "sourceTexel");
+        sharpnessLoc = glGetUniformLocation(program, "sharpness");
+        upscaleShader.start();
+        glUniform1i(glGetUniformLocation(program, "source"), 0);
+        upscaleShader.stop();
+
+        emptyVao = glGenVertexArrays();
+        glGenQueries(beginQueries);
+        glGenQueries(endQueries);
+        resize(windowWidth, windowHeight);
+    }
+
+    // From the framebuffer size callback. A minimized window reports 0 x 0 and keeps the old target.
+    public void resize(int width, int height) {
+        if (width <= 0 || height <= 0 || (width == windowWidth && height == windowHeight)) {
+            return;
+        }
+        windowWidth = width;
+        windowHeight = height;
+
+        int newTargetWidth = Math.max(1, Math.round(width * maxScale));
+        int newTargetHeight = Math.max(1, Math.round(height * maxScale));
+        if (newTargetWidth != targetWidth || newTargetHeight != targetHeight) {
+            deleteTarget();
+            createTarget(newTargetWidth, newTargetHeight);
+            resizes++;
+        }
+        applyScale();
+    }
+
+    private void createTarget(int width, int height) {
+        targetWidth = width;
+        targetHeight = height;
+
+        colorTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, colorTexture);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        depthRenderbuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthRenderbuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH24_STENCIL8, width, height);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+        framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, colorTexture, 0);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_STENCIL_ATTACHMENT, GL_RENDERBUFFER, depthRenderbuffer);
+        int status = glCheckFramebufferStatus(GL_FRAMEBUFFER);
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        if (status != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Incomplete scene framebuffer: 0x" + Integer.toHexString(status));
+        }
+    }
+
+    private void deleteTarget() {
+        if (framebuffer != 0) {
+            glDeleteFramebuffers(framebuffer);
+            glDeleteTextures(colorTexture);
+            glDeleteRenderbuffers(depthRenderbuffer);
+            framebuffer = colorTexture = depthRenderbuffer = 0;
+        }
+    }
+
+    private void applyScale() {
+        renderWidth = Math.max(1, Math.min(targetWidth, Math.round(windowWidth * scale)));
+        renderHeight = Math.max(1, Math.min(targetHeight, Math.round(windowHeight * scale)));
+    }
+
+    // Binds and clears the scene target at this frame's resolution
+    public void begin() {
+        resolveTimer();
+        glQueryCounter(beginQueries[querySlot], GL_TIMESTAMP);
+
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glViewport(0, 0, renderWidth, renderHeight);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+    }
+
+    // Upscales the scene into the default framebuffer, which stays bound at window
+    // resolution for anything drawn on top at native resolution, like the HUD
+    public void end() {
+        glQueryCounter(endQueries[querySlot], GL_TIMESTAMP);
+        queryPending[querySlot] = true;
+        querySlot = (querySlot + 1) % TIMER_FRAMES;
+
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glViewport(0, 0, windowWidth, windowHeight);
+        glDisable(GL_DEPTH_TEST);
+        upscaleShader.start();
+        glUniform2f(sourceScaleLoc, (float) renderWidth / targetWidth, (float) renderHeight / targetHeight);
+        glUniform2f(sourceTexelLoc, 1.0f / targetWidth, 1.0f / targetHeight);
+        // Sharpening a native resolution image would only add halos
+        glUniform1f(sharpnessLoc, renderWidth < windowWidth ? sharpness : 0.0f);
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, colorTexture);
+        glBindVertexArray(emptyVao);
+        glDrawArrays(GL_TRIANGLES, 0, 3);
+        RenderStats.stateChanges(2);
+        RenderStats.draw(1);
+        glBindVertexArray(0);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        upscaleShader.stop();
+        glEnable(GL_DEPTH_TEST);
+
+        frames++;
+        scaleSum += scale;
+    }
+
+    private void resolveTimer() {
+        int slot = querySlot;
+        if (!queryPending[slot]) {
+            return;
+        }
+        queryPending[slot] = false;
+        if (glGetQueryObjecti(endQueries[slot], GL_QUERY_RESULT_AVAILABLE) != GL_TRUE) {
+            return;
+        }
+        long begin = glGetQueryObjecti64(beginQueries[slot], GL_QUERY_RESULT);
+        long end = glGetQueryObjecti64(endQueries[slot], GL_QUERY_RESULT);
+        float millis = (end - begin) / 1_000_000.0f;
+        lastMillis = millis;
+        gpuMillisSum += millis;
+        gpuSamples++;
+        smoothedMillis = smoothedMillis == 0 ? millis : smoothedMillis + (millis - smoothedMillis) * SMOOTHING;
+        if (adaptive) {
+            adjustScale();
+        }
+    }
+
+    // GPU time grows with the pixel count, so the scale follows the square root of the ratio
+    private void adjustScale() {
+        float ratio = (float) Math.sqrt(budgetMillis * TARGET_FRACTION / Math.max(smoothedMillis, 0.01f));
+        ratio = Math.max(MAX_DECREASE, Math.min(MAX_INCREASE, ratio));
+        float newScale = Math.max(minScale, Math.min(maxScale, scale * ratio));
+        if (Math.abs(newScale - scale) < DEAD_BAND * scale && newScale != minScale && newScale != maxScale) {
+            return;
+        }
+        if (newScale != scale) {
+            scale = newScale;
+            scaleChanges++;
+            applyScale();
+        }
+    }
+
+    public float getScale() {
+        return scale;
+    }
+
+    public int getRenderWidth() {
+        return renderWidth;
+    }
+
+    public int getRenderHeight() {
+        return renderHeight;
+    }
+
+    public int getWindowWidth() {
+        return windowWidth;
+    }
+
+    public int getWindowHeight() {
+        return windowHeight;
+    }
+
+    // Latest scene pass GPU time, a few frames old
+    public float getLastGpuMillis() {
+        return lastMillis;
+    }
+
+    public float getSmoothedGpuMillis() {
+        return smoothedMillis;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        // RGBA8 color and packed depth stencil
+        return (long) targetWidth * targetHeight * 8;
+    }
+
+    @Override
+    public void dispose() {
+        deleteTarget();
+        glDeleteVertexArrays(emptyVao);
+        glDeleteQueries(beginQueries);
+        glDeleteQueries(endQueries);
+        Resources.release(upscaleShader);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Dynamic resolution: %s, scale %.2f (average %.2f over %d frames), %d scale changes, %d resizes, scene %.2f ms GPU average against %.2f ms budget",
+                adaptive ? "adaptive" : "fixed", scale, frames == 0 ? scale : scaleSum / frames, frames, scaleChanges,
+                resizes, gpuSamples == 0 ? 0 : gpuMillisSum / gpuSamples, budgetMillis);
+    }
+}
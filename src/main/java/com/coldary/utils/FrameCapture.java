@@ -0,0 +1,361 @@
+package com.coldary.utils;
+
+import org.lwjgl.stb.STBImageWrite;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.lwjgl.opengl.GL32.*;
+
+// Asynchronous framebuffer capture without pipeline stalls.
+//
+// capture() queues a glReadPixels into the next pixel pack buffer of a ring and drops a
+// fence behind it; the GL thread returns immediately. poll() checks the fences without
+// waiting and maps the buffers whose transfer has finished, a few frames later, and hands
+// the mapped memory to a worker that encodes it as PNG, QOI or a raw dump. The buffer
+// stays mapped until the worker is done and is unmapped on a later poll(), so the GL
+// thread never copies pixels. When every slot is still busy the frame is dropped rather
+// than waited for. Must only be used from the GL thread.
+public class FrameCapture implements GpuResource {
+
+    public enum Format {
+        PNG("png"),
+        // Fast enough to keep up with 60 fps recording on one worker
+        QOI("qoi"),
+        // Rows bottom-up, as GL returns them; dimensions are in the file name
+        RAW("rgba");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private static final int SLOT_FREE = 0;
+    private static final int SLOT_PENDING = 1;
+    private static final int SLOT_ENCODING = 2;
+
+    private static class Slot {
+        final int pbo;
+        long capacity;
+        int state = SLOT_FREE;
+        long sync;
+        int width;
+        int height;
+        long frame;
+        long capturedNanos;
+        String prefix;
+        Format format;
+        ByteBuffer mapped;
+        volatile boolean encoded;
+
+        Slot(int pbo) {
+            this.pbo = pbo;
+        }
+    }
+
+    private final Slot[] slots;
+    private final Path directory;
+    private final Format format;
+    private final ExecutorService workers;
+    private int next;
+
+    private boolean recording;
+    private long recordLimit;
+    private long recordedFrames;
+    private int screenshotRequests;
+    private long frameCounter;
+
+    // Stats; encode side counters are written by the workers
+    private long captured;
+    private long screenshots;
+    private long dropped;
+    private long glNanos;
+    private long glCalls;
+    private long readbackNanos;
+    private long readbacks;
+    private final AtomicLong encoded = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    // ringSize should cover the fence latency (2-3 frames) plus the frames being encoded
+    public FrameCapture(Path directory, Format format, int ringSize, int workerCount) {
+        this.directory = directory;
+        this.format = format;
+        this.slots = new Slot[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            slots[i] = new Slot(glGenBuffers());
+        }
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workerCount), runnable -> {
+            Thread thread = new Thread(NativeMemory.workerThread(runnable), "CaptureEncoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Captures every frame until stopRecording, or until frameLimit frames when it is > 0
+    public void startRecording(long frameLimit) {
+        recording = true;
+        recordLimit = frameLimit;
+        recordedFrames = 0;
+    }
+
+    public void stopRecording() {
+        recording = false;
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    // Saves the next captured frame as a PNG, independent of the recording format
+    public void requestScreenshot() {
+        screenshotRequests++;
+    }
+
+    // Call once per frame after rendering and before the swap. framebuffer 0 reads the
+    // back buffer, anything else its first color attachment.
+    public void capture(int framebuffer, int width, int height) {
+        boolean screenshot = screenshotRequests > 0;
+        if ((!recording && !screenshot) || width <= 0 || height <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        Slot slot = slots[next];
+        if (slot.state != SLOT_FREE) {
+            dropped++;
+            return;
+        }
+
+        long bytes = (long) width * height * BYTES_PER_PIXEL;
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pbo);
+        if (slot.capacity < bytes) {
+            glBufferData(GL_PIXEL_PACK_BUFFER, bytes, GL_STREAM_READ);
+            slot.capacity = bytes;
+        }
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, framebuffer);
+        glReadBuffer(framebuffer == 0 ? GL_BACK : GL_COLOR_ATTACHMENT0);
+        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+        slot.sync = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        glBindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+
+        slot.state = SLOT_PENDING;
+        slot.width = width;
+        slot.height = height;
+        slot.frame = frameCounter++;
+        slot.capturedNanos = start;
+        if (screenshot) {
+            screenshotRequests--;
+            screenshots++;
+            slot.prefix = "screenshot";
+            slot.format = Format.PNG;
+        } else {
+            slot.prefix = "frame";
+            slot.format = format;
+            if (recordLimit > 0 && ++recordedFrames >= recordLimit) {
+                recording = false;
+            }
+        }
+        next = (next + 1) % slots.length;
+        captured++;
+        glNanos += System.nanoTime() - start;
+        glCalls++;
+    }
+
+    // Call once per frame: unmaps what the workers finished and hands completed readbacks over
+    public void poll() {
+        long start = System.nanoTime();
+        boolean bound = false;
+        for (int i = 0; i < slots.length; i++) {
+            // Oldest first, so frames reach the workers in capture order
+            Slot slot = slots[(next + i) % slots.length];
+            if (slot.state == SLOT_ENCODING && slot.encoded) {
+                glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pbo);
+                bound = true;
+                glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+                slot.mapped = null;
+                slot.encoded = false;
+                slot.state = SLOT_FREE;
+            } else if (slot.state == SLOT_PENDING) {
+                int status = glClientWaitSync(slot.sync, 0, 0);
+                if (status == GL_WAIT_FAILED) {
+                    throw new IllegalStateException("glClientWaitSync failed on a capture fence");
+                }
+                if (status == GL_TIMEOUT_EXPIRED) {
+                    continue;
+                }
+                glDeleteSync(slot.sync);
+                slot.sync = 0;
+                glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pbo);
+                bound = true;
+                int bytes = slot.width * slot.height * BYTES_PER_PIXEL;
+                slot.mapped = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, bytes, GL_MAP_READ_BIT);
+                if (slot.mapped == null) {
+                    throw new IllegalStateException("Failed to map capture buffer");
+                }
+                readbackNanos += System.nanoTime() - slot.capturedNanos;
+                readbacks++;
+                slot.state = SLOT_ENCODING;
+                workers.execute(() -> encode(slot));
+            }
+        }
+        if (bound) {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        }
+        glNanos += System.nanoTime() - start;
+    }
+
+    // Worker side, reads the mapped buffer only
+    private void encode(Slot slot) {
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(directory);
+            ByteBuffer pixels = slot.mapped.order(ByteOrder.LITTLE_ENDIAN);
+            String name = slot.format == Format.RAW
+                    ? String.format("%s_%06d_%dx%d.%s", slot.prefix, slot.frame, slot.width, slot.height, slot.format.extension)
+                    : String.format("%s_%06d.%s", slot.prefix, slot.frame, slot.format.extension);
+            Path file = directory.resolve(name);
+            switch (slot.format) {
+                case PNG:
+                    writePng(file, pixels, slot.width, slot.height);
+                    break;
+                case QOI:
+                    write(file, Qoi.encode(pixels, slot.width, slot.height));
+                    break;
+                default:
+                    write(file, pixels.duplicate());
+                    break;
+            }
+            encoded.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+            System.err.println("Frame capture " + slot.frame + " failed: " + e);
+        } finally {
+            encodeNanos.addAndGet(System.nanoTime() - start);
+            slot.encoded = true;
+        }
+    }
+
+    private void write(Path file, ByteBuffer data) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                bytesWritten.addAndGet(channel.write(data));
+            }
+        }
+    }
+
+    // stb writes top-down and its flip flag is global, so rows are flipped into a scratch copy
+    private void writePng(Path file, ByteBuffer pixels, int width, int height) throws IOException {
+        int stride = width * BYTES_PER_PIXEL;
+        ByteBuffer flipped = NativeMemory.alloc(NativeMemory.Tag.STAGING, stride * height);
+        try {
+            for (int y = 0; y < height; y++) {
+                flipped.put(y * stride, pixels, (height - 1 - y) * stride, stride);
+            }
+            if (!STBImageWrite.stbi_write_png(file.toString(), width, height, BYTES_PER_PIXEL, flipped, stride)) {
+                throw new IOException("stbi_write_png failed: " + file);
+            }
+            bytesWritten.addAndGet(Files.size(file));
+        } finally {
+            NativeMemory.free(flipped);
+        }
+    }
+
+    public long getCapturedCount() {
+        return captured;
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public long getEncodedCount() {
+        return encoded.get();
+    }
+
+    // Average GL thread time spent in capture() and poll() per captured frame
+    public double getAverageGlMillis() {
+        return glCalls > 0 ? glNanos / 1e6 / glCalls : 0;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        long total = 0;
+        for (Slot slot : slots) {
+            total += slot.capacity;
+        }
+        return total;
+    }
+
+    // Flushes what is in flight to disk, waiting at most a couple of seconds for the GPU
+    @Override
+    public void dispose() {
+        recording = false;
+        screenshotRequests = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (busy() && System.nanoTime() < deadline) {
+            for (Slot slot : slots) {
+                if (slot.state == SLOT_PENDING) {
+                    glClientWaitSync(slot.sync, GL_SYNC_FLUSH_COMMANDS_BIT, TimeUnit.MILLISECONDS.toNanos(1));
+                }
+            }
+            poll();
+            Thread.onSpinWait();
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Slot slot : slots) {
+            if (slot.state == SLOT_ENCODING && slot.encoded) {
+                glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pbo);
+                glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+            }
+            if (slot.sync != 0) {
+                glDeleteSync(slot.sync);
+            }
+            glDeleteBuffers(slot.pbo);
+            slot.capacity = 0;
+        }
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    private boolean busy() {
+        for (Slot slot : slots) {
+            if (slot.state != SLOT_FREE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        long encodedCount = encoded.get();
+        return String.format("Frame capture: %d frames captured (%d screenshots), %d dropped with the ring full, "
+                        + "%d encoded as %s (%d failed), %.3f ms GL time per captured frame, %.1f ms avg readback latency, "
+                        + "%.1f ms avg encode, %.1f MB written",
+                captured, screenshots, dropped, encodedCount, format, failures.get(), getAverageGlMillis(),
+                readbacks > 0 ? readbackNanos / 1e6 / readbacks : 0.0,
+                encodedCount > 0 ? encodeNanos.get() / 1e6 / encodedCount : 0.0, bytesWritten.get() / (1024.0 * 1024.0));
+    }
+}
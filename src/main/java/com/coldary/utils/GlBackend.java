@@ -0,0 +1,352 @@
+package com.coldary.utils;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.system.MemoryStack.stackPush;
+
+// RenderBackend over GL 3.3, drawing into whatever framebuffer is bound when the frame
+// begins. Draws go out one by one in list order with plain uniforms for the per draw
+// constants; binds are only issued when the pipeline, mesh or texture actually changes.
+public class GlBackend implements RenderBackend {
+
+    private static final int CAMERA_BLOCK_SIZE = 2 * 64 + 16;
+
+    private final int cameraBlockBinding;
+    private final StreamingBuffer frameData;
+    private final int uniformAlignment;
+    private final Texture whiteTexture;
+    private int width;
+    private int height;
+
+    // Stats
+    private long frames;
+    private long draws;
+    private long pipelineBinds;
+    private long meshBinds;
+    private long textureBinds;
+    private long submitNanos;
+
+    public GlBackend(int cameraBlockBinding) {
+        this.cameraBlockBinding = cameraBlockBinding;
+        frameData = new StreamingBuffer(GL_UNIFORM_BUFFER, 16 * 1024);
+        uniformAlignment = StreamingBuffer.uniformBufferAlignment();
+        ByteBuffer white = NativeMemory.alloc(NativeMemory.Tag.TEXTURE, 4);
+        white.putInt(0, -1);
+        whiteTexture = createTexture(1, 1, white);
+        NativeMemory.free(white);
+    }
+
+    @Override
+    public String getName() {
+        return "OpenGL " + glGetString(GL_VERSION);
+    }
+
+    @Override
+    public Buffer createBuffer(BufferUsage usage, ByteBuffer data) {
+        // Uploaded through the copy target, binding an index buffer outside a VAO would
+        // change whichever VAO happens to be bound
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_COPY_WRITE_BUFFER, buffer);
+        glBufferData(GL_COPY_WRITE_BUFFER, data, GL_STATIC_DRAW);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        return new GlBuffer(buffer, data.remaining());
+    }
+
+    @Override
+    public Texture createTexture(int width, int height, ByteBuffer rgba) {
+        int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, rgba);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        return new GlTexture(texture, width, height);
+    }
+
+    @Override
+    public Mesh createMesh(Buffer positions, Buffer texCoords, Buffer normals, Buffer indices, int indexCount) {
+        int vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+        bindStream(POSITION_STREAM, 3, positions);
+        bindStream(TEXCOORD_STREAM, 2, texCoords);
+        bindStream(NORMAL_STREAM, 3, normals);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ((GlBuffer) indices).id);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        return new GlMesh(vao, indexCount, new Buffer[]{positions, texCoords, normals, indices});
+    }
+
+    private static void bindStream(int location, int size, Buffer buffer) {
+        glBindBuffer(GL_ARRAY_BUFFER, ((GlBuffer) buffer).id);
+        glVertexAttribPointer(location, size, GL_FLOAT, false, 0, 0);
+        glEnableVertexAttribArray(location);
+    }
+
+    @Override
+    public Pipeline createPipeline(PipelineDescription description) {
+        return new GlPipeline(description, cameraBlockBinding);
+    }
+
+    @Override
+    public boolean beginFrame(int width, int height, float red, float green, float blue) {
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        this.width = width;
+        this.height = height;
+        frameData.beginFrame();
+        glViewport(0, 0, width, height);
+        glClearColor(red, green, blue, 1.0f);
+        glDepthMask(true);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        return true;
+    }
+
+    @Override
+    public void setCamera(Matrix4f view, Matrix4f projection, Vector3f position) {
+        int offset = frameData.allocate(CAMERA_BLOCK_SIZE, uniformAlignment);
+        long address = frameData.address(offset);
+        view.getToAddress(address);
+        projection.getToAddress(address + 64);
+        position.getToAddress(address + 128);
+        frameData.flush();
+        glBindBufferRange(GL_UNIFORM_BUFFER, cameraBlockBinding, frameData.getBufferID(), offset, CAMERA_BLOCK_SIZE);
+    }
+
+    @Override
+    public void submit(DrawList list) {
+        long start = System.nanoTime();
+        GlPipeline boundPipeline = null;
+        GlMesh boundMesh = null;
+        GlTexture boundTexture = null;
+        float[] transforms = list.getTransforms();
+        float[] colors = list.getColors();
+
+        glActiveTexture(GL_TEXTURE0);
+        try (MemoryStack stack = stackPush()) {
+            FloatBuffer matrix = stack.mallocFloat(DrawList.TRANSFORM_FLOATS);
+            for (int i = 0; i < list.size(); i++) {
+                GlPipeline pipeline = (GlPipeline) list.getPipeline(i);
+                if (pipeline != boundPipeline) {
+                    pipeline.bind();
+                    boundPipeline = pipeline;
+                    pipelineBinds++;
+                }
+                GlMesh mesh = (GlMesh) list.getMesh(i);
+                if (mesh != boundMesh) {
+                    glBindVertexArray(mesh.vao);
+                    RenderStats.stateChange();
+                    boundMesh = mesh;
+                    meshBinds++;
+                }
+                GlTexture texture = (GlTexture) (list.getTexture(i) != null ? list.getTexture(i) : whiteTexture);
+                if (texture != boundTexture) {
+                    glBindTexture(GL_TEXTURE_2D, texture.id);
+                    RenderStats.stateChange();
+                    boundTexture = texture;
+                    textureBinds++;
+                }
+
+                matrix.put(0, transforms, i * DrawList.TRANSFORM_FLOATS, DrawList.TRANSFORM_FLOATS);
+                glUniformMatrix4fv(pipeline.modelLocation, false, matrix);
+                int color = i * DrawList.COLOR_FLOATS;
+                glUniform4f(pipeline.colorLocation, colors[color], colors[color + 1], colors[color + 2], colors[color + 3]);
+                glDrawElements(GL_TRIANGLES, mesh.indexCount, GL_UNSIGNED_INT, 0);
+                RenderStats.draw(mesh.indexCount / 3);
+            }
+        }
+
+        glBindVertexArray(0);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        if (boundPipeline != null) {
+            boundPipeline.unbind();
+        }
+        draws += list.size();
+        submitNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void endFrame() {
+        frameData.endFrame();
+        frames++;
+    }
+
+    @Override
+    public void readPixels(ByteBuffer rgba) {
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, rgba);
+        glPixelStorei(GL_PACK_ALIGNMENT, 4);
+    }
+
+    @Override
+    public void dispose() {
+        whiteTexture.dispose();
+        frameData.dispose();
+    }
+
+    @Override
+    public String toString() {
+        double perFrame = Math.max(frames, 1);
+        return String.format("GL backend: %d frames, %.1f draws, %.1f pipeline, %.1f mesh and %.1f texture binds per frame, %.3f ms CPU submitting per frame",
+                frames, draws / perFrame, pipelineBinds / perFrame, meshBinds / perFrame, textureBinds / perFrame,
+                submitNanos / perFrame / 1_000_000.0);
+    }
+
+    private static final class GlBuffer implements Buffer {
+        private final int id;
+        private final long size;
+
+        private GlBuffer(int id, long size) {
+            this.id = id;
+            this.size = size;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public long getGpuMemoryBytes() {
+            return size;
+        }
+
+        @Override
+        public void dispose() {
+            glDeleteBuffers(id);
+        }
+    }
+
+    private static final class GlTexture implements Texture {
+        private final int id;
+        private final int width;
+        private final int height;
+
+        private GlTexture(int id, int width, int height) {
+            this.id = id;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public long getGpuMemoryBytes() {
+            return (long) width * height * 4;
+        }
+
+        @Override
+        public void dispose() {
+            glDeleteTextures(id);
+        }
+    }
+
+    private static final class GlMesh implements Mesh {
+        private final int vao;
+        private final int indexCount;
+        private final Buffer[] buffers;
+
+        private GlMesh(int vao, int indexCount, Buffer[] buffers) {
+            this.vao = vao;
+            this.indexCount = indexCount;
+            this.buffers = buffers;
+        }
+
+        @Override
+        public int getIndexCount() {
+            return indexCount;
+        }
+
+        @Override
+        public long getGpuMemoryBytes() {
+            long bytes = 0;
+            for (Buffer buffer : buffers) {
+                bytes += buffer.getGpuMemoryBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void dispose() {
+            glDeleteVertexArrays(vao);
+            for (Buffer buffer : buffers) {
+                buffer.dispose();
+            }
+        }
+    }
+
+    private static final class GlPipeline implements Pipeline {
+        private final PipelineDescription description;
+        private final Shaders shader;
+        private final int modelLocation;
+        private final int colorLocation;
+
+        private GlPipeline(PipelineDescription description, int cameraBlockBinding) {
+            this.description = description;
+            shader = Resources.acquireShader(description.vertexFile, description.fragmentFile, 0);
+            shader.bindUniformBlock("CameraBlock", cameraBlockBinding);
+            int program = shader.getShaderProgram();
+            modelLocation = glGetUniformLocation(program, "model");
+            colorLocation = glGetUniformLocation(program, "color");
+            shader.start();
+            glUniform1i(glGetUniformLocation(program, "albedo"), 0);
+            shader.stop();
+        }
+
+        private void bind() {
+            shader.start();
+            setEnabled(GL_DEPTH_TEST, description.depthTest);
+            glDepthMask(description.depthWrite);
+            setEnabled(GL_CULL_FACE, description.cullBackFaces);
+            setEnabled(GL_BLEND, description.alphaBlend);
+            if (description.alphaBlend) {
+                glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+            }
+        }
+
+        // Leaves the defaults the rest of the renderer expects
+        private void unbind() {
+            shader.stop();
+            glEnable(GL_DEPTH_TEST);
+            glDepthMask(true);
+            glDisable(GL_CULL_FACE);
+            glDisable(GL_BLEND);
+        }
+
+        private static void setEnabled(int capability, boolean enabled) {
+            if (enabled) {
+                glEnable(capability);
+            } else {
+                glDisable(capability);
+            }
+        }
+
+        @Override
+        public long getGpuMemoryBytes() {
+            return 0;
+        }
+
+        @Override
+        public void dispose() {
+            Resources.release(shader);
+        }
+    }
+}
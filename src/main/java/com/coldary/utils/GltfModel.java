@@ -0,0 +1,670 @@
+package com.coldary.utils;
+
+import org.joml.Matrix4f;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL30.*;
+
+// glTF 2.0 importer, binary .glb first, .gltf with external or data: buffers as well.
+//
+// The file is mapped (pack entry or classpath file, see Assets) and every bufferView that a
+// primitive references is handed to glBufferData as a slice of that mapping, so vertex and
+// index data never pass through Java arrays. Accessors become glVertexAttribPointer calls
+// with their own component type, normalization, stride and offset, which lets quantized
+// (normalized short/byte) attributes and 8/16-bit indices reach the GPU unchanged.
+// Only primitives without normals read vertex data on the CPU, to generate them.
+//
+// Node hierarchies are flattened into one world matrix per mesh instance at load time;
+// materials keep their metallic-roughness factors and texture references, and are mapped
+// onto the forward shader's Phong material when drawn.
+public class GltfModel implements GpuResource {
+
+    private static final int GLB_MAGIC = 0x46546C67; // "glTF"
+    private static final int GLB_VERSION = 2;
+    private static final int GLB_HEADER_SIZE = 12;
+    private static final int CHUNK_JSON = 0x4E4F534A;
+    private static final int CHUNK_BIN = 0x004E4942;
+
+    // glTF reuses the GL enums for component types and primitive modes
+    private static final int MODE_TRIANGLES = GL_TRIANGLES;
+
+    private final String path;
+    private final List<Integer> bufferObjects = new ArrayList<>();
+    private final List<Integer> vertexArrays = new ArrayList<>();
+    private Primitive[][] meshes;
+    private Material[] materials;
+    private long gpuMemoryBytes;
+
+    // Flattened scene: world matrix (column major) and mesh of every node that draws
+    private float[] instanceTransforms;
+    private int[] instanceMeshes;
+    private int instanceCount;
+    private int nodeCount;
+    private int primitiveCount;
+
+    private long loadNanos;
+    private long uploadedBytes;
+    private int generatedNormals;
+
+    // Uniform locations, looked up again when drawn with a different program
+    private int boundProgram = -1;
+    private int modelLocation;
+    private int ambientLocation;
+    private int diffuseLocation;
+    private int specularLocation;
+    private int shininessLocation;
+
+    private final Matrix4f nodeMatrix = new Matrix4f();
+    private final Matrix4f worldMatrix = new Matrix4f();
+    private final float[] matrixArray = new float[16];
+
+    public GltfModel(String path) {
+        this.path = path;
+        long start = System.nanoTime();
+
+        ByteBuffer file = Assets.load(path).slice().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer binChunk = null;
+        Map<String, Object> root;
+        if (file.remaining() >= GLB_HEADER_SIZE && file.getInt(0) == GLB_MAGIC) {
+            if (file.getInt(4) != GLB_VERSION) {
+                throw new IllegalArgumentException("Unsupported GLB version " + file.getInt(4) + ": " + path);
+            }
+            int length = Math.min(file.getInt(8), file.limit());
+            String json = null;
+            int offset = GLB_HEADER_SIZE;
+            while (offset + 8 <= length) {
+                int chunkLength = file.getInt(offset);
+                int chunkType = file.getInt(offset + 4);
+                ByteBuffer chunk = file.slice(offset + 8, chunkLength).order(ByteOrder.LITTLE_ENDIAN);
+                if (chunkType == CHUNK_JSON && json == null) {
+                    json = StandardCharsets.UTF_8.decode(chunk).toString();
+                } else if (chunkType == CHUNK_BIN && binChunk == null) {
+                    binChunk = chunk;
+                }
+                offset += 8 + chunkLength;
+            }
+            if (json == null) {
+                throw new IllegalArgumentException("GLB without a JSON chunk: " + path);
+            }
+            root = Json.object(Json.parse(json));
+        } else {
+            root = Json.object(Json.parse(StandardCharsets.UTF_8.decode(file).toString()));
+        }
+
+        String version = Json.getString(Json.object(root.get("asset")), "version", "");
+        if (!version.startsWith("2.")) {
+            throw new IllegalArgumentException("Unsupported glTF version '" + version + "': " + path);
+        }
+
+        List<ByteBuffer> staging = new ArrayList<>();
+        try {
+            ByteBuffer[] buffers = loadBuffers(root, binChunk, staging);
+            materials = loadMaterials(root);
+            meshes = loadMeshes(root, buffers);
+            loadScene(root);
+        } finally {
+            for (ByteBuffer buffer : staging) {
+                NativeMemory.free(buffer);
+            }
+        }
+        NativeMemory.checkStagingReleased("GltfModel");
+        loadNanos = System.nanoTime() - start;
+    }
+
+    private ByteBuffer[] loadBuffers(Map<String, Object> root, ByteBuffer binChunk, List<ByteBuffer> staging) {
+        List<Object> list = Json.array(root.get("buffers"));
+        ByteBuffer[] buffers = new ByteBuffer[list.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            Map<String, Object> buffer = Json.object(list.get(i));
+            String uri = Json.getString(buffer, "uri", null);
+            int byteLength = Json.getInt(buffer, "byteLength", 0);
+            ByteBuffer data;
+            if (uri == null) {
+                // Only the first buffer of a GLB may live in the BIN chunk
+                if (binChunk == null || i != 0) {
+                    throw new IllegalArgumentException("Buffer " + i + " has no uri and no BIN chunk: " + path);
+                }
+                data = binChunk;
+            } else if (uri.startsWith("data:")) {
+                // Embedded base64 is the one case that needs a decoded copy
+                byte[] decoded = Base64.getDecoder().decode(uri.substring(uri.indexOf(',') + 1));
+                data = NativeMemory.alloc(NativeMemory.Tag.STAGING, decoded.length);
+                staging.add(data);
+                data.put(decoded).flip();
+            } else {
+                data = Assets.load(resolve(uri)).slice();
+            }
+            if (data.remaining() < byteLength) {
+                throw new IllegalArgumentException("Buffer " + i + " is shorter than its byteLength: " + path);
+            }
+            buffers[i] = data.slice(0, byteLength).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return buffers;
+    }
+
+    private String resolve(String uri) {
+        String decoded = URLDecoder.decode(uri.replace("+", "%2B"), StandardCharsets.UTF_8);
+        return path.substring(0, path.lastIndexOf('/') + 1) + decoded;
+    }
+
+    private Material[] loadMaterials(Map<String, Object> root) {
+        List<Object> list = Json.array(root.get("materials"));
+        Material[] result = new Material[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            Map<String, Object> material = Json.object(list.get(i));
+            Map<String, Object> pbr = Json.object(material.get("pbrMetallicRoughness"));
+            Material m = new Material(Json.getString(material, "name", "material" + i));
+            Json.getFloats(pbr, "baseColorFactor", m.baseColor);
+            m.metallic = Json.getFloat(pbr, "metallicFactor", 1.0f);
+            m.roughness = Json.getFloat(pbr, "roughnessFactor", 1.0f);
+            Json.getFloats(material, "emissiveFactor", m.emissive);
+            m.baseColorTexture = Json.getInt(Json.object(pbr.get("baseColorTexture")), "index", -1);
+            m.metallicRoughnessTexture = Json.getInt(Json.object(pbr.get("metallicRoughnessTexture")), "index", -1);
+            m.normalTexture = Json.getInt(Json.object(material.get("normalTexture")), "index", -1);
+            m.alphaMode = Json.getString(material, "alphaMode", "OPAQUE");
+            m.doubleSided = Json.getBoolean(material, "doubleSided", false);
+            result[i] = m;
+        }
+        return result;
+    }
+
+    private Primitive[][] loadMeshes(Map<String, Object> root, ByteBuffer[] buffers) {
+        List<Object> accessors = Json.array(root.get("accessors"));
+        List<Object> bufferViews = Json.array(root.get("bufferViews"));
+        int[] viewObjects = new int[bufferViews.size()];
+
+        List<Object> list = Json.array(root.get("meshes"));
+        Primitive[][] result = new Primitive[list.size()][];
+        for (int m = 0; m < result.length; m++) {
+            List<Object> primitives = Json.array(Json.object(list.get(m)).get("primitives"));
+            result[m] = new Primitive[primitives.size()];
+            for (int p = 0; p < primitives.size(); p++) {
+                result[m][p] = loadPrimitive(Json.object(primitives.get(p)), accessors, bufferViews, buffers, viewObjects);
+                primitiveCount++;
+            }
+        }
+        return result;
+    }
+
+    private Primitive loadPrimitive(Map<String, Object> primitive, List<Object> accessors, List<Object> bufferViews,
+                                    ByteBuffer[] buffers, int[] viewObjects) {
+        Map<String, Object> attributes = Json.object(primitive.get("attributes"));
+        if (!attributes.containsKey("POSITION")) {
+            throw new IllegalArgumentException("Primitive without POSITION: " + path);
+        }
+        Accessor positions = accessor(accessors, bufferViews, Json.getInt(attributes, "POSITION", -1));
+        Accessor indices = primitive.containsKey("indices")
+                ? accessor(accessors, bufferViews, Json.getInt(primitive, "indices", -1))
+                : null;
+        // Valid glTF (all zeros), but there is nothing to bind as an element buffer
+        if (indices != null && indices.bufferView < 0) {
+            throw new IllegalArgumentException("Index accessors without a bufferView are not supported: " + path);
+        }
+
+        // Buffers are created before the VAO so that binding them does not touch its state
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            if (attributeLocation(entry.getKey()) >= 0) {
+                upload(accessor(accessors, bufferViews, ((Number) entry.getValue()).intValue()), bufferViews, buffers, viewObjects);
+            }
+        }
+        if (indices != null) {
+            upload(indices, bufferViews, buffers, viewObjects);
+        }
+        Primitive result = new Primitive();
+        result.mode = Json.getInt(primitive, "mode", MODE_TRIANGLES);
+
+        // Points, lines and strips have no faces to take normals from in groups of three
+        int generatedNormalBuffer = 0;
+        if (!attributes.containsKey("NORMAL") && result.mode == MODE_TRIANGLES && positions.componentType == GL_FLOAT
+                && positions.components == 3 && positions.bufferView >= 0) {
+            generatedNormalBuffer = generateNormals(positions, indices, bufferViews, buffers);
+        }
+
+        result.material = Json.getInt(primitive, "material", -1);
+        if (result.material >= materials.length) {
+            throw new IllegalArgumentException("Primitive references missing material " + result.material + ": " + path);
+        }
+
+        result.vao = glGenVertexArrays();
+        vertexArrays.add(result.vao);
+        glBindVertexArray(result.vao);
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            int location = attributeLocation(entry.getKey());
+            Accessor attribute = accessor(accessors, bufferViews, ((Number) entry.getValue()).intValue());
+            // Accessors without a bufferView are all zeros, which is what a disabled array reads
+            if (location < 0 || attribute.bufferView < 0) {
+                continue;
+            }
+            glBindBuffer(GL_ARRAY_BUFFER, viewObjects[attribute.bufferView]);
+            glVertexAttribPointer(location, attribute.components, attribute.componentType, attribute.normalized,
+                    attribute.byteStride, attribute.byteOffset);
+            glEnableVertexAttribArray(location);
+        }
+        if (generatedNormalBuffer != 0) {
+            glBindBuffer(GL_ARRAY_BUFFER, generatedNormalBuffer);
+            glVertexAttribPointer(ModelLoader.NORMAL_ATTRIBUTE, 3, GL_FLOAT, false, 0, 0);
+            glEnableVertexAttribArray(ModelLoader.NORMAL_ATTRIBUTE);
+        }
+        if (indices != null) {
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, viewObjects[indices.bufferView]);
+            result.count = indices.count;
+            result.indexType = indices.componentType;
+            result.indexOffset = indices.byteOffset;
+        } else {
+            result.count = positions.count;
+        }
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        return result;
+    }
+
+    // Shader location for a glTF attribute, -1 for semantics the shaders do not consume
+    private static int attributeLocation(String semantic) {
+        switch (semantic) {
+            case "POSITION": return ModelLoader.POSITION_ATTRIBUTE;
+            case "TEXCOORD_0": return ModelLoader.TEXCOORD_ATTRIBUTE;
+            case "NORMAL": return ModelLoader.NORMAL_ATTRIBUTE;
+            case "TANGENT": return ModelLoader.TANGENT_ATTRIBUTE;
+            default: return -1;
+        }
+    }
+
+    // One GL buffer per bufferView, straight from the mapped file
+    private void upload(Accessor accessor, List<Object> bufferViews, ByteBuffer[] buffers, int[] viewObjects) {
+        if (accessor.bufferView < 0 || viewObjects[accessor.bufferView] != 0) {
+            return;
+        }
+        ByteBuffer slice = viewSlice(accessor.bufferView, bufferViews, buffers);
+        int buffer = glGenBuffers();
+        bufferObjects.add(buffer);
+        viewObjects[accessor.bufferView] = buffer;
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glBufferData(GL_ARRAY_BUFFER, slice, GL_STATIC_DRAW);
+        gpuMemoryBytes += slice.remaining();
+        uploadedBytes += slice.remaining();
+    }
+
+    private ByteBuffer viewSlice(int view, List<Object> bufferViews, ByteBuffer[] buffers) {
+        Map<String, Object> bufferView = Json.object(bufferViews.get(view));
+        ByteBuffer buffer = buffers[Json.getInt(bufferView, "buffer", 0)];
+        return buffer.slice(Json.getInt(bufferView, "byteOffset", 0), Json.getInt(bufferView, "byteLength", 0))
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private Accessor accessor(List<Object> accessors, List<Object> bufferViews, int index) {
+        if (index < 0 || index >= accessors.size()) {
+            throw new IllegalArgumentException("Missing accessor " + index + ": " + path);
+        }
+        Map<String, Object> json = Json.object(accessors.get(index));
+        if (json.containsKey("sparse")) {
+            throw new IllegalArgumentException("Sparse accessors are not supported: " + path);
+        }
+        Accessor accessor = new Accessor();
+        accessor.bufferView = Json.getInt(json, "bufferView", -1);
+        accessor.byteOffset = Json.getInt(json, "byteOffset", 0);
+        accessor.componentType = Json.getInt(json, "componentType", GL_FLOAT);
+        accessor.normalized = Json.getBoolean(json, "normalized", false);
+        accessor.count = Json.getInt(json, "count", 0);
+        accessor.components = components(Json.getString(json, "type", "SCALAR"));
+
+        if (accessor.bufferView >= 0) {
+            Map<String, Object> view = Json.object(bufferViews.get(accessor.bufferView));
+            accessor.byteStride = Json.getInt(view, "byteStride", 0);
+            // Bounds are checked here once, GL would otherwise read past the buffer
+            long elementSize = (long) accessor.components * componentSize(accessor.componentType);
+            long stride = accessor.byteStride != 0 ? accessor.byteStride : elementSize;
+            long end = accessor.byteOffset + (accessor.count > 0 ? (accessor.count - 1) * stride + elementSize : 0);
+            if (end > Json.getLong(view, "byteLength", 0)) {
+                throw new IllegalArgumentException("Accessor " + index + " overruns its bufferView: " + path);
+            }
+        }
+        return accessor;
+    }
+
+    private static int components(String type) {
+        switch (type) {
+            case "SCALAR": return 1;
+            case "VEC2": return 2;
+            case "VEC3": return 3;
+            case "VEC4": return 4;
+            case "MAT2": return 4;
+            case "MAT3": return 9;
+            case "MAT4": return 16;
+            default: throw new IllegalArgumentException("Unknown accessor type: " + type);
+        }
+    }
+
+    private static int componentSize(int componentType) {
+        switch (componentType) {
+            case GL_BYTE:
+            case GL_UNSIGNED_BYTE:
+                return 1;
+            case GL_SHORT:
+            case GL_UNSIGNED_SHORT:
+                return 2;
+            case GL_UNSIGNED_INT:
+            case GL_FLOAT:
+                return 4;
+            default: throw new IllegalArgumentException("Unknown component type: " + componentType);
+        }
+    }
+
+    // The spec asks for flat normals when none are given; smooth ones match what the OBJ
+    // path produces and are the only attribute built on the CPU
+    private int generateNormals(Accessor positions, Accessor indices, List<Object> bufferViews, ByteBuffer[] buffers) {
+        if (positions.bufferView < 0) {
+            return 0;
+        }
+        ByteBuffer positionData = viewSlice(positions.bufferView, bufferViews, buffers);
+        int stride = positions.byteStride != 0 ? positions.byteStride : 3 * Float.BYTES;
+        float[] positionArray = new float[positions.count * 3];
+        for (int v = 0; v < positions.count; v++) {
+            int offset = positions.byteOffset + v * stride;
+            positionArray[v * 3] = positionData.getFloat(offset);
+            positionArray[v * 3 + 1] = positionData.getFloat(offset + 4);
+            positionArray[v * 3 + 2] = positionData.getFloat(offset + 8);
+        }
+
+        int[] indexArray;
+        if (indices != null) {
+            ByteBuffer indexData = viewSlice(indices.bufferView, bufferViews, buffers);
+            int size = componentSize(indices.componentType);
+            indexArray = new int[indices.count];
+            for (int i = 0; i < indexArray.length; i++) {
+                int offset = indices.byteOffset + i * size;
+                switch (indices.componentType) {
+                    case GL_UNSIGNED_BYTE: indexArray[i] = indexData.get(offset) & 0xFF; break;
+                    case GL_UNSIGNED_SHORT: indexArray[i] = indexData.getShort(offset) & 0xFFFF; break;
+                    default: indexArray[i] = indexData.getInt(offset);
+                }
+            }
+        } else {
+            indexArray = new int[positions.count];
+            for (int i = 0; i < indexArray.length; i++) {
+                indexArray[i] = i;
+            }
+        }
+
+        float[] normals = MeshProcessing.computeNormals(positionArray, indexArray);
+        FloatBuffer normalBuffer = NativeMemory.allocFloat(NativeMemory.Tag.STAGING, normals.length);
+        normalBuffer.put(normals).flip();
+        int buffer = glGenBuffers();
+        bufferObjects.add(buffer);
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glBufferData(GL_ARRAY_BUFFER, normalBuffer, GL_STATIC_DRAW);
+        NativeMemory.free(normalBuffer);
+        gpuMemoryBytes += (long) normals.length * Float.BYTES;
+        generatedNormals++;
+        return buffer;
+    }
+
+    // Walks the default scene (or every root node) and records one instance per mesh node
+    private void loadScene(Map<String, Object> root) {
+        List<Object> nodes = Json.array(root.get("nodes"));
+        nodeCount = nodes.size();
+
+        List<Object> roots;
+        List<Object> scenes = Json.array(root.get("scenes"));
+        if (!scenes.isEmpty()) {
+            int scene = Json.getInt(root, "scene", 0);
+            roots = Json.array(Json.object(scenes.get(scene)).get("nodes"));
+        } else {
+            boolean[] isChild = new boolean[nodes.size()];
+            for (Object node : nodes) {
+                for (Object child : Json.array(Json.object(node).get("children"))) {
+                    isChild[((Number) child).intValue()] = true;
+                }
+            }
+            roots = new ArrayList<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (!isChild[i]) {
+                    roots.add((double) i);
+                }
+            }
+        }
+
+        instanceTransforms = new float[16 * Math.max(1, nodes.size())];
+        instanceMeshes = new int[nodes.size()];
+        boolean[] visited = new boolean[nodes.size()];
+        float[] parents = new float[16 * nodes.size()];
+        Deque<int[]> stack = new ArrayDeque<>();
+        Matrix4f parent = new Matrix4f();
+        Matrix4f local = new Matrix4f();
+        Vector3f translation = new Vector3f();
+        Quaternionf rotation = new Quaternionf();
+        Vector3f scale = new Vector3f();
+
+        // Entries are {node, parent node or -1}; parent world matrices are kept per node
+        for (Object node : roots) {
+            stack.push(new int[]{((Number) node).intValue(), -1});
+        }
+        while (!stack.isEmpty()) {
+            int[] entry = stack.pop();
+            int index = entry[0];
+            if (visited[index]) {
+                throw new IllegalArgumentException("Node " + index + " appears twice in the hierarchy: " + path);
+            }
+            visited[index] = true;
+            Map<String, Object> node = Json.object(nodes.get(index));
+
+            if (node.containsKey("matrix")) {
+                float[] matrix = Json.getFloats(node, "matrix", new float[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1});
+                local.set(matrix);
+            } else {
+                float[] t = Json.getFloats(node, "translation", new float[]{0, 0, 0});
+                float[] r = Json.getFloats(node, "rotation", new float[]{0, 0, 0, 1});
+                float[] s = Json.getFloats(node, "scale", new float[]{1, 1, 1});
+                local.translationRotateScale(translation.set(t[0], t[1], t[2]), rotation.set(r[0], r[1], r[2], r[3]),
+                        scale.set(s[0], s[1], s[2]));
+            }
+            if (entry[1] >= 0) {
+                parent.set(parents, entry[1] * 16).mul(local, local);
+            }
+            local.get(parents, index * 16);
+
+            if (node.containsKey("mesh")) {
+                int mesh = Json.getInt(node, "mesh", -1);
+                if (mesh < 0 || mesh >= meshes.length) {
+                    throw new IllegalArgumentException("Node " + index + " references missing mesh " + mesh + ": " + path);
+                }
+                local.get(instanceTransforms, instanceCount * 16);
+                instanceMeshes[instanceCount++] = mesh;
+            }
+            for (Object child : Json.array(node.get("children"))) {
+                stack.push(new int[]{((Number) child).intValue(), index});
+            }
+        }
+    }
+
+    // Draws every mesh instance with its node transform applied after the given model matrix
+    public void render(Shaders shader, Matrix4f model) {
+        int program = shader.getShaderProgram();
+        if (program != boundProgram) {
+            boundProgram = program;
+            modelLocation = glGetUniformLocation(program, "model");
+            ambientLocation = glGetUniformLocation(program, "material.ambient");
+            diffuseLocation = glGetUniformLocation(program, "material.diffuse");
+            specularLocation = glGetUniformLocation(program, "material.specular");
+            shininessLocation = glGetUniformLocation(program, "material.shininess");
+        }
+
+        int currentMaterial = Integer.MIN_VALUE;
+        for (int i = 0; i < instanceCount; i++) {
+            nodeMatrix.set(instanceTransforms, i * 16);
+            model.mul(nodeMatrix, worldMatrix).get(matrixArray);
+            glUniformMatrix4fv(modelLocation, false, matrixArray);
+
+            for (Primitive primitive : meshes[instanceMeshes[i]]) {
+                if (primitive.material != currentMaterial) {
+                    currentMaterial = primitive.material;
+                    applyMaterial(currentMaterial >= 0 ? materials[currentMaterial] : Material.DEFAULT_MATERIAL);
+                }
+                glBindVertexArray(primitive.vao);
+                RenderStats.stateChange();
+                RenderStats.draw(primitive.mode == MODE_TRIANGLES ? primitive.count / 3 : 0);
+                if (primitive.indexType != 0) {
+                    glDrawElements(primitive.mode, primitive.count, primitive.indexType, primitive.indexOffset);
+                } else {
+                    glDrawArrays(primitive.mode, 0, primitive.count);
+                }
+            }
+        }
+        glBindVertexArray(0);
+    }
+
+    // Metallic-roughness approximated for the Blinn-Phong material: metals tint their
+    // highlight and lose their diffuse term, roughness maps to the specular exponent
+    private void applyMaterial(Material material) {
+        float[] c = material.baseColor;
+        float diffuseScale = 1.0f - material.metallic;
+        float alpha = Math.max(material.roughness * material.roughness, 0.05f);
+        float shininess = Math.min(2.0f / (alpha * alpha) - 2.0f, 512.0f);
+        glUniform3f(ambientLocation, c[0], c[1], c[2]);
+        glUniform3f(diffuseLocation, c[0] * diffuseScale, c[1] * diffuseScale, c[2] * diffuseScale);
+        glUniform3f(specularLocation,
+                0.04f + (c[0] - 0.04f) * material.metallic,
+                0.04f + (c[1] - 0.04f) * material.metallic,
+                0.04f + (c[2] - 0.04f) * material.metallic);
+        glUniform1f(shininessLocation, Math.max(shininess, 1.0f));
+    }
+
+    public int getMeshCount() {
+        return meshes.length;
+    }
+
+    public int getPrimitiveCount() {
+        return primitiveCount;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    public Material getMaterial(int index) {
+        return materials[index];
+    }
+
+    public int getMaterialCount() {
+        return materials.length;
+    }
+
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return gpuMemoryBytes;
+    }
+
+    @Override
+    public void dispose() {
+        glBindVertexArray(0);
+        for (int vao : vertexArrays) {
+            glDeleteVertexArrays(vao);
+        }
+        for (int buffer : bufferObjects) {
+            glDeleteBuffers(buffer);
+        }
+        vertexArrays.clear();
+        bufferObjects.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GltfModel %s: %d meshes, %d primitives, %d instances of %d nodes, %d materials, "
+                        + "%.2f MB uploaded in %.1f ms (%d primitives with generated normals)",
+                path, meshes.length, primitiveCount, instanceCount, nodeCount, materials.length,
+                uploadedBytes / (1024.0 * 1024.0), loadNanos / 1e6, generatedNormals);
+    }
+
+    private static class Accessor {
+        int bufferView;
+        int byteOffset;
+        int byteStride;
+        int componentType;
+        boolean normalized;
+        int count;
+        int components;
+    }
+
+    private static class Primitive {
+        int vao;
+        int mode;
+        int count;
+        int indexType;
+        long indexOffset;
+        int material;
+    }
+
+    public static class Material {
+        public static final Material DEFAULT_MATERIAL = new Material("default");
+
+        final String name;
+        final float[] baseColor = {1, 1, 1, 1};
+        final float[] emissive = {0, 0, 0};
+        float metallic = 1.0f;
+        float roughness = 1.0f;
+        int baseColorTexture = -1;
+        int metallicRoughnessTexture = -1;
+        int normalTexture = -1;
+        String alphaMode = "OPAQUE";
+        boolean doubleSided;
+
+        Material(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Texture indices into the glTF textures array, -1 when the factor is used alone
+        public int getBaseColorTexture() {
+            return baseColorTexture;
+        }
+
+        public int getMetallicRoughnessTexture() {
+            return metallicRoughnessTexture;
+        }
+
+        public int getNormalTexture() {
+            return normalTexture;
+        }
+
+        public String getAlphaMode() {
+            return alphaMode;
+        }
+
+        public boolean isDoubleSided() {
+            return doubleSided;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Material{name='%s', baseColor=%.2f, %.2f, %.2f, %.2f, metallic=%.2f, roughness=%.2f}",
+                    name, baseColor[0], baseColor[1], baseColor[2], baseColor[3], metallic, roughness);
+        }
+    }
+}
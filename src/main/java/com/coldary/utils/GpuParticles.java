@@ -0,0 +1,310 @@
+package com.coldary.utils;
+
+import com.coldary.objects.ParticleEmitter;
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.IntBuffer;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL43.*;
+
+// Particle pool in SSBOs, emitted, simulated and compacted by compute shaders and drawn
+// with glDrawArraysIndirect from the instance count the simulation wrote. Nothing but a
+// few counters for the stats ever comes back to the CPU, and those a few frames late.
+class GpuParticles implements ParticleBackend {
+
+    private static final String COMPUTE_FILE = "/Shaders/particles/Compute.particles.glsl";
+    private static final int WORKGROUP_SIZE = 256;
+    private static final int PARTICLE_BYTES = 64;
+    // Counter and padding in front of each alive list
+    private static final int LIST_HEADER_BYTES = 16;
+
+    // State block layout, see Compute.particles.glsl
+    private static final int STATE_BYTES = 48;
+    private static final int STATE_DRAW_OFFSET = 0;
+    private static final int STATE_DISPATCH_OFFSET = 16;
+    private static final int STATE_INSTANCES = 1;
+    private static final int STATE_EMITTED = 9;
+    private static final int STATE_DIED = 10;
+
+    private static final int PARTICLES_BINDING = 0;
+    private static final int DEAD_BINDING = 1;
+    private static final int ALIVE_IN_BINDING = 2;
+    private static final int ALIVE_OUT_BINDING = 3;
+    private static final int STATE_BINDING = 4;
+
+    // Readbacks in flight, results are picked up once their fence has passed
+    private static final int READBACK_FRAMES = 3;
+
+    private final int capacity;
+    private final int particleBuffer;
+    private final int deadBuffer;
+    private final int[] aliveBuffers = new int[2];
+    private final int stateBuffer;
+    private final int emptyVao;
+    private int front;
+
+    private final Shaders emitProgram;
+    private final Shaders prepareProgram;
+    private final Shaders simulateProgram;
+    private final Shaders finalizeProgram;
+    private final Shaders renderProgram;
+
+    private final int emitCountLoc;
+    private final int emitSeedLoc;
+    private final int emitPositionLoc;
+    private final int emitVelocityLoc;
+    private final int emitSpreadLoc;
+    private final int emitLifetimeLoc;
+    private final int emitShapeLoc;
+    private final int emitColorLoc;
+    private final int deltaTimeLoc;
+    private final int timeLoc;
+    private final int gravityLoc;
+    private final int windLoc;
+    private final int noiseFrequencyLoc;
+    private final int noiseStrengthLoc;
+    private final int groundHeightLoc;
+
+    private final int[] readbackBuffers = new int[READBACK_FRAMES];
+    private final long[] readbackFences = new long[READBACK_FRAMES];
+    private int readbackIndex;
+
+    private int aliveCount;
+    private long emittedTotal;
+    private long diedTotal;
+
+    GpuParticles(int requestedCapacity, int cameraBlockBinding) {
+        // GL 4.3 only guarantees 16 MB per storage block
+        long maxBlockBytes = glGetInteger64(GL_MAX_SHADER_STORAGE_BLOCK_SIZE);
+        capacity = (int) Math.min(requestedCapacity, maxBlockBytes / PARTICLE_BYTES);
+        if (capacity < requestedCapacity) {
+            System.err.println("Particle pool limited to " + capacity + " by GL_MAX_SHADER_STORAGE_BLOCK_SIZE");
+        }
+
+        particleBuffer = createBuffer((long) capacity * PARTICLE_BYTES);
+        deadBuffer = createBuffer((long) capacity * Integer.BYTES);
+        for (int i = 0; i < aliveBuffers.length; i++) {
+            aliveBuffers[i] = createBuffer(LIST_HEADER_BYTES + (long) capacity * Integer.BYTES);
+            glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, new int[LIST_HEADER_BYTES / Integer.BYTES]);
+        }
+        stateBuffer = createBuffer(STATE_BYTES);
+        // Empty draw and dispatch commands, every slot free
+        glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, new int[]{4, 0, 0, 0, 0, 1, 1, 0, capacity, 0, 0, capacity});
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        for (int i = 0; i < READBACK_FRAMES; i++) {
+            readbackBuffers[i] = glGenBuffers();
+            glBindBuffer(GL_COPY_WRITE_BUFFER, readbackBuffers[i]);
+            glBufferData(GL_COPY_WRITE_BUFFER, STATE_BYTES, GL_STREAM_READ);
+        }
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        emptyVao = glGenVertexArrays();
+
+        emitProgram = acquireStage("PARTICLE_EMIT");
+        prepareProgram = acquireStage("PARTICLE_PREPARE");
+        simulateProgram = acquireStage("PARTICLE_SIMULATE");
+        finalizeProgram = acquireStage("PARTICLE_FINALIZE");
+        renderProgram = Resources.acquireShader("/Shaders/particles/VertexGpu.particles.glsl",
+                "/Shaders/particles/Fragment.particles.glsl", 0);
+        renderProgram.bindUniformBlock("CameraBlock", cameraBlockBinding);
+
+        int emit = emitProgram.getShaderProgram();
+        emitCountLoc = glGetUniformLocation(emit, "emitCount");
+        emitSeedLoc = glGetUniformLocation(emit, "seed");
+        emitPositionLoc = glGetUniformLocation(emit, "emitPosition");
+        emitVelocityLoc = glGetUniformLocation(emit, "emitVelocity");
+        emitSpreadLoc = glGetUniformLocation(emit, "emitSpread");
+        emitLifetimeLoc = glGetUniformLocation(emit, "emitLifetime");
+        emitShapeLoc = glGetUniformLocation(emit, "emitShape");
+        emitColorLoc = glGetUniformLocation(emit, "emitColor");
+
+        int simulate = simulateProgram.getShaderProgram();
+        deltaTimeLoc = glGetUniformLocation(simulate, "deltaTime");
+        timeLoc = glGetUniformLocation(simulate, "time");
+        gravityLoc = glGetUniformLocation(simulate, "gravity");
+        windLoc = glGetUniformLocation(simulate, "wind");
+        noiseFrequencyLoc = glGetUniformLocation(simulate, "noiseFrequency");
+        noiseStrengthLoc = glGetUniformLocation(simulate, "noiseStrength");
+        groundHeightLoc = glGetUniformLocation(simulate, "groundHeight");
+
+        // The init stage only runs once, so its reference is dropped right away
+        Shaders initProgram = acquireStage("PARTICLE_INIT");
+        bindPool();
+        initProgram.start();
+        glDispatchCompute(groupCount(capacity), 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+        initProgram.stop();
+        Resources.release(initProgram);
+    }
+
+    private static int createBuffer(long size) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, buffer);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, size, GL_DYNAMIC_COPY);
+        return buffer;
+    }
+
+    private static Shaders acquireStage(String stage) {
+        return Resources.acquireCompute(COMPUTE_FILE, Map.of(stage, "1", "WORKGROUP_SIZE", Integer.toString(WORKGROUP_SIZE)));
+    }
+
+    private static int groupCount(int invocations) {
+        return (invocations + WORKGROUP_SIZE - 1) / WORKGROUP_SIZE;
+    }
+
+    private void bindPool() {
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, PARTICLES_BINDING, particleBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, DEAD_BINDING, deadBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, ALIVE_IN_BINDING, aliveBuffers[front]);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, ALIVE_OUT_BINDING, aliveBuffers[1 - front]);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, STATE_BINDING, stateBuffer);
+    }
+
+    @Override
+    public void emit(ParticleEmitter emitter, int count, int seed) {
+        count = Math.min(count, capacity);
+        if (count <= 0) {
+            return;
+        }
+        bindPool();
+        emitProgram.start();
+        glUniform1ui(emitCountLoc, count);
+        glUniform1ui(emitSeedLoc, seed);
+        glUniform3f(emitPositionLoc, emitter.position.x, emitter.position.y, emitter.position.z);
+        glUniform3f(emitVelocityLoc, emitter.velocity.x, emitter.velocity.y, emitter.velocity.z);
+        glUniform2f(emitSpreadLoc, emitter.positionSpread, emitter.velocitySpread);
+        glUniform2f(emitLifetimeLoc, emitter.minLifetime, emitter.maxLifetime);
+        glUniform4f(emitShapeLoc, emitter.startSize, emitter.endSize, emitter.drag, emitter.gravityScale);
+        glUniform4f(emitColorLoc, emitter.color.x, emitter.color.y, emitter.color.z, emitter.color.w);
+        glDispatchCompute(groupCount(count), 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+    }
+
+    @Override
+    public void simulate(ParticleSystem system, float deltaTime, float time) {
+        bindPool();
+
+        prepareProgram.start();
+        glDispatchCompute(1, 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT | GL_COMMAND_BARRIER_BIT);
+
+        simulateProgram.start();
+        glUniform1f(deltaTimeLoc, deltaTime);
+        glUniform1f(timeLoc, time);
+        glUniform3f(gravityLoc, system.gravity.x, system.gravity.y, system.gravity.z);
+        glUniform3f(windLoc, system.wind.x, system.wind.y, system.wind.z);
+        glUniform1f(noiseFrequencyLoc, system.noiseFrequency);
+        glUniform1f(noiseStrengthLoc, system.noiseStrength);
+        glUniform1f(groundHeightLoc, system.groundHeight);
+        // Sized by the prepare stage from the alive count, which only the GPU knows
+        glBindBuffer(GL_DISPATCH_INDIRECT_BUFFER, stateBuffer);
+        glDispatchComputeIndirect(STATE_DISPATCH_OFFSET);
+        glBindBuffer(GL_DISPATCH_INDIRECT_BUFFER, 0);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT);
+
+        finalizeProgram.start();
+        glDispatchCompute(1, 1, 1);
+        glMemoryBarrier(GL_SHADER_STORAGE_BARRIER_BIT | GL_COMMAND_BARRIER_BIT | GL_BUFFER_UPDATE_BARRIER_BIT);
+        finalizeProgram.stop();
+
+        // This frame's survivors are the next frame's input
+        front = 1 - front;
+        readBackState();
+    }
+
+    // Copies the counters into the readback ring and reads the oldest copy that is ready
+    private void readBackState() {
+        int slot = readbackIndex;
+        readbackIndex = (readbackIndex + 1) % READBACK_FRAMES;
+
+        long fence = readbackFences[slot];
+        if (fence != 0) {
+            // Still in flight after READBACK_FRAMES frames means the sample is skipped, never waited on
+            int status = glClientWaitSync(fence, 0, 0);
+            if (status == GL_ALREADY_SIGNALED || status == GL_CONDITION_SATISFIED) {
+                glBindBuffer(GL_COPY_READ_BUFFER, readbackBuffers[slot]);
+                try (MemoryStack stack = MemoryStack.stackPush()) {
+                    IntBuffer state = stack.mallocInt(STATE_BYTES / Integer.BYTES);
+                    glGetBufferSubData(GL_COPY_READ_BUFFER, 0, state);
+                    aliveCount = state.get(STATE_INSTANCES);
+                    emittedTotal = Integer.toUnsignedLong(state.get(STATE_EMITTED));
+                    diedTotal = Integer.toUnsignedLong(state.get(STATE_DIED));
+                }
+            }
+            glDeleteSync(fence);
+            readbackFences[slot] = 0;
+        }
+
+        glBindBuffer(GL_COPY_READ_BUFFER, stateBuffer);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, readbackBuffers[slot]);
+        glCopyBufferSubData(GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, 0, 0, STATE_BYTES);
+        glBindBuffer(GL_COPY_READ_BUFFER, 0);
+        glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+        readbackFences[slot] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    @Override
+    public void render() {
+        renderProgram.start();
+        glBindVertexArray(emptyVao);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, PARTICLES_BINDING, particleBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, ALIVE_OUT_BINDING, aliveBuffers[front]);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, stateBuffer);
+        glDrawArraysIndirect(GL_TRIANGLE_STRIP, STATE_DRAW_OFFSET);
+        // The real instance count is only known on the GPU, the latest readback stands in
+        RenderStats.stateChange();
+        RenderStats.draw(aliveCount * 2L);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        glBindVertexArray(0);
+        renderProgram.stop();
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getAliveCount() {
+        return aliveCount;
+    }
+
+    @Override
+    public long getEmittedTotal() {
+        return emittedTotal;
+    }
+
+    @Override
+    public long getDiedTotal() {
+        return diedTotal;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        long lists = 2 * (LIST_HEADER_BYTES + (long) capacity * Integer.BYTES);
+        return (long) capacity * PARTICLE_BYTES + (long) capacity * Integer.BYTES + lists
+                + STATE_BYTES * (1 + READBACK_FRAMES);
+    }
+
+    @Override
+    public void dispose() {
+        for (int i = 0; i < READBACK_FRAMES; i++) {
+            if (readbackFences[i] != 0) {
+                glDeleteSync(readbackFences[i]);
+                readbackFences[i] = 0;
+            }
+        }
+        glDeleteBuffers(readbackBuffers);
+        glDeleteBuffers(particleBuffer);
+        glDeleteBuffers(deadBuffer);
+        glDeleteBuffers(aliveBuffers);
+        glDeleteBuffers(stateBuffer);
+        glDeleteVertexArrays(emptyVao);
+        Resources.release(emitProgram);
+        Resources.release(prepareProgram);
+        Resources.release(simulateProgram);
+        Resources.release(finalizeProgram);
+        Resources.release(renderProgram);
+    }
+}
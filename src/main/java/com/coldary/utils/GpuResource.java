@@ -0,0 +1,10 @@
+package com.coldary.utils;
+
+public interface GpuResource {
+
+    // Approximate device memory held by this resource, used for the cache budget
+    long getGpuMemoryBytes();
+
+    // Frees the underlying GL objects, must be called on the GL thread
+    void dispose();
+}
@@ -0,0 +1,204 @@
+package com.coldary.utils;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// A mesh baked into an octahedral impostor atlas: framesPerSide^2 orthographic views of its
+// bounding sphere, taken from directions spread over the whole sphere by the octahedron
+// mapping in Shaders/impostor/Octahedral.glsl. Each view stores coverage (albedo alpha),
+// object space normals and the depth along the view direction, enough for ImpostorRenderer
+// to blend the three nearest views and light the result like the mesh itself.
+public class Impostor implements GpuResource {
+
+    public static final String BAKE_VERTEX_FILE = "/Shaders/impostor/Vertex.bake.glsl";
+    public static final String BAKE_FRAGMENT_FILE = "/Shaders/impostor/Fragment.bake.glsl";
+
+    // Views shrink to no less than this many pixels in the smallest mip, so a distant
+    // impostor does not average neighbouring views together
+    private static final int MIN_MIP_SIZE = 16;
+
+    private final int albedoTexture;
+    private final int normalTexture;
+    private final int depthTexture;
+    private final int framesPerSide;
+    private final int frameSize;
+    private final Vector3f center;
+    private final float radius;
+    private final long gpuMemoryBytes;
+    private final float bakeMillis;
+
+    private Impostor(int albedoTexture, int normalTexture, int depthTexture, int framesPerSide, int frameSize,
+                     Vector3f center, float radius, long gpuMemoryBytes, float bakeMillis) {
+        this.albedoTexture = albedoTexture;
+        this.normalTexture = normalTexture;
+        this.depthTexture = depthTexture;
+        this.framesPerSide = framesPerSide;
+        this.frameSize = frameSize;
+        this.center = center;
+        this.radius = radius;
+        this.gpuMemoryBytes = gpuMemoryBytes;
+        this.bakeMillis = bakeMillis;
+    }
+
+    // GL thread. Renders the model once per view into a fresh atlas; the bounding sphere is in
+    // model space. Leaves the default framebuffer bound and the viewport as it found it.
+    public static Impostor bake(ModelLoader model, Vector3f center, float radius, int framesPerSide, int frameSize) {
+        if (framesPerSide < 2) {
+            throw new IllegalArgumentException("An impostor needs at least 2x2 views: " + framesPerSide);
+        }
+        if (frameSize < MIN_MIP_SIZE) {
+            throw new IllegalArgumentException("Impostor views need at least " + MIN_MIP_SIZE + " px: " + frameSize);
+        }
+        long start = System.nanoTime();
+        int atlasSize = framesPerSide * frameSize;
+        // log2(frameSize / MIN_MIP_SIZE) halvings, at least 1 given the check above
+        int levels = 31 - Integer.numberOfLeadingZeros(frameSize / MIN_MIP_SIZE) + 1;
+
+        int albedo = createAtlas(atlasSize, levels, GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE);
+        int normal = createAtlas(atlasSize, levels, GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE);
+        int depth = createAtlas(atlasSize, levels, GL_R16F, GL_RED, GL_HALF_FLOAT);
+
+        int framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, albedo, 0);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT1, GL_TEXTURE_2D, normal, 0);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT2, GL_TEXTURE_2D, depth, 0);
+        int depthBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, atlasSize, atlasSize);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+        glDrawBuffers(new int[]{GL_COLOR_ATTACHMENT0, GL_COLOR_ATTACHMENT1, GL_COLOR_ATTACHMENT2});
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Impostor bake framebuffer incomplete");
+        }
+
+        int[] viewport = new int[4];
+        glGetIntegerv(GL_VIEWPORT, viewport);
+        glViewport(0, 0, atlasSize, atlasSize);
+        // Empty texels: no coverage, a neutral normal and the far end of the sphere
+        glClearBufferfv(GL_COLOR, 0, new float[]{0.0f, 0.0f, 0.0f, 0.0f});
+        glClearBufferfv(GL_COLOR, 1, new float[]{0.5f, 0.5f, 1.0f, 0.0f});
+        glClearBufferfv(GL_COLOR, 2, new float[]{1.0f, 0.0f, 0.0f, 0.0f});
+        glClearBufferfv(GL_DEPTH, 0, new float[]{1.0f});
+        glEnable(GL_DEPTH_TEST);
+        glDepthMask(true);
+        glDisable(GL_BLEND);
+        glDisable(GL_CULL_FACE);
+
+        Shaders shader = Resources.acquireShader(BAKE_VERTEX_FILE, BAKE_FRAGMENT_FILE, 0);
+        int program = shader.getShaderProgram();
+        shader.start();
+        glUniform3f(glGetUniformLocation(program, "baseColor"), 1.0f, 1.0f, 1.0f);
+        glUniform3f(glGetUniformLocation(program, "center"), center.x, center.y, center.z);
+        glUniform1f(glGetUniformLocation(program, "radius"), radius);
+        int directionLocation = glGetUniformLocation(program, "frameDirection");
+
+        Vector3f direction = new Vector3f();
+        Vector3f eye = new Vector3f();
+        Vector3f up = new Vector3f();
+        Matrix4f viewProjection = new Matrix4f();
+        for (int y = 0; y < framesPerSide; y++) {
+            for (int x = 0; x < framesPerSide; x++) {
+                octahedronDirection((float) x / (framesPerSide - 1), (float) y / (framesPerSide - 1), direction);
+                // Same reference axis as frameBasis in Octahedral.glsl, the runtime rebuilds this camera
+                up.set(0.0f, Math.abs(direction.y) > 0.999f ? 0.0f : 1.0f, Math.abs(direction.y) > 0.999f ? 1.0f : 0.0f);
+                direction.mul(2.0f * radius, eye).add(center);
+                viewProjection.setOrtho(-radius, radius, -radius, radius, radius, 3.0f * radius)
+                        .lookAt(eye, center, up);
+                shader.setMatrixUniform(program, "viewProjection", viewProjection);
+                glUniform3f(directionLocation, direction.x, direction.y, direction.z);
+                glViewport(x * frameSize, y * frameSize, frameSize, frameSize);
+                model.render();
+            }
+        }
+        shader.stop();
+        Resources.release(shader);
+
+        glBindFramebuffer(GL_FRAMEBUFFER, 0);
+        glDeleteFramebuffers(framebuffer);
+        glDeleteRenderbuffers(depthBuffer);
+        glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+        for (int texture : new int[]{albedo, normal, depth}) {
+            glBindTexture(GL_TEXTURE_2D, texture);
+            glGenerateMipmap(GL_TEXTURE_2D);
+        }
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        // Two RGBA8 atlases and one R16F, plus a third for the mip chain
+        long bytes = (long) atlasSize * atlasSize * (4 + 4 + 2) * 4 / 3;
+        return new Impostor(albedo, normal, depth, framesPerSide, frameSize, new Vector3f(center), radius, bytes,
+                (System.nanoTime() - start) / 1e6f);
+    }
+
+    private static int createAtlas(int size, int levels, int internalFormat, int format, int type) {
+        int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, texture);
+        for (int level = 0, levelSize = size; level < levels; level++, levelSize = Math.max(1, levelSize / 2)) {
+            glTexImage2D(GL_TEXTURE_2D, level, internalFormat, levelSize, levelSize, 0, format, type, (ByteBuffer) null);
+        }
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, levels - 1);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        return texture;
+    }
+
+    // Unit direction for atlas coordinates in [0, 1]^2, octahedronDecode in Octahedral.glsl
+    public static Vector3f octahedronDirection(float u, float v, Vector3f dest) {
+        float px = u * 2.0f - 1.0f;
+        float pz = v * 2.0f - 1.0f;
+        float py = 1.0f - Math.abs(px) - Math.abs(pz);
+        if (py < 0.0f) {
+            float foldedX = (1.0f - Math.abs(pz)) * (px >= 0.0f ? 1.0f : -1.0f);
+            float foldedZ = (1.0f - Math.abs(px)) * (pz >= 0.0f ? 1.0f : -1.0f);
+            px = foldedX;
+            pz = foldedZ;
+        }
+        return dest.set(px, py, pz).normalize();
+    }
+
+    // Binds the three atlases to consecutive units starting at firstUnit
+    void bind(int firstUnit) {
+        glActiveTexture(GL_TEXTURE0 + firstUnit);
+        glBindTexture(GL_TEXTURE_2D, albedoTexture);
+        glActiveTexture(GL_TEXTURE0 + firstUnit + 1);
+        glBindTexture(GL_TEXTURE_2D, normalTexture);
+        glActiveTexture(GL_TEXTURE0 + firstUnit + 2);
+        glBindTexture(GL_TEXTURE_2D, depthTexture);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    public int getFramesPerSide() {
+        return framesPerSide;
+    }
+
+    public Vector3f getCenter() {
+        return center;
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return gpuMemoryBytes;
+    }
+
+    @Override
+    public void dispose() {
+        glDeleteTextures(new int[]{albedoTexture, normalTexture, depthTexture});
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Impostor: %dx%d views of %d px, %.1f MB atlas, baked in %.1f ms",
+                framesPerSide, framesPerSide, frameSize, gpuMemoryBytes / (1024.0 * 1024.0), bakeMillis);
+    }
+}
@@ -0,0 +1,177 @@
+package com.coldary.utils;
+
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Draws distant copies of baked meshes as camera facing quads, one instanced draw per
+// impostor per frame. Instances are collected with add() while the scene is walked and
+// streamed in one piece by render(), which leaves the batches empty for the next frame.
+public class ImpostorRenderer implements GpuResource {
+
+    public static final String VERTEX_FILE = "/Shaders/impostor/Vertex.impostor.glsl";
+    public static final String FRAGMENT_FILE = "/Shaders/impostor/Fragment.impostor.glsl";
+
+    // Atlas units, after the ones ClusteredLighting binds
+    private static final int ALBEDO_UNIT = 4;
+
+    // Model matrix, fade, padded to a 16 byte multiple
+    private static final int INSTANCE_FLOATS = 20;
+    private static final int INSTANCE_BYTES = INSTANCE_FLOATS * Float.BYTES;
+
+    private final int maxInstances;
+    private final StreamingBuffer instances;
+    private final int vao;
+    private final Shaders shader;
+    private final int centerLocation;
+    private final int radiusLocation;
+    private final int framesPerSideLocation;
+    private final List<Batch> batches = new ArrayList<>();
+    private int queued;
+
+    // Stats
+    private long frames;
+    private long drawnInstances;
+    private long draws;
+    private long rejected;
+
+    private static final class Batch {
+        private final Impostor impostor;
+        private final float[] data;
+        private int count;
+
+        private Batch(Impostor impostor, int maxInstances) {
+            this.impostor = impostor;
+            data = new float[maxInstances * INSTANCE_FLOATS];
+        }
+    }
+
+    // variant takes the SUN_SHADOWS bit of the scene shaders, the rest is ignored
+    public ImpostorRenderer(int maxInstances, int cameraBlockBinding, int variant) {
+        this.maxInstances = maxInstances;
+        instances = new StreamingBuffer(GL_ARRAY_BUFFER, maxInstances * INSTANCE_BYTES);
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+        for (int location = 0; location < 5; location++) {
+            glEnableVertexAttribArray(location);
+            glVertexAttribDivisor(location, 1);
+        }
+        glBindVertexArray(0);
+
+        shader = Resources.acquireShader(VERTEX_FILE, FRAGMENT_FILE, variant & ShaderVariant.SUN_SHADOWS);
+        shader.bindUniformBlock("CameraBlock", cameraBlockBinding);
+        int program = shader.getShaderProgram();
+        centerLocation = glGetUniformLocation(program, "impostorCenter");
+        radiusLocation = glGetUniformLocation(program, "impostorRadius");
+        framesPerSideLocation = glGetUniformLocation(program, "framesPerSide");
+        shader.start();
+        glUniform1i(glGetUniformLocation(program, "impostorAlbedo"), ALBEDO_UNIT);
+        glUniform1i(glGetUniformLocation(program, "impostorNormal"), ALBEDO_UNIT + 1);
+        glUniform1i(glGetUniformLocation(program, "impostorDepth"), ALBEDO_UNIT + 2);
+        shader.stop();
+    }
+
+    // The program render() draws with, for the caller to set the scene uniforms on
+    public Shaders getShader() {
+        return shader;
+    }
+
+    // Queues one instance. False when this frame is full, the caller draws the mesh instead.
+    public boolean add(Impostor impostor, Matrix4f model, float fade) {
+        if (queued == maxInstances) {
+            rejected++;
+            return false;
+        }
+        Batch batch = batchFor(impostor);
+        int base = batch.count * INSTANCE_FLOATS;
+        model.get(batch.data, base);
+        batch.data[base + 16] = fade;
+        batch.count++;
+        queued++;
+        return true;
+    }
+
+    // A handful of impostor kinds at most, a list walk beats hashing
+    private Batch batchFor(Impostor impostor) {
+        for (Batch batch : batches) {
+            if (batch.impostor == impostor) {
+                return batch;
+            }
+        }
+        Batch batch = new Batch(impostor, maxInstances);
+        batches.add(batch);
+        return batch;
+    }
+
+    // Expects getShader() started with the material, ambientLight, cluster and sun uniforms set
+    public void render() {
+        frames++;
+        if (queued == 0) {
+            return;
+        }
+        instances.beginFrame();
+        int offset = instances.allocate(queued * INSTANCE_BYTES, INSTANCE_BYTES);
+        long address = instances.address(offset);
+        for (Batch batch : batches) {
+            for (int i = 0; i < batch.count * INSTANCE_FLOATS; i++) {
+                MemoryUtil.memPutFloat(address + (long) i * Float.BYTES, batch.data[i]);
+            }
+            address += (long) batch.count * INSTANCE_BYTES;
+        }
+        instances.flush();
+
+        glBindVertexArray(vao);
+        long first = offset;
+        for (Batch batch : batches) {
+            if (batch.count == 0) {
+                continue;
+            }
+            Impostor impostor = batch.impostor;
+            impostor.bind(ALBEDO_UNIT);
+            glUniform3f(centerLocation, impostor.getCenter().x, impostor.getCenter().y, impostor.getCenter().z);
+            glUniform1f(radiusLocation, impostor.getRadius());
+            glUniform1f(framesPerSideLocation, impostor.getFramesPerSide());
+
+            glBindBuffer(GL_ARRAY_BUFFER, instances.getBufferID());
+            for (int column = 0; column < 4; column++) {
+                glVertexAttribPointer(column, 4, GL_FLOAT, false, INSTANCE_BYTES, first + column * 16L);
+            }
+            glVertexAttribPointer(4, 1, GL_FLOAT, false, INSTANCE_BYTES, first + 64L);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            glDrawArraysInstanced(GL_TRIANGLE_STRIP, 0, 4, batch.count);
+            RenderStats.stateChange();
+            RenderStats.draw(batch.count * 2L);
+
+            first += (long) batch.count * INSTANCE_BYTES;
+            drawnInstances += batch.count;
+            draws++;
+            batch.count = 0;
+        }
+        glBindVertexArray(0);
+        instances.endFrame();
+        queued = 0;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return instances.getGpuMemoryBytes();
+    }
+
+    @Override
+    public void dispose() {
+        instances.dispose();
+        glDeleteVertexArrays(vao);
+        Resources.release(shader);
+    }
+
+    @Override
+    public String toString() {
+        double perFrame = Math.max(frames, 1);
+        return String.format("Impostors: %.1f instances in %.1f draws per frame, %d over the %d instance budget",
+                drawnInstances / perFrame, draws / perFrame, rejected, maxInstances);
+    }
+}
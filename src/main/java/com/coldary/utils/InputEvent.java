@@ -0,0 +1,32 @@
+package com.coldary.utils;
+
+// Mutable holder the input queue copies events into, reused so draining allocates nothing
+public final class InputEvent {
+
+    public static final int KEY = 1;
+    public static final int MOUSE_BUTTON = 2;
+    public static final int CURSOR_POS = 3;
+    public static final int SCROLL = 4;
+
+    public int type;
+    public int code;
+    public int action;
+    public int mods;
+    public double x;
+    public double y;
+    public long timeNanos;
+
+    public void set(int type, int code, int action, int mods, double x, double y, long timeNanos) {
+        this.type = type;
+        this.code = code;
+        this.action = action;
+        this.mods = mods;
+        this.x = x;
+        this.y = y;
+        this.timeNanos = timeNanos;
+    }
+
+    public void set(InputEvent other) {
+        set(other.type, other.code, other.action, other.mods, other.x, other.y, other.timeNanos);
+    }
+}
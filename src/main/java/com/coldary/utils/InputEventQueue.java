@@ -0,0 +1,82 @@
+package com.coldary.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single producer / single consumer ring of input events. The producer is whichever thread
+// runs the GLFW callbacks, the consumer is the simulation tick. Events are stored in
+// parallel primitive arrays so neither side allocates.
+public class InputEventQueue {
+
+    private final int mask;
+    private final int[] types;
+    private final int[] codes;
+    private final int[] actions;
+    private final int[] mods;
+    private final double[] xs;
+    private final double[] ys;
+    private final long[] times;
+
+    // head: next slot to read, tail: next slot to write. Published with release semantics.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public InputEventQueue(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        types = new int[capacity];
+        codes = new int[capacity];
+        actions = new int[capacity];
+        mods = new int[capacity];
+        xs = new double[capacity];
+        ys = new double[capacity];
+        times = new long[capacity];
+    }
+
+    // Producer side. Drops the event and counts it if the consumer has fallen a full ring behind.
+    public boolean push(int type, int code, int action, int modifiers, double x, double y, long timeNanos) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        int slot = (int) t & mask;
+        types[slot] = type;
+        codes[slot] = code;
+        actions[slot] = action;
+        mods[slot] = modifiers;
+        xs[slot] = x;
+        ys[slot] = y;
+        times[slot] = timeNanos;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    public boolean push(InputEvent event) {
+        return push(event.type, event.code, event.action, event.mods, event.x, event.y, event.timeNanos);
+    }
+
+    // Consumer side. Copies the oldest event into `out` and returns false when empty.
+    public boolean poll(InputEvent out) {
+        long h = head.get();
+        if (h == tail.get()) {
+            return false;
+        }
+
+        int slot = (int) h & mask;
+        out.set(types[slot], codes[slot], actions[slot], mods[slot], xs[slot], ys[slot], times[slot]);
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -2,6 +2,10 @@ package com.coldary.utils;
 
 import org.lwjgl.glfw.*;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
 import static org.lwjgl.glfw.GLFW.*;
 
 public final class InputHandler
@@ -9,6 +13,7 @@ public final class InputHandler
     private static long window;
     private static final int KEYBOARD_SIZE = 512;
     private static final int MOUSE_SIZE = 16;
+    private static final int QUEUE_CAPACITY = 1024;
 
     private static int[] keyStates = new int[KEYBOARD_SIZE];
     private static boolean[] activeKeys = new boolean[KEYBOARD_SIZE];
@@ -20,14 +25,43 @@ public final class InputHandler
 
     private static int NO_STATE = -1;
 
+    // Only the slots touched during a tick get reset at the start of the next one
+    private static int[] changedKeys = new int[KEYBOARD_SIZE];
+    private static int changedKeyCount;
+    private static int[] changedButtons = new int[MOUSE_SIZE];
+    private static int changedButtonCount;
+
+    // Cursor movement accumulated over the current tick
+    private static double lastCursorX, lastCursorY;
+    private static boolean firstCursorEvent = true;
+    private static float mouseDeltaX, mouseDeltaY;
+    private static float scrollDelta;
+
+    // Filled by the GLFW callbacks, drained once per simulation tick
+    private static final InputEventQueue events = new InputEventQueue(QUEUE_CAPACITY);
+    private static final InputEvent event = new InputEvent();
+    private static long tick;
+
+    // Newest cursor position, written by the callback on the thread polling GLFW events
+    private static double latestCursorX, latestCursorY;
+    private static long latestCursorNanos;
+    private static boolean latestCursorValid;
+
+    // Cursor movement the simulation has not consumed yet, applied to the view only
+    private static float latchedDeltaX, latchedDeltaY;
+    // Oldest input timestamp consumed since the last snapshot, 0 if none
+    private static long frameInputNanos;
+
+    private static InputRecorder recorder;
+    private static InputReplay replay;
+
 
     protected static GLFWKeyCallback keyboard = new GLFWKeyCallback()
     {
         @Override
         public void invoke(long window, int key, int scancode, int action, int mods)
         {
-            activeKeys[key] = action != GLFW_RELEASE;
-            keyStates[key] = action;
+            events.push(InputEvent.KEY, key, action, mods, 0, 0, System.nanoTime());
         }
     };
 
@@ -36,41 +70,217 @@ public final class InputHandler
         @Override
         public void invoke(long window, int button, int action, int mods)
         {
-            activeMouseButtons[button] = action != GLFW_RELEASE;
-            mouseButtonStates[button] = action;
+            events.push(InputEvent.MOUSE_BUTTON, button, action, mods, 0, 0, System.nanoTime());
+        }
+    };
+
+    protected static GLFWCursorPosCallback cursor = new GLFWCursorPosCallback()
+    {
+        @Override
+        public void invoke(long window, double xpos, double ypos)
+        {
+            long now = System.nanoTime();
+            latestCursorX = xpos;
+            latestCursorY = ypos;
+            latestCursorNanos = now;
+            latestCursorValid = true;
+            events.push(InputEvent.CURSOR_POS, 0, 0, 0, xpos, ypos, now);
         }
     };
 
-    protected static void init(long window)
+    protected static GLFWScrollCallback scroll = new GLFWScrollCallback()
+    {
+        @Override
+        public void invoke(long window, double xoffset, double yoffset)
+        {
+            events.push(InputEvent.SCROLL, 0, 0, 0, xoffset, yoffset, System.nanoTime());
+        }
+    };
+
+    public static void init(long window)
     {
         InputHandler.window = window;
 
-        resetKeyboard();
-        resetMouse();
+        glfwSetKeyCallback(window, keyboard);
+        glfwSetMouseButtonCallback(window, mouse);
+        glfwSetCursorPosCallback(window, cursor);
+        glfwSetScrollCallback(window, scroll);
+
+        Arrays.fill(keyStates, NO_STATE);
+        Arrays.fill(mouseButtonStates, NO_STATE);
+    }
+
+    // Records every event consumed from now on, tick by tick
+    public static void startRecording(Path file, int tickRate) throws IOException
+    {
+        recorder = new InputRecorder(file, tickRate);
     }
 
-    protected static void update()
+    // Replaces live input with a recording. Live events are still drained but ignored.
+    // tickRate is the simulation's, a recording made at another rate would replay out of step
+    public static void startReplay(Path file, int tickRate) throws IOException
+    {
+        InputReplay opened = new InputReplay(file);
+        if (opened.getTickRate() != tickRate)
+        {
+            opened.close();
+            throw new IOException("Input recording " + file + " was made at " + opened.getTickRate()
+                    + " ticks per second, the simulation runs at " + tickRate);
+        }
+        replay = opened;
+    }
+
+    public static boolean isReplaying()
+    {
+        return replay != null;
+    }
+
+    public static boolean isReplayFinished()
+    {
+        return replay != null && replay.isFinished();
+    }
+
+    // Consumes the events for one simulation tick. Pressed/released states and mouse deltas
+    // describe what happened since the previous tick.
+    public static void tick()
     {
         resetKeyboard();
         resetMouse();
 
-        glfwPollEvents();
+        try
+        {
+            if (replay != null)
+            {
+                while (events.poll(event))
+                {
+                    // Live input is ignored while a recording drives the simulation
+                }
+                while (replay.next(tick, event))
+                {
+                    apply(event);
+                }
+            }
+            else
+            {
+                while (events.poll(event))
+                {
+                    apply(event);
+                    if (recorder != null)
+                    {
+                        recorder.record(tick, event);
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Input recording failed at tick " + tick, e);
+        }
+
+        tick++;
+    }
+
+    private static void apply(InputEvent e)
+    {
+        noteInputTime(e.timeNanos);
+
+        switch (e.type)
+        {
+            case InputEvent.KEY:
+                if (e.code >= 0 && e.code < KEYBOARD_SIZE)
+                {
+                    activeKeys[e.code] = e.action != GLFW_RELEASE;
+                    if (keyStates[e.code] == NO_STATE)
+                    {
+                        changedKeys[changedKeyCount++] = e.code;
+                    }
+                    keyStates[e.code] = e.action;
+                }
+                break;
+            case InputEvent.MOUSE_BUTTON:
+                if (e.code >= 0 && e.code < MOUSE_SIZE)
+                {
+                    activeMouseButtons[e.code] = e.action != GLFW_RELEASE;
+                    if (mouseButtonStates[e.code] == NO_STATE)
+                    {
+                        changedButtons[changedButtonCount++] = e.code;
+                    }
+                    mouseButtonStates[e.code] = e.action;
+                }
+                break;
+            case InputEvent.CURSOR_POS:
+                if (firstCursorEvent)
+                {
+                    lastCursorX = e.x;
+                    lastCursorY = e.y;
+                    firstCursorEvent = false;
+                }
+                mouseDeltaX += (float) (e.x - lastCursorX);
+                mouseDeltaY += (float) (lastCursorY - e.y); // reversed since y-coordinates range from bottom to top
+                lastCursorX = e.x;
+                lastCursorY = e.y;
+                break;
+            case InputEvent.SCROLL:
+                scrollDelta += (float) e.y;
+                break;
+            default:
+                break;
+        }
+    }
+
+    // Called on the thread polling GLFW events with the cursor position the simulation
+    // consumed for the snapshot being rendered. The difference to the newest position is
+    // applied to the view right before rendering; the simulation picks the same movement
+    // up on its next tick, which keeps replays exact.
+    public static void latchMouseDelta(boolean consumedValid, double consumedX, double consumedY)
+    {
+        latchedDeltaX = 0;
+        latchedDeltaY = 0;
+        if (replay != null || !latestCursorValid || !consumedValid)
+        {
+            return;
+        }
+
+        latchedDeltaX = (float) (latestCursorX - consumedX);
+        latchedDeltaY = (float) (consumedY - latestCursorY); // reversed since y-coordinates range from bottom to top
+    }
+
+    private static void noteInputTime(long timeNanos)
+    {
+        if (timeNanos != 0 && (frameInputNanos == 0 || timeNanos < frameInputNanos))
+        {
+            frameInputNanos = timeNanos;
+        }
+    }
+
+    // Simulation side: returns the oldest input timestamp consumed since the last call
+    public static long takeFrameInputTime()
+    {
+        long time = frameInputNanos;
+        frameInputNanos = 0;
+        return time;
     }
 
     private static void resetKeyboard()
     {
-        for (int i = 0; i < keyStates.length; i++)
+        for (int i = 0; i < changedKeyCount; i++)
         {
-            keyStates[i] = NO_STATE;
+            keyStates[changedKeys[i]] = NO_STATE;
         }
+        changedKeyCount = 0;
     }
 
     private static void resetMouse()
     {
-        for (int i = 0; i < mouseButtonStates.length; i++)
+        for (int i = 0; i < changedButtonCount; i++)
         {
-            mouseButtonStates[i] = NO_STATE;
+            mouseButtonStates[changedButtons[i]] = NO_STATE;
         }
+        changedButtonCount = 0;
+
+        mouseDeltaX = 0;
+        mouseDeltaY = 0;
+        scrollDelta = 0;
 
         long now = System.nanoTime();
 
@@ -78,6 +288,28 @@ public final class InputHandler
             lastMouseNS = 0;
     }
 
+    public static void shutdown()
+    {
+        try
+        {
+            if (recorder != null)
+            {
+                System.out.println("Recorded " + recorder.getEventCount() + " input events over " + tick + " ticks");
+                recorder.close();
+                recorder = null;
+            }
+            if (replay != null)
+            {
+                replay.close();
+                replay = null;
+            }
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
     public static boolean keyDown(int key)
     {
         return activeKeys[key];
@@ -100,7 +332,7 @@ public final class InputHandler
 
     public static boolean mouseButtonPressed(int button)
     {
-        return mouseButtonStates[button] == GLFW_RELEASE;
+        return mouseButtonStates[button] == GLFW_PRESS;
     }
 
     public static boolean mouseButtonReleased(int button)
@@ -128,4 +360,60 @@ public final class InputHandler
 
         return false;
     }
+
+    public static float getMouseDeltaX()
+    {
+        return mouseDeltaX;
+    }
+
+    public static float getMouseDeltaY()
+    {
+        return mouseDeltaY;
+    }
+
+    public static float getLatchedDeltaX()
+    {
+        return latchedDeltaX;
+    }
+
+    public static float getLatchedDeltaY()
+    {
+        return latchedDeltaY;
+    }
+
+    public static long getLatestCursorNanos()
+    {
+        return latestCursorNanos;
+    }
+
+    // Cursor position as last consumed by tick(), valid once the first cursor event arrived
+    public static boolean isCursorConsumed()
+    {
+        return !firstCursorEvent;
+    }
+
+    public static double getConsumedCursorX()
+    {
+        return lastCursorX;
+    }
+
+    public static double getConsumedCursorY()
+    {
+        return lastCursorY;
+    }
+
+    public static float getScrollDelta()
+    {
+        return scrollDelta;
+    }
+
+    public static long getTick()
+    {
+        return tick;
+    }
+
+    public static long getDroppedEventCount()
+    {
+        return events.getDroppedCount();
+    }
 }
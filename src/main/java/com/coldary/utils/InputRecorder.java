@@ -0,0 +1,76 @@
+package com.coldary.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Writes the events consumed by each simulation tick to a compact binary file:
+//   header  MAGIC, VERSION, tick rate
+//   record  varint tick delta, type byte, payload (keys/buttons: code, action, mods; cursor/scroll: two doubles)
+//   end     zero tick delta followed by END_OF_STREAM
+// Timestamps are not stored, replay is driven by tick numbers alone.
+public class InputRecorder implements AutoCloseable {
+
+    public static final int MAGIC = 0x4E495244; // "DRIN"
+    public static final int VERSION = 1;
+    public static final int END_OF_STREAM = 0xFF;
+
+    private final DataOutputStream out;
+    private long lastTick;
+    private long eventCount;
+
+    public InputRecorder(Path file, int tickRate) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeInt(tickRate);
+    }
+
+    public void record(long tick, InputEvent event) throws IOException {
+        writeVarLong(tick - lastTick);
+        lastTick = tick;
+
+        out.writeByte(event.type);
+        switch (event.type) {
+            case InputEvent.KEY:
+                out.writeShort(event.code);
+                out.writeByte(event.action);
+                out.writeByte(event.mods);
+                break;
+            case InputEvent.MOUSE_BUTTON:
+                out.writeByte(event.code);
+                out.writeByte(event.action);
+                out.writeByte(event.mods);
+                break;
+            case InputEvent.CURSOR_POS:
+            case InputEvent.SCROLL:
+                out.writeDouble(event.x);
+                out.writeDouble(event.y);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown input event type: " + event.type);
+        }
+        eventCount++;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeVarLong(0);
+        out.writeByte(END_OF_STREAM);
+        out.close();
+    }
+}
@@ -0,0 +1,106 @@
+package com.coldary.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Reads a file written by InputRecorder back, handing out each event on the tick it was
+// originally consumed on.
+public class InputReplay implements AutoCloseable {
+
+    private final DataInputStream in;
+    private final int tickRate;
+
+    private final InputEvent pending = new InputEvent();
+    private long pendingTick;
+    private boolean hasPending;
+    private boolean finished;
+
+    public InputReplay(Path file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        if (in.readInt() != InputRecorder.MAGIC) {
+            in.close();
+            throw new IOException("Not an input recording: " + file);
+        }
+        int version = in.readShort();
+        if (version != InputRecorder.VERSION) {
+            in.close();
+            throw new IOException("Unsupported input recording version " + version + ": " + file);
+        }
+        tickRate = in.readInt();
+        readNext();
+    }
+
+    // Copies the next event recorded for `tick` into `out`, false once that tick has none left
+    public boolean next(long tick, InputEvent out) throws IOException {
+        if (!hasPending || pendingTick > tick) {
+            return false;
+        }
+        out.set(pending);
+        readNext();
+        return true;
+    }
+
+    private void readNext() throws IOException {
+        hasPending = false;
+        if (finished) {
+            return;
+        }
+        try {
+            long delta = readVarLong();
+            int type = in.readUnsignedByte();
+            if (type == InputRecorder.END_OF_STREAM) {
+                finished = true;
+                return;
+            }
+
+            pendingTick += delta;
+            switch (type) {
+                case InputEvent.KEY:
+                    pending.set(type, in.readShort(), in.readByte(), in.readByte(), 0, 0, 0);
+                    break;
+                case InputEvent.MOUSE_BUTTON:
+                    pending.set(type, in.readByte(), in.readByte(), in.readByte(), 0, 0, 0);
+                    break;
+                case InputEvent.CURSOR_POS:
+                case InputEvent.SCROLL:
+                    pending.set(type, 0, 0, 0, in.readDouble(), in.readDouble(), 0);
+                    break;
+                default:
+                    throw new IOException("Corrupt input recording, unknown event type " + type);
+            }
+            hasPending = true;
+        } catch (EOFException e) {
+            // Truncated recording, e.g. the recording run crashed. Replay what we have.
+            finished = true;
+        }
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    public boolean isFinished() {
+        return finished && !hasPending;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,207 @@
+package com.coldary.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough JSON for asset manifests like glTF: objects become LinkedHashMaps, arrays
+// ArrayLists, numbers Doubles, plus String, Boolean and null. The documents it is used for
+// only describe where the binary data lives, so a small recursive descent parser is plenty.
+final class Json {
+
+    private final String text;
+    private int position;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position != text.length()) {
+            throw parser.error("Trailing characters");
+        }
+        return value;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> object(Object value) {
+        return value instanceof Map ? (Map<String, Object>) value : Map.of();
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<Object> array(Object value) {
+        return value instanceof List ? (List<Object>) value : List.of();
+    }
+
+    static int getInt(Map<String, Object> object, String key, int fallback) {
+        Object value = object.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : fallback;
+    }
+
+    static long getLong(Map<String, Object> object, String key, long fallback) {
+        Object value = object.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : fallback;
+    }
+
+    static float getFloat(Map<String, Object> object, String key, float fallback) {
+        Object value = object.get(key);
+        return value instanceof Number ? ((Number) value).floatValue() : fallback;
+    }
+
+    static boolean getBoolean(Map<String, Object> object, String key, boolean fallback) {
+        Object value = object.get(key);
+        return value instanceof Boolean ? (Boolean) value : fallback;
+    }
+
+    static String getString(Map<String, Object> object, String key, String fallback) {
+        Object value = object.get(key);
+        return value instanceof String ? (String) value : fallback;
+    }
+
+    // Fills as many elements of target as the array has, leaving the rest untouched
+    static float[] getFloats(Map<String, Object> object, String key, float[] target) {
+        List<Object> values = array(object.get(key));
+        for (int i = 0; i < Math.min(values.size(), target.length); i++) {
+            target[i] = ((Number) values.get(i)).floatValue();
+        }
+        return target;
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw error("Unexpected end of input");
+        }
+        char c = text.charAt(position);
+        switch (c) {
+            case '{': return readObject();
+            case '[': return readArray();
+            case '"': return readString();
+            case 't': expect("true"); return Boolean.TRUE;
+            case 'f': expect("false"); return Boolean.FALSE;
+            case 'n': expect("null"); return null;
+            default: return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a key");
+            }
+            String key = readString();
+            skipWhitespace();
+            consume(':');
+            object.put(key, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                consume('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            array.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                consume(']');
+                return array;
+            }
+        }
+    }
+
+    private String readString() {
+        position++;
+        StringBuilder builder = new StringBuilder();
+        while (true) {
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            char escaped = text.charAt(position++);
+            switch (escaped) {
+                case 'b': builder.append('\b'); break;
+                case 'f': builder.append('\f'); break;
+                case 'n': builder.append('\n'); break;
+                case 'r': builder.append('\r'); break;
+                case 't': builder.append('\t'); break;
+                case 'u':
+                    builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                    position += 4;
+                    break;
+                default: builder.append(escaped);
+            }
+        }
+    }
+
+    private Double readNumber() {
+        int start = position;
+        while (position < text.length() && "+-0123456789.eE".indexOf(text.charAt(position)) >= 0) {
+            position++;
+        }
+        if (start == position) {
+            throw error("Unexpected character '" + text.charAt(position) + "'");
+        }
+        return Double.parseDouble(text.substring(start, position));
+    }
+
+    private void expect(String literal) {
+        if (!text.startsWith(literal, position)) {
+            throw error("Expected " + literal);
+        }
+        position += literal.length();
+    }
+
+    private void consume(char expected) {
+        if (peek() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        position++;
+    }
+
+    private char peek() {
+        return position < text.length() ? text.charAt(position) : 0;
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+}
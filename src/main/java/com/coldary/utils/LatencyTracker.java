@@ -0,0 +1,132 @@
+package com.coldary.utils;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Measures input-to-present latency. Each frame records the timestamp of the oldest input
+// that fed it, then a fence and a GPU timestamp query are issued right after the swap.
+// Frames are resolved later without blocking: once the fence has signalled, the query
+// result is converted to the CPU clock and compared with the input timestamp.
+public class LatencyTracker {
+
+    private static final int MAX_PENDING = 8;
+    private static final long CALIBRATE_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final long[] fences = new long[MAX_PENDING];
+    private final int[] queries = new int[MAX_PENDING];
+    private final long[] inputNanos = new long[MAX_PENDING];
+    private int pendingHead;
+    private int pendingCount;
+
+    // GPU timestamps are in nanoseconds on their own clock, this maps them onto System.nanoTime
+    private long gpuToCpuOffset;
+    private long lastCalibrationNanos;
+
+    private float lastLatencyMs;
+    private float maxLatencyMs;
+    private double totalLatencyMs;
+    private long samples;
+    private long dropped;
+
+    public LatencyTracker() {
+        for (int i = 0; i < MAX_PENDING; i++) {
+            queries[i] = glGenQueries();
+        }
+        calibrate();
+    }
+
+    // Re-sync the GPU and CPU clocks, they drift apart slowly. frameSubmitted calls this every
+    // CALIBRATE_INTERVAL_NANOS, so a long session keeps measuring against the current offset.
+    public void calibrate() {
+        long gpuNow = glGetInteger64(GL_TIMESTAMP);
+        lastCalibrationNanos = System.nanoTime();
+        gpuToCpuOffset = lastCalibrationNanos - gpuNow;
+    }
+
+    // Call right after glfwSwapBuffers. inputTimeNanos is 0 when the frame had no new input.
+    public void frameSubmitted(long inputTimeNanos) {
+        resolve();
+        if (System.nanoTime() - lastCalibrationNanos >= CALIBRATE_INTERVAL_NANOS) {
+            calibrate();
+        }
+        if (inputTimeNanos == 0) {
+            return;
+        }
+        if (pendingCount == MAX_PENDING) {
+            // GPU is too far behind to keep every frame, skip this sample
+            dropped++;
+            return;
+        }
+
+        int slot = (pendingHead + pendingCount) % MAX_PENDING;
+        glQueryCounter(queries[slot], GL_TIMESTAMP);
+        fences[slot] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        inputNanos[slot] = inputTimeNanos;
+        pendingCount++;
+    }
+
+    private void resolve() {
+        while (pendingCount > 0) {
+            int slot = pendingHead;
+            int status = glClientWaitSync(fences[slot], 0, 0);
+            if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED) {
+                return;
+            }
+            glDeleteSync(fences[slot]);
+            fences[slot] = 0;
+
+            long presentNanos;
+            if (glGetQueryObjecti(queries[slot], GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+                presentNanos = glGetQueryObjecti64(queries[slot], GL_QUERY_RESULT) + gpuToCpuOffset;
+            } else {
+                // Fence is done but the timestamp is not visible yet, fall back to now
+                presentNanos = System.nanoTime();
+            }
+            record((presentNanos - inputNanos[slot]) / 1_000_000.0f);
+
+            pendingHead = (pendingHead + 1) % MAX_PENDING;
+            pendingCount--;
+        }
+    }
+
+    private void record(float latencyMs) {
+        lastLatencyMs = latencyMs;
+        maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+        totalLatencyMs += latencyMs;
+        samples++;
+    }
+
+    public float getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    public float getMaxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    public float getAverageLatencyMs() {
+        return samples == 0 ? 0 : (float) (totalLatencyMs / samples);
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public void cleanup() {
+        for (int i = 0; i < MAX_PENDING; i++) {
+            if (fences[i] != 0) {
+                glDeleteSync(fences[i]);
+            }
+            glDeleteQueries(queries[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Input latency: last %.2f ms, avg %.2f ms, max %.2f ms over %d frames",
+                lastLatencyMs, getAverageLatencyMs(), maxLatencyMs, samples);
+    }
+}
@@ -0,0 +1,19 @@
+package com.coldary.utils;
+
+// Per-triangle stage of MeshProcessing, over flat arrays. Positions are xyz and texture
+// coordinates uv per vertex, indices three per triangle. Corner outputs are indexed by
+// triangle * 3 + corner, face outputs by triangle. Implementations only write the
+// triangles in [start, end), so disjoint ranges can run on different threads.
+interface MeshKernel {
+
+    // Unit face normal times the interior angle at each corner, zero for degenerate triangles
+    void cornerNormals(float[] positions, int[] indices, int start, int end,
+                       float[] cornerX, float[] cornerY, float[] cornerZ);
+
+    // Unnormalized texture space tangent and bitangent of each face (zero when the UV
+    // mapping is degenerate) and the interior angle at each corner
+    void faceTangents(float[] positions, float[] texCoords, int[] indices, int start, int end,
+                      float[] tangentX, float[] tangentY, float[] tangentZ,
+                      float[] bitangentX, float[] bitangentY, float[] bitangentZ,
+                      float[] cornerAngles);
+}
@@ -0,0 +1,215 @@
+package com.coldary.utils;
+
+import java.util.stream.IntStream;
+
+// Import-time generation of missing vertex attributes over flat arrays:
+//  - smooth normals, each face contributing its unit normal weighted by the corner angle
+//  - MikkTSpace style tangents: per-face texture space directions, projected into each
+//    vertex's normal plane, angle weighted, orthonormalized, with the bitangent sign in w
+//
+// The per-triangle stage runs on the Vector API when the JVM was started with
+// --add-modules jdk.incubator.vector (and -Ddrift.vectorMesh is not false), otherwise on a
+// scalar kernel. Large meshes are split into chunks on the common ForkJoinPool; triangles
+// write their own corner slots and vertices then sum their corners through a vertex to
+// corner table, so results do not depend on the thread count.
+public final class MeshProcessing {
+
+    // Below this many triangles the fork/join overhead outweighs the work
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    private static final int CHUNK_SIZE = 1 << 14;
+
+    private static final MeshKernel SCALAR = new ScalarMeshKernel();
+    private static final MeshKernel KERNEL = loadKernel();
+
+    private MeshProcessing() {
+    }
+
+    private static MeshKernel loadKernel() {
+        if (!Boolean.parseBoolean(System.getProperty("drift.vectorMesh", "true"))
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return SCALAR;
+        }
+        try {
+            return (MeshKernel) Class.forName("com.coldary.utils.VectorMeshKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Vector API unavailable, using scalar mesh kernel: " + e);
+            return SCALAR;
+        }
+    }
+
+    public static boolean isVectorized() {
+        return KERNEL != SCALAR;
+    }
+
+    // Angle-weighted vertex normals, xyz per vertex. Vertices no triangle touches get +Y.
+    public static float[] computeNormals(float[] positions, int[] indices) {
+        return computeNormals(positions, indices, KERNEL, true);
+    }
+
+    static float[] computeNormals(float[] positions, int[] indices, MeshKernel kernel, boolean parallel) {
+        int vertexCount = positions.length / 3;
+        int triangleCount = indices.length / 3;
+
+        float[] cornerX = new float[triangleCount * 3];
+        float[] cornerY = new float[triangleCount * 3];
+        float[] cornerZ = new float[triangleCount * 3];
+        forEachChunk(triangleCount, parallel, (start, end) ->
+                kernel.cornerNormals(positions, indices, start, end, cornerX, cornerY, cornerZ));
+
+        CornerTable corners = new CornerTable(indices, vertexCount);
+        float[] normals = new float[vertexCount * 3];
+        forEachChunk(vertexCount, parallel, (start, end) -> {
+            for (int v = start; v < end; v++) {
+                float x = 0, y = 0, z = 0;
+                for (int i = corners.offsets[v]; i < corners.offsets[v + 1]; i++) {
+                    int c = corners.corners[i];
+                    x += cornerX[c];
+                    y += cornerY[c];
+                    z += cornerZ[c];
+                }
+                float lengthSquared = x * x + y * y + z * z;
+                if (lengthSquared > 0) {
+                    float inverseLength = (float) (1.0 / Math.sqrt(lengthSquared));
+                    normals[v * 3] = x * inverseLength;
+                    normals[v * 3 + 1] = y * inverseLength;
+                    normals[v * 3 + 2] = z * inverseLength;
+                } else {
+                    normals[v * 3 + 1] = 1;
+                }
+            }
+        });
+        return normals;
+    }
+
+    // Tangents as xyzw per vertex, w is +1 or -1 so that bitangent = w * cross(normal, tangent).
+    // Normals must be unit length; vertices without a usable UV mapping get an arbitrary
+    // tangent perpendicular to their normal.
+    public static float[] computeTangents(float[] positions, float[] normals, float[] texCoords, int[] indices) {
+        return computeTangents(positions, normals, texCoords, indices, KERNEL, true);
+    }
+
+    static float[] computeTangents(float[] positions, float[] normals, float[] texCoords, int[] indices,
+                                   MeshKernel kernel, boolean parallel) {
+        int vertexCount = positions.length / 3;
+        int triangleCount = indices.length / 3;
+
+        float[] tangentX = new float[triangleCount];
+        float[] tangentY = new float[triangleCount];
+        float[] tangentZ = new float[triangleCount];
+        float[] bitangentX = new float[triangleCount];
+        float[] bitangentY = new float[triangleCount];
+        float[] bitangentZ = new float[triangleCount];
+        float[] cornerAngles = new float[triangleCount * 3];
+        forEachChunk(triangleCount, parallel, (start, end) ->
+                kernel.faceTangents(positions, texCoords, indices, start, end,
+                        tangentX, tangentY, tangentZ, bitangentX, bitangentY, bitangentZ, cornerAngles));
+
+        CornerTable corners = new CornerTable(indices, vertexCount);
+        float[] tangents = new float[vertexCount * 4];
+        forEachChunk(vertexCount, parallel, (start, end) -> {
+            for (int v = start; v < end; v++) {
+                float nx = normals[v * 3], ny = normals[v * 3 + 1], nz = normals[v * 3 + 2];
+                float tx = 0, ty = 0, tz = 0;
+                float bx = 0, by = 0, bz = 0;
+
+                for (int i = corners.offsets[v]; i < corners.offsets[v + 1]; i++) {
+                    int c = corners.corners[i];
+                    int t = c / 3;
+                    float weight = cornerAngles[c];
+
+                    // Project the face directions into this vertex's tangent plane first,
+                    // so faces at an angle to the normal do not skew the average
+                    float d = nx * tangentX[t] + ny * tangentY[t] + nz * tangentZ[t];
+                    float px = tangentX[t] - nx * d, py = tangentY[t] - ny * d, pz = tangentZ[t] - nz * d;
+                    float length = (float) Math.sqrt(px * px + py * py + pz * pz);
+                    if (length > 0) {
+                        float scale = weight / length;
+                        tx += px * scale;
+                        ty += py * scale;
+                        tz += pz * scale;
+                    }
+
+                    d = nx * bitangentX[t] + ny * bitangentY[t] + nz * bitangentZ[t];
+                    px = bitangentX[t] - nx * d;
+                    py = bitangentY[t] - ny * d;
+                    pz = bitangentZ[t] - nz * d;
+                    length = (float) Math.sqrt(px * px + py * py + pz * pz);
+                    if (length > 0) {
+                        float scale = weight / length;
+                        bx += px * scale;
+                        by += py * scale;
+                        bz += pz * scale;
+                    }
+                }
+
+                // Gram-Schmidt once more, the weighted sum drifts out of the plane slightly
+                float d = nx * tx + ny * ty + nz * tz;
+                tx -= nx * d;
+                ty -= ny * d;
+                tz -= nz * d;
+                float lengthSquared = tx * tx + ty * ty + tz * tz;
+                if (lengthSquared <= ScalarMeshKernel.DEGENERATE_EPSILON) {
+                    // Any direction in the plane: cross the normal with its least aligned axis
+                    if (Math.abs(nx) < 0.9f) {
+                        tx = 0;
+                        ty = nz;
+                        tz = -ny;
+                    } else {
+                        tx = -nz;
+                        ty = 0;
+                        tz = nx;
+                    }
+                    lengthSquared = tx * tx + ty * ty + tz * tz;
+                }
+                float inverseLength = (float) (1.0 / Math.sqrt(lengthSquared));
+                tx *= inverseLength;
+                ty *= inverseLength;
+                tz *= inverseLength;
+
+                float cx = ny * tz - nz * ty, cy = nz * tx - nx * tz, cz = nx * ty - ny * tx;
+                tangents[v * 4] = tx;
+                tangents[v * 4 + 1] = ty;
+                tangents[v * 4 + 2] = tz;
+                tangents[v * 4 + 3] = cx * bx + cy * by + cz * bz < 0 ? -1 : 1;
+            }
+        });
+        return tangents;
+    }
+
+    private static void forEachChunk(int count, boolean parallel, RangeBody body) {
+        if (!parallel || count < PARALLEL_THRESHOLD) {
+            body.run(0, count);
+            return;
+        }
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        IntStream.range(0, chunks).parallel().forEach(chunk ->
+                body.run(chunk * CHUNK_SIZE, Math.min(count, (chunk + 1) * CHUNK_SIZE)));
+    }
+
+    @FunctionalInterface
+    private interface RangeBody {
+        void run(int start, int end);
+    }
+
+    // Corners (triangle * 3 + k) grouped by the vertex they reference, CSR layout
+    private static final class CornerTable {
+        final int[] offsets;
+        final int[] corners;
+
+        CornerTable(int[] indices, int vertexCount) {
+            offsets = new int[vertexCount + 1];
+            for (int index : indices) {
+                offsets[index + 1]++;
+            }
+            for (int v = 0; v < vertexCount; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            corners = new int[indices.length];
+            int[] cursor = new int[vertexCount];
+            System.arraycopy(offsets, 0, cursor, 0, vertexCount);
+            for (int c = 0; c < indices.length; c++) {
+                corners[cursor[indices[c]]++] = c;
+            }
+        }
+    }
+}
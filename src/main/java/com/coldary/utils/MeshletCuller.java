@@ -0,0 +1,217 @@
+package com.coldary.utils;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL43.*;
+
+// Per-frame meshlet culling on the CPU. Each meshlet's bounding sphere is tested against
+// the view frustum and its normal cone against the camera position, and the surviving
+// index ranges are merged where they touch and written as DrawElementsIndirectCommands
+// into a streaming GL_DRAW_INDIRECT_BUFFER for one glMultiDrawElementsIndirect per mesh.
+// Contexts below GL 4.3, or without persistent mapping (GL 4.4 / ARB_buffer_storage), get
+// the same culling with one glDrawElements per merged range; uploading the commands with
+// glBufferSubData before every mesh would cost more than the direct draws save.
+public class MeshletCuller implements GpuResource {
+
+    // count, instanceCount, firstIndex, baseVertex, baseInstance
+    private static final int COMMAND_SIZE = 5 * Integer.BYTES;
+
+    private final boolean indirect;
+    private final StreamingBuffer commands;
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f viewProjection = new Matrix4f();
+    private final Matrix4f modelToClip = new Matrix4f();
+    private final Matrix4f inverseModel = new Matrix4f();
+    private final Vector3f cameraPosition = new Vector3f();
+    private final Vector3f localCamera = new Vector3f();
+    private final Vector3f center = new Vector3f();
+    private int[] rangeStart = new int[256];
+    private int[] rangeCount = new int[256];
+
+    // Stats for the current frame
+    private int meshletsTested;
+    private int frustumCulled;
+    private int coneCulled;
+    private long trianglesTotal;
+    private long trianglesDrawn;
+    private int drawCommands;
+
+    public MeshletCuller(int maxCommandsPerFrame) {
+        GLCapabilities caps = GL.getCapabilities();
+        indirect = caps.OpenGL43 && (caps.OpenGL44 || caps.GL_ARB_buffer_storage);
+        commands = indirect ? new StreamingBuffer(GL_DRAW_INDIRECT_BUFFER, maxCommandsPerFrame * COMMAND_SIZE) : null;
+    }
+
+    public void beginFrame(Matrix4f view, Matrix4f projection, Vector3f cameraPosition) {
+        projection.mul(view, viewProjection);
+        this.cameraPosition.set(cameraPosition);
+        meshletsTested = frustumCulled = coneCulled = drawCommands = 0;
+        trianglesTotal = trianglesDrawn = 0;
+        if (commands != null) {
+            commands.beginFrame();
+        }
+    }
+
+    // Draws the visible meshlets of a model, or the whole model if it has none
+    public void draw(ModelLoader model, Matrix4f modelMatrix) {
+        Meshlets meshlets = model.getMeshlets();
+        if (meshlets == null) {
+            model.render();
+            return;
+        }
+
+        int ranges = cull(meshlets, modelMatrix);
+        if (ranges == 0) {
+            return;
+        }
+
+        glBindVertexArray(model.getVaoID());
+        RenderStats.stateChange();
+        if (indirect && ranges * COMMAND_SIZE <= commands.getRemainingBytes()) {
+            int offset = commands.allocate(ranges * COMMAND_SIZE, Integer.BYTES);
+            long address = commands.address(offset);
+            for (int i = 0; i < ranges; i++) {
+                long command = address + (long) i * COMMAND_SIZE;
+                MemoryUtil.memPutInt(command, rangeCount[i]);
+                MemoryUtil.memPutInt(command + 4, 1);
+                MemoryUtil.memPutInt(command + 8, rangeStart[i]);
+                MemoryUtil.memPutInt(command + 12, 0);
+                MemoryUtil.memPutInt(command + 16, 0);
+            }
+            commands.flush();
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commands.getBufferID());
+            glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, offset, ranges, COMMAND_SIZE);
+            long indices = 0;
+            for (int i = 0; i < ranges; i++) {
+                indices += rangeCount[i];
+            }
+            RenderStats.draw(indices / 3);
+            glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        } else {
+            for (int i = 0; i < ranges; i++) {
+                glDrawElements(GL_TRIANGLES, rangeCount[i], GL_UNSIGNED_INT, (long) rangeStart[i] * Integer.BYTES);
+                RenderStats.draw(rangeCount[i] / 3);
+            }
+        }
+        glBindVertexArray(0);
+        drawCommands += ranges;
+    }
+
+    // Fills rangeStart/rangeCount with the merged index ranges that survive, returns how many
+    private int cull(Meshlets meshlets, Matrix4f modelMatrix) {
+        // Planes normalised in mesh space, the model's scale would otherwise skew the sphere tests
+        frustum.set(viewProjection.mul(modelMatrix, modelToClip), true);
+
+        // Cone cutoffs are angles, only valid in mesh space while the scale is uniform
+        float scaleX = modelMatrix.m00() * modelMatrix.m00() + modelMatrix.m01() * modelMatrix.m01() + modelMatrix.m02() * modelMatrix.m02();
+        float scaleY = modelMatrix.m10() * modelMatrix.m10() + modelMatrix.m11() * modelMatrix.m11() + modelMatrix.m12() * modelMatrix.m12();
+        float scaleZ = modelMatrix.m20() * modelMatrix.m20() + modelMatrix.m21() * modelMatrix.m21() + modelMatrix.m22() * modelMatrix.m22();
+        float maxScale = Math.max(scaleX, Math.max(scaleY, scaleZ));
+        float minScale = Math.min(scaleX, Math.min(scaleY, scaleZ));
+        boolean coneCulling = maxScale - minScale <= maxScale * 0.01f;
+        modelMatrix.invertAffine(inverseModel).transformPosition(cameraPosition, localCamera);
+
+        float[] bounds = meshlets.getBounds();
+        int count = meshlets.getCount();
+        int ranges = 0;
+        int end = -1;
+        for (int m = 0; m < count; m++) {
+            int b = m * Meshlets.BOUNDS_STRIDE;
+            trianglesTotal += meshlets.getIndexCount(m) / 3;
+
+            // The frustum is in mesh space, so the sphere can be tested untransformed
+            if (!frustum.testSphere(bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3])) {
+                frustumCulled++;
+                continue;
+            }
+
+            // Every triangle faces away when the camera sits inside the cone behind the apex
+            if (coneCulling) {
+                center.set(bounds[b + 4] - localCamera.x, bounds[b + 5] - localCamera.y, bounds[b + 6] - localCamera.z);
+                float distance = center.length();
+                if (distance > 0 && center.dot(bounds[b + 8], bounds[b + 9], bounds[b + 10]) >= bounds[b + 7] * distance) {
+                    coneCulled++;
+                    continue;
+                }
+            }
+
+            int first = meshlets.getFirstIndex(m);
+            int indexCount = meshlets.getIndexCount(m);
+            trianglesDrawn += indexCount / 3;
+            if (first == end) {
+                rangeCount[ranges - 1] += indexCount;
+            } else {
+                if (ranges == rangeStart.length) {
+                    rangeStart = Arrays.copyOf(rangeStart, ranges * 2);
+                    rangeCount = Arrays.copyOf(rangeCount, ranges * 2);
+                }
+                rangeStart[ranges] = first;
+                rangeCount[ranges] = indexCount;
+                ranges++;
+            }
+            end = first + indexCount;
+        }
+        meshletsTested += count;
+        return ranges;
+    }
+
+    public void endFrame() {
+        if (commands != null) {
+            commands.endFrame();
+        }
+    }
+
+    public boolean isIndirect() {
+        return indirect;
+    }
+
+    public int getMeshletsTested() {
+        return meshletsTested;
+    }
+
+    public int getFrustumCulled() {
+        return frustumCulled;
+    }
+
+    public int getConeCulled() {
+        return coneCulled;
+    }
+
+    public long getTrianglesTotal() {
+        return trianglesTotal;
+    }
+
+    public long getTrianglesDrawn() {
+        return trianglesDrawn;
+    }
+
+    public int getDrawCommands() {
+        return drawCommands;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return commands != null ? commands.getGpuMemoryBytes() : 0;
+    }
+
+    @Override
+    public void dispose() {
+        if (commands != null) {
+            commands.dispose();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Meshlets: %d tested, %d frustum culled, %d cone culled, %d/%d triangles in %d draws (%s)",
+                meshletsTested, frustumCulled, coneCulled, trianglesDrawn, trianglesTotal, drawCommands,
+                indirect ? "multi draw indirect" : "draw elements");
+    }
+}
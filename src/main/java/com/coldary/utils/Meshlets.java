@@ -0,0 +1,131 @@
+package com.coldary.utils;
+
+import org.lwjgl.util.meshoptimizer.MeshoptBounds;
+import org.lwjgl.util.meshoptimizer.MeshoptMeshlet;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.util.meshoptimizer.MeshOptimizer.*;
+
+// A mesh split into small clusters of triangles by meshoptimizer, each with a bounding
+// sphere and a normal cone. The index buffer is rewritten meshlet by meshlet, so every
+// meshlet is one contiguous index range that can be drawn or skipped on its own; drawing
+// the whole buffer still renders the complete mesh.
+public class Meshlets {
+
+    // Sizes that suit the vertex reuse of GPU caches, 124 keeps triangle data 4 byte aligned
+    public static final int MAX_VERTICES = 64;
+    public static final int MAX_TRIANGLES = 124;
+    // Bias towards spatially tight clusters with narrow normal cones
+    private static final float CONE_WEIGHT = 0.25f;
+
+    // Per meshlet: center xyz, radius, cone apex xyz, cone cutoff, cone axis xyz, unused
+    public static final int BOUNDS_STRIDE = 12;
+
+    private final int count;
+    private final int[] indices;
+    private final int[] firstIndex;
+    private final int[] indexCount;
+    private final float[] bounds;
+
+    private Meshlets(int count, int[] indices, int[] firstIndex, int[] indexCount, float[] bounds) {
+        this.count = count;
+        this.indices = indices;
+        this.firstIndex = firstIndex;
+        this.indexCount = indexCount;
+        this.bounds = bounds;
+    }
+
+    // Positions are xyz per vertex, indices three per triangle
+    public static Meshlets build(float[] positions, int[] indices) {
+        int vertexCount = positions.length / 3;
+        int maxMeshlets = (int) meshopt_buildMeshletsBound(indices.length, MAX_VERTICES, MAX_TRIANGLES);
+
+        IntBuffer indexBuffer = NativeMemory.allocInt(NativeMemory.Tag.STAGING, indices.length);
+        FloatBuffer positionBuffer = NativeMemory.allocFloat(NativeMemory.Tag.STAGING, positions.length);
+        ByteBuffer meshletStorage = NativeMemory.alloc(NativeMemory.Tag.STAGING, maxMeshlets * MeshoptMeshlet.SIZEOF);
+        IntBuffer meshletVertices = NativeMemory.allocInt(NativeMemory.Tag.STAGING, maxMeshlets * MAX_VERTICES);
+        ByteBuffer meshletTriangles = NativeMemory.alloc(NativeMemory.Tag.STAGING, maxMeshlets * MAX_TRIANGLES * 3);
+        ByteBuffer boundsStorage = NativeMemory.alloc(NativeMemory.Tag.STAGING, MeshoptBounds.SIZEOF);
+        try {
+            indexBuffer.put(indices).flip();
+            positionBuffer.put(positions).flip();
+            MeshoptMeshlet.Buffer meshlets = new MeshoptMeshlet.Buffer(meshletStorage);
+            MeshoptBounds meshletBounds = new MeshoptBounds(boundsStorage);
+
+            int count = (int) meshopt_buildMeshlets(meshlets, meshletVertices, meshletTriangles, indexBuffer,
+                    positionBuffer, vertexCount, 3 * Float.BYTES, MAX_VERTICES, MAX_TRIANGLES, CONE_WEIGHT);
+
+            int[] reordered = new int[indices.length];
+            int[] firstIndex = new int[count];
+            int[] indexCount = new int[count];
+            float[] bounds = new float[count * BOUNDS_STRIDE];
+            int written = 0;
+
+            for (int m = 0; m < count; m++) {
+                MeshoptMeshlet meshlet = meshlets.get(m);
+                int vertexOffset = meshlet.vertex_offset();
+                int triangleOffset = meshlet.triangle_offset();
+                int triangleCount = meshlet.triangle_count();
+
+                // Local triangle bytes index the meshlet's vertex list, which holds mesh vertex indices
+                firstIndex[m] = written;
+                indexCount[m] = triangleCount * 3;
+                for (int i = 0; i < triangleCount * 3; i++) {
+                    int local = meshletTriangles.get(triangleOffset + i) & 0xFF;
+                    reordered[written++] = meshletVertices.get(vertexOffset + local);
+                }
+
+                meshopt_computeMeshletBounds(
+                        meshletVertices.slice(vertexOffset, meshlet.vertex_count()),
+                        meshletTriangles.slice(triangleOffset, triangleCount * 3),
+                        positionBuffer, vertexCount, 3 * Float.BYTES, meshletBounds);
+
+                int b = m * BOUNDS_STRIDE;
+                bounds[b] = meshletBounds.center(0);
+                bounds[b + 1] = meshletBounds.center(1);
+                bounds[b + 2] = meshletBounds.center(2);
+                bounds[b + 3] = meshletBounds.radius();
+                bounds[b + 4] = meshletBounds.cone_apex(0);
+                bounds[b + 5] = meshletBounds.cone_apex(1);
+                bounds[b + 6] = meshletBounds.cone_apex(2);
+                bounds[b + 7] = meshletBounds.cone_cutoff();
+                bounds[b + 8] = meshletBounds.cone_axis(0);
+                bounds[b + 9] = meshletBounds.cone_axis(1);
+                bounds[b + 10] = meshletBounds.cone_axis(2);
+            }
+            return new Meshlets(count, reordered, firstIndex, indexCount, bounds);
+        } finally {
+            NativeMemory.free(indexBuffer);
+            NativeMemory.free(positionBuffer);
+            NativeMemory.free(meshletStorage);
+            NativeMemory.free(meshletVertices);
+            NativeMemory.free(meshletTriangles);
+            NativeMemory.free(boundsStorage);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    // The mesh's index buffer in meshlet order
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public int getFirstIndex(int meshlet) {
+        return firstIndex[meshlet];
+    }
+
+    public int getIndexCount(int meshlet) {
+        return indexCount[meshlet];
+    }
+
+    // Packed BOUNDS_STRIDE floats per meshlet, in mesh space
+    public float[] getBounds() {
+        return bounds;
+    }
+}
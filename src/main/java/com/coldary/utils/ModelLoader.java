@@ -1,9 +1,8 @@
 package com.coldary.utils;
 
-import org.lwjgl.system.MemoryUtil;
+import org.joml.Vector3f;
 
 import java.io.*;
-import java.net.URL;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
@@ -13,29 +12,115 @@ import java.util.Map;
 
 import static org.lwjgl.opengl.GL30.*;
 
-public class ModelLoader {
+public class ModelLoader implements GpuResource {
+
+    // Vertex attribute locations, tangents sit after the instance matrix (locations 3-6)
+    public static final int POSITION_ATTRIBUTE = 0;
+    public static final int TEXCOORD_ATTRIBUTE = 1;
+    public static final int NORMAL_ATTRIBUTE = 2;
+    public static final int TANGENT_ATTRIBUTE = 7;
+
+    // Bits per index when packing a v/vt/vn triple into one long for vertex welding
+    private static final int WELD_BITS = 21;
+    private static final int MAX_WELD_INDEX = (1 << WELD_BITS) - 2;
+
+    // Smaller meshes are cheaper to draw whole than to cull meshlet by meshlet
+    private static final int MESHLET_MIN_TRIANGLES = 1024;
 
     private int vaoID;
     private int vertexCount;
+    private long gpuMemoryBytes;
+    private Meshlets meshlets;
     private List<Integer> vbos = new ArrayList<>();
-    private Map<String, Material> materials = new HashMap<>();
+    private Map<String, Material> materials;
+
+    // Everything an OBJ turns into before any GL call, so parsing can run off the GL thread
+    public static final class MeshData {
+        private final float[] positions;
+        private final float[] textures;
+        private final float[] normals;
+        private final float[] tangents;
+        private final int[] indices;
+        private final Meshlets meshlets;
+        private final Map<String, Material> materials;
+
+        private MeshData(float[] positions, float[] textures, float[] normals, float[] tangents, int[] indices,
+                         Meshlets meshlets, Map<String, Material> materials) {
+            this.positions = positions;
+            this.textures = textures;
+            this.normals = normals;
+            this.tangents = tangents;
+            this.indices = indices;
+            this.meshlets = meshlets;
+            this.materials = materials;
+        }
+
+        public int getTriangleCount() {
+            return indices.length / 3;
+        }
+
+        // Sphere around the bounding box centre, loose but cheap and stable for impostor baking
+        public float getBoundingRadius(Vector3f centerOut) {
+            float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY, maxZ = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < positions.length; i += 3) {
+                minX = Math.min(minX, positions[i]);
+                minY = Math.min(minY, positions[i + 1]);
+                minZ = Math.min(minZ, positions[i + 2]);
+                maxX = Math.max(maxX, positions[i]);
+                maxY = Math.max(maxY, positions[i + 1]);
+                maxZ = Math.max(maxZ, positions[i + 2]);
+            }
+            centerOut.set((minX + maxX) * 0.5f, (minY + maxY) * 0.5f, (minZ + maxZ) * 0.5f);
+            float radiusSquared = 0.0f;
+            for (int i = 0; i < positions.length; i += 3) {
+                radiusSquared = Math.max(radiusSquared, centerOut.distanceSquared(positions[i], positions[i + 1], positions[i + 2]));
+            }
+            return (float) Math.sqrt(radiusSquared);
+        }
+
+        float[] getPositions() {
+            return positions;
+        }
+
+        float[] getTextures() {
+            return textures;
+        }
+
+        float[] getNormals() {
+            return normals;
+        }
+
+        int[] getIndices() {
+            return indices;
+        }
+    }
 
     public ModelLoader(InputStream objFilePath) {
-        loadOBJ(objFilePath);
+        this(parse(objFilePath));
+    }
+
+    // GL thread only, the upload half of loading
+    public ModelLoader(MeshData data) {
+        meshlets = data.meshlets;
+        materials = data.materials;
+        storeInVAO(data.positions, data.textures, data.normals, data.tangents, data.indices);
+    }
+
+    // Any thread, the CPU half of loading
+    public static MeshData parse(InputStream objFilePath) {
+        return loadOBJ(objFilePath);
     }
 
-    private void loadMTL(String mtlFileName, URL baseURL) {
+    private static void loadMTL(String mtlFileName, Map<String, Material> materials) {
         System.out.println("Loading MTL file from: " + mtlFileName); // Debugging
 
         Material currentMaterial = null;
 
-        try (InputStream mtlFilePath = new URL(baseURL, mtlFileName).openStream();
+        try (InputStream mtlFilePath = Assets.openStream(mtlFileName);
              BufferedReader reader = new BufferedReader(new InputStreamReader(mtlFilePath))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                // Print the line being processed
-                System.out.println("Processing line: " + line);
-
                 String[] tokens = line.split("\\s+");
                 if (line.startsWith("newmtl")) {
                     currentMaterial = new Material(tokens[1]);
@@ -52,32 +137,29 @@ public class ModelLoader {
             e.printStackTrace();
         } catch (NumberFormatException e) {
             System.err.println("Error parsing number in line: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Material file not found: " + mtlFileName);
         } catch (ArrayIndexOutOfBoundsException e) {
             System.err.println("Error processing line, not enough tokens: " + e.getMessage());
         }
     }
 
-    private void loadOBJ(InputStream filePath) {
+    private static MeshData loadOBJ(InputStream filePath) {
         List<float[]> vertices = new ArrayList<>();
         List<float[]> textures = new ArrayList<>();
         List<float[]> normals = new ArrayList<>();
         List<int[]> indices = new ArrayList<>();
+        Map<String, Material> materials = new HashMap<>();
 
         System.out.println("Loading OBJ file from: " + filePath); // Debugging
 
-        // Obtain the base URL for resolving mtl file paths
-        URL baseURL = this.getClass().getResource("");
-
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(filePath))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                // Print the line being processed
-                System.out.println("Processing line: " + line);
-
                 String[] tokens = line.split("\\s+");
                 if (line.startsWith("mtllib")) {
                     // Load material file
-                    loadMTL(tokens[1], baseURL);
+                    loadMTL(tokens[1], materials);
                 } else if (line.startsWith("v ")) {
                     // Vertex position
                     float[] vertex = {
@@ -114,78 +196,152 @@ public class ModelLoader {
             System.err.println("Error processing line, not enough tokens: " + e.getMessage());
         }
 
-        // Load into OpenGL
-        float[] verticesArray = listToArray(vertices, 3);
+        float[] positionsArray = listToArray(vertices, 3);
         float[] texturesArray = listToArray(textures, 2);
         float[] normalsArray = listToArray(normals, 3);
-        int[] indicesArray = indicesToArray(indices);
 
-        storeInVAO(verticesArray, texturesArray, normalsArray, indicesArray);
-    }
+        // Without vn lines, smooth normals are generated over the shared positions so that
+        // UV seams do not show up as lighting seams
+        boolean generateNormals = normalsArray.length == 0;
+        if (generateNormals) {
+            normalsArray = MeshProcessing.computeNormals(positionsArray, positionIndices(indices));
+        }
+
+        // One GL vertex per distinct v/vt/vn triple
+        Map<Long, Integer> welded = new HashMap<>();
+        int[] indicesArray = new int[indices.size()];
+        List<int[]> uniqueVertices = new ArrayList<>();
+        for (int i = 0; i < indices.size(); i++) {
+            int[] corner = indices.get(i);
+            if (generateNormals) {
+                corner[2] = corner[0];
+            }
+            long key = weldKey(corner);
+            Integer index = welded.get(key);
+            if (index == null) {
+                index = uniqueVertices.size();
+                welded.put(key, index);
+                uniqueVertices.add(corner);
+            }
+            indicesArray[i] = index;
+        }
 
-    private void processFace(String[] tokens, List<int[]> indices) {
-        for (int i = 1; i < tokens.length; i++) {
-            String[] vertexData = tokens[i].split("/");
-            int vertexIndex = Integer.parseInt(vertexData[0]) - 1;
-            int textureIndex = vertexData.length > 1 && !vertexData[1].isEmpty() ? Integer.parseInt(vertexData[1]) - 1 : 0;
-            int normalIndex = vertexData.length > 2 ? Integer.parseInt(vertexData[2]) - 1 : 0;
+        float[] vertexPositions = gather(uniqueVertices, 0, positionsArray, 3);
+        float[] vertexTextures = texturesArray.length > 0 ? gather(uniqueVertices, 1, texturesArray, 2) : new float[0];
+        float[] vertexNormals = gather(uniqueVertices, 2, normalsArray, 3);
+        float[] vertexTangents = vertexTextures.length > 0
+                ? MeshProcessing.computeTangents(vertexPositions, vertexNormals, vertexTextures, indicesArray)
+                : new float[0];
+
+        // Dense meshes are split into meshlets, the index buffer is stored in meshlet order
+        Meshlets meshlets = null;
+        if (indicesArray.length / 3 >= MESHLET_MIN_TRIANGLES) {
+            meshlets = Meshlets.build(vertexPositions, indicesArray);
+            indicesArray = meshlets.getIndices();
+        }
+
+        return new MeshData(vertexPositions, vertexTextures, vertexNormals, vertexTangents, indicesArray, meshlets, materials);
+    }
 
-            indices.add(new int[]{vertexIndex, textureIndex, normalIndex});
+    // Polygons are triangulated as a fan around their first vertex
+    private static void processFace(String[] tokens, List<int[]> indices) {
+        int[] first = parseFaceVertex(tokens[1]);
+        int[] previous = parseFaceVertex(tokens[2]);
+        for (int i = 3; i < tokens.length; i++) {
+            int[] current = parseFaceVertex(tokens[i]);
+            indices.add(first.clone());
+            indices.add(previous.clone());
+            indices.add(current);
+            previous = current;
         }
     }
 
-    private float[] listToArray(List<float[]> list, int elementSize) {
-        float[] array = new float[list.size() * elementSize];
-        for (int i = 0; i < list.size(); i++) {
-            for (int j = 0; j < elementSize; j++) {
-                array[i * elementSize + j] = list.get(i)[j];
+    // v, v/vt, v//vn or v/vt/vn, with -1 for a missing vt or vn
+    private static int[] parseFaceVertex(String token) {
+        String[] vertexData = token.split("/");
+        int vertexIndex = Integer.parseInt(vertexData[0]) - 1;
+        int textureIndex = vertexData.length > 1 && !vertexData[1].isEmpty() ? Integer.parseInt(vertexData[1]) - 1 : -1;
+        int normalIndex = vertexData.length > 2 ? Integer.parseInt(vertexData[2]) - 1 : -1;
+        return new int[]{vertexIndex, textureIndex, normalIndex};
+    }
+
+    private static long weldKey(int[] corner) {
+        for (int index : corner) {
+            if (index > MAX_WELD_INDEX) {
+                throw new IllegalArgumentException("OBJ index out of range for welding: " + index);
             }
         }
+        return ((long) corner[0] << (2 * WELD_BITS)) | ((long) (corner[1] + 1) << WELD_BITS) | (corner[2] + 1);
+    }
+
+    private static int[] positionIndices(List<int[]> indices) {
+        int[] array = new int[indices.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = indices.get(i)[0];
+        }
         return array;
     }
 
-    private int[] indicesToArray(List<int[]> indices) {
-        List<Integer> finalIndices = new ArrayList<>();
-        for (int[] face : indices) {
-            finalIndices.add(face[0]);
+    // Expands one attribute to the welded vertices, a missing index reads as zeros
+    private static float[] gather(List<int[]> uniqueVertices, int slot, float[] source, int elementSize) {
+        float[] array = new float[uniqueVertices.size() * elementSize];
+        for (int v = 0; v < uniqueVertices.size(); v++) {
+            int index = uniqueVertices.get(v)[slot];
+            if (index >= 0) {
+                System.arraycopy(source, index * elementSize, array, v * elementSize, elementSize);
+            }
         }
-        int[] array = new int[finalIndices.size()];
-        for (int i = 0; i < finalIndices.size(); i++) {
-            array[i] = finalIndices.get(i);
+        return array;
+    }
+
+    private static float[] listToArray(List<float[]> list, int elementSize) {
+        float[] array = new float[list.size() * elementSize];
+        for (int i = 0; i < list.size(); i++) {
+            for (int j = 0; j < elementSize; j++) {
+                array[i * elementSize + j] = list.get(i)[j];
+            }
         }
         return array;
     }
 
-    private void storeInVAO(float[] vertices, float[] textures, float[] normals, int[] indices) {
+    private void storeInVAO(float[] vertices, float[] textures, float[] normals, float[] tangents, int[] indices) {
         vaoID = glGenVertexArrays();
         glBindVertexArray(vaoID);
 
         // Store vertices
-        storeDataInAttributeList(0, 3, vertices);
+        storeDataInAttributeList(POSITION_ATTRIBUTE, 3, vertices);
 
         // Store texture coordinates
         if (textures.length > 0) {
-            storeDataInAttributeList(1, 2, textures);
+            storeDataInAttributeList(TEXCOORD_ATTRIBUTE, 2, textures);
         }
 
         // Store normals
         if (normals.length > 0) {
-            storeDataInAttributeList(2, 3, normals);
+            storeDataInAttributeList(NORMAL_ATTRIBUTE, 3, normals);
+        }
+
+        // Store tangents, xyz plus the bitangent sign in w
+        if (tangents.length > 0) {
+            storeDataInAttributeList(TANGENT_ATTRIBUTE, 4, tangents);
         }
 
         // Bind indices
-        IntBuffer indicesBuffer = MemoryUtil.memAllocInt(indices.length);
+        IntBuffer indicesBuffer = NativeMemory.allocInt(NativeMemory.Tag.STAGING, indices.length);
         indicesBuffer.put(indices).flip();
         int indicesVBO = glGenBuffers();
         vbos.add(indicesVBO);
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indicesVBO);
         glBufferData(GL_ELEMENT_ARRAY_BUFFER, indicesBuffer, GL_STATIC_DRAW);
-        MemoryUtil.memFree(indicesBuffer);
+        NativeMemory.free(indicesBuffer);
+        gpuMemoryBytes += (long) indices.length * Integer.BYTES;
 
         vertexCount = indices.length;
 
         // Unbind VAO
         glBindVertexArray(0);
+
+        NativeMemory.checkStagingReleased("ModelLoader.storeInVAO");
     }
 
     private void storeDataInAttributeList(int attributeNumber, int coordinateSize, float[] data) {
@@ -193,20 +349,20 @@ public class ModelLoader {
         vbos.add(vboID);
         glBindBuffer(GL_ARRAY_BUFFER, vboID);
 
-        FloatBuffer buffer = MemoryUtil.memAllocFloat(data.length);
+        FloatBuffer buffer = NativeMemory.allocFloat(NativeMemory.Tag.STAGING, data.length);
         buffer.put(data).flip();
         glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
+        gpuMemoryBytes += (long) data.length * Float.BYTES;
         glVertexAttribPointer(attributeNumber, coordinateSize, GL_FLOAT, false, 0, 0);
+        // Enabled arrays are VAO state, only attributes that have data get enabled
+        glEnableVertexAttribArray(attributeNumber);
 
-        MemoryUtil.memFree(buffer);
+        NativeMemory.free(buffer);
     }
 
     // Render the model with materials
     public void render() {
         glBindVertexArray(vaoID);
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-        glEnableVertexAttribArray(2);
 
         Material material = materials.values().stream().findFirst().orElse(Material.DEFAULT_MATERIAL);
 
@@ -215,13 +371,21 @@ public class ModelLoader {
         }
 
         glDrawElements(GL_TRIANGLES, vertexCount, GL_UNSIGNED_INT, 0);
+        RenderStats.stateChange();
+        RenderStats.draw(vertexCount / 3);
 
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
         glBindVertexArray(0);
     }
 
+    public int getVaoID() {
+        return vaoID;
+    }
+
+    // Null for meshes too small to be split
+    public Meshlets getMeshlets() {
+        return meshlets;
+    }
+
     // Clean up VBOs and VAO
     public void cleanup() {
         glBindVertexArray(0);
@@ -231,6 +395,16 @@ public class ModelLoader {
         glDeleteVertexArrays(vaoID);
     }
 
+    @Override
+    public long getGpuMemoryBytes() {
+        return gpuMemoryBytes;
+    }
+
+    @Override
+    public void dispose() {
+        cleanup();
+    }
+
     static class Material {
         private String name;
         private float[] ambient = new float[]{0.2f, 0.2f, 0.2f};
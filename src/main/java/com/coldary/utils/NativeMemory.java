@@ -0,0 +1,245 @@
+package com.coldary.utils;
+
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.system.jemalloc.JEmallocAllocator;
+import org.lwjgl.system.rpmalloc.RPmalloc;
+import org.lwjgl.system.rpmalloc.RPmallocAllocator;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.lwjgl.system.MemoryUtil.memAddress0;
+
+// Single entry point for engine-owned native buffers. Every allocation is tagged with
+// the subsystem it belongs to so live and peak usage can be reported per tag.
+//
+//   -Ddrift.allocator=default|jemalloc|rpmalloc  backend, default is LWJGL's configured allocator
+//   -Ddrift.memoryDebug=true                    record allocation sites and enforce staging lifetimes
+public final class NativeMemory {
+
+    public enum Tag {
+        MESH,
+        TEXTURE,
+        UNIFORM,
+        AUDIO,
+        STAGING,
+        OTHER
+    }
+
+    private static class Allocation {
+        final Tag tag;
+        final long size;
+        final long threadId;
+        final Throwable site;
+
+        Allocation(Tag tag, long size, Throwable site) {
+            this.tag = tag;
+            this.size = size;
+            this.threadId = Thread.currentThread().threadId();
+            this.site = site;
+        }
+    }
+
+    private static final boolean DEBUG = Boolean.getBoolean("drift.memoryDebug");
+    private static final String BACKEND = System.getProperty("drift.allocator", "default");
+    private static final MemoryUtil.MemoryAllocator allocator = createAllocator(BACKEND);
+
+    // rpmalloc needs every thread other than the one that initialized it to register itself
+    private static final ThreadLocal<Boolean> threadInitialized = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private static final Map<Long, Allocation> live = new ConcurrentHashMap<>();
+    private static final AtomicLong[] liveBytes = new AtomicLong[Tag.values().length];
+    private static final AtomicLong[] peakBytes = new AtomicLong[Tag.values().length];
+
+    static {
+        for (int i = 0; i < liveBytes.length; i++) {
+            liveBytes[i] = new AtomicLong();
+            peakBytes[i] = new AtomicLong();
+        }
+    }
+
+    private NativeMemory() {
+    }
+
+    private static MemoryUtil.MemoryAllocator createAllocator(String backend) {
+        switch (backend) {
+            case "jemalloc":
+                return new JEmallocAllocator();
+            case "rpmalloc":
+                // The allocator's constructor does not set rpmalloc up, that is left to the caller
+                RPmalloc.rpmalloc_initialize();
+                return new RPmallocAllocator();
+            case "default":
+                return MemoryUtil.getAllocator();
+            default:
+                throw new IllegalArgumentException("Unknown allocator backend: " + backend);
+        }
+    }
+
+    // rpmalloc keeps a heap per thread, registered before the thread's first malloc or free
+    private static void ensureThread() {
+        if (BACKEND.equals("rpmalloc") && !threadInitialized.get()) {
+            RPmalloc.rpmalloc_thread_initialize();
+            threadInitialized.set(Boolean.TRUE);
+        }
+    }
+
+    // Wraps the body of a worker thread so its rpmalloc heap is handed back when it exits.
+    // Thread factories of pools that allocate or free through here use it.
+    public static Runnable workerThread(Runnable body) {
+        return () -> {
+            try {
+                body.run();
+            } finally {
+                threadExit();
+            }
+        };
+    }
+
+    // Last call on a thread that went through alloc() or free()
+    public static void threadExit() {
+        if (BACKEND.equals("rpmalloc") && threadInitialized.get()) {
+            RPmalloc.rpmalloc_thread_finalize(true);
+            threadInitialized.set(Boolean.FALSE);
+        }
+    }
+
+    // Once at exit, after reportLeaks() and with every worker stopped
+    public static void shutdown() {
+        if (BACKEND.equals("rpmalloc")) {
+            RPmalloc.rpmalloc_finalize();
+        }
+    }
+
+    public static ByteBuffer alloc(Tag tag, int bytes) {
+        ensureThread();
+
+        long address = allocator.malloc(Math.max(1, bytes));
+        if (address == MemoryUtil.NULL) {
+            throw new OutOfMemoryError("Native allocation of " + bytes + " bytes failed (" + tag + ")");
+        }
+
+        live.put(address, new Allocation(tag, bytes, DEBUG ? new Throwable(tag + " allocation of " + bytes + " bytes") : null));
+        long now = liveBytes[tag.ordinal()].addAndGet(bytes);
+        peakBytes[tag.ordinal()].accumulateAndGet(now, Math::max);
+
+        return MemoryUtil.memByteBuffer(address, bytes);
+    }
+
+    public static FloatBuffer allocFloat(Tag tag, int count) {
+        return alloc(tag, count * Float.BYTES).asFloatBuffer();
+    }
+
+    public static IntBuffer allocInt(Tag tag, int count) {
+        return alloc(tag, count * Integer.BYTES).asIntBuffer();
+    }
+
+    public static ShortBuffer allocShort(Tag tag, int count) {
+        return alloc(tag, count * Short.BYTES).asShortBuffer();
+    }
+
+    public static void free(Buffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        long address = memAddress0(buffer);
+        Allocation allocation = live.remove(address);
+        if (allocation == null) {
+            throw new IllegalArgumentException("Buffer was not allocated through NativeMemory: 0x" + Long.toHexString(address));
+        }
+        liveBytes[allocation.tag.ordinal()].addAndGet(-allocation.size);
+        ensureThread();
+        allocator.free(address);
+    }
+
+    // Called once an upload has been issued. In debug mode a staging buffer allocated by the
+    // calling thread that is still alive at that point fails loudly, with its allocation site.
+    public static void checkStagingReleased(String context) {
+        if (!DEBUG) {
+            return;
+        }
+        List<Allocation> staging = liveAllocations(Tag.STAGING, Thread.currentThread().threadId());
+        if (!staging.isEmpty()) {
+            IllegalStateException error = new IllegalStateException(
+                    staging.size() + " staging buffer(s) outlived their upload in " + context);
+            for (Allocation allocation : staging) {
+                error.addSuppressed(allocation.site);
+            }
+            throw error;
+        }
+    }
+
+    private static List<Allocation> liveAllocations(Tag tag, long threadId) {
+        List<Allocation> allocations = new ArrayList<>();
+        for (Allocation allocation : live.values()) {
+            if (allocation.tag == tag && allocation.threadId == threadId) {
+                allocations.add(allocation);
+            }
+        }
+        return allocations;
+    }
+
+    public static long getLiveBytes(Tag tag) {
+        return liveBytes[tag.ordinal()].get();
+    }
+
+    public static long getPeakBytes(Tag tag) {
+        return peakBytes[tag.ordinal()].get();
+    }
+
+    public static long getTotalLiveBytes() {
+        long total = 0;
+        for (AtomicLong bytes : liveBytes) {
+            total += bytes.get();
+        }
+        return total;
+    }
+
+    public static int getLiveAllocationCount() {
+        return live.size();
+    }
+
+    public static String getBackend() {
+        return BACKEND;
+    }
+
+    public static String report() {
+        StringBuilder builder = new StringBuilder("Native memory (" + BACKEND + "):");
+        for (Tag tag : Tag.values()) {
+            builder.append(String.format("%n  %-8s live %10d B  peak %10d B", tag, getLiveBytes(tag), getPeakBytes(tag)));
+        }
+        return builder.toString();
+    }
+
+    // Prints usage per tag and every allocation still alive, with its site in debug mode
+    public static void reportLeaks() {
+        System.out.println(report());
+        if (live.isEmpty()) {
+            return;
+        }
+
+        System.err.println(live.size() + " native allocation(s) leaked, " + getTotalLiveBytes() + " bytes");
+        for (Map.Entry<Long, Allocation> entry : live.entrySet()) {
+            Allocation allocation = entry.getValue();
+            System.err.println("  0x" + Long.toHexString(entry.getKey()) + " " + allocation.tag + " " + allocation.size + " bytes");
+            if (allocation.site != null) {
+                StackTraceElement[] trace = allocation.site.getStackTrace();
+                // Skip the NativeMemory frames and show where the engine asked for the buffer
+                for (StackTraceElement element : trace) {
+                    if (!element.getClassName().equals(NativeMemory.class.getName())) {
+                        System.err.println("      at " + element);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
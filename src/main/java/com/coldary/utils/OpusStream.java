@@ -0,0 +1,127 @@
+package com.coldary.utils;
+
+import org.lwjgl.system.MemoryStack;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import static org.lwjgl.openal.AL10.AL_FORMAT_MONO16;
+import static org.lwjgl.openal.AL10.AL_FORMAT_STEREO16;
+import static org.lwjgl.util.opus.OpusFile.*;
+
+// Decoder for an Ogg Opus asset held in memory. Opus always decodes at 48 kHz; output is
+// interleaved 16 bit PCM in mono or stereo, the two layouts OpenAL takes without conversion.
+// Not thread safe, each stream belongs to whichever thread decodes it.
+public class OpusStream {
+
+    public static final int SAMPLE_RATE = 48000;
+
+    private final String path;
+    // libopusfile reads straight out of this buffer, it has to outlive the handle
+    private final ByteBuffer data;
+    private final long handle;
+    private final int channels;
+    private final boolean looping;
+    private long framesDecoded;
+    private int loops;
+
+    private OpusStream(String path, ByteBuffer data, long handle, int channels, boolean looping) {
+        this.path = path;
+        this.data = data;
+        this.handle = handle;
+        this.channels = channels;
+        this.looping = looping;
+    }
+
+    // Looping streams rewind to the start instead of ending
+    public static OpusStream open(String path, boolean looping) {
+        ByteBuffer data = Assets.load(path);
+        long handle;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer error = stack.mallocInt(1);
+            handle = op_open_memory(data, error);
+            if (handle == 0) {
+                throw new RuntimeException("Failed to open Opus stream " + path + ": error " + error.get(0));
+            }
+        }
+        int channels = op_channel_count(handle, -1);
+        if (channels < 1 || channels > 2) {
+            op_free(handle);
+            throw new IllegalArgumentException("Only mono and stereo Opus is supported, " + path + " has " + channels + " channels");
+        }
+        return new OpusStream(path, data, handle, channels, looping);
+    }
+
+    // Fills pcm from its start, as far as the stream goes, and returns the frames written with
+    // pcm's limit set after them. Fewer than requested only once a non-looping stream has ended.
+    public int read(ShortBuffer pcm) {
+        int capacityFrames = pcm.capacity() / channels;
+        int frames = 0;
+        boolean rewound = false;
+        pcm.clear();
+        while (frames < capacityFrames) {
+            pcm.position(frames * channels);
+            int read = op_read(handle, pcm, null);
+            if (read == OP_HOLE) {
+                // Corrupt or missing data, libopusfile resumes at the next good page
+                continue;
+            }
+            if (read < 0) {
+                throw new RuntimeException("Failed to decode Opus stream " + path + ": error " + read);
+            }
+            if (read == 0) {
+                // Rewinding twice in one fill means there is nothing to play at all
+                if (!looping || rewound) {
+                    break;
+                }
+                rewind();
+                rewound = true;
+                loops++;
+                continue;
+            }
+            rewound = false;
+            frames += read;
+        }
+        framesDecoded += frames;
+        pcm.position(0).limit(frames * channels);
+        return frames;
+    }
+
+    public void rewind() {
+        int result = op_pcm_seek(handle, 0);
+        if (result < 0) {
+            throw new RuntimeException("Failed to rewind Opus stream " + path + ": error " + result);
+        }
+    }
+
+    // Length in frames, or -1 when the stream cannot tell
+    public long getTotalFrames() {
+        long total = op_pcm_total(handle, -1);
+        return total < 0 ? -1 : total;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getAlFormat() {
+        return channels == 2 ? AL_FORMAT_STEREO16 : AL_FORMAT_MONO16;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    public int getLoops() {
+        return loops;
+    }
+
+    public void free() {
+        op_free(handle);
+    }
+}
@@ -0,0 +1,27 @@
+package com.coldary.utils;
+
+import com.coldary.objects.ParticleEmitter;
+
+// Storage and update of the particle pool behind ParticleSystem. GpuParticles keeps
+// everything in SSBOs and runs in compute shaders, CpuParticles is the fallback for
+// contexts below GL 4.3 and streams its instances every frame.
+interface ParticleBackend extends GpuResource {
+
+    // Spawns up to count particles, the rest are dropped when the pool is full
+    void emit(ParticleEmitter emitter, int count, int seed);
+
+    // Ages, moves and retires every live particle, including the ones emitted this frame
+    void simulate(ParticleSystem system, float deltaTime, float time);
+
+    // Draws the live particles with the camera block bound at CameraBlock's binding
+    void render();
+
+    int getCapacity();
+
+    // Live particles as of the latest frame whose results are available without a stall
+    int getAliveCount();
+
+    long getEmittedTotal();
+
+    long getDiedTotal();
+}
@@ -0,0 +1,129 @@
+package com.coldary.utils;
+
+import com.coldary.objects.ParticleEmitter;
+import org.joml.Vector3f;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import java.util.List;
+
+import static org.lwjgl.opengl.GL43.*;
+
+// Tyre smoke, debris and other short lived sprites. With GL 4.3 the whole particle life
+// cycle runs in compute shaders over SSBOs and the draw is fed by an indirect command the
+// simulation writes, so the pool can hold a million particles without touching the CPU.
+// Older contexts fall back to a smaller pool simulated on the CPU and streamed per frame.
+public class ParticleSystem implements GpuResource {
+
+    // GPU timestamps in flight, begin and end query per frame
+    private static final int TIMER_FRAMES = 4;
+
+    // Shared environment, applied to every particle
+    public final Vector3f gravity = new Vector3f(0.0f, -9.81f, 0.0f);
+    public final Vector3f wind = new Vector3f();
+    public float noiseFrequency = 0.5f;
+    public float noiseStrength = 0.6f;
+    public float groundHeight = Float.NEGATIVE_INFINITY;
+
+    private final ParticleBackend backend;
+    private final boolean gpu;
+    private float time;
+    private int frame;
+
+    private final int[] beginQueries = new int[TIMER_FRAMES];
+    private final int[] endQueries = new int[TIMER_FRAMES];
+    private final boolean[] queryPending = new boolean[TIMER_FRAMES];
+    private int querySlot;
+    private double gpuMillis;
+    private long gpuSamples;
+
+    public ParticleSystem(int capacity, int cameraBlockBinding) {
+        GLCapabilities caps = GL.getCapabilities();
+        // The GPU path reads the particle SSBOs from the vertex shader as well
+        gpu = caps.OpenGL43 && glGetInteger(GL_MAX_VERTEX_SHADER_STORAGE_BLOCKS) >= 2;
+        backend = gpu ? new GpuParticles(capacity, cameraBlockBinding) : new CpuParticles(capacity, cameraBlockBinding);
+        glGenQueries(beginQueries);
+        glGenQueries(endQueries);
+    }
+
+    // Emits from every emitter and advances the simulation, before render() in the frame
+    public void update(float deltaTime, List<ParticleEmitter> emitters) {
+        resolveTimer();
+        glQueryCounter(beginQueries[querySlot], GL_TIMESTAMP);
+
+        time += deltaTime;
+        frame++;
+        for (int i = 0; i < emitters.size(); i++) {
+            ParticleEmitter emitter = emitters.get(i);
+            int count = emitter.take(deltaTime);
+            if (count > 0) {
+                backend.emit(emitter, count, frame * 31 + i);
+            }
+        }
+        backend.simulate(this, deltaTime, time);
+    }
+
+    // Blended over the opaque scene, depth tested but not written so sprites do not cut each other
+    public void render() {
+        glEnable(GL_BLEND);
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        glDepthMask(false);
+        backend.render();
+        glDepthMask(true);
+        glDisable(GL_BLEND);
+
+        glQueryCounter(endQueries[querySlot], GL_TIMESTAMP);
+        queryPending[querySlot] = true;
+        querySlot = (querySlot + 1) % TIMER_FRAMES;
+    }
+
+    // Collects the oldest timing if the GPU has got that far, never waits for it
+    private void resolveTimer() {
+        int slot = querySlot;
+        if (!queryPending[slot] || glGetQueryObjecti(endQueries[slot], GL_QUERY_RESULT_AVAILABLE) != GL_TRUE) {
+            queryPending[slot] = false;
+            return;
+        }
+        long begin = glGetQueryObjecti64(beginQueries[slot], GL_QUERY_RESULT);
+        long end = glGetQueryObjecti64(endQueries[slot], GL_QUERY_RESULT);
+        gpuMillis += (end - begin) / 1_000_000.0;
+        gpuSamples++;
+        queryPending[slot] = false;
+    }
+
+    public boolean isGpuSimulated() {
+        return gpu;
+    }
+
+    public int getCapacity() {
+        return backend.getCapacity();
+    }
+
+    public int getAliveCount() {
+        return backend.getAliveCount();
+    }
+
+    public double getAverageGpuMillis() {
+        return gpuSamples == 0 ? 0 : gpuMillis / gpuSamples;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return backend.getGpuMemoryBytes();
+    }
+
+    @Override
+    public void dispose() {
+        backend.dispose();
+        glDeleteQueries(beginQueries);
+        glDeleteQueries(endQueries);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Particles (%s): %d/%d alive, %d emitted, %d died, %.3f ms GPU per frame, %.1f MB",
+                gpu ? "compute" : "CPU fallback", backend.getAliveCount(), backend.getCapacity(),
+                backend.getEmittedTotal(), backend.getDiedTotal(), getAverageGpuMillis(),
+                backend.getGpuMemoryBytes() / (1024.0 * 1024.0));
+    }
+}
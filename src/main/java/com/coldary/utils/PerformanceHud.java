@@ -0,0 +1,428 @@
+package com.coldary.utils;
+
+import org.lwjgl.stb.STBTTBakedChar;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL33.*;
+import static org.lwjgl.stb.STBTruetype.stbtt_BakeFontBitmap;
+
+// On-screen performance overlay: frame time and GPU time graphs, frame time percentiles,
+// last frame's draw stats and whatever text the owner supplies. Glyphs are baked once into
+// a single channel atlas with stb_truetype, and every glyph, bar and panel is a textured
+// quad written straight into a streaming vertex buffer and drawn with one glDrawElements.
+// Text is reformatted a few times a second only, the quads are rebuilt every frame.
+public class PerformanceHud implements GpuResource {
+
+    private static final int FIRST_CHAR = 32;
+    private static final int CHAR_COUNT = 96;
+    private static final int ATLAS_WIDTH = 256;
+    private static final int ATLAS_HEIGHT = 128;
+
+    // x, y, u, v as floats, then RGBA8
+    private static final int VERTEX_BYTES = 4 * Float.BYTES + 4;
+    private static final int MAX_QUADS = 4096;
+
+    // Frames kept for the graphs and the percentiles
+    private static final int HISTORY = 240;
+    private static final long TEXT_INTERVAL_NANOS = 250_000_000L;
+    private static final int TIMER_FRAMES = 4;
+
+    private static final float MARGIN = 8.0f;
+    private static final float PADDING = 6.0f;
+    private static final float GRAPH_HEIGHT = 40.0f;
+    private static final float BAR_WIDTH = 1.5f;
+
+    private static final int COLOR_PANEL = rgba(0, 0, 0, 160);
+    private static final int COLOR_TEXT = rgba(235, 235, 235, 255);
+    private static final int COLOR_GOOD = rgba(80, 200, 80, 255);
+    private static final int COLOR_SLOW = rgba(230, 190, 40, 255);
+    private static final int COLOR_BAD = rgba(230, 60, 50, 255);
+    private static final int COLOR_GPU = rgba(90, 150, 240, 255);
+    private static final int COLOR_BUDGET = rgba(255, 255, 255, 110);
+
+    private final float fontPixels;
+    private final float lineHeight;
+    private final float budgetMillis;
+
+    // Baked glyph rectangles in atlas pixels, offsets and advance in screen pixels
+    private final float[] glyphX0 = new float[CHAR_COUNT];
+    private final float[] glyphY0 = new float[CHAR_COUNT];
+    private final float[] glyphX1 = new float[CHAR_COUNT];
+    private final float[] glyphY1 = new float[CHAR_COUNT];
+    private final float[] glyphOffsetX = new float[CHAR_COUNT];
+    private final float[] glyphOffsetY = new float[CHAR_COUNT];
+    private final float[] glyphAdvance = new float[CHAR_COUNT];
+    // A fully covered texel for the solid quads
+    private final float solidU;
+    private final float solidV;
+
+    private final int atlasTexture;
+    private final int vao;
+    private final int indexBuffer;
+    private final StreamingBuffer vertices;
+    private final Shaders shader;
+    private final int screenSizeLoc;
+
+    private boolean visible;
+
+    private final float[] frameMillis = new float[HISTORY];
+    private final float[] gpuMillis = new float[HISTORY];
+    private final float[] sorted = new float[HISTORY];
+    private int historyHead;
+    private int historyCount;
+
+    private String statsText = "";
+    private String ownerText = "";
+    private long lastTextNanos;
+
+    // Own cost
+    private final int[] beginQueries = new int[TIMER_FRAMES];
+    private final int[] endQueries = new int[TIMER_FRAMES];
+    private final boolean[] queryPending = new boolean[TIMER_FRAMES];
+    private int querySlot;
+    private float cpuMillis;
+    private float ownGpuMillis;
+    private int lastQuads;
+
+    // Frame being built
+    private long writeAddress;
+    private int quads;
+
+    public PerformanceHud(String fontPath, float fontPixels, float budgetMillis, boolean visible) {
+        this.fontPixels = fontPixels;
+        this.lineHeight = (float) Math.ceil(fontPixels * 1.2f);
+        this.budgetMillis = budgetMillis;
+        this.visible = visible;
+
+        ByteBuffer font = Assets.load(fontPath);
+        ByteBuffer bitmap = NativeMemory.alloc(NativeMemory.Tag.TEXTURE, ATLAS_WIDTH * ATLAS_HEIGHT);
+        try (STBTTBakedChar.Buffer baked = STBTTBakedChar.malloc(CHAR_COUNT)) {
+            int rows = stbtt_BakeFontBitmap(font, fontPixels, bitmap, ATLAS_WIDTH, ATLAS_HEIGHT, FIRST_CHAR, baked);
+            if (rows <= 0 || rows > ATLAS_HEIGHT - 2) {
+                NativeMemory.free(bitmap);
+                throw new RuntimeException("Glyph atlas too small for " + fontPath + " at " + fontPixels + " px");
+            }
+            for (int i = 0; i < CHAR_COUNT; i++) {
+                STBTTBakedChar glyph = baked.get(i);
+                glyphX0[i] = glyph.x0();
+                glyphY0[i] = glyph.y0();
+                glyphX1[i] = glyph.x1();
+                glyphY1[i] = glyph.y1();
+                glyphOffsetX[i] = glyph.xoff();
+                glyphOffsetY[i] = glyph.yoff();
+                glyphAdvance[i] = glyph.xadvance();
+            }
+        }
+
+        // Below the last baked row, sampled at its center so filtering stays inside it
+        for (int y = ATLAS_HEIGHT - 2; y < ATLAS_HEIGHT; y++) {
+            for (int x = ATLAS_WIDTH - 2; x < ATLAS_WIDTH; x++) {
+                bitmap.put(y * ATLAS_WIDTH + x, (byte) 0xFF);
+            }
+        }
+        solidU = (ATLAS_WIDTH - 1.0f) / ATLAS_WIDTH;
+        solidV = (ATLAS_HEIGHT - 1.0f) / ATLAS_HEIGHT;
+
+        atlasTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, atlasTexture);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_R8, ATLAS_WIDTH, ATLAS_HEIGHT, 0, GL_RED, GL_UNSIGNED_BYTE, bitmap);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        NativeMemory.free(bitmap);
+
+        // Quads are always 4 vertices and 6 indices, so one static index buffer serves every frame
+        vertices = new StreamingBuffer(GL_ARRAY_BUFFER, MAX_QUADS * 4 * VERTEX_BYTES);
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+        glBindBuffer(GL_ARRAY_BUFFER, vertices.getBufferID());
+        glVertexAttribPointer(0, 2, GL_FLOAT, false, VERTEX_BYTES, 0);
+        glVertexAttribPointer(1, 2, GL_FLOAT, false, VERTEX_BYTES, 2 * Float.BYTES);
+        glVertexAttribPointer(2, 4, GL_UNSIGNED_BYTE, true, VERTEX_BYTES, 4 * Float.BYTES);
+        glEnableVertexAttribArray(0);
+        glEnableVertexAttribArray(1);
+        glEnableVertexAttribArray(2);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        ByteBuffer indices = NativeMemory.alloc(NativeMemory.Tag.STAGING, MAX_QUADS * 6 * Short.BYTES);
+        for (int quad = 0; quad < MAX_QUADS; quad++) {
+            int v = quad * 4;
+            indices.putShort((short) v).putShort((short) (v + 1)).putShort((short) (v + 2));
+            indices.putShort((short) (v + 2)).putShort((short) (v + 3)).putShort((short) v);
+        }
+        indices.flip();
+        indexBuffer = glGenBuffers();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        NativeMemory.free(indices);
+
+        shader = Resources.acquireShader("/Shaders/hud/Vertex.hud.glsl", "/Shaders/hud/Fragment.hud.glsl", 0);
+        int program = shader.getShaderProgram();
+        screenSizeLoc = glGetUniformLocation(program, "screenSize");
+        shader.start();
+        glUniform1i(glGetUniformLocation(program, "atlas"), 0);
+        shader.stop();
+
+        glGenQueries(beginQueries);
+        glGenQueries(endQueries);
+    }
+
+    private static int rgba(int r, int g, int b, int a) {
+        // Little endian, so the bytes land in memory as r, g, b, a
+        return r | g << 8 | b << 16 | a << 24;
+    }
+
+    public void toggle() {
+        visible = !visible;
+        lastTextNanos = 0;
+    }
+
+    public boolean isVisible() {
+        return visible;
+    }
+
+    // Every frame, visible or not, so the graphs are complete when the HUD is shown
+    public void recordFrame(float frameMillis, float gpuMillis) {
+        this.frameMillis[historyHead] = frameMillis;
+        this.gpuMillis[historyHead] = gpuMillis;
+        historyHead = (historyHead + 1) % HISTORY;
+        historyCount = Math.min(historyCount + 1, HISTORY);
+    }
+
+    // True a few times a second while visible, the owner then passes fresh text to setText
+    public boolean wantsText() {
+        return visible && System.nanoTime() - lastTextNanos >= TEXT_INTERVAL_NANOS;
+    }
+
+    // Extra lines below the built-in ones, separated by '\n'
+    public void setText(String text) {
+        ownerText = text;
+    }
+
+    // Draws over whatever is bound, call with the default framebuffer at window resolution
+    public void render(int width, int height) {
+        if (!visible || width <= 0 || height <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        resolveTimer();
+        glQueryCounter(beginQueries[querySlot], GL_TIMESTAMP);
+
+        if (start - lastTextNanos >= TEXT_INTERVAL_NANOS) {
+            lastTextNanos = start;
+            statsText = formatStats();
+        }
+
+        vertices.beginFrame();
+        int offset = vertices.allocate(MAX_QUADS * 4 * VERTEX_BYTES, VERTEX_BYTES);
+        writeAddress = vertices.address(offset);
+        quads = 0;
+
+        float graphWidth = HISTORY * BAR_WIDTH;
+        float textWidth = Math.max(measure(statsText), measure(ownerText));
+        float panelWidth = Math.max(graphWidth, textWidth) + 2 * PADDING;
+        float textHeight = (countLines(statsText) + countLines(ownerText)) * lineHeight;
+        float panelHeight = 2 * GRAPH_HEIGHT + textHeight + 4 * PADDING;
+        quad(MARGIN, MARGIN, MARGIN + panelWidth, MARGIN + panelHeight, COLOR_PANEL);
+
+        float x = MARGIN + PADDING;
+        float y = MARGIN + PADDING;
+        graph(frameMillis, x, y, false);
+        y += GRAPH_HEIGHT + PADDING;
+        graph(gpuMillis, x, y, true);
+        y += GRAPH_HEIGHT + PADDING;
+        y = text(statsText, x, y);
+        text(ownerText, x, y);
+
+        vertices.flush();
+
+        glEnable(GL_BLEND);
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        glDisable(GL_DEPTH_TEST);
+        shader.start();
+        glUniform2f(screenSizeLoc, width, height);
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, atlasTexture);
+        glBindVertexArray(vao);
+        glDrawElementsBaseVertex(GL_TRIANGLES, quads * 6, GL_UNSIGNED_SHORT, 0, offset / VERTEX_BYTES);
+        vertices.endFrame();
+        glBindVertexArray(0);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        shader.stop();
+        glEnable(GL_DEPTH_TEST);
+        glDisable(GL_BLEND);
+        RenderStats.stateChanges(2);
+        RenderStats.draw(quads * 2L);
+
+        glQueryCounter(endQueries[querySlot], GL_TIMESTAMP);
+        queryPending[querySlot] = true;
+        querySlot = (querySlot + 1) % TIMER_FRAMES;
+        lastQuads = quads;
+        cpuMillis = (System.nanoTime() - start) / 1_000_000.0f;
+    }
+
+    private String formatStats() {
+        float average = 0;
+        int count = historyCount;
+        for (int i = 0; i < count; i++) {
+            sorted[i] = frameMillis[i];
+            average += frameMillis[i];
+        }
+        average = count == 0 ? 0 : average / count;
+        Arrays.sort(sorted, 0, count);
+        return String.format("FPS %.0f  avg %.2f ms  p50 %.2f  p95 %.2f  p99 %.2f  max %.2f\n"
+                        + "Draws %d  triangles %,d  state changes %d\n"
+                        + "HUD %.3f ms CPU  %.3f ms GPU  %d quads",
+                average > 0 ? 1000.0f / average : 0, average,
+                percentile(count, 0.50f), percentile(count, 0.95f), percentile(count, 0.99f), percentile(count, 1.0f),
+                RenderStats.getDrawCalls(), RenderStats.getTriangles(), RenderStats.getStateChanges(),
+                cpuMillis, ownGpuMillis, lastQuads);
+    }
+
+    private float percentile(int count, float fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        return sorted[Math.min(count - 1, (int) Math.ceil(fraction * count) - 1)];
+    }
+
+    // Oldest sample on the left, bars scaled so twice the budget fills the graph
+    private void graph(float[] samples, float x, float y, boolean gpu) {
+        float scale = GRAPH_HEIGHT / (2 * budgetMillis);
+        float bottom = y + GRAPH_HEIGHT;
+        int first = (historyHead - historyCount + HISTORY) % HISTORY;
+        float left = x + (HISTORY - historyCount) * BAR_WIDTH;
+        for (int i = 0; i < historyCount; i++) {
+            float value = samples[(first + i) % HISTORY];
+            if (value <= 0) {
+                continue;
+            }
+            int color = gpu ? COLOR_GPU : value <= budgetMillis ? COLOR_GOOD : value <= 2 * budgetMillis ? COLOR_SLOW : COLOR_BAD;
+            float barTop = Math.max(y, bottom - value * scale);
+            quad(left + i * BAR_WIDTH, barTop, left + (i + 1) * BAR_WIDTH, bottom, color);
+        }
+        float budgetY = bottom - budgetMillis * scale;
+        quad(x, budgetY, x + HISTORY * BAR_WIDTH, budgetY + 1, COLOR_BUDGET);
+    }
+
+    // Returns the y of the line after the text
+    private float text(String text, float x, float y) {
+        float penX = x;
+        float baseline = y + fontPixels;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                penX = x;
+                baseline += lineHeight;
+                continue;
+            }
+            int glyph = c - FIRST_CHAR;
+            if (glyph < 0 || glyph >= CHAR_COUNT) {
+                glyph = '?' - FIRST_CHAR;
+            }
+            // Same placement as stbtt_GetBakedQuad, snapped to whole pixels so glyphs stay crisp
+            float x0 = Math.round(penX + glyphOffsetX[glyph]);
+            float y0 = Math.round(baseline + glyphOffsetY[glyph]);
+            float x1 = x0 + glyphX1[glyph] - glyphX0[glyph];
+            float y1 = y0 + glyphY1[glyph] - glyphY0[glyph];
+            if (x1 > x0) {
+                texturedQuad(x0, y0, x1, y1,
+                        glyphX0[glyph] / ATLAS_WIDTH, glyphY0[glyph] / ATLAS_HEIGHT,
+                        glyphX1[glyph] / ATLAS_WIDTH, glyphY1[glyph] / ATLAS_HEIGHT, COLOR_TEXT);
+            }
+            penX += glyphAdvance[glyph];
+        }
+        return text.isEmpty() ? y : baseline - fontPixels + lineHeight;
+    }
+
+    private float measure(String text) {
+        float widest = 0;
+        float width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                width = 0;
+                continue;
+            }
+            int glyph = c - FIRST_CHAR;
+            width += glyphAdvance[glyph >= 0 && glyph < CHAR_COUNT ? glyph : '?' - FIRST_CHAR];
+            widest = Math.max(widest, width);
+        }
+        return widest;
+    }
+
+    private static int countLines(String text) {
+        if (text.isEmpty()) {
+            return 0;
+        }
+        int lines = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private void quad(float x0, float y0, float x1, float y1, int color) {
+        texturedQuad(x0, y0, x1, y1, solidU, solidV, solidU, solidV, color);
+    }
+
+    private void texturedQuad(float x0, float y0, float x1, float y1, float u0, float v0, float u1, float v1, int color) {
+        if (quads == MAX_QUADS) {
+            return;
+        }
+        long v = writeAddress + (long) quads * 4 * VERTEX_BYTES;
+        vertex(v, x0, y0, u0, v0, color);
+        vertex(v + VERTEX_BYTES, x1, y0, u1, v0, color);
+        vertex(v + 2 * VERTEX_BYTES, x1, y1, u1, v1, color);
+        vertex(v + 3 * VERTEX_BYTES, x0, y1, u0, v1, color);
+        quads++;
+    }
+
+    private static void vertex(long address, float x, float y, float u, float v, int color) {
+        MemoryUtil.memPutFloat(address, x);
+        MemoryUtil.memPutFloat(address + 4, y);
+        MemoryUtil.memPutFloat(address + 8, u);
+        MemoryUtil.memPutFloat(address + 12, v);
+        MemoryUtil.memPutInt(address + 16, color);
+    }
+
+    private void resolveTimer() {
+        int slot = querySlot;
+        if (!queryPending[slot]) {
+            return;
+        }
+        queryPending[slot] = false;
+        if (glGetQueryObjecti(endQueries[slot], GL_QUERY_RESULT_AVAILABLE) == GL_TRUE) {
+            long begin = glGetQueryObjecti64(beginQueries[slot], GL_QUERY_RESULT);
+            long end = glGetQueryObjecti64(endQueries[slot], GL_QUERY_RESULT);
+            ownGpuMillis = (end - begin) / 1_000_000.0f;
+        }
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return (long) ATLAS_WIDTH * ATLAS_HEIGHT + (long) MAX_QUADS * 6 * Short.BYTES + vertices.getGpuMemoryBytes();
+    }
+
+    @Override
+    public void dispose() {
+        vertices.dispose();
+        glDeleteBuffers(indexBuffer);
+        glDeleteVertexArrays(vao);
+        glDeleteTextures(atlasTexture);
+        glDeleteQueries(beginQueries);
+        glDeleteQueries(endQueries);
+        Resources.release(shader);
+    }
+}
@@ -0,0 +1,98 @@
+package com.coldary.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// The "Quite OK Image" format (qoiformat.org): lossless, single pass, an order of magnitude
+// faster to encode than PNG at a similar size for rendered frames. Pixels are RGBA8 as
+// read back from GL, rows bottom-up; files are written top-down as the format expects.
+final class Qoi {
+
+    private static final int MAGIC = 0x716F6966; // "qoif"
+    private static final int HEADER_SIZE = 14;
+    private static final byte[] END_MARKER = {0, 0, 0, 0, 0, 0, 0, 1};
+
+    private static final int OP_INDEX = 0x00;
+    private static final int OP_DIFF = 0x40;
+    private static final int OP_LUMA = 0x80;
+    private static final int OP_RUN = 0xC0;
+    private static final int OP_RGB = 0xFE;
+    private static final int OP_RGBA = 0xFF;
+    private static final int MAX_RUN = 62;
+
+    private Qoi() {
+    }
+
+    static ByteBuffer encode(ByteBuffer rgba, int width, int height) {
+        ByteBuffer pixels = rgba.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        // Worst case is every pixel as OP_RGBA
+        byte[] out = new byte[HEADER_SIZE + width * height * 5 + END_MARKER.length];
+        ByteBuffer header = ByteBuffer.wrap(out);
+        header.putInt(MAGIC).putInt(width).putInt(height).put((byte) 4).put((byte) 0);
+        int p = HEADER_SIZE;
+
+        int[] index = new int[64];
+        int previous = 0x000000FF; // r, g, b, a from the high byte down
+        int run = 0;
+        int stride = width * 4;
+        int base = pixels.position();
+        for (int y = 0; y < height; y++) {
+            int row = base + (height - 1 - y) * stride;
+            for (int x = 0; x < width; x++) {
+                // Big endian read of r, g, b, a
+                int pixel = Integer.reverseBytes(pixels.getInt(row + x * 4));
+                if (pixel == previous) {
+                    run++;
+                    if (run == MAX_RUN) {
+                        out[p++] = (byte) (OP_RUN | (run - 1));
+                        run = 0;
+                    }
+                    continue;
+                }
+                if (run > 0) {
+                    out[p++] = (byte) (OP_RUN | (run - 1));
+                    run = 0;
+                }
+
+                int r = pixel >>> 24, g = (pixel >>> 16) & 0xFF, b = (pixel >>> 8) & 0xFF, a = pixel & 0xFF;
+                int slot = (r * 3 + g * 5 + b * 7 + a * 11) & 63;
+                if (index[slot] == pixel) {
+                    out[p++] = (byte) (OP_INDEX | slot);
+                } else {
+                    index[slot] = pixel;
+                    if (a == (previous & 0xFF)) {
+                        int dr = (byte) (r - (previous >>> 24));
+                        int dg = (byte) (g - ((previous >>> 16) & 0xFF));
+                        int db = (byte) (b - ((previous >>> 8) & 0xFF));
+                        int drg = dr - dg;
+                        int dbg = db - dg;
+                        if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+                            out[p++] = (byte) (OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+                        } else if (drg >= -8 && drg <= 7 && dg >= -32 && dg <= 31 && dbg >= -8 && dbg <= 7) {
+                            out[p++] = (byte) (OP_LUMA | (dg + 32));
+                            out[p++] = (byte) ((drg + 8) << 4 | (dbg + 8));
+                        } else {
+                            out[p++] = (byte) OP_RGB;
+                            out[p++] = (byte) r;
+                            out[p++] = (byte) g;
+                            out[p++] = (byte) b;
+                        }
+                    } else {
+                        out[p++] = (byte) OP_RGBA;
+                        out[p++] = (byte) r;
+                        out[p++] = (byte) g;
+                        out[p++] = (byte) b;
+                        out[p++] = (byte) a;
+                    }
+                }
+                previous = pixel;
+            }
+        }
+        if (run > 0) {
+            out[p++] = (byte) (OP_RUN | (run - 1));
+        }
+        System.arraycopy(END_MARKER, 0, out, p, END_MARKER.length);
+        p += END_MARKER.length;
+        return ByteBuffer.wrap(out, 0, p);
+    }
+}
@@ -0,0 +1,112 @@
+package com.coldary.utils;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+
+// The API-neutral part of the renderer: buffers, textures, meshes and pipelines are created
+// through a backend and drawn by submitting a DrawList between beginFrame and endFrame.
+// GlBackend and VulkanBackend implement it over the same shaders (Shaders/backend), so a
+// scene drawn through this interface looks the same on either API. Every method is called
+// from the render thread only; a backend is free to fan the work out internally.
+public interface RenderBackend {
+
+    // Fixed vertex layout of every mesh, one stream per attribute like ModelLoader's VAOs
+    int POSITION_STREAM = ModelLoader.POSITION_ATTRIBUTE;
+    int TEXCOORD_STREAM = ModelLoader.TEXCOORD_ATTRIBUTE;
+    int NORMAL_STREAM = ModelLoader.NORMAL_ATTRIBUTE;
+
+    enum BufferUsage {
+        VERTEX, INDEX, UNIFORM
+    }
+
+    interface Buffer extends GpuResource {
+        long getSize();
+    }
+
+    interface Texture extends GpuResource {
+        int getWidth();
+
+        int getHeight();
+    }
+
+    // Vertex streams plus 32-bit indices, drawn as a triangle list
+    interface Mesh extends GpuResource {
+        int getIndexCount();
+    }
+
+    interface Pipeline extends GpuResource {
+    }
+
+    // Shader pair and the fixed function state that goes with it
+    final class PipelineDescription {
+        public final String vertexFile;
+        public final String fragmentFile;
+        public boolean depthTest = true;
+        public boolean depthWrite = true;
+        public boolean cullBackFaces = true;
+        public boolean alphaBlend;
+
+        public PipelineDescription(String vertexFile, String fragmentFile) {
+            this.vertexFile = vertexFile;
+            this.fragmentFile = fragmentFile;
+        }
+    }
+
+    String getName();
+
+    // Device local buffer initialised with data
+    Buffer createBuffer(BufferUsage usage, ByteBuffer data);
+
+    // RGBA8 pixels, the first row is at texture coordinate v = 0 on every backend
+    Texture createTexture(int width, int height, ByteBuffer rgba);
+
+    // The mesh owns its buffers from here on and disposes them with itself
+    Mesh createMesh(Buffer positions, Buffer texCoords, Buffer normals, Buffer indices, int indexCount);
+
+    Pipeline createPipeline(PipelineDescription description);
+
+    // Clears the target to the given color. False when there is nothing to draw into this
+    // frame (minimized, swapchain being rebuilt), in which case nothing else is called until
+    // the next beginFrame.
+    boolean beginFrame(int width, int height, float red, float green, float blue);
+
+    // Projection in GL conventions, backends adjust it to their clip space
+    void setCamera(Matrix4f view, Matrix4f projection, Vector3f position);
+
+    void submit(DrawList draws);
+
+    // Submits the frame and presents it where the backend owns presentation
+    void endFrame();
+
+    // RGBA8 copy of the frame drawn last, bottom row first, taken after endFrame and before
+    // anything presents it. Waits for the GPU, for tests and tools rather than the frame loop.
+    void readPixels(ByteBuffer rgba);
+
+    // Waits for the device and frees everything the backend itself created
+    void dispose();
+
+    // Uploads a parsed OBJ. Missing texture coordinates become zeros, every mesh has all streams.
+    default Mesh createMesh(ModelLoader.MeshData data) {
+        float[] textures = data.getTextures().length > 0 ? data.getTextures() : new float[data.getPositions().length / 3 * 2];
+        Buffer positions = createBuffer(BufferUsage.VERTEX, data.getPositions());
+        Buffer texCoords = createBuffer(BufferUsage.VERTEX, textures);
+        Buffer normals = createBuffer(BufferUsage.VERTEX, data.getNormals());
+
+        int[] indices = data.getIndices();
+        ByteBuffer indexData = NativeMemory.alloc(NativeMemory.Tag.STAGING, indices.length * Integer.BYTES);
+        indexData.asIntBuffer().put(indices);
+        Buffer indexBuffer = createBuffer(BufferUsage.INDEX, indexData);
+        NativeMemory.free(indexData);
+        return createMesh(positions, texCoords, normals, indexBuffer, indices.length);
+    }
+
+    default Buffer createBuffer(BufferUsage usage, float[] values) {
+        ByteBuffer data = NativeMemory.alloc(NativeMemory.Tag.STAGING, values.length * Float.BYTES);
+        data.asFloatBuffer().put(values);
+        Buffer buffer = createBuffer(usage, data);
+        NativeMemory.free(data);
+        return buffer;
+    }
+}
@@ -0,0 +1,59 @@
+package com.coldary.utils;
+
+// Per-frame draw call, triangle and GL state change counters, bumped by the code that
+// issues the calls. State changes are program, vertex array and texture binds, the ones
+// that show up in driver overhead. GL thread only, like every other GL object owner.
+public final class RenderStats {
+
+    private static int drawCalls;
+    private static long triangles;
+    private static int stateChanges;
+
+    private static int lastDrawCalls;
+    private static long lastTriangles;
+    private static int lastStateChanges;
+
+    private RenderStats() {
+    }
+
+    public static void draw(long triangleCount) {
+        drawCalls++;
+        triangles += triangleCount;
+    }
+
+    // Totals counted elsewhere, e.g. by threads recording command buffers, added by the render thread
+    public static void draws(int drawCount, long triangleCount) {
+        drawCalls += drawCount;
+        triangles += triangleCount;
+    }
+
+    public static void stateChange() {
+        stateChanges++;
+    }
+
+    public static void stateChanges(int count) {
+        stateChanges += count;
+    }
+
+    // Closes the frame: its totals become the last frame's and counting starts over
+    public static void endFrame() {
+        lastDrawCalls = drawCalls;
+        lastTriangles = triangles;
+        lastStateChanges = stateChanges;
+        drawCalls = 0;
+        triangles = 0;
+        stateChanges = 0;
+    }
+
+    public static int getDrawCalls() {
+        return lastDrawCalls;
+    }
+
+    public static long getTriangles() {
+        return lastTriangles;
+    }
+
+    public static int getStateChanges() {
+        return lastStateChanges;
+    }
+}
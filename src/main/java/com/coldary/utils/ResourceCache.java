@@ -0,0 +1,156 @@
+package com.coldary.utils;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Reference counted cache of GPU resources keyed by asset id. Resources nobody
+// references stay resident in LRU order and are only disposed once the budget is
+// exceeded, so reloading a scene picks up whatever is still on the GPU.
+// Like every GL object owner it must only be used from the GL thread.
+public class ResourceCache {
+
+    private static class Entry {
+        final String id;
+        final GpuResource resource;
+        final long bytes;
+        int refCount;
+
+        Entry(String id, GpuResource resource) {
+            this.id = id;
+            this.resource = resource;
+            this.bytes = Math.max(0, resource.getGpuMemoryBytes());
+        }
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<GpuResource, Entry> byResource = new IdentityHashMap<>();
+    // Access ordered, eldest first: the eviction order of unreferenced entries
+    private final LinkedHashMap<String, Entry> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long budgetBytes;
+    private long residentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public ResourceCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends GpuResource> T acquire(String id, Supplier<T> loader) {
+        Entry entry = entries.get(id);
+        if (entry != null) {
+            hits++;
+            if (entry.refCount++ == 0) {
+                idle.remove(id);
+            }
+            return (T) entry.resource;
+        }
+
+        misses++;
+        T resource = loader.get();
+        entry = new Entry(id, resource);
+        entry.refCount = 1;
+        entries.put(id, entry);
+        byResource.put(resource, entry);
+        residentBytes += entry.bytes;
+        trim();
+        return resource;
+    }
+
+    public void release(GpuResource resource) {
+        Entry entry = byResource.get(resource);
+        if (entry == null) {
+            throw new IllegalArgumentException("Resource is not owned by this cache: " + resource);
+        }
+        if (entry.refCount <= 0) {
+            throw new IllegalStateException("Resource released more often than acquired: " + entry.id);
+        }
+        if (--entry.refCount == 0) {
+            idle.put(entry.id, entry);
+            trim();
+        }
+    }
+
+    public boolean isResident(String id) {
+        return entries.containsKey(id);
+    }
+
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        trim();
+    }
+
+    // Evicts unreferenced resources, least recently used first, until back under budget
+    private void trim() {
+        Iterator<Entry> iterator = idle.values().iterator();
+        while (residentBytes > budgetBytes && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            evict(entry);
+            evictions++;
+        }
+    }
+
+    private void evict(Entry entry) {
+        entries.remove(entry.id);
+        byResource.remove(entry.resource);
+        residentBytes -= entry.bytes;
+        entry.resource.dispose();
+    }
+
+    // Disposes everything, referenced or not. Used at shutdown.
+    public void clear() {
+        for (Entry entry : entries.values()) {
+            entry.resource.dispose();
+        }
+        entries.clear();
+        byResource.clear();
+        idle.clear();
+        residentBytes = 0;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public int getResidentCount() {
+        return entries.size();
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ResourceCache{resident=%d (%d idle), used=%.1f/%.1f MB, hitRate=%.1f%%, evictions=%d}",
+                entries.size(), idle.size(), residentBytes / 1048576.0, budgetBytes / 1048576.0, getHitRate() * 100.0, evictions);
+    }
+}
@@ -0,0 +1,70 @@
+package com.coldary.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public final class Resources {
+
+    // Budget for resident GPU data, configurable with -Ddrift.vramBudgetMB
+    private static final long DEFAULT_BUDGET_MB = 512;
+
+    private static final ResourceCache cache = new ResourceCache(Long.getLong("drift.vramBudgetMB", DEFAULT_BUDGET_MB) * 1024 * 1024);
+
+    private Resources() {
+    }
+
+    public static ModelLoader acquireMesh(String path) {
+        return cache.acquire("mesh:" + path, () -> new ModelLoader(Assets.openStream(path)));
+    }
+
+    // For a mesh parsed ahead of time off the GL thread; a cached copy wins and the data is dropped
+    public static ModelLoader acquireMesh(String path, ModelLoader.MeshData data) {
+        return cache.acquire("mesh:" + path, () -> new ModelLoader(data));
+    }
+
+    public static GltfModel acquireGltf(String path) {
+        return cache.acquire("gltf:" + path, () -> new GltfModel(path));
+    }
+
+    public static CubeMap acquireCubeMap(List<String> faces) {
+        return cache.acquire(cubeMapId(faces), () -> new CubeMap(CubeMap.decodeFaces(faces)));
+    }
+
+    // For faces decoded ahead of time off the GL thread; a cached copy wins and they are freed
+    public static CubeMap acquireCubeMap(List<String> faces, CubeMap.Face[] decoded) {
+        CubeMap cubeMap = cache.acquire(cubeMapId(faces), () -> new CubeMap(decoded));
+        for (CubeMap.Face face : decoded) {
+            if (face != null) {
+                face.free();
+            }
+        }
+        return cubeMap;
+    }
+
+    private static String cubeMapId(List<String> faces) {
+        return "cubemap:" + String.join("|", faces);
+    }
+
+    public static Shaders acquireShader(String vertexFile, String fragmentFile, int variant) {
+        return cache.acquire("shader:" + vertexFile + "|" + fragmentFile + "#" + variant,
+                () -> new Shaders(vertexFile, fragmentFile, variant));
+    }
+
+    public static Shaders acquireCompute(String computeFile, Map<String, String> defines) {
+        return cache.acquire("compute:" + computeFile + new TreeMap<>(defines), () -> Shaders.compute(computeFile, defines));
+    }
+
+    public static void release(GpuResource resource) {
+        cache.release(resource);
+    }
+
+    public static ResourceCache getCache() {
+        return cache;
+    }
+
+    public static void shutdown() {
+        System.out.println(cache);
+        cache.clear();
+    }
+}
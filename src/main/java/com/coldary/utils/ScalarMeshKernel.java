@@ -0,0 +1,100 @@
+package com.coldary.utils;
+
+// Plain Java MeshKernel, used when the Vector API is not available and for the tails the
+// vectorized kernel does not fill a full vector with
+final class ScalarMeshKernel implements MeshKernel {
+
+    static final float DEGENERATE_EPSILON = 1e-20f;
+
+    @Override
+    public void cornerNormals(float[] positions, int[] indices, int start, int end,
+                              float[] cornerX, float[] cornerY, float[] cornerZ) {
+        for (int t = start; t < end; t++) {
+            int i0 = indices[t * 3] * 3, i1 = indices[t * 3 + 1] * 3, i2 = indices[t * 3 + 2] * 3;
+
+            float e1x = positions[i1] - positions[i0], e1y = positions[i1 + 1] - positions[i0 + 1], e1z = positions[i1 + 2] - positions[i0 + 2];
+            float e2x = positions[i2] - positions[i0], e2y = positions[i2 + 1] - positions[i0 + 1], e2z = positions[i2 + 2] - positions[i0 + 2];
+            float e3x = positions[i2] - positions[i1], e3y = positions[i2 + 1] - positions[i1 + 1], e3z = positions[i2 + 2] - positions[i1 + 2];
+
+            float nx = e1y * e2z - e1z * e2y;
+            float ny = e1z * e2x - e1x * e2z;
+            float nz = e1x * e2y - e1y * e2x;
+            float lengthSquared = nx * nx + ny * ny + nz * nz;
+
+            int c = t * 3;
+            if (lengthSquared <= DEGENERATE_EPSILON) {
+                cornerX[c] = cornerY[c] = cornerZ[c] = 0;
+                cornerX[c + 1] = cornerY[c + 1] = cornerZ[c + 1] = 0;
+                cornerX[c + 2] = cornerY[c + 2] = cornerZ[c + 2] = 0;
+                continue;
+            }
+
+            float inverseLength = (float) (1.0 / Math.sqrt(lengthSquared));
+            nx *= inverseLength;
+            ny *= inverseLength;
+            nz *= inverseLength;
+
+            float angle0 = angle(e1x, e1y, e1z, e2x, e2y, e2z);
+            float angle1 = angle(-e1x, -e1y, -e1z, e3x, e3y, e3z);
+            float angle2 = Math.max(0, (float) Math.PI - angle0 - angle1);
+
+            cornerX[c] = nx * angle0;
+            cornerY[c] = ny * angle0;
+            cornerZ[c] = nz * angle0;
+            cornerX[c + 1] = nx * angle1;
+            cornerY[c + 1] = ny * angle1;
+            cornerZ[c + 1] = nz * angle1;
+            cornerX[c + 2] = nx * angle2;
+            cornerY[c + 2] = ny * angle2;
+            cornerZ[c + 2] = nz * angle2;
+        }
+    }
+
+    @Override
+    public void faceTangents(float[] positions, float[] texCoords, int[] indices, int start, int end,
+                             float[] tangentX, float[] tangentY, float[] tangentZ,
+                             float[] bitangentX, float[] bitangentY, float[] bitangentZ,
+                             float[] cornerAngles) {
+        for (int t = start; t < end; t++) {
+            int v0 = indices[t * 3], v1 = indices[t * 3 + 1], v2 = indices[t * 3 + 2];
+            int i0 = v0 * 3, i1 = v1 * 3, i2 = v2 * 3;
+
+            float e1x = positions[i1] - positions[i0], e1y = positions[i1 + 1] - positions[i0 + 1], e1z = positions[i1 + 2] - positions[i0 + 2];
+            float e2x = positions[i2] - positions[i0], e2y = positions[i2 + 1] - positions[i0 + 1], e2z = positions[i2 + 2] - positions[i0 + 2];
+            float e3x = positions[i2] - positions[i1], e3y = positions[i2 + 1] - positions[i1 + 1], e3z = positions[i2 + 2] - positions[i1 + 2];
+
+            float du1 = texCoords[v1 * 2] - texCoords[v0 * 2], dv1 = texCoords[v1 * 2 + 1] - texCoords[v0 * 2 + 1];
+            float du2 = texCoords[v2 * 2] - texCoords[v0 * 2], dv2 = texCoords[v2 * 2 + 1] - texCoords[v0 * 2 + 1];
+            float area = du1 * dv2 - du2 * dv1;
+
+            if (Math.abs(area) <= DEGENERATE_EPSILON) {
+                tangentX[t] = tangentY[t] = tangentZ[t] = 0;
+                bitangentX[t] = bitangentY[t] = bitangentZ[t] = 0;
+            } else {
+                float r = 1.0f / area;
+                tangentX[t] = (e1x * dv2 - e2x * dv1) * r;
+                tangentY[t] = (e1y * dv2 - e2y * dv1) * r;
+                tangentZ[t] = (e1z * dv2 - e2z * dv1) * r;
+                bitangentX[t] = (e2x * du1 - e1x * du2) * r;
+                bitangentY[t] = (e2y * du1 - e1y * du2) * r;
+                bitangentZ[t] = (e2z * du1 - e1z * du2) * r;
+            }
+
+            float angle0 = angle(e1x, e1y, e1z, e2x, e2y, e2z);
+            float angle1 = angle(-e1x, -e1y, -e1z, e3x, e3y, e3z);
+            cornerAngles[t * 3] = angle0;
+            cornerAngles[t * 3 + 1] = angle1;
+            cornerAngles[t * 3 + 2] = Math.max(0, (float) Math.PI - angle0 - angle1);
+        }
+    }
+
+    // Angle between two edges, 0 when either has no length
+    static float angle(float ax, float ay, float az, float bx, float by, float bz) {
+        float lengths = (ax * ax + ay * ay + az * az) * (bx * bx + by * by + bz * bz);
+        if (lengths <= DEGENERATE_EPSILON) {
+            return 0;
+        }
+        double cosine = (ax * bx + ay * by + az * bz) / Math.sqrt(lengths);
+        return (float) Math.acos(Math.max(-1.0, Math.min(1.0, cosine)));
+    }
+}
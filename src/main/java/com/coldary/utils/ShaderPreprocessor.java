@@ -0,0 +1,100 @@
+package com.coldary.utils;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ShaderPreprocessor {
+
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*#include\\s+\"([^\"]+)\"\\s*$");
+    private static final int MAX_INCLUDE_DEPTH = 16;
+
+    // Raw sources are shared between all permutations, so each file is read only once
+    private final Map<String, String> sources = new ConcurrentHashMap<>();
+
+    public String process(String filePath, Map<String, String> defines) {
+        StringBuilder expanded = new StringBuilder();
+        expand(filePath, expanded, new HashSet<>(), 0);
+        return injectDefines(expanded.toString(), defines);
+    }
+
+    // Reads a file and everything it includes into the source cache, safe from any thread
+    public void preload(String filePath) {
+        expand(filePath, new StringBuilder(), new HashSet<>(), 0);
+    }
+
+    private void expand(String filePath, StringBuilder out, Set<String> included, int depth) {
+        if (depth > MAX_INCLUDE_DEPTH) {
+            throw new RuntimeException("Shader include depth exceeded at: " + filePath);
+        }
+        // Every include behaves like #pragma once
+        if (!included.add(filePath)) {
+            return;
+        }
+
+        String source = sources.computeIfAbsent(filePath, this::readSource);
+        for (String line : source.split("\n", -1)) {
+            Matcher matcher = INCLUDE.matcher(line);
+            if (matcher.matches()) {
+                expand(resolve(filePath, matcher.group(1)), out, included, depth + 1);
+            } else {
+                out.append(line).append("\n");
+            }
+        }
+    }
+
+    // Include paths are relative to the including file unless they start with '/'
+    private String resolve(String parent, String include) {
+        if (include.startsWith("/")) {
+            return include;
+        }
+        int slash = parent.lastIndexOf('/');
+        return (slash >= 0 ? parent.substring(0, slash + 1) : "") + include;
+    }
+
+    // Defines go right after #version (and any #extension lines), which must stay first
+    private String injectDefines(String source, Map<String, String> defines) {
+        if (defines.isEmpty()) {
+            return source;
+        }
+
+        StringBuilder defineBlock = new StringBuilder();
+        for (Map.Entry<String, String> define : defines.entrySet()) {
+            defineBlock.append("#define ").append(define.getKey()).append(' ').append(define.getValue()).append("\n");
+        }
+
+        String[] lines = source.split("\n", -1);
+        int insertAt = 0;
+        for (int i = 0; i < lines.length; i++) {
+            String trimmed = lines[i].trim();
+            if (trimmed.startsWith("#version") || trimmed.startsWith("#extension")) {
+                insertAt = i + 1;
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("//")) {
+                break;
+            }
+        }
+
+        StringBuilder result = new StringBuilder(source.length() + defineBlock.length());
+        for (int i = 0; i < lines.length; i++) {
+            if (i == insertAt) {
+                result.append(defineBlock);
+            }
+            result.append(lines[i]);
+            if (i < lines.length - 1) {
+                result.append("\n");
+            }
+        }
+        return result.toString();
+    }
+
+    private String readSource(String filePath) {
+        try {
+            return Assets.readText(filePath).replace("\r\n", "\n");
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Failed to load shader: " + filePath, e);
+        }
+    }
+}
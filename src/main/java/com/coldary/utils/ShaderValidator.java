@@ -0,0 +1,102 @@
+package com.coldary.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.lwjgl.util.shaderc.Shaderc.*;
+
+public class ShaderValidator {
+
+    // Offline check of every permutation through shaderc, no GL context needed.
+    // A shaderc compiler handle is thread safe, options are created per task.
+    public static List<String> validate(String vertexFile, String fragmentFile, int[] variants, int threads) {
+        long compiler = shaderc_compiler_initialize();
+        if (compiler == 0) {
+            throw new RuntimeException("Failed to initialize shaderc compiler");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int variant : variants) {
+                results.add(executor.submit(() -> compile(compiler, vertexFile, shaderc_glsl_vertex_shader, variant)));
+                results.add(executor.submit(() -> compile(compiler, fragmentFile, shaderc_glsl_fragment_shader, variant)));
+            }
+
+            List<String> errors = new ArrayList<>();
+            for (Future<String> result : results) {
+                String error = result.get();
+                if (error != null) {
+                    errors.add(error);
+                }
+            }
+            return errors;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Shader validation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Shader validation failed", e.getCause());
+        } finally {
+            executor.shutdown();
+            shaderc_compiler_release(compiler);
+        }
+    }
+
+    public static List<String> validate(String vertexFile, String fragmentFile, int[] variants) {
+        return validate(vertexFile, fragmentFile, variants, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static String compile(long compiler, String filePath, int kind, int variant) {
+        String source = Shaders.preprocess(filePath, ShaderVariant.defines(variant));
+
+        long options = shaderc_compile_options_initialize();
+        try {
+            shaderc_compile_options_set_target_env(options, shaderc_target_env_opengl, shaderc_env_version_opengl_4_5);
+            // Our sources use plain uniforms and implicit locations, as GL allows
+            shaderc_compile_options_set_auto_map_locations(options, true);
+            shaderc_compile_options_set_auto_bind_uniforms(options, true);
+
+            long result = shaderc_compile_into_spv(compiler, source, kind, filePath, "main", options);
+            try {
+                if (result == 0) {
+                    return filePath + " [" + ShaderVariant.toString(variant) + "]: shaderc returned no result";
+                }
+                if (shaderc_result_get_compilation_status(result) != shaderc_compilation_status_success) {
+                    return filePath + " [" + ShaderVariant.toString(variant) + "]: " + shaderc_result_get_error_message(result);
+                }
+                return null;
+            } finally {
+                shaderc_result_release(result);
+            }
+        } finally {
+            shaderc_compile_options_release(options);
+        }
+    }
+
+    // Build step entry point: <vertex> <fragment> [maxLights]
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ShaderValidator <vertexFile> <fragmentFile> [maxLights]");
+            System.exit(2);
+        }
+
+        int maxLights = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int[] variants = ShaderVariant.permutations(ShaderVariant.FEATURE_MASK, maxLights);
+
+        long start = System.nanoTime();
+        List<String> errors = validate(args[0], args[1], variants);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        for (String error : errors) {
+            System.err.println(error);
+        }
+        System.out.println("Validated " + variants.length + " shader variants in " + elapsedMs + " ms, " + errors.size() + " failed");
+        if (!errors.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.coldary.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class ShaderVariant {
+
+    // Feature bits, each one maps to a #define in the preprocessed source
+    public static final int INSTANCING = 1;
+    public static final int QUANTIZED_VERTICES = 1 << 1;
+    // Lights come from the cluster texture buffers instead of the uniform array
+    public static final int CLUSTERED_LIGHTING = 1 << 2;
+
+    // Light count is packed into the bits above the feature flags
+    public static final int LIGHT_COUNT_SHIFT = 3;
+    public static final int MAX_LIGHTS = 15;
+    public static final int LIGHT_COUNT_MASK = MAX_LIGHTS << LIGHT_COUNT_SHIFT;
+
+    // Screen-door fade out over the impostor transition band, above the light count bits
+    public static final int DITHER_FADE = 1 << 7;
+    // Directional sun lighting with cascaded shadows from ShadowCascades
+    public static final int SUN_SHADOWS = 1 << 8;
+
+    public static final int FEATURE_MASK = INSTANCING | QUANTIZED_VERTICES | CLUSTERED_LIGHTING | DITHER_FADE | SUN_SHADOWS;
+
+    private ShaderVariant() {
+    }
+
+    public static int withLights(int variant, int lightCount) {
+        if (lightCount < 0 || lightCount > MAX_LIGHTS) {
+            throw new IllegalArgumentException("Light count out of range: " + lightCount);
+        }
+        return (variant & ~LIGHT_COUNT_MASK) | (lightCount << LIGHT_COUNT_SHIFT);
+    }
+
+    public static int lightCount(int variant) {
+        return (variant & LIGHT_COUNT_MASK) >>> LIGHT_COUNT_SHIFT;
+    }
+
+    public static Map<String, String> defines(int variant) {
+        Map<String, String> defines = new LinkedHashMap<>();
+        if ((variant & INSTANCING) != 0) {
+            defines.put("INSTANCING", "1");
+        }
+        if ((variant & QUANTIZED_VERTICES) != 0) {
+            defines.put("QUANTIZED_VERTICES", "1");
+        }
+        if ((variant & CLUSTERED_LIGHTING) != 0) {
+            defines.put("CLUSTERED_LIGHTING", "1");
+        }
+        if ((variant & DITHER_FADE) != 0) {
+            defines.put("DITHER_FADE", "1");
+        }
+        if ((variant & SUN_SHADOWS) != 0) {
+            defines.put("SUN_SHADOWS", "1");
+        }
+        defines.put("NUM_LIGHTS", Integer.toString(lightCount(variant)));
+        return defines;
+    }
+
+    // Every combination of the given feature bits with 0..maxLights lights
+    public static int[] permutations(int features, int maxLights) {
+        List<Integer> variants = new ArrayList<>();
+        features &= FEATURE_MASK;
+        for (int subset = features; ; subset = (subset - 1) & features) {
+            for (int lights = 0; lights <= maxLights; lights++) {
+                variants.add(withLights(subset, lights));
+            }
+            if (subset == 0) {
+                break;
+            }
+        }
+        return variants.stream().mapToInt(Integer::intValue).sorted().toArray();
+    }
+
+    public static String toString(int variant) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> define : defines(variant).entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(define.getKey()).append('=').append(define.getValue());
+        }
+        return builder.toString();
+    }
+}
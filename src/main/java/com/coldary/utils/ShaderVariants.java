@@ -0,0 +1,54 @@
+package com.coldary.utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShaderVariants {
+
+    private final String vertexFile;
+    private final String fragmentFile;
+
+    // Linked programs keyed by variant bitmask, compiled the first time a draw asks for them.
+    // Programs live in the shared resource cache, so identical variants are linked only once.
+    private final Map<Integer, Shaders> programs = new HashMap<>();
+
+    public ShaderVariants(String vertexFile, String fragmentFile) {
+        this.vertexFile = vertexFile;
+        this.fragmentFile = fragmentFile;
+    }
+
+    public Shaders get(int variant) {
+        Shaders program = programs.get(variant);
+        if (program == null) {
+            program = Resources.acquireShader(vertexFile, fragmentFile, variant);
+            programs.put(variant, program);
+        }
+        return program;
+    }
+
+    // Compiles ahead of time so the first frame using a variant does not hitch
+    public void warmUp(int[] variants) {
+        for (int variant : variants) {
+            get(variant);
+        }
+    }
+
+    public void validate(int[] variants) {
+        List<String> errors = ShaderValidator.validate(vertexFile, fragmentFile, variants);
+        if (!errors.isEmpty()) {
+            throw new RuntimeException(errors.size() + " shader variant(s) failed to compile:\n" + String.join("\n", errors));
+        }
+    }
+
+    public int size() {
+        return programs.size();
+    }
+
+    public void cleanUp() {
+        for (Shaders program : programs.values()) {
+            Resources.release(program);
+        }
+        programs.clear();
+    }
+}
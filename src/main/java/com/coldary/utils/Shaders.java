@@ -1,26 +1,40 @@
 package com.coldary.utils;
 
 import org.joml.Matrix4f;
+import org.lwjgl.opengl.GL;
 import org.lwjgl.system.MemoryStack;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.nio.FloatBuffer;
+import java.util.Map;
 
 import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31.glGetUniformBlockIndex;
+import static org.lwjgl.opengl.GL31.glUniformBlockBinding;
+import static org.lwjgl.opengl.GL41.GL_PROGRAM_BINARY_LENGTH;
+import static org.lwjgl.opengl.GL43.GL_COMPUTE_SHADER;
 import static org.lwjgl.system.MemoryStack.stackPush;
 
-public class Shaders {
+public class Shaders implements GpuResource {
+
+    // Shared so that includes and base sources are read once for every variant
+    private static final ShaderPreprocessor PREPROCESSOR = new ShaderPreprocessor();
 
     private int shaderProgram;
     private int vertexShaderID;
     private int fragmentShaderID;
+    private int computeShaderID;
+    private final int variant;
 
     public Shaders(String vertexFile, String fragmentFile) {
-        vertexShaderID = loadShader(vertexFile, GL_VERTEX_SHADER);
-        fragmentShaderID = loadShader(fragmentFile, GL_FRAGMENT_SHADER);
+        this(vertexFile, fragmentFile, 0);
+    }
+
+    public Shaders(String vertexFile, String fragmentFile, int variant) {
+        this.variant = variant;
+        Map<String, String> defines = ShaderVariant.defines(variant);
+        vertexShaderID = loadShader(vertexFile, GL_VERTEX_SHADER, defines);
+        fragmentShaderID = loadShader(fragmentFile, GL_FRAGMENT_SHADER, defines);
         shaderProgram = glCreateProgram();
         glAttachShader(shaderProgram, vertexShaderID);
         glAttachShader(shaderProgram, fragmentShaderID);
@@ -28,18 +42,33 @@ public class Shaders {
         checkCompileErrors(shaderProgram, "PROGRAM");
     }
 
-    private int loadShader(String filePath, int type) {
-        StringBuilder shaderSource = new StringBuilder();
+    // Compute programs (GL 4.3), stages and tuning constants are selected through the defines
+    public static Shaders compute(String computeFile, Map<String, String> defines) {
+        return new Shaders(computeFile, defines);
+    }
 
-        try (InputStream inputStream = getClass().getResourceAsStream(filePath);
-             BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                shaderSource.append(line).append("\n");
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to load shader: " + filePath, e);
+    private Shaders(String computeFile, Map<String, String> defines) {
+        this.variant = 0;
+        computeShaderID = loadShader(computeFile, GL_COMPUTE_SHADER, defines);
+        shaderProgram = glCreateProgram();
+        glAttachShader(shaderProgram, computeShaderID);
+        glLinkProgram(shaderProgram);
+        checkCompileErrors(shaderProgram, "PROGRAM");
+    }
+
+    public static String preprocess(String filePath, Map<String, String> defines) {
+        return PREPROCESSOR.process(filePath, defines);
+    }
+
+    // Reads shader sources ahead of compilation, so startup can do the I/O off the GL thread
+    public static void preload(String... filePaths) {
+        for (String filePath : filePaths) {
+            PREPROCESSOR.preload(filePath);
         }
+    }
+
+    private int loadShader(String filePath, int type, Map<String, String> defines) {
+        String shaderSource = preprocess(filePath, defines);
 
         int shaderID = glCreateShader(type);
         glShaderSource(shaderID, shaderSource);
@@ -52,6 +81,7 @@ public class Shaders {
         switch (type) {
             case GL_VERTEX_SHADER: return "VERTEX";
             case GL_FRAGMENT_SHADER: return "FRAGMENT";
+            case GL_COMPUTE_SHADER: return "COMPUTE";
             default: return "UNKNOWN";
         }
     }
@@ -73,12 +103,21 @@ public class Shaders {
         }
     }
 
+    // GLSL 330 has no layout(binding) for blocks, so bindings are assigned from here
+    public void bindUniformBlock(String blockName, int binding) {
+        int index = glGetUniformBlockIndex(shaderProgram, blockName);
+        if (index != GL_INVALID_INDEX) {
+            glUniformBlockBinding(shaderProgram, index, binding);
+        }
+    }
+
     public void loadMatrix(int location, FloatBuffer matrix) {
         glUniformMatrix4fv(location, false, matrix);
     }
 
     public void start() {
         glUseProgram(shaderProgram);
+        RenderStats.stateChange();
     }
 
     public void stop() {
@@ -87,17 +126,37 @@ public class Shaders {
 
     public void cleanUp() {
         stop();
-        glDetachShader(shaderProgram, vertexShaderID);
-        glDetachShader(shaderProgram, fragmentShaderID);
-        glDeleteShader(vertexShaderID);
-        glDeleteShader(fragmentShaderID);
+        for (int shader : new int[]{vertexShaderID, fragmentShaderID, computeShaderID}) {
+            if (shader != 0) {
+                glDetachShader(shaderProgram, shader);
+                glDeleteShader(shader);
+            }
+        }
         glDeleteProgram(shaderProgram);
     }
 
+    // The linked binary size is the closest thing to a memory figure GL gives us for a program
+    @Override
+    public long getGpuMemoryBytes() {
+        if (!GL.getCapabilities().OpenGL41) {
+            return 0;
+        }
+        return glGetProgrami(shaderProgram, GL_PROGRAM_BINARY_LENGTH);
+    }
+
+    @Override
+    public void dispose() {
+        cleanUp();
+    }
+
     public int getUniformLocation(String uniformName) {
         return glGetUniformLocation(shaderProgram, uniformName);
     }
 
+    public int getVariant() {
+        return variant;
+    }
+
     public int getShaderProgram() {
         return shaderProgram;
     }
@@ -109,4 +168,8 @@ public class Shaders {
     public int getFragmentShaderID() {
         return fragmentShaderID;
     }
+
+    public int getComputeShaderID() {
+        return computeShaderID;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,409 @@
+package com.coldary.utils;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL33.*;
+
+// Cascaded shadow map for the sun. The view range up to the shadow distance is split into
+// cascades, each covered by an orthographic box fitted to the bounding sphere of its slice of
+// the camera frustum. The sphere does not change with the camera's orientation and the box is
+// moved in whole texels, so shadow edges stay put instead of shimmering as the camera turns
+// and drives.
+//
+// Near cascades are redrawn every frame. Cascades from firstCachedCascade on keep their static
+// casters in a cache layer that is only redrawn when the box moves: those boxes snap in steps
+// of CACHE_SNAP_TEXELS and are enlarged by one step, so the camera can travel a whole step
+// before the slice leaves them. Each frame the cache is copied into the sampled layer and the
+// dynamic casters are drawn over it, and even that is skipped while a cascade has none.
+public class ShadowCascades implements GpuResource {
+
+    public static final String VERTEX_FILE = "/Shaders/shadow/Vertex.shadow.glsl";
+    public static final String FRAGMENT_FILE = "/Shaders/shadow/Fragment.shadow.glsl";
+
+    // MAX_SHADOW_CASCADES in Shadows.glsl
+    public static final int MAX_CASCADES = 4;
+    // After ClusteredLighting's and ImpostorRenderer's units
+    private static final int SHADOW_UNIT = 7;
+
+    private static final int CACHE_SNAP_TEXELS = 64;
+    // Casters this far beyond a cascade towards the sun still throw shadows into it
+    private static final float CASTER_DISTANCE = 64.0f;
+    // Split distances blend logarithmic (1) and uniform (0) spacing
+    private static final float SPLIT_LAMBDA = 0.75f;
+    private static final float SLOPE_BIAS = 2.0f;
+    private static final float CONSTANT_BIAS = 4.0f;
+    private static final int TIMER_FRAMES = 4;
+
+    // The scene side of the shadow pass. Draws go through the given shader, with its model
+    // uniform set per caster and everything else already bound.
+    public interface Casters {
+        // Draws the static or the dynamic casters whose bounds touch the cascade, returns how many
+        int draw(Shaders shader, FrustumIntersection cascade, boolean dynamic);
+
+        boolean hasDynamic(FrustumIntersection cascade);
+    }
+
+    private final int cascadeCount;
+    private final int resolution;
+    private final int firstCachedCascade;
+    private final float shadowDistance;
+    private final int shadowMap;
+    private final int staticCache;
+    private final int liveFramebuffer;
+    private final int cacheFramebuffer;
+    private final Shaders shader;
+    private final int lightViewProjectionLocation;
+
+    private final Vector3f sunDirection = new Vector3f(0.0f, 1.0f, 0.0f);
+    private final Vector3f sunColor = new Vector3f(1.0f, 1.0f, 1.0f);
+    private final Matrix4f lightRotation = new Matrix4f();
+    private final float[] splits;
+
+    // Per cascade
+    private final Matrix4f[] viewProjections;
+    private final FrustumIntersection[] frusta;
+    private final float[] texelSizes;
+    private final float[] origins;
+    private final boolean[] cacheValid;
+    private final boolean[] liveStale;
+    private final boolean[] liveHasDynamic;
+    private final float[] shadowMatrixData;
+    private float casterReach;
+
+    private final Vector3f forward = new Vector3f();
+    private final Vector3f center = new Vector3f();
+    private final Matrix4f bias = new Matrix4f();
+    private final float[] matrixData = new float[16];
+
+    private int boundProgram;
+    private int matricesLocation;
+    private int texelSizesLocation;
+    private int countLocation;
+    private int distanceLocation;
+    private int sunDirectionLocation;
+    private int sunColorLocation;
+
+    private final int[] beginQueries = new int[TIMER_FRAMES];
+    private final int[] endQueries = new int[TIMER_FRAMES];
+    private final boolean[] queryPending = new boolean[TIMER_FRAMES];
+    private int querySlot;
+    private double gpuMillis;
+    private long gpuSamples;
+
+    // Stats
+    private long frames;
+    private long liveRenders;
+    private long cacheRenders;
+    private long composites;
+    private long casterDraws;
+    private int lastFrameCasterDraws;
+
+    public ShadowCascades(int cascadeCount, int resolution, float shadowDistance, int firstCachedCascade) {
+        if (cascadeCount < 1 || cascadeCount > MAX_CASCADES) {
+            throw new IllegalArgumentException("Shadow cascades out of range: " + cascadeCount);
+        }
+        if (resolution <= 4 * CACHE_SNAP_TEXELS) {
+            throw new IllegalArgumentException("Shadow map too small to cache: " + resolution);
+        }
+        this.cascadeCount = cascadeCount;
+        this.resolution = resolution;
+        this.shadowDistance = shadowDistance;
+        this.firstCachedCascade = firstCachedCascade;
+        splits = new float[cascadeCount + 1];
+        viewProjections = new Matrix4f[cascadeCount];
+        frusta = new FrustumIntersection[cascadeCount];
+        for (int i = 0; i < cascadeCount; i++) {
+            viewProjections[i] = new Matrix4f();
+            frusta[i] = new FrustumIntersection();
+        }
+        texelSizes = new float[cascadeCount];
+        origins = new float[cascadeCount * 4];
+        cacheValid = new boolean[cascadeCount];
+        liveStale = new boolean[cascadeCount];
+        liveHasDynamic = new boolean[cascadeCount];
+        shadowMatrixData = new float[cascadeCount * 16];
+        orientLight();
+
+        shadowMap = createDepthArray(true);
+        staticCache = createDepthArray(false);
+        liveFramebuffer = createFramebuffer(shadowMap);
+        cacheFramebuffer = createFramebuffer(staticCache);
+
+        shader = Resources.acquireShader(VERTEX_FILE, FRAGMENT_FILE, 0);
+        lightViewProjectionLocation = glGetUniformLocation(shader.getShaderProgram(), "lightViewProjection");
+        glGenQueries(beginQueries);
+        glGenQueries(endQueries);
+    }
+
+    private int createDepthArray(boolean compare) {
+        int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D_ARRAY, texture);
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT32F, resolution, resolution, cascadeCount, 0,
+                GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        int filter = compare ? GL_LINEAR : GL_NEAREST;
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, filter);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, filter);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        if (compare) {
+            // Hardware compare, a bilinear fetch returns the filtered lit fraction
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+            glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+        }
+        glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+        return texture;
+    }
+
+    private int createFramebuffer(int texture) {
+        int previous = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        int framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, texture, 0, 0);
+        glDrawBuffer(GL_NONE);
+        glReadBuffer(GL_NONE);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new RuntimeException("Shadow framebuffer incomplete");
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, previous);
+        return framebuffer;
+    }
+
+    // Direction towards the sun and its color. Moving the sun invalidates every cached cascade.
+    public void setSun(Vector3f towardsSun, Vector3f color) {
+        sunColor.set(color);
+        float length = towardsSun.length();
+        if (sunDirection.equals(towardsSun.x / length, towardsSun.y / length, towardsSun.z / length)) {
+            return;
+        }
+        sunDirection.set(towardsSun).normalize();
+        orientLight();
+        invalidateStatic();
+    }
+
+    private void orientLight() {
+        float upZ = Math.abs(sunDirection.y) > 0.999f ? 1.0f : 0.0f;
+        lightRotation.setLookAlong(-sunDirection.x, -sunDirection.y, -sunDirection.z, 0.0f, 1.0f - upZ, upZ);
+    }
+
+    // Static geometry changed, cached cascades redraw it on the next render()
+    public void invalidateStatic() {
+        for (int i = 0; i < cacheValid.length; i++) {
+            cacheValid[i] = false;
+        }
+    }
+
+    // Fits the cascades to the camera the frame is drawn with
+    public void update(Matrix4f view, Matrix4f projection, Vector3f cameraPosition) {
+        float near = projection.perspectiveNear();
+        float far = Math.min(projection.perspectiveFar(), shadowDistance);
+        for (int i = 0; i <= cascadeCount; i++) {
+            float t = (float) i / cascadeCount;
+            float logarithmic = near * (float) Math.pow(far / near, t);
+            float uniform = near + (far - near) * t;
+            splits[i] = SPLIT_LAMBDA * logarithmic + (1.0f - SPLIT_LAMBDA) * uniform;
+        }
+
+        // Squared slope of the frustum's corner rays, from the projection's focal lengths
+        float tanX = 1.0f / projection.m00();
+        float tanY = 1.0f / projection.m11();
+        float slopeSquared = tanX * tanX + tanY * tanY;
+        view.positiveZ(forward).negate();
+
+        casterReach = 0.0f;
+        for (int i = 0; i < cascadeCount; i++) {
+            float n = splits[i];
+            float f = splits[i + 1];
+            // Smallest sphere through the slice's eight corners, or around its far face when
+            // the slice is so wide that the far face's circle already holds the near corners
+            float centerDepth = Math.min(0.5f * (f + n) * (1.0f + slopeSquared), f);
+            float radius = (float) Math.sqrt((centerDepth - n) * (centerDepth - n) + n * n * slopeSquared);
+            radius = Math.max(radius, (float) Math.sqrt((f - centerDepth) * (f - centerDepth) + f * f * slopeSquared));
+
+            boolean cached = i >= firstCachedCascade;
+            int snapTexels = cached ? CACHE_SNAP_TEXELS : 1;
+            float halfExtent = radius * resolution / (resolution - 2.0f * snapTexels);
+            float texel = 2.0f * halfExtent / resolution;
+            float step = texel * snapTexels;
+
+            forward.mul(centerDepth, center).add(cameraPosition);
+            casterReach = Math.max(casterReach, centerDepth + halfExtent * 1.7321f + CASTER_DISTANCE);
+            lightRotation.transformPosition(center);
+            float x = (float) Math.floor(center.x / step) * step;
+            float y = (float) Math.floor(center.y / step) * step;
+            float z = cached ? (float) Math.floor(center.z / step) * step : center.z;
+
+            if (cached) {
+                int o = i * 4;
+                if (origins[o] != x || origins[o + 1] != y || origins[o + 2] != z || origins[o + 3] != step) {
+                    origins[o] = x;
+                    origins[o + 1] = y;
+                    origins[o + 2] = z;
+                    origins[o + 3] = step;
+                    cacheValid[i] = false;
+                }
+            }
+
+            // Light space looks down -z, casters towards the sun have the larger z
+            viewProjections[i].setOrtho(x - halfExtent, x + halfExtent, y - halfExtent, y + halfExtent,
+                    -(z + halfExtent + CASTER_DISTANCE), -(z - halfExtent)).mul(lightRotation);
+            frusta[i].set(viewProjections[i]);
+            texelSizes[i] = texel;
+            bias.translation(0.5f, 0.5f, 0.5f).scale(0.5f).mul(viewProjections[i]).get(shadowMatrixData, i * 16);
+        }
+    }
+
+    // Renders the cascades that need it, then puts the bound framebuffer and viewport back
+    public void render(Casters casters) {
+        resolveTimer();
+        glQueryCounter(beginQueries[querySlot], GL_TIMESTAMP);
+        int previousFramebuffer = glGetInteger(GL_DRAW_FRAMEBUFFER_BINDING);
+        int[] viewport = new int[4];
+        glGetIntegerv(GL_VIEWPORT, viewport);
+
+        glViewport(0, 0, resolution, resolution);
+        glEnable(GL_DEPTH_TEST);
+        glDepthMask(true);
+        glEnable(GL_POLYGON_OFFSET_FILL);
+        glPolygonOffset(SLOPE_BIAS, CONSTANT_BIAS);
+        shader.start();
+
+        int draws = 0;
+        for (int i = 0; i < cascadeCount; i++) {
+            FrustumIntersection cascade = frusta[i];
+            if (i < firstCachedCascade) {
+                target(liveFramebuffer, shadowMap, i, viewProjections[i]);
+                glClear(GL_DEPTH_BUFFER_BIT);
+                draws += casters.draw(shader, cascade, false) + casters.draw(shader, cascade, true);
+                liveRenders++;
+                continue;
+            }
+
+            if (!cacheValid[i]) {
+                target(cacheFramebuffer, staticCache, i, viewProjections[i]);
+                glClear(GL_DEPTH_BUFFER_BIT);
+                draws += casters.draw(shader, cascade, false);
+                cacheValid[i] = true;
+                liveStale[i] = true;
+                cacheRenders++;
+            }
+            // The live layer is the cache as long as no dynamic caster has been drawn over it
+            boolean dynamic = casters.hasDynamic(cascade);
+            if (liveStale[i] || dynamic || liveHasDynamic[i]) {
+                glBindFramebuffer(GL_READ_FRAMEBUFFER, cacheFramebuffer);
+                glFramebufferTextureLayer(GL_READ_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticCache, 0, i);
+                target(liveFramebuffer, shadowMap, i, viewProjections[i]);
+                glBlitFramebuffer(0, 0, resolution, resolution, 0, 0, resolution, resolution, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+                if (dynamic) {
+                    draws += casters.draw(shader, cascade, true);
+                }
+                liveStale[i] = false;
+                liveHasDynamic[i] = dynamic;
+                composites++;
+            }
+        }
+
+        shader.stop();
+        glDisable(GL_POLYGON_OFFSET_FILL);
+        glBindFramebuffer(GL_FRAMEBUFFER, previousFramebuffer);
+        glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
+        frames++;
+        casterDraws += draws;
+        lastFrameCasterDraws = draws;
+
+        glQueryCounter(endQueries[querySlot], GL_TIMESTAMP);
+        queryPending[querySlot] = true;
+        querySlot = (querySlot + 1) % TIMER_FRAMES;
+    }
+
+    private void target(int framebuffer, int texture, int layer, Matrix4f viewProjection) {
+        glBindFramebuffer(GL_DRAW_FRAMEBUFFER, framebuffer);
+        glFramebufferTextureLayer(GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, texture, 0, layer);
+        glUniformMatrix4fv(lightViewProjectionLocation, false, viewProjection.get(matrixData));
+        RenderStats.stateChange();
+    }
+
+    // Collects the oldest timing if the GPU has got that far, never waits for it
+    private void resolveTimer() {
+        int slot = querySlot;
+        if (!queryPending[slot] || glGetQueryObjecti(endQueries[slot], GL_QUERY_RESULT_AVAILABLE) != GL_TRUE) {
+            queryPending[slot] = false;
+            return;
+        }
+        long begin = glGetQueryObjecti64(beginQueries[slot], GL_QUERY_RESULT);
+        long end = glGetQueryObjecti64(endQueries[slot], GL_QUERY_RESULT);
+        gpuMillis += (end - begin) / 1_000_000.0;
+        gpuSamples++;
+        queryPending[slot] = false;
+    }
+
+    // Sun and shadow uniforms on a program in use, the SUN_SHADOWS variants
+    public void bind(int program) {
+        if (program != boundProgram) {
+            boundProgram = program;
+            glUniform1i(glGetUniformLocation(program, "shadowMap"), SHADOW_UNIT);
+            matricesLocation = glGetUniformLocation(program, "shadowMatrices");
+            texelSizesLocation = glGetUniformLocation(program, "shadowTexelSizes");
+            countLocation = glGetUniformLocation(program, "shadowCascadeCount");
+            distanceLocation = glGetUniformLocation(program, "shadowDistance");
+            sunDirectionLocation = glGetUniformLocation(program, "sunDirection");
+            sunColorLocation = glGetUniformLocation(program, "sunColor");
+        }
+        glUniformMatrix4fv(matricesLocation, false, shadowMatrixData);
+        glUniform1fv(texelSizesLocation, texelSizes);
+        glUniform1i(countLocation, cascadeCount);
+        glUniform1f(distanceLocation, splits[cascadeCount]);
+        glUniform3f(sunDirectionLocation, sunDirection.x, sunDirection.y, sunDirection.z);
+        glUniform3f(sunColorLocation, sunColor.x, sunColor.y, sunColor.z);
+
+        glActiveTexture(GL_TEXTURE0 + SHADOW_UNIT);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, shadowMap);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    // Distance from the camera within which casters can reach any cascade, valid after update()
+    public float getCasterReach() {
+        return casterReach;
+    }
+
+    public double getAverageGpuMillis() {
+        return gpuSamples == 0 ? 0 : gpuMillis / gpuSamples;
+    }
+
+    public int getLastFrameCasterDraws() {
+        return lastFrameCasterDraws;
+    }
+
+    public long getCacheRenders() {
+        return cacheRenders;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        // Live and cache arrays, 32-bit depth
+        return 2L * resolution * resolution * cascadeCount * 4;
+    }
+
+    @Override
+    public void dispose() {
+        glDeleteFramebuffers(liveFramebuffer);
+        glDeleteFramebuffers(cacheFramebuffer);
+        glDeleteTextures(shadowMap);
+        glDeleteTextures(staticCache);
+        glDeleteQueries(beginQueries);
+        glDeleteQueries(endQueries);
+        Resources.release(shader);
+    }
+
+    @Override
+    public String toString() {
+        double perFrame = Math.max(frames, 1);
+        return String.format("Shadows: %d cascades of %d px to %.0f units (cached from %d), %.3f ms GPU per frame, "
+                        + "%.1f caster draws per frame, %.2f live cascade, %.3f cache and %.3f composite passes per frame",
+                cascadeCount, resolution, shadowDistance, firstCachedCascade, getAverageGpuMillis(),
+                casterDraws / perFrame, liveRenders / perFrame, cacheRenders / perFrame, composites / perFrame);
+    }
+}
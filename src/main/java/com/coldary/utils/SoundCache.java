@@ -0,0 +1,125 @@
+package com.coldary.utils;
+
+import java.nio.ShortBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import static org.lwjgl.openal.AL10.*;
+
+// Short effects decoded whole into OpenAL buffers, keyed by asset path. Kept in LRU order
+// and evicted oldest first once their PCM exceeds the budget; onEvict runs before a buffer
+// is deleted so the owner can detach it from any source still playing it. Like every
+// OpenAL object owner it must only be used from the thread holding the context.
+public class SoundCache {
+
+    // Anything longer belongs in a stream
+    public static final float MAX_EFFECT_SECONDS = 5.0f;
+
+    private static class Entry {
+        final int buffer;
+        final long bytes;
+
+        Entry(int buffer, long bytes) {
+            this.buffer = buffer;
+            this.bytes = bytes;
+        }
+    }
+
+    // Access ordered, eldest first: the eviction order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long budgetBytes;
+    private final IntConsumer onEvict;
+
+    private long residentBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private float decodeMillis;
+
+    public SoundCache(long budgetBytes, IntConsumer onEvict) {
+        this.budgetBytes = budgetBytes;
+        this.onEvict = onEvict;
+    }
+
+    // The buffer holding the effect, decoding it on a miss
+    public int get(String path) {
+        Entry entry = entries.get(path);
+        if (entry != null) {
+            hits++;
+            return entry.buffer;
+        }
+
+        misses++;
+        entry = decode(path);
+        entries.put(path, entry);
+        residentBytes += entry.bytes;
+        evictOverBudget();
+        return entry.buffer;
+    }
+
+    public boolean contains(String path) {
+        return entries.containsKey(path);
+    }
+
+    private Entry decode(String path) {
+        long start = System.nanoTime();
+        OpusStream stream = OpusStream.open(path, false);
+        try {
+            long frames = stream.getTotalFrames();
+            if (frames < 0 || frames > MAX_EFFECT_SECONDS * OpusStream.SAMPLE_RATE) {
+                throw new IllegalArgumentException("Not a short effect, stream it instead: " + path);
+            }
+            ShortBuffer pcm = NativeMemory.allocShort(NativeMemory.Tag.STAGING, (int) Math.max(1, frames) * stream.getChannels());
+            int buffer;
+            int samples;
+            try {
+                stream.read(pcm);
+                samples = pcm.limit();
+                buffer = alGenBuffers();
+                alBufferData(buffer, stream.getAlFormat(), pcm, OpusStream.SAMPLE_RATE);
+            } finally {
+                NativeMemory.free(pcm);
+            }
+            NativeMemory.checkStagingReleased("SoundCache");
+            decodeMillis += (System.nanoTime() - start) / 1e6f;
+            return new Entry(buffer, (long) samples * Short.BYTES);
+        } finally {
+            stream.free();
+        }
+    }
+
+    // Keeps the newest entry even if it alone is over budget, it is about to be played
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (residentBytes > budgetBytes && entries.size() > 1 && it.hasNext()) {
+            Entry victim = it.next().getValue();
+            it.remove();
+            onEvict.accept(victim.buffer);
+            alDeleteBuffers(victim.buffer);
+            residentBytes -= victim.bytes;
+            evictions++;
+        }
+    }
+
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public void dispose() {
+        for (Entry entry : entries.values()) {
+            onEvict.accept(entry.buffer);
+            alDeleteBuffers(entry.buffer);
+        }
+        entries.clear();
+        residentBytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Sound cache: %d effects, %.2f/%.2f MB, %d hits, %d misses (%.1f ms decoding), %d evictions",
+                entries.size(), residentBytes / (1024.0 * 1024.0), budgetBytes / (1024.0 * 1024.0),
+                hits, misses, decodeMillis, evictions);
+    }
+}
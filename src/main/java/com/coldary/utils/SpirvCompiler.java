@@ -0,0 +1,129 @@
+package com.coldary.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.lwjgl.util.shaderc.Shaderc.*;
+
+// GLSL to SPIR-V for the Vulkan backend. Shaders are compiled ahead of time into <file>.spv
+// next to their source in the build output (mvn -Pspirv package); without the binary they
+// are compiled here at runtime instead, which works but costs startup time.
+public class SpirvCompiler {
+
+    public static final String SPIRV_SUFFIX = ".spv";
+
+    private SpirvCompiler() {
+    }
+
+    // Stage is taken from the file name, the way the shader tree names its files
+    public static int shaderKind(String filePath) {
+        String name = filePath.substring(filePath.lastIndexOf('/') + 1);
+        if (name.startsWith("Vertex")) {
+            return shaderc_glsl_vertex_shader;
+        } else if (name.startsWith("Fragment")) {
+            return shaderc_glsl_fragment_shader;
+        } else if (name.startsWith("Compute")) {
+            return shaderc_glsl_compute_shader;
+        }
+        throw new IllegalArgumentException("Unknown shader stage for: " + filePath);
+    }
+
+    // The precompiled binary when there is one, a fresh compile otherwise. The result is a
+    // GC managed direct buffer.
+    public static ByteBuffer load(String filePath) {
+        String binaryPath = filePath + SPIRV_SUFFIX;
+        if (Assets.exists(binaryPath)) {
+            ByteBuffer stored = Assets.load(binaryPath);
+            ByteBuffer copy = ByteBuffer.allocateDirect(stored.remaining());
+            copy.put(stored.duplicate()).flip();
+            return copy;
+        }
+        System.err.println("No precompiled SPIR-V for " + filePath + ", compiling at runtime");
+        long compiler = shaderc_compiler_initialize();
+        if (compiler == 0) {
+            throw new RuntimeException("Failed to initialize shaderc compiler");
+        }
+        try {
+            return compile(compiler, filePath);
+        } finally {
+            shaderc_compiler_release(compiler);
+        }
+    }
+
+    // A shaderc compiler handle is thread safe, options are created per call
+    public static ByteBuffer compile(long compiler, String filePath) {
+        // glslang predefines VULKAN when targeting Vulkan, that is what the sources test for
+        String source = Shaders.preprocess(filePath, Map.of());
+
+        long options = shaderc_compile_options_initialize();
+        try {
+            shaderc_compile_options_set_target_env(options, shaderc_target_env_vulkan, shaderc_env_version_vulkan_1_1);
+            // The shared sources say 330 core so GL 3.3 accepts them, Vulkan GLSL needs 450
+            shaderc_compile_options_set_forced_version_profile(options, 450, shaderc_profile_core);
+            shaderc_compile_options_set_optimization_level(options, shaderc_optimization_level_performance);
+
+            long result = shaderc_compile_into_spv(compiler, source, shaderKind(filePath), filePath, "main", options);
+            try {
+                if (result == 0) {
+                    throw new RuntimeException(filePath + ": shaderc returned no result");
+                }
+                if (shaderc_result_get_compilation_status(result) != shaderc_compilation_status_success) {
+                    throw new RuntimeException(filePath + ": " + shaderc_result_get_error_message(result));
+                }
+                ByteBuffer spirv = shaderc_result_get_bytes(result);
+                ByteBuffer copy = ByteBuffer.allocateDirect(spirv.remaining());
+                copy.put(spirv).flip();
+                return copy;
+            } finally {
+                shaderc_result_release(result);
+            }
+        } finally {
+            shaderc_compile_options_release(options);
+        }
+    }
+
+    // Build step entry point: <resource root> <output root>. Compiles every shader under
+    // Shaders/backend, the only sources the Vulkan backend uses.
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SpirvCompiler <resourceRoot> <outputRoot>");
+            System.exit(2);
+        }
+        Path resourceRoot = Path.of(args[0]);
+        Path outputRoot = Path.of(args[1]);
+
+        List<Path> sources = new ArrayList<>();
+        try (Stream<Path> files = Files.list(resourceRoot.resolve("Shaders/backend"))) {
+            files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.endsWith(".glsl") && (name.startsWith("Vertex") || name.startsWith("Fragment") || name.startsWith("Compute"));
+            }).sorted().forEach(sources::add);
+        }
+
+        long start = System.nanoTime();
+        long compiler = shaderc_compiler_initialize();
+        if (compiler == 0) {
+            throw new RuntimeException("Failed to initialize shaderc compiler");
+        }
+        try {
+            for (Path source : sources) {
+                String filePath = "/" + resourceRoot.relativize(source).toString().replace('\\', '/');
+                ByteBuffer spirv = compile(compiler, filePath);
+                byte[] bytes = new byte[spirv.remaining()];
+                spirv.get(bytes);
+                Path output = outputRoot.resolve(filePath.substring(1) + SPIRV_SUFFIX);
+                Files.createDirectories(output.getParent());
+                Files.write(output, bytes);
+            }
+        } finally {
+            shaderc_compiler_release(compiler);
+        }
+        System.out.println("Compiled " + sources.size() + " shaders to SPIR-V in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
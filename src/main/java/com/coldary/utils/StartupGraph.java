@@ -0,0 +1,222 @@
+package com.coldary.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Startup as a dependency graph. CPU tasks (file reads, parsing, decoding) run on worker
+// threads as soon as their dependencies are done, main thread tasks (GLFW, anything that
+// touches GL) run one at a time on the thread that calls run(), also as soon as they are
+// ready, so the window and context come up while the workers load. Every task is timed and
+// report() lays them out on a timeline.
+public class StartupGraph {
+
+    public final class Task<T> {
+        private final String name;
+        private final boolean mainThread;
+        private final Callable<T> work;
+        private final List<Task<?>> dependents = new ArrayList<>();
+        private int remainingDependencies;
+        private volatile T result;
+        private Throwable failure;
+        private long startNanos;
+        private long endNanos;
+        private String threadName;
+
+        private Task(String name, boolean mainThread, Callable<T> work, Task<?>[] dependencies) {
+            this.name = name;
+            this.mainThread = mainThread;
+            this.work = work;
+            for (Task<?> dependency : dependencies) {
+                dependency.dependents.add(this);
+                remainingDependencies++;
+            }
+        }
+
+        // Only valid in tasks that depend on this one, or after run() has returned
+        public T get() {
+            return result;
+        }
+
+        private void execute() {
+            threadName = Thread.currentThread().getName();
+            startNanos = System.nanoTime();
+            try {
+                result = work.call();
+            } catch (Throwable t) {
+                failure = t;
+            }
+            endNanos = System.nanoTime();
+        }
+
+        private double millis() {
+            return (endNanos - startNanos) / 1_000_000.0;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Step {
+        void run() throws Exception;
+    }
+
+    private final List<Task<?>> tasks = new ArrayList<>();
+    private final int workerCount;
+    private long graphStartNanos;
+    private long graphEndNanos;
+    private long jvmUptimeAtStartMillis;
+
+    public StartupGraph(int workerCount) {
+        this.workerCount = workerCount;
+    }
+
+    public <T> Task<T> cpu(String name, Callable<T> work, Task<?>... dependencies) {
+        return add(new Task<>(name, false, work, dependencies));
+    }
+
+    public Task<Void> cpu(String name, Step work, Task<?>... dependencies) {
+        return cpu(name, asCallable(work), dependencies);
+    }
+
+    public <T> Task<T> main(String name, Callable<T> work, Task<?>... dependencies) {
+        return add(new Task<>(name, true, work, dependencies));
+    }
+
+    public Task<Void> main(String name, Step work, Task<?>... dependencies) {
+        return main(name, asCallable(work), dependencies);
+    }
+
+    private static Callable<Void> asCallable(Step step) {
+        return () -> {
+            step.run();
+            return null;
+        };
+    }
+
+    // Everything added so far, e.g. as the dependencies of a task that has to run last
+    public List<Task<?>> getTasks() {
+        return List.copyOf(tasks);
+    }
+
+    private <T> Task<T> add(Task<T> task) {
+        tasks.add(task);
+        return task;
+    }
+
+    // Runs every task, blocking the calling thread until all are done. The first failure
+    // stops scheduling and is rethrown here once the running tasks have finished.
+    public void run() {
+        jvmUptimeAtStartMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        graphStartNanos = System.nanoTime();
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(NativeMemory.workerThread(runnable), "StartupWorker-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        BlockingQueue<Task<?>> finished = new LinkedBlockingQueue<>();
+        ArrayDeque<Task<?>> mainReady = new ArrayDeque<>();
+        int inFlight = 0;
+        int completed = 0;
+        Throwable failure = null;
+
+        try {
+            for (Task<?> task : tasks) {
+                if (task.remainingDependencies == 0) {
+                    inFlight += schedule(task, workers, finished, mainReady);
+                }
+            }
+
+            while (completed < tasks.size()) {
+                Task<?> done;
+                if (failure == null && !mainReady.isEmpty()) {
+                    done = mainReady.poll();
+                    done.execute();
+                } else if (inFlight > 0) {
+                    done = finished.take();
+                    inFlight--;
+                } else if (failure != null) {
+                    break;
+                } else {
+                    throw new IllegalStateException("Startup graph has a dependency cycle");
+                }
+
+                completed++;
+                if (done.failure != null) {
+                    if (failure == null) {
+                        failure = new RuntimeException("Startup task failed: " + done.name, done.failure);
+                    }
+                    continue;
+                }
+                if (failure != null) {
+                    continue;
+                }
+                for (Task<?> dependent : done.dependents) {
+                    if (--dependent.remainingDependencies == 0) {
+                        inFlight += schedule(dependent, workers, finished, mainReady);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } finally {
+            workers.shutdown();
+            graphEndNanos = System.nanoTime();
+        }
+
+        if (failure instanceof RuntimeException runtime) {
+            throw runtime;
+        } else if (failure != null) {
+            throw new RuntimeException("Startup interrupted", failure);
+        }
+    }
+
+    // Returns 1 when the task went to a worker
+    private static int schedule(Task<?> task, ExecutorService workers, BlockingQueue<Task<?>> finished, ArrayDeque<Task<?>> mainReady) {
+        if (task.mainThread) {
+            mainReady.add(task);
+            return 0;
+        }
+        workers.execute(() -> {
+            task.execute();
+            finished.add(task);
+        });
+        return 1;
+    }
+
+    public double getWallMillis() {
+        return (graphEndNanos - graphStartNanos) / 1_000_000.0;
+    }
+
+    // One line per task in start order: offset from the start of the graph, duration, thread
+    public String report() {
+        List<Task<?>> ordered = new ArrayList<>();
+        double taskMillis = 0;
+        for (Task<?> task : tasks) {
+            if (task.endNanos != 0) {
+                ordered.add(task);
+                taskMillis += task.millis();
+            }
+        }
+        ordered.sort(Comparator.comparingLong(task -> task.startNanos));
+
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Startup: %.1f ms wall, %.1f ms of tasks (%.2fx parallel), JVM up %d ms before the graph%n",
+                getWallMillis(), taskMillis, taskMillis / Math.max(getWallMillis(), 1e-3), jvmUptimeAtStartMillis));
+        report.append(String.format("  %8s %8s  %-16s %s%n", "start", "ms", "thread", "task"));
+        for (Task<?> task : ordered) {
+            report.append(String.format("  %8.1f %8.1f  %-16s %s%n",
+                    (task.startNanos - graphStartNanos) / 1_000_000.0, task.millis(), task.threadName, task.name));
+        }
+        return report.toString().stripTrailing();
+    }
+}
@@ -0,0 +1,226 @@
+package com.coldary.utils;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.GL44.GL_MAP_PERSISTENT_BIT;
+import static org.lwjgl.opengl.GL44.glBufferStorage;
+
+// Ring of per-frame segments for data written by the CPU every frame (uniform blocks,
+// instance transforms, debug lines). With GL 4.4 / ARB_buffer_storage the whole buffer is
+// mapped once, persistently and coherently, and a fence per segment makes sure the CPU
+// never overwrites data the GPU is still reading. Older contexts write into a CPU block
+// instead, orphan the buffer every frame and upload what was written with glBufferSubData,
+// so the buffer is never mapped while something draws from it.
+//
+// Per frame: beginFrame(), allocate() and write, flush() before the first draw that reads the
+// new data, and endFrame() after the last one, since its fence only covers commands issued
+// before it. Writing and drawing may alternate as long as each batch is flushed.
+public class StreamingBuffer implements GpuResource {
+
+    public static final int DEFAULT_FRAMES = 3;
+
+    // How long a single glClientWaitSync call may block before we count it as a stall
+    private static final long WAIT_TIMEOUT_NS = 1_000_000;
+
+    private final int target;
+    private final int bufferID;
+    private final int segmentSize;
+    private final int frames;
+    private final boolean persistent;
+    private final long[] fences;
+
+    // The persistent mapping, or the CPU block uploads are staged in
+    private ByteBuffer mapped;
+    private int frameIndex = -1;
+    private int segmentStart;
+    private int head;
+    private int flushed;
+
+    private long stalls;
+    private long stallNanos;
+    private int lastFrameBytes;
+
+    public StreamingBuffer(int target, int segmentSize) {
+        this(target, segmentSize, DEFAULT_FRAMES);
+    }
+
+    public StreamingBuffer(int target, int segmentSize, int frames) {
+        this.target = target;
+        this.segmentSize = segmentSize;
+        this.frames = frames;
+        this.fences = new long[frames];
+
+        GLCapabilities caps = GL.getCapabilities();
+        this.persistent = caps.OpenGL44 || caps.GL_ARB_buffer_storage;
+
+        bufferID = glGenBuffers();
+        glBindBuffer(target, bufferID);
+        if (persistent) {
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(target, (long) segmentSize * frames, flags);
+            mapped = glMapBufferRange(target, 0, (long) segmentSize * frames, flags);
+            if (mapped == null) {
+                throw new RuntimeException("Failed to persistently map streaming buffer");
+            }
+        } else {
+            glBufferData(target, segmentSize, GL_STREAM_DRAW);
+            mapped = NativeMemory.alloc(target == GL_UNIFORM_BUFFER ? NativeMemory.Tag.UNIFORM : NativeMemory.Tag.MESH, segmentSize);
+        }
+        glBindBuffer(target, 0);
+    }
+
+    // Moves to the next segment, waiting only if the GPU has not finished with it yet
+    public void beginFrame() {
+        frameIndex = (frameIndex + 1) % frames;
+
+        if (persistent) {
+            waitForFence(frameIndex);
+            segmentStart = frameIndex * segmentSize;
+        } else {
+            // Orphan the old storage, the driver hands us fresh memory without a sync
+            glBindBuffer(target, bufferID);
+            glBufferData(target, segmentSize, GL_STREAM_DRAW);
+            glBindBuffer(target, 0);
+            segmentStart = 0;
+        }
+        head = segmentStart;
+        flushed = segmentStart;
+    }
+
+    // Returns the buffer offset of a fresh slice of the current segment
+    public int allocate(int size, int alignment) {
+        if (frameIndex < 0) {
+            throw new IllegalStateException("allocate() called before beginFrame()");
+        }
+        int offset = (head + alignment - 1) / alignment * alignment;
+        if (offset + size > segmentStart + segmentSize) {
+            throw new IllegalStateException("Streaming buffer segment overflow: " + (offset + size - segmentStart) + " > " + segmentSize + " bytes");
+        }
+        head = offset + size;
+        return offset;
+    }
+
+    // View for writing a slice returned by allocate(), positioned at 0
+    public ByteBuffer slice(int offset, int size) {
+        return mapped.slice(offset, size).order(mapped.order());
+    }
+
+    // Raw address for garbage free writes with MemoryUtil.memPutFloat and friends
+    public long address(int offset) {
+        return MemoryUtil.memAddress(mapped, offset);
+    }
+
+    // Makes everything written since the last flush visible to draws issued after this call.
+    // The persistent mapping is coherent, only the fallback has anything to upload.
+    public void flush() {
+        if (!persistent && head > flushed) {
+            glBindBuffer(target, bufferID);
+            nglBufferSubData(target, flushed, head - flushed, MemoryUtil.memAddress(mapped, flushed));
+            glBindBuffer(target, 0);
+        }
+        flushed = head;
+    }
+
+    // Fences the segment so it is not reused before the GPU has consumed this frame. Call it
+    // after the last draw that reads the segment, the fence does not cover later commands.
+    public void endFrame() {
+        if (flushed != head) {
+            // Checked on both paths so a missing flush() shows up on persistent contexts too
+            throw new IllegalStateException("Streaming buffer written after its last flush(): " + (head - flushed) + " bytes");
+        }
+        lastFrameBytes = head - segmentStart;
+        if (persistent) {
+            if (fences[frameIndex] != 0) {
+                glDeleteSync(fences[frameIndex]);
+            }
+            fences[frameIndex] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+    }
+
+    private void waitForFence(int index) {
+        long fence = fences[index];
+        if (fence == 0) {
+            return;
+        }
+
+        int status = glClientWaitSync(fence, 0, 0);
+        if (status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED) {
+            // Only reached when the CPU runs more than `frames` frames ahead of the GPU
+            long start = System.nanoTime();
+            stalls++;
+            do {
+                status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NS);
+            } while (status == GL_TIMEOUT_EXPIRED);
+            stallNanos += System.nanoTime() - start;
+            if (status == GL_WAIT_FAILED) {
+                throw new RuntimeException("glClientWaitSync failed on streaming buffer fence");
+            }
+        }
+
+        glDeleteSync(fence);
+        fences[index] = 0;
+    }
+
+    public static int uniformBufferAlignment() {
+        return glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT);
+    }
+
+    public int getBufferID() {
+        return bufferID;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public long getStallCount() {
+        return stalls;
+    }
+
+    public long getStallNanos() {
+        return stallNanos;
+    }
+
+    // Space left in the current segment, ignoring alignment padding
+    public int getRemainingBytes() {
+        return segmentStart + segmentSize - head;
+    }
+
+    public int getLastFrameBytes() {
+        return lastFrameBytes;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return persistent ? (long) segmentSize * frames : segmentSize;
+    }
+
+    @Override
+    public void dispose() {
+        for (int i = 0; i < fences.length; i++) {
+            if (fences[i] != 0) {
+                glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+        if (persistent) {
+            glBindBuffer(target, bufferID);
+            glUnmapBuffer(target);
+            glBindBuffer(target, 0);
+        } else {
+            NativeMemory.free(mapped);
+        }
+        glDeleteBuffers(bufferID);
+        mapped = null;
+    }
+}
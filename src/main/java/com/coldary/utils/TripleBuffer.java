@@ -0,0 +1,43 @@
+package com.coldary.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+// Lock-free handoff between one writer and one reader. Each side owns a slot, the third
+// sits in the middle. publish() swaps the writer's slot into the middle, acquire() swaps
+// the middle out if it holds something newer. Neither side ever waits for the other.
+public class TripleBuffer<T> {
+
+    private static final int INDEX_MASK = 0b11;
+    private static final int FRESH = 0b100;
+
+    private final Object[] slots = new Object[3];
+    private final AtomicInteger middle = new AtomicInteger(2);
+    private int writeIndex = 0;
+    private int readIndex = 1;
+
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = factory.get();
+        }
+    }
+
+    // Writer side: the slot to fill for the next publish()
+    @SuppressWarnings("unchecked")
+    public T getWriteSlot() {
+        return (T) slots[writeIndex];
+    }
+
+    public void publish() {
+        writeIndex = middle.getAndSet(writeIndex | FRESH) & INDEX_MASK;
+    }
+
+    // Reader side: the most recently published slot, stays valid until the next acquire()
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if ((middle.get() & FRESH) != 0) {
+            readIndex = middle.getAndSet(readIndex) & INDEX_MASK;
+        }
+        return (T) slots[readIndex];
+    }
+}
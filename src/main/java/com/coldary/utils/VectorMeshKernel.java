@@ -0,0 +1,176 @@
+package com.coldary.utils;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// MeshKernel on the incubating Vector API, one triangle per lane. Vertex data is gathered
+// through the index buffer and corner results scattered back with a stride of three.
+// Only loaded when the JVM runs with --add-modules jdk.incubator.vector, see MeshProcessing.
+final class VectorMeshKernel implements MeshKernel {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED.withShape(FLOATS.vectorShape());
+    private static final int LANES = FLOATS.length();
+
+    // Lane i reads element i * 3, for walking the three corners of consecutive triangles
+    private static final int[] STRIDE_3 = new int[LANES];
+
+    static {
+        for (int i = 0; i < LANES; i++) {
+            STRIDE_3[i] = i * 3;
+        }
+    }
+
+    private final ScalarMeshKernel tail = new ScalarMeshKernel();
+
+    @Override
+    public void cornerNormals(float[] positions, int[] indices, int start, int end,
+                              float[] cornerX, float[] cornerY, float[] cornerZ) {
+        int[] offset0 = new int[LANES];
+        int[] offset1 = new int[LANES];
+        int[] offset2 = new int[LANES];
+        FloatVector pi = FloatVector.broadcast(FLOATS, (float) Math.PI);
+        FloatVector zero = FloatVector.zero(FLOATS);
+
+        int t = start;
+        for (; t + LANES <= end; t += LANES) {
+            gatherOffsets(indices, t, 3, offset0, offset1, offset2);
+
+            FloatVector p0x = FloatVector.fromArray(FLOATS, positions, 0, offset0, 0);
+            FloatVector p0y = FloatVector.fromArray(FLOATS, positions, 1, offset0, 0);
+            FloatVector p0z = FloatVector.fromArray(FLOATS, positions, 2, offset0, 0);
+            FloatVector p1x = FloatVector.fromArray(FLOATS, positions, 0, offset1, 0);
+            FloatVector p1y = FloatVector.fromArray(FLOATS, positions, 1, offset1, 0);
+            FloatVector p1z = FloatVector.fromArray(FLOATS, positions, 2, offset1, 0);
+            FloatVector p2x = FloatVector.fromArray(FLOATS, positions, 0, offset2, 0);
+            FloatVector p2y = FloatVector.fromArray(FLOATS, positions, 1, offset2, 0);
+            FloatVector p2z = FloatVector.fromArray(FLOATS, positions, 2, offset2, 0);
+
+            FloatVector e1x = p1x.sub(p0x), e1y = p1y.sub(p0y), e1z = p1z.sub(p0z);
+            FloatVector e2x = p2x.sub(p0x), e2y = p2y.sub(p0y), e2z = p2z.sub(p0z);
+            FloatVector e3x = p2x.sub(p1x), e3y = p2y.sub(p1y), e3z = p2z.sub(p1z);
+
+            FloatVector nx = e1y.mul(e2z).sub(e1z.mul(e2y));
+            FloatVector ny = e1z.mul(e2x).sub(e1x.mul(e2z));
+            FloatVector nz = e1x.mul(e2y).sub(e1y.mul(e2x));
+            FloatVector lengthSquared = nx.mul(nx).add(ny.mul(ny)).add(nz.mul(nz));
+            VectorMask<Float> valid = lengthSquared.compare(VectorOperators.GT, ScalarMeshKernel.DEGENERATE_EPSILON);
+
+            FloatVector inverseLength = FloatVector.broadcast(FLOATS, 1.0f).div(lengthSquared.lanewise(VectorOperators.SQRT));
+            nx = nx.mul(inverseLength);
+            ny = ny.mul(inverseLength);
+            nz = nz.mul(inverseLength);
+
+            FloatVector angle0 = angle(e1x, e1y, e1z, e2x, e2y, e2z);
+            FloatVector angle1 = angle(e1x.neg(), e1y.neg(), e1z.neg(), e3x, e3y, e3z);
+            FloatVector angle2 = pi.sub(angle0).sub(angle1).max(zero);
+
+            // Degenerate lanes hold NaN by now, zero them before they are accumulated
+            nx = zero.blend(nx, valid);
+            ny = zero.blend(ny, valid);
+            nz = zero.blend(nz, valid);
+            angle0 = zero.blend(angle0, valid);
+            angle1 = zero.blend(angle1, valid);
+            angle2 = zero.blend(angle2, valid);
+
+            int c = t * 3;
+            nx.mul(angle0).intoArray(cornerX, c, STRIDE_3, 0);
+            ny.mul(angle0).intoArray(cornerY, c, STRIDE_3, 0);
+            nz.mul(angle0).intoArray(cornerZ, c, STRIDE_3, 0);
+            nx.mul(angle1).intoArray(cornerX, c + 1, STRIDE_3, 0);
+            ny.mul(angle1).intoArray(cornerY, c + 1, STRIDE_3, 0);
+            nz.mul(angle1).intoArray(cornerZ, c + 1, STRIDE_3, 0);
+            nx.mul(angle2).intoArray(cornerX, c + 2, STRIDE_3, 0);
+            ny.mul(angle2).intoArray(cornerY, c + 2, STRIDE_3, 0);
+            nz.mul(angle2).intoArray(cornerZ, c + 2, STRIDE_3, 0);
+        }
+        tail.cornerNormals(positions, indices, t, end, cornerX, cornerY, cornerZ);
+    }
+
+    @Override
+    public void faceTangents(float[] positions, float[] texCoords, int[] indices, int start, int end,
+                             float[] tangentX, float[] tangentY, float[] tangentZ,
+                             float[] bitangentX, float[] bitangentY, float[] bitangentZ,
+                             float[] cornerAngles) {
+        int[] offset0 = new int[LANES];
+        int[] offset1 = new int[LANES];
+        int[] offset2 = new int[LANES];
+        int[] uvOffset0 = new int[LANES];
+        int[] uvOffset1 = new int[LANES];
+        int[] uvOffset2 = new int[LANES];
+        FloatVector pi = FloatVector.broadcast(FLOATS, (float) Math.PI);
+        FloatVector zero = FloatVector.zero(FLOATS);
+
+        int t = start;
+        for (; t + LANES <= end; t += LANES) {
+            gatherOffsets(indices, t, 3, offset0, offset1, offset2);
+            gatherOffsets(indices, t, 2, uvOffset0, uvOffset1, uvOffset2);
+
+            FloatVector p0x = FloatVector.fromArray(FLOATS, positions, 0, offset0, 0);
+            FloatVector p0y = FloatVector.fromArray(FLOATS, positions, 1, offset0, 0);
+            FloatVector p0z = FloatVector.fromArray(FLOATS, positions, 2, offset0, 0);
+            FloatVector p1x = FloatVector.fromArray(FLOATS, positions, 0, offset1, 0);
+            FloatVector p1y = FloatVector.fromArray(FLOATS, positions, 1, offset1, 0);
+            FloatVector p1z = FloatVector.fromArray(FLOATS, positions, 2, offset1, 0);
+            FloatVector p2x = FloatVector.fromArray(FLOATS, positions, 0, offset2, 0);
+            FloatVector p2y = FloatVector.fromArray(FLOATS, positions, 1, offset2, 0);
+            FloatVector p2z = FloatVector.fromArray(FLOATS, positions, 2, offset2, 0);
+
+            FloatVector u0 = FloatVector.fromArray(FLOATS, texCoords, 0, uvOffset0, 0);
+            FloatVector v0 = FloatVector.fromArray(FLOATS, texCoords, 1, uvOffset0, 0);
+            FloatVector du1 = FloatVector.fromArray(FLOATS, texCoords, 0, uvOffset1, 0).sub(u0);
+            FloatVector dv1 = FloatVector.fromArray(FLOATS, texCoords, 1, uvOffset1, 0).sub(v0);
+            FloatVector du2 = FloatVector.fromArray(FLOATS, texCoords, 0, uvOffset2, 0).sub(u0);
+            FloatVector dv2 = FloatVector.fromArray(FLOATS, texCoords, 1, uvOffset2, 0).sub(v0);
+
+            FloatVector e1x = p1x.sub(p0x), e1y = p1y.sub(p0y), e1z = p1z.sub(p0z);
+            FloatVector e2x = p2x.sub(p0x), e2y = p2y.sub(p0y), e2z = p2z.sub(p0z);
+            FloatVector e3x = p2x.sub(p1x), e3y = p2y.sub(p1y), e3z = p2z.sub(p1z);
+
+            FloatVector area = du1.mul(dv2).sub(du2.mul(dv1));
+            VectorMask<Float> mapped = area.abs().compare(VectorOperators.GT, ScalarMeshKernel.DEGENERATE_EPSILON);
+            FloatVector r = zero.blend(FloatVector.broadcast(FLOATS, 1.0f).div(area), mapped);
+
+            e1x.mul(dv2).sub(e2x.mul(dv1)).mul(r).intoArray(tangentX, t);
+            e1y.mul(dv2).sub(e2y.mul(dv1)).mul(r).intoArray(tangentY, t);
+            e1z.mul(dv2).sub(e2z.mul(dv1)).mul(r).intoArray(tangentZ, t);
+            e2x.mul(du1).sub(e1x.mul(du2)).mul(r).intoArray(bitangentX, t);
+            e2y.mul(du1).sub(e1y.mul(du2)).mul(r).intoArray(bitangentY, t);
+            e2z.mul(du1).sub(e1z.mul(du2)).mul(r).intoArray(bitangentZ, t);
+
+            FloatVector angle0 = angle(e1x, e1y, e1z, e2x, e2y, e2z);
+            FloatVector angle1 = angle(e1x.neg(), e1y.neg(), e1z.neg(), e3x, e3y, e3z);
+            FloatVector angle2 = pi.sub(angle0).sub(angle1).max(zero);
+
+            int c = t * 3;
+            angle0.intoArray(cornerAngles, c, STRIDE_3, 0);
+            angle1.intoArray(cornerAngles, c + 1, STRIDE_3, 0);
+            angle2.intoArray(cornerAngles, c + 2, STRIDE_3, 0);
+        }
+        tail.faceTangents(positions, texCoords, indices, t, end,
+                tangentX, tangentY, tangentZ, bitangentX, bitangentY, bitangentZ, cornerAngles);
+    }
+
+    // Per-lane array offsets (vertex index * stride) of the three corners of LANES triangles
+    private static void gatherOffsets(int[] indices, int triangle, int stride, int[] offset0, int[] offset1, int[] offset2) {
+        int c = triangle * 3;
+        IntVector.fromArray(INTS, indices, c, STRIDE_3, 0).mul(stride).intoArray(offset0, 0);
+        IntVector.fromArray(INTS, indices, c + 1, STRIDE_3, 0).mul(stride).intoArray(offset1, 0);
+        IntVector.fromArray(INTS, indices, c + 2, STRIDE_3, 0).mul(stride).intoArray(offset2, 0);
+    }
+
+    // Angle between two edges, 0 where either has no length
+    private static FloatVector angle(FloatVector ax, FloatVector ay, FloatVector az,
+                                     FloatVector bx, FloatVector by, FloatVector bz) {
+        FloatVector lengths = ax.mul(ax).add(ay.mul(ay)).add(az.mul(az))
+                .mul(bx.mul(bx).add(by.mul(by)).add(bz.mul(bz)));
+        VectorMask<Float> valid = lengths.compare(VectorOperators.GT, ScalarMeshKernel.DEGENERATE_EPSILON);
+        FloatVector cosine = ax.mul(bx).add(ay.mul(by)).add(az.mul(bz))
+                .div(lengths.lanewise(VectorOperators.SQRT))
+                .max(-1.0f).min(1.0f);
+        return FloatVector.zero(FLOATS).blend(cosine.lanewise(VectorOperators.ACOS), valid);
+    }
+}
@@ -0,0 +1,1582 @@
+package com.coldary.utils;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.vma.VmaAllocationCreateInfo;
+import org.lwjgl.util.vma.VmaAllocationInfo;
+import org.lwjgl.util.vma.VmaAllocatorCreateInfo;
+import org.lwjgl.util.vma.VmaVulkanFunctions;
+import org.lwjgl.vulkan.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.lwjgl.glfw.GLFWVulkan.glfwCreateWindowSurface;
+import static org.lwjgl.glfw.GLFWVulkan.glfwGetRequiredInstanceExtensions;
+import static org.lwjgl.system.MemoryStack.stackPush;
+import static org.lwjgl.util.vma.Vma.*;
+import static org.lwjgl.vulkan.KHRSurface.*;
+import static org.lwjgl.vulkan.KHRSwapchain.*;
+import static org.lwjgl.vulkan.VK11.*;
+
+// RenderBackend over Vulkan 1.1. Memory comes from VMA, shaders are SPIR-V compiled ahead of
+// time (SpirvCompiler), pipelines go through a VkPipelineCache persisted between runs, and a
+// DrawList is recorded into secondary command buffers on several threads at once, each with
+// its own command pool, then executed from the frame's primary buffer.
+//
+// With a window it renders into a GLFW surface through a FIFO swapchain. With window 0 it is
+// headless and renders into offscreen images that readPixels copies back, which needs no
+// display at all: VK_ICD_FILENAMES=/usr/share/vulkan/icd.d/lvp_icd.x86_64.json selects Mesa's
+// lavapipe and runs the whole backend on the CPU (see BackendCheck).
+//
+// -Ddrift.vulkanValidation=true       enables VK_LAYER_KHRONOS_validation when installed
+// -Ddrift.vulkanDevice=<name part>    picks a device by name, e.g. llvmpipe, instead of the fastest
+// -Ddrift.vulkanThreads=<n>           command buffer recording threads (default half the cores, max 4)
+// -Ddrift.pipelineCache=<file>        pipeline cache file (default vulkan-pipelines.bin)
+public class VulkanBackend implements RenderBackend {
+
+    private static final int FRAMES_IN_FLIGHT = 2;
+    private static final int CAMERA_BLOCK_SIZE = 2 * 64 + 16;
+    // Model matrix and color, the DrawConstants block of Shaders/backend/Interface.glsl
+    private static final int PUSH_CONSTANT_SIZE = (DrawList.TRANSFORM_FLOATS + DrawList.COLOR_FLOATS) * Float.BYTES;
+    private static final int HEADLESS_COLOR_FORMAT = VK_FORMAT_R8G8B8A8_UNORM;
+    private static final int DEPTH_FORMAT = VK_FORMAT_D32_SFLOAT;
+    // Smaller lists are recorded on the calling thread, handing them out costs more than it saves
+    private static final int DRAWS_PER_TASK = 256;
+    private static final int MAX_TEXTURES = 1024;
+    private static final String VALIDATION_LAYER = "VK_LAYER_KHRONOS_validation";
+
+    // GL projections map depth to -1..1 with y up, Vulkan clips depth to 0..1 with y down
+    private static final Matrix4f CLIP_CORRECTION = new Matrix4f(
+            1.0f, 0.0f, 0.0f, 0.0f,
+            0.0f, -1.0f, 0.0f, 0.0f,
+            0.0f, 0.0f, 0.5f, 0.0f,
+            0.0f, 0.0f, 0.5f, 1.0f);
+
+    private final long window;
+    private final VkInstance instance;
+    private final long surface;
+    private final VkPhysicalDevice physicalDevice;
+    private final String deviceName;
+    private final byte[] pipelineCacheUuid = new byte[VK_UUID_SIZE];
+    private final VkDevice device;
+    private final int queueFamily;
+    private final VkQueue queue;
+    private final long allocator;
+    private final long uploadPool;
+
+    private final int colorFormat;
+    private final int colorSpace;
+    private final long renderPass;
+    private final long cameraSetLayout;
+    private final long textureSetLayout;
+    private final long pipelineLayout;
+    private final long descriptorPool;
+    private final long sampler;
+    private final Texture whiteTexture;
+
+    private final Path pipelineCacheFile;
+    private final long pipelineCache;
+    private final String pipelineCacheState;
+
+    private final int recorderThreads;
+    private final ExecutorService recorders;
+    private final Frame[] frames = new Frame[FRAMES_IN_FLIGHT];
+
+    // Render targets, swapchain images or offscreen ones, plus the shared depth buffer
+    private long swapchain;
+    private Target[] targets = new Target[0];
+    private long depthImage;
+    private long depthAllocation;
+    private long depthView;
+    private int targetWidth;
+    private int targetHeight;
+    // Size asked for by beginFrame, the surface may settle on a different one
+    private int requestedWidth;
+    private int requestedHeight;
+    private boolean targetsStale;
+
+    private int frameSlot;
+    private int imageIndex;
+    private int lastSubmittedSlot = -1;
+    private int lastSubmittedImage;
+    private long frameNumber;
+    private boolean frameOpen;
+    private final ArrayDeque<PendingDeletion> deletions = new ArrayDeque<>();
+
+    // Stats
+    private long frameCount;
+    private long draws;
+    private long secondaryBuffers;
+    private long recordNanos;
+    private int pipelinesCreated;
+    private long pipelineNanos;
+    private int swapchainRebuilds;
+    private final AtomicInteger recordTriangles = new AtomicInteger();
+
+    // window 0 renders headless into offscreen images
+    public VulkanBackend(long window) {
+        this.window = window;
+        boolean headless = window == 0;
+
+        try (MemoryStack stack = stackPush()) {
+            instance = createInstance(stack, headless);
+            if (!headless) {
+                LongBuffer pSurface = stack.mallocLong(1);
+                check(glfwCreateWindowSurface(instance, window, null, pSurface), "glfwCreateWindowSurface");
+                surface = pSurface.get(0);
+            } else {
+                surface = VK_NULL_HANDLE;
+            }
+
+            physicalDevice = pickPhysicalDevice(stack);
+            VkPhysicalDeviceProperties properties = VkPhysicalDeviceProperties.calloc(stack);
+            vkGetPhysicalDeviceProperties(physicalDevice, properties);
+            deviceName = properties.deviceNameString();
+            properties.pipelineCacheUUID().get(pipelineCacheUuid);
+            queueFamily = findQueueFamily(stack, physicalDevice);
+
+            VkDeviceQueueCreateInfo.Buffer queueInfo = VkDeviceQueueCreateInfo.calloc(1, stack)
+                    .sType$Default()
+                    .queueFamilyIndex(queueFamily)
+                    .pQueuePriorities(stack.floats(1.0f));
+            VkDeviceCreateInfo deviceInfo = VkDeviceCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pQueueCreateInfos(queueInfo)
+                    .ppEnabledExtensionNames(headless ? null : stack.pointers(stack.UTF8(VK_KHR_SWAPCHAIN_EXTENSION_NAME)));
+            PointerBuffer pDevice = stack.mallocPointer(1);
+            check(vkCreateDevice(physicalDevice, deviceInfo, null, pDevice), "vkCreateDevice");
+            device = new VkDevice(pDevice.get(0), physicalDevice, deviceInfo);
+
+            PointerBuffer pQueue = stack.mallocPointer(1);
+            vkGetDeviceQueue(device, queueFamily, 0, pQueue);
+            queue = new VkQueue(pQueue.get(0), device);
+
+            VmaVulkanFunctions functions = VmaVulkanFunctions.calloc(stack).set(instance, device);
+            VmaAllocatorCreateInfo allocatorInfo = VmaAllocatorCreateInfo.calloc(stack)
+                    .physicalDevice(physicalDevice)
+                    .device(device)
+                    .instance(instance)
+                    .pVulkanFunctions(functions)
+                    .vulkanApiVersion(VK_API_VERSION_1_1);
+            PointerBuffer pAllocator = stack.mallocPointer(1);
+            check(vmaCreateAllocator(allocatorInfo, pAllocator), "vmaCreateAllocator");
+            allocator = pAllocator.get(0);
+
+            uploadPool = createCommandPool(stack, VK_COMMAND_POOL_CREATE_TRANSIENT_BIT);
+
+            if (headless) {
+                colorFormat = HEADLESS_COLOR_FORMAT;
+                colorSpace = 0;
+            } else {
+                VkSurfaceFormatKHR format = pickSurfaceFormat(stack);
+                colorFormat = format.format();
+                colorSpace = format.colorSpace();
+            }
+            renderPass = createRenderPass(stack, headless);
+
+            cameraSetLayout = createSetLayout(stack, VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER,
+                    VK_SHADER_STAGE_VERTEX_BIT | VK_SHADER_STAGE_FRAGMENT_BIT);
+            textureSetLayout = createSetLayout(stack, VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, VK_SHADER_STAGE_FRAGMENT_BIT);
+            VkPushConstantRange.Buffer pushConstants = VkPushConstantRange.calloc(1, stack)
+                    .stageFlags(VK_SHADER_STAGE_VERTEX_BIT | VK_SHADER_STAGE_FRAGMENT_BIT)
+                    .offset(0)
+                    .size(PUSH_CONSTANT_SIZE);
+            VkPipelineLayoutCreateInfo layoutInfo = VkPipelineLayoutCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pSetLayouts(stack.longs(cameraSetLayout, textureSetLayout))
+                    .pPushConstantRanges(pushConstants);
+            LongBuffer pLayout = stack.mallocLong(1);
+            check(vkCreatePipelineLayout(device, layoutInfo, null, pLayout), "vkCreatePipelineLayout");
+            pipelineLayout = pLayout.get(0);
+
+            VkDescriptorPoolSize.Buffer poolSizes = VkDescriptorPoolSize.calloc(2, stack);
+            poolSizes.get(0).type(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER).descriptorCount(FRAMES_IN_FLIGHT);
+            poolSizes.get(1).type(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER).descriptorCount(MAX_TEXTURES);
+            VkDescriptorPoolCreateInfo poolInfo = VkDescriptorPoolCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .flags(VK_DESCRIPTOR_POOL_CREATE_FREE_DESCRIPTOR_SET_BIT)
+                    .maxSets(FRAMES_IN_FLIGHT + MAX_TEXTURES)
+                    .pPoolSizes(poolSizes);
+            LongBuffer pPool = stack.mallocLong(1);
+            check(vkCreateDescriptorPool(device, poolInfo, null, pPool), "vkCreateDescriptorPool");
+            descriptorPool = pPool.get(0);
+
+            VkSamplerCreateInfo samplerInfo = VkSamplerCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .magFilter(VK_FILTER_LINEAR)
+                    .minFilter(VK_FILTER_LINEAR)
+                    .mipmapMode(VK_SAMPLER_MIPMAP_MODE_NEAREST)
+                    .addressModeU(VK_SAMPLER_ADDRESS_MODE_REPEAT)
+                    .addressModeV(VK_SAMPLER_ADDRESS_MODE_REPEAT)
+                    .addressModeW(VK_SAMPLER_ADDRESS_MODE_REPEAT)
+                    .maxLod(0.0f);
+            LongBuffer pSampler = stack.mallocLong(1);
+            check(vkCreateSampler(device, samplerInfo, null, pSampler), "vkCreateSampler");
+            sampler = pSampler.get(0);
+        }
+
+        pipelineCacheFile = Path.of(System.getProperty("drift.pipelineCache", "vulkan-pipelines.bin"));
+        long[] cache = new long[1];
+        pipelineCacheState = createPipelineCache(cache);
+        pipelineCache = cache[0];
+
+        recorderThreads = Math.max(1, Integer.getInteger("drift.vulkanThreads",
+                Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+        AtomicInteger threadIndex = new AtomicInteger();
+        recorders = Executors.newFixedThreadPool(recorderThreads, runnable -> {
+            Thread thread = new Thread(NativeMemory.workerThread(runnable), "VulkanRecorder-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < FRAMES_IN_FLIGHT; i++) {
+            frames[i] = new Frame();
+        }
+
+        ByteBuffer white = NativeMemory.alloc(NativeMemory.Tag.TEXTURE, 4);
+        white.putInt(0, -1);
+        whiteTexture = createTexture(1, 1, white);
+        NativeMemory.free(white);
+        NativeMemory.checkStagingReleased("VulkanBackend");
+    }
+
+    private static VkInstance createInstance(MemoryStack stack, boolean headless) {
+        VkApplicationInfo appInfo = VkApplicationInfo.calloc(stack)
+                .sType$Default()
+                .pApplicationName(stack.UTF8("Drift3D"))
+                .applicationVersion(1)
+                .pEngineName(stack.UTF8("Drift3D"))
+                .engineVersion(1)
+                .apiVersion(VK_API_VERSION_1_1);
+
+        PointerBuffer extensions = null;
+        if (!headless) {
+            extensions = glfwGetRequiredInstanceExtensions();
+            if (extensions == null) {
+                throw new RuntimeException("GLFW found no Vulkan support for window surfaces");
+            }
+        }
+
+        PointerBuffer layers = null;
+        if (Boolean.getBoolean("drift.vulkanValidation")) {
+            if (hasLayer(stack, VALIDATION_LAYER)) {
+                layers = stack.pointers(stack.UTF8(VALIDATION_LAYER));
+            } else {
+                System.err.println("Vulkan validation requested but " + VALIDATION_LAYER + " is not installed");
+            }
+        }
+
+        VkInstanceCreateInfo createInfo = VkInstanceCreateInfo.calloc(stack)
+                .sType$Default()
+                .pApplicationInfo(appInfo)
+                .ppEnabledExtensionNames(extensions)
+                .ppEnabledLayerNames(layers);
+        PointerBuffer pInstance = stack.mallocPointer(1);
+        check(vkCreateInstance(createInfo, null, pInstance), "vkCreateInstance");
+        return new VkInstance(pInstance.get(0), createInfo);
+    }
+
+    private static boolean hasLayer(MemoryStack stack, String name) {
+        IntBuffer count = stack.mallocInt(1);
+        vkEnumerateInstanceLayerProperties(count, null);
+        VkLayerProperties.Buffer layers = VkLayerProperties.malloc(count.get(0), stack);
+        vkEnumerateInstanceLayerProperties(count, layers);
+        for (VkLayerProperties layer : layers) {
+            if (layer.layerNameString().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The named device when one is asked for, otherwise discrete over integrated over the rest
+    private VkPhysicalDevice pickPhysicalDevice(MemoryStack stack) {
+        IntBuffer count = stack.mallocInt(1);
+        check(vkEnumeratePhysicalDevices(instance, count, null), "vkEnumeratePhysicalDevices");
+        if (count.get(0) == 0) {
+            throw new RuntimeException("No Vulkan devices found");
+        }
+        PointerBuffer handles = stack.mallocPointer(count.get(0));
+        check(vkEnumeratePhysicalDevices(instance, count, handles), "vkEnumeratePhysicalDevices");
+
+        String wanted = System.getProperty("drift.vulkanDevice");
+        VkPhysicalDevice best = null;
+        int bestScore = -1;
+        VkPhysicalDeviceProperties properties = VkPhysicalDeviceProperties.malloc(stack);
+        for (int i = 0; i < handles.capacity(); i++) {
+            VkPhysicalDevice candidate = new VkPhysicalDevice(handles.get(i), instance);
+            if (findQueueFamily(stack, candidate) < 0 || (surface != VK_NULL_HANDLE && !hasSwapchain(stack, candidate))) {
+                continue;
+            }
+            vkGetPhysicalDeviceProperties(candidate, properties);
+            int score = switch (properties.deviceType()) {
+                case VK_PHYSICAL_DEVICE_TYPE_DISCRETE_GPU -> 4;
+                case VK_PHYSICAL_DEVICE_TYPE_INTEGRATED_GPU -> 3;
+                case VK_PHYSICAL_DEVICE_TYPE_VIRTUAL_GPU -> 2;
+                case VK_PHYSICAL_DEVICE_TYPE_CPU -> 1;
+                default -> 0;
+            };
+            if (wanted != null) {
+                score = properties.deviceNameString().toLowerCase().contains(wanted.toLowerCase()) ? 10 : -1;
+            }
+            if (score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        if (best == null || bestScore < 0) {
+            throw new RuntimeException(wanted != null ? "No usable Vulkan device matching: " + wanted : "No usable Vulkan device");
+        }
+        return best;
+    }
+
+    // A family that can draw and, with a window, present to its surface
+    private int findQueueFamily(MemoryStack stack, VkPhysicalDevice candidate) {
+        IntBuffer count = stack.mallocInt(1);
+        vkGetPhysicalDeviceQueueFamilyProperties(candidate, count, null);
+        VkQueueFamilyProperties.Buffer families = VkQueueFamilyProperties.malloc(count.get(0), stack);
+        vkGetPhysicalDeviceQueueFamilyProperties(candidate, count, families);
+        IntBuffer presentSupport = stack.mallocInt(1);
+        for (int i = 0; i < families.capacity(); i++) {
+            if ((families.get(i).queueFlags() & VK_QUEUE_GRAPHICS_BIT) == 0) {
+                continue;
+            }
+            if (surface != VK_NULL_HANDLE) {
+                vkGetPhysicalDeviceSurfaceSupportKHR(candidate, i, surface, presentSupport);
+                if (presentSupport.get(0) == VK_FALSE) {
+                    continue;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static boolean hasSwapchain(MemoryStack stack, VkPhysicalDevice candidate) {
+        IntBuffer count = stack.mallocInt(1);
+        vkEnumerateDeviceExtensionProperties(candidate, (String) null, count, null);
+        VkExtensionProperties.Buffer extensions = VkExtensionProperties.malloc(count.get(0), stack);
+        vkEnumerateDeviceExtensionProperties(candidate, (String) null, count, extensions);
+        for (VkExtensionProperties extension : extensions) {
+            if (extension.extensionNameString().equals(VK_KHR_SWAPCHAIN_EXTENSION_NAME)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Plain 8 bit UNORM like the GL default framebuffer, so both backends produce the same image
+    private VkSurfaceFormatKHR pickSurfaceFormat(MemoryStack stack) {
+        IntBuffer count = stack.mallocInt(1);
+        vkGetPhysicalDeviceSurfaceFormatsKHR(physicalDevice, surface, count, null);
+        VkSurfaceFormatKHR.Buffer formats = VkSurfaceFormatKHR.malloc(count.get(0), stack);
+        vkGetPhysicalDeviceSurfaceFormatsKHR(physicalDevice, surface, count, formats);
+        for (VkSurfaceFormatKHR format : formats) {
+            if ((format.format() == VK_FORMAT_B8G8R8A8_UNORM || format.format() == VK_FORMAT_R8G8B8A8_UNORM)
+                    && format.colorSpace() == VK_COLOR_SPACE_SRGB_NONLINEAR_KHR) {
+                return format;
+            }
+        }
+        return formats.get(0);
+    }
+
+    private long createRenderPass(MemoryStack stack, boolean headless) {
+        VkAttachmentDescription.Buffer attachments = VkAttachmentDescription.calloc(2, stack);
+        attachments.get(0)
+                .format(colorFormat)
+                .samples(VK_SAMPLE_COUNT_1_BIT)
+                .loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR)
+                .storeOp(VK_ATTACHMENT_STORE_OP_STORE)
+                .stencilLoadOp(VK_ATTACHMENT_LOAD_OP_DONT_CARE)
+                .stencilStoreOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
+                .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED)
+                .finalLayout(headless ? VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL : VK_IMAGE_LAYOUT_PRESENT_SRC_KHR);
+        attachments.get(1)
+                .format(DEPTH_FORMAT)
+                .samples(VK_SAMPLE_COUNT_1_BIT)
+                .loadOp(VK_ATTACHMENT_LOAD_OP_CLEAR)
+                .storeOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
+                .stencilLoadOp(VK_ATTACHMENT_LOAD_OP_DONT_CARE)
+                .stencilStoreOp(VK_ATTACHMENT_STORE_OP_DONT_CARE)
+                .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED)
+                .finalLayout(VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL);
+
+        VkAttachmentReference.Buffer colorReference = VkAttachmentReference.calloc(1, stack)
+                .attachment(0)
+                .layout(VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+        VkAttachmentReference depthReference = VkAttachmentReference.calloc(stack)
+                .attachment(1)
+                .layout(VK_IMAGE_LAYOUT_DEPTH_STENCIL_ATTACHMENT_OPTIMAL);
+        VkSubpassDescription.Buffer subpass = VkSubpassDescription.calloc(1, stack)
+                .pipelineBindPoint(VK_PIPELINE_BIND_POINT_GRAPHICS)
+                .colorAttachmentCount(1)
+                .pColorAttachments(colorReference)
+                .pDepthStencilAttachment(depthReference);
+
+        // One depth buffer is shared by the frames in flight: a frame's depth writes wait for
+        // the previous frame's, and headless images are copied only after they are written
+        VkSubpassDependency.Buffer dependencies = VkSubpassDependency.calloc(2, stack);
+        dependencies.get(0)
+                .srcSubpass(VK_SUBPASS_EXTERNAL)
+                .dstSubpass(0)
+                .srcStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_LATE_FRAGMENT_TESTS_BIT)
+                .srcAccessMask(VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT)
+                .dstStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT | VK_PIPELINE_STAGE_EARLY_FRAGMENT_TESTS_BIT)
+                .dstAccessMask(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT | VK_ACCESS_DEPTH_STENCIL_ATTACHMENT_WRITE_BIT);
+        dependencies.get(1)
+                .srcSubpass(0)
+                .dstSubpass(VK_SUBPASS_EXTERNAL)
+                .srcStageMask(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT)
+                .srcAccessMask(VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT)
+                .dstStageMask(VK_PIPELINE_STAGE_TRANSFER_BIT)
+                .dstAccessMask(VK_ACCESS_TRANSFER_READ_BIT);
+
+        VkRenderPassCreateInfo renderPassInfo = VkRenderPassCreateInfo.calloc(stack)
+                .sType$Default()
+                .pAttachments(attachments)
+                .pSubpasses(subpass)
+                .pDependencies(dependencies);
+        LongBuffer pRenderPass = stack.mallocLong(1);
+        check(vkCreateRenderPass(device, renderPassInfo, null, pRenderPass), "vkCreateRenderPass");
+        return pRenderPass.get(0);
+    }
+
+    private long createSetLayout(MemoryStack stack, int descriptorType, int stages) {
+        VkDescriptorSetLayoutBinding.Buffer binding = VkDescriptorSetLayoutBinding.calloc(1, stack)
+                .binding(0)
+                .descriptorType(descriptorType)
+                .descriptorCount(1)
+                .stageFlags(stages);
+        VkDescriptorSetLayoutCreateInfo layoutInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack)
+                .sType$Default()
+                .pBindings(binding);
+        LongBuffer pLayout = stack.mallocLong(1);
+        check(vkCreateDescriptorSetLayout(device, layoutInfo, null, pLayout), "vkCreateDescriptorSetLayout");
+        return pLayout.get(0);
+    }
+
+    private long createCommandPool(MemoryStack stack, int flags) {
+        VkCommandPoolCreateInfo poolInfo = VkCommandPoolCreateInfo.calloc(stack)
+                .sType$Default()
+                .flags(flags)
+                .queueFamilyIndex(queueFamily);
+        LongBuffer pPool = stack.mallocLong(1);
+        check(vkCreateCommandPool(device, poolInfo, null, pPool), "vkCreateCommandPool");
+        return pPool.get(0);
+    }
+
+    private VkCommandBuffer allocateCommandBuffer(MemoryStack stack, long pool, int level) {
+        VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack)
+                .sType$Default()
+                .commandPool(pool)
+                .level(level)
+                .commandBufferCount(1);
+        PointerBuffer pBuffer = stack.mallocPointer(1);
+        check(vkAllocateCommandBuffers(device, allocateInfo, pBuffer), "vkAllocateCommandBuffers");
+        return new VkCommandBuffer(pBuffer.get(0), device);
+    }
+
+    // The saved cache is only handed to the driver when its header names this device, a cache
+    // from another driver or GPU would be thrown away anyway
+    private String createPipelineCache(long[] cache) {
+        ByteBuffer initialData = null;
+        String state = "empty";
+        if (Files.isRegularFile(pipelineCacheFile)) {
+            try {
+                byte[] bytes = Files.readAllBytes(pipelineCacheFile);
+                if (headerMatches(bytes)) {
+                    initialData = MemoryUtil.memAlloc(bytes.length);
+                    initialData.put(bytes).flip();
+                    state = String.format("loaded %.1f KB", bytes.length / 1024.0);
+                } else {
+                    state = "stale, rebuilt";
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to read pipeline cache " + pipelineCacheFile + ": " + e.getMessage());
+            }
+        }
+
+        try (MemoryStack stack = stackPush()) {
+            VkPipelineCacheCreateInfo cacheInfo = VkPipelineCacheCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pInitialData(initialData);
+            LongBuffer pCache = stack.mallocLong(1);
+            check(vkCreatePipelineCache(device, cacheInfo, null, pCache), "vkCreatePipelineCache");
+            cache[0] = pCache.get(0);
+        } finally {
+            if (initialData != null) {
+                MemoryUtil.memFree(initialData);
+            }
+        }
+        return state;
+    }
+
+    // Version one header: length, version, vendor, device, then the cache UUID at byte 16
+    private boolean headerMatches(byte[] bytes) {
+        if (bytes.length < 16 + VK_UUID_SIZE) {
+            return false;
+        }
+        for (int i = 0; i < VK_UUID_SIZE; i++) {
+            if (bytes[16 + i] != pipelineCacheUuid[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void savePipelineCache() {
+        try (MemoryStack stack = stackPush()) {
+            PointerBuffer size = stack.mallocPointer(1);
+            check(vkGetPipelineCacheData(device, pipelineCache, size, null), "vkGetPipelineCacheData");
+            ByteBuffer data = MemoryUtil.memAlloc((int) size.get(0));
+            try {
+                check(vkGetPipelineCacheData(device, pipelineCache, size, data), "vkGetPipelineCacheData");
+                byte[] bytes = new byte[(int) size.get(0)];
+                data.get(0, bytes);
+                Files.write(pipelineCacheFile, bytes);
+            } catch (IOException e) {
+                System.err.println("Failed to write pipeline cache " + pipelineCacheFile + ": " + e.getMessage());
+            } finally {
+                MemoryUtil.memFree(data);
+            }
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "Vulkan on " + deviceName;
+    }
+
+    // Records, submits and waits for a one-off command buffer, for uploads and readbacks
+    private void runOnce(Consumer<VkCommandBuffer> commands) {
+        try (MemoryStack stack = stackPush()) {
+            VkCommandBuffer commandBuffer = allocateCommandBuffer(stack, uploadPool, VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack)
+                    .sType$Default()
+                    .flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+            vkBeginCommandBuffer(commandBuffer, beginInfo);
+            commands.accept(commandBuffer);
+            vkEndCommandBuffer(commandBuffer);
+
+            VkFenceCreateInfo fenceInfo = VkFenceCreateInfo.calloc(stack).sType$Default();
+            LongBuffer pFence = stack.mallocLong(1);
+            check(vkCreateFence(device, fenceInfo, null, pFence), "vkCreateFence");
+            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack)
+                    .sType$Default()
+                    .pCommandBuffers(stack.pointers(commandBuffer));
+            check(vkQueueSubmit(queue, submitInfo, pFence.get(0)), "vkQueueSubmit");
+            vkWaitForFences(device, pFence, true, Long.MAX_VALUE);
+            vkDestroyFence(device, pFence.get(0), null);
+            vkFreeCommandBuffers(device, uploadPool, commandBuffer);
+        }
+    }
+
+    // Host visible and persistently mapped, VMA picks the heap
+    private VulkanBuffer createHostBuffer(long size, int usage, boolean readBack) {
+        try (MemoryStack stack = stackPush()) {
+            VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .size(size)
+                    .usage(usage)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            VmaAllocationCreateInfo allocationInfo = VmaAllocationCreateInfo.calloc(stack)
+                    .usage(VMA_MEMORY_USAGE_AUTO)
+                    .flags(VMA_ALLOCATION_CREATE_MAPPED_BIT | (readBack
+                            ? VMA_ALLOCATION_CREATE_HOST_ACCESS_RANDOM_BIT
+                            : VMA_ALLOCATION_CREATE_HOST_ACCESS_SEQUENTIAL_WRITE_BIT));
+            LongBuffer pBuffer = stack.mallocLong(1);
+            PointerBuffer pAllocation = stack.mallocPointer(1);
+            VmaAllocationInfo info = VmaAllocationInfo.calloc(stack);
+            check(vmaCreateBuffer(allocator, bufferInfo, allocationInfo, pBuffer, pAllocation, info), "vmaCreateBuffer");
+            return new VulkanBuffer(pBuffer.get(0), pAllocation.get(0), size, info.pMappedData());
+        }
+    }
+
+    @Override
+    public Buffer createBuffer(BufferUsage usage, ByteBuffer data) {
+        long size = data.remaining();
+        int usageBits = switch (usage) {
+            case VERTEX -> VK_BUFFER_USAGE_VERTEX_BUFFER_BIT;
+            case INDEX -> VK_BUFFER_USAGE_INDEX_BUFFER_BIT;
+            case UNIFORM -> VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT;
+        };
+
+        VulkanBuffer staging = createHostBuffer(size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, false);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(data), staging.mapped, size);
+
+        VulkanBuffer buffer;
+        try (MemoryStack stack = stackPush()) {
+            VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .size(size)
+                    .usage(usageBits | VK_BUFFER_USAGE_TRANSFER_DST_BIT)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE);
+            VmaAllocationCreateInfo allocationInfo = VmaAllocationCreateInfo.calloc(stack)
+                    .usage(VMA_MEMORY_USAGE_AUTO_PREFER_DEVICE);
+            LongBuffer pBuffer = stack.mallocLong(1);
+            PointerBuffer pAllocation = stack.mallocPointer(1);
+            check(vmaCreateBuffer(allocator, bufferInfo, allocationInfo, pBuffer, pAllocation, null), "vmaCreateBuffer");
+            buffer = new VulkanBuffer(pBuffer.get(0), pAllocation.get(0), size, 0);
+        }
+
+        runOnce(commandBuffer -> {
+            try (MemoryStack stack = stackPush()) {
+                VkBufferCopy.Buffer region = VkBufferCopy.calloc(1, stack).size(size);
+                vkCmdCopyBuffer(commandBuffer, staging.buffer, buffer.buffer, region);
+            }
+        });
+        vmaDestroyBuffer(allocator, staging.buffer, staging.allocation);
+        return buffer;
+    }
+
+    @Override
+    public Texture createTexture(int width, int height, ByteBuffer rgba) {
+        long size = (long) width * height * 4;
+        VulkanBuffer staging = createHostBuffer(size, VK_BUFFER_USAGE_TRANSFER_SRC_BIT, false);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(rgba), staging.mapped, size);
+
+        long[] image = createImage(width, height, VK_FORMAT_R8G8B8A8_UNORM,
+                VK_IMAGE_USAGE_SAMPLED_BIT | VK_IMAGE_USAGE_TRANSFER_DST_BIT);
+        runOnce(commandBuffer -> {
+            try (MemoryStack stack = stackPush()) {
+                transition(stack, commandBuffer, image[0], VK_IMAGE_LAYOUT_UNDEFINED, VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL,
+                        0, VK_ACCESS_TRANSFER_WRITE_BIT,
+                        VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT, VK_PIPELINE_STAGE_TRANSFER_BIT);
+                vkCmdCopyBufferToImage(commandBuffer, staging.buffer, image[0], VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL,
+                        imageRegion(stack, width, height));
+                transition(stack, commandBuffer, image[0], VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL,
+                        VK_ACCESS_TRANSFER_WRITE_BIT, VK_ACCESS_SHADER_READ_BIT,
+                        VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_FRAGMENT_SHADER_BIT);
+            }
+        });
+        vmaDestroyBuffer(allocator, staging.buffer, staging.allocation);
+
+        long view = createImageView(image[0], VK_FORMAT_R8G8B8A8_UNORM, VK_IMAGE_ASPECT_COLOR_BIT);
+        long set;
+        try (MemoryStack stack = stackPush()) {
+            set = allocateSet(stack, textureSetLayout);
+            VkDescriptorImageInfo.Buffer imageInfo = VkDescriptorImageInfo.calloc(1, stack)
+                    .sampler(sampler)
+                    .imageView(view)
+                    .imageLayout(VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+            VkWriteDescriptorSet.Buffer write = VkWriteDescriptorSet.calloc(1, stack)
+                    .sType$Default()
+                    .dstSet(set)
+                    .dstBinding(0)
+                    .descriptorType(VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER)
+                    .pImageInfo(imageInfo)
+                    .descriptorCount(1);
+            vkUpdateDescriptorSets(device, write, null);
+        }
+        return new VulkanTexture(image[0], image[1], view, set, width, height);
+    }
+
+    // Returns the image and its VMA allocation
+    private long[] createImage(int width, int height, int format, int usage) {
+        try (MemoryStack stack = stackPush()) {
+            VkImageCreateInfo imageInfo = VkImageCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .imageType(VK_IMAGE_TYPE_2D)
+                    .format(format)
+                    .mipLevels(1)
+                    .arrayLayers(1)
+                    .samples(VK_SAMPLE_COUNT_1_BIT)
+                    .tiling(VK_IMAGE_TILING_OPTIMAL)
+                    .usage(usage)
+                    .sharingMode(VK_SHARING_MODE_EXCLUSIVE)
+                    .initialLayout(VK_IMAGE_LAYOUT_UNDEFINED);
+            imageInfo.extent().set(width, height, 1);
+            VmaAllocationCreateInfo allocationInfo = VmaAllocationCreateInfo.calloc(stack)
+                    .usage(VMA_MEMORY_USAGE_AUTO_PREFER_DEVICE);
+            LongBuffer pImage = stack.mallocLong(1);
+            PointerBuffer pAllocation = stack.mallocPointer(1);
+            check(vmaCreateImage(allocator, imageInfo, allocationInfo, pImage, pAllocation, null), "vmaCreateImage");
+            return new long[]{pImage.get(0), pAllocation.get(0)};
+        }
+    }
+
+    private long createImageView(long image, int format, int aspect) {
+        try (MemoryStack stack = stackPush()) {
+            VkImageViewCreateInfo viewInfo = VkImageViewCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .image(image)
+                    .viewType(VK_IMAGE_VIEW_TYPE_2D)
+                    .format(format);
+            viewInfo.subresourceRange()
+                    .aspectMask(aspect)
+                    .baseMipLevel(0)
+                    .levelCount(1)
+                    .baseArrayLayer(0)
+                    .layerCount(1);
+            LongBuffer pView = stack.mallocLong(1);
+            check(vkCreateImageView(device, viewInfo, null, pView), "vkCreateImageView");
+            return pView.get(0);
+        }
+    }
+
+    private static void transition(MemoryStack stack, VkCommandBuffer commandBuffer, long image, int oldLayout, int newLayout,
+                                   int srcAccess, int dstAccess, int srcStage, int dstStage) {
+        VkImageMemoryBarrier.Buffer barrier = VkImageMemoryBarrier.calloc(1, stack)
+                .sType$Default()
+                .oldLayout(oldLayout)
+                .newLayout(newLayout)
+                .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                .image(image)
+                .srcAccessMask(srcAccess)
+                .dstAccessMask(dstAccess);
+        barrier.subresourceRange()
+                .aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                .baseMipLevel(0)
+                .levelCount(1)
+                .baseArrayLayer(0)
+                .layerCount(1);
+        vkCmdPipelineBarrier(commandBuffer, srcStage, dstStage, 0, null, null, barrier);
+    }
+
+    private static VkBufferImageCopy.Buffer imageRegion(MemoryStack stack, int width, int height) {
+        VkBufferImageCopy.Buffer region = VkBufferImageCopy.calloc(1, stack);
+        region.imageSubresource()
+                .aspectMask(VK_IMAGE_ASPECT_COLOR_BIT)
+                .mipLevel(0)
+                .baseArrayLayer(0)
+                .layerCount(1);
+        region.imageExtent().set(width, height, 1);
+        return region;
+    }
+
+    private long allocateSet(MemoryStack stack, long layout) {
+        VkDescriptorSetAllocateInfo allocateInfo = VkDescriptorSetAllocateInfo.calloc(stack)
+                .sType$Default()
+                .descriptorPool(descriptorPool)
+                .pSetLayouts(stack.longs(layout));
+        LongBuffer pSet = stack.mallocLong(1);
+        check(vkAllocateDescriptorSets(device, allocateInfo, pSet), "vkAllocateDescriptorSets");
+        return pSet.get(0);
+    }
+
+    @Override
+    public Mesh createMesh(Buffer positions, Buffer texCoords, Buffer normals, Buffer indices, int indexCount) {
+        return new VulkanMesh(new VulkanBuffer[]{(VulkanBuffer) positions, (VulkanBuffer) texCoords, (VulkanBuffer) normals},
+                (VulkanBuffer) indices, indexCount);
+    }
+
+    @Override
+    public Pipeline createPipeline(PipelineDescription description) {
+        long start = System.nanoTime();
+        long vertexModule = createShaderModule(description.vertexFile);
+        long fragmentModule = createShaderModule(description.fragmentFile);
+        try (MemoryStack stack = stackPush()) {
+            VkPipelineShaderStageCreateInfo.Buffer stages = VkPipelineShaderStageCreateInfo.calloc(2, stack);
+            stages.get(0)
+                    .sType$Default()
+                    .stage(VK_SHADER_STAGE_VERTEX_BIT)
+                    .module(vertexModule)
+                    .pName(stack.UTF8("main"));
+            stages.get(1)
+                    .sType$Default()
+                    .stage(VK_SHADER_STAGE_FRAGMENT_BIT)
+                    .module(fragmentModule)
+                    .pName(stack.UTF8("main"));
+
+            // One binding per stream, numbered like the attribute locations
+            int[] locations = {POSITION_STREAM, TEXCOORD_STREAM, NORMAL_STREAM};
+            int[] components = {3, 2, 3};
+            VkVertexInputBindingDescription.Buffer bindings = VkVertexInputBindingDescription.calloc(3, stack);
+            VkVertexInputAttributeDescription.Buffer attributes = VkVertexInputAttributeDescription.calloc(3, stack);
+            for (int i = 0; i < 3; i++) {
+                bindings.get(i)
+                        .binding(locations[i])
+                        .stride(components[i] * Float.BYTES)
+                        .inputRate(VK_VERTEX_INPUT_RATE_VERTEX);
+                attributes.get(i)
+                        .location(locations[i])
+                        .binding(locations[i])
+                        .format(components[i] == 3 ? VK_FORMAT_R32G32B32_SFLOAT : VK_FORMAT_R32G32_SFLOAT)
+                        .offset(0);
+            }
+            VkPipelineVertexInputStateCreateInfo vertexInput = VkPipelineVertexInputStateCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pVertexBindingDescriptions(bindings)
+                    .pVertexAttributeDescriptions(attributes);
+            VkPipelineInputAssemblyStateCreateInfo inputAssembly = VkPipelineInputAssemblyStateCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .topology(VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST);
+            VkPipelineViewportStateCreateInfo viewport = VkPipelineViewportStateCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .viewportCount(1)
+                    .scissorCount(1);
+            // The clip correction flips y, which turns GL's counter-clockwise front faces into
+            // counter-clockwise ones in Vulkan's y-down framebuffer as well
+            VkPipelineRasterizationStateCreateInfo rasterization = VkPipelineRasterizationStateCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .polygonMode(VK_POLYGON_MODE_FILL)
+                    .cullMode(description.cullBackFaces ? VK_CULL_MODE_BACK_BIT : VK_CULL_MODE_NONE)
+                    .frontFace(VK_FRONT_FACE_COUNTER_CLOCKWISE)
+                    .lineWidth(1.0f);
+            VkPipelineMultisampleStateCreateInfo multisample = VkPipelineMultisampleStateCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .rasterizationSamples(VK_SAMPLE_COUNT_1_BIT);
+            VkPipelineDepthStencilStateCreateInfo depthStencil = VkPipelineDepthStencilStateCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .depthTestEnable(description.depthTest)
+                    .depthWriteEnable(description.depthWrite)
+                    .depthCompareOp(VK_COMPARE_OP_LESS);
+            VkPipelineColorBlendAttachmentState.Buffer blendAttachment = VkPipelineColorBlendAttachmentState.calloc(1, stack)
+                    .colorWriteMask(VK_COLOR_COMPONENT_R_BIT | VK_COLOR_COMPONENT_G_BIT | VK_COLOR_COMPONENT_B_BIT | VK_COLOR_COMPONENT_A_BIT)
+                    .blendEnable(description.alphaBlend)
+                    .srcColorBlendFactor(VK_BLEND_FACTOR_SRC_ALPHA)
+                    .dstColorBlendFactor(VK_BLEND_FACTOR_ONE_MINUS_SRC_ALPHA)
+                    .colorBlendOp(VK_BLEND_OP_ADD)
+                    .srcAlphaBlendFactor(VK_BLEND_FACTOR_SRC_ALPHA)
+                    .dstAlphaBlendFactor(VK_BLEND_FACTOR_ONE_MINUS_SRC_ALPHA)
+                    .alphaBlendOp(VK_BLEND_OP_ADD);
+            VkPipelineColorBlendStateCreateInfo colorBlend = VkPipelineColorBlendStateCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pAttachments(blendAttachment);
+            VkPipelineDynamicStateCreateInfo dynamicState = VkPipelineDynamicStateCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pDynamicStates(stack.ints(VK_DYNAMIC_STATE_VIEWPORT, VK_DYNAMIC_STATE_SCISSOR));
+
+            VkGraphicsPipelineCreateInfo.Buffer pipelineInfo = VkGraphicsPipelineCreateInfo.calloc(1, stack)
+                    .sType$Default()
+                    .pStages(stages)
+                    .pVertexInputState(vertexInput)
+                    .pInputAssemblyState(inputAssembly)
+                    .pViewportState(viewport)
+                    .pRasterizationState(rasterization)
+                    .pMultisampleState(multisample)
+                    .pDepthStencilState(depthStencil)
+                    .pColorBlendState(colorBlend)
+                    .pDynamicState(dynamicState)
+                    .layout(pipelineLayout)
+                    .renderPass(renderPass)
+                    .subpass(0);
+            LongBuffer pPipeline = stack.mallocLong(1);
+            check(vkCreateGraphicsPipelines(device, pipelineCache, pipelineInfo, null, pPipeline), "vkCreateGraphicsPipelines");
+            pipelinesCreated++;
+            pipelineNanos += System.nanoTime() - start;
+            return new VulkanPipeline(pPipeline.get(0));
+        } finally {
+            vkDestroyShaderModule(device, vertexModule, null);
+            vkDestroyShaderModule(device, fragmentModule, null);
+        }
+    }
+
+    private long createShaderModule(String filePath) {
+        ByteBuffer spirv = SpirvCompiler.load(filePath);
+        try (MemoryStack stack = stackPush()) {
+            VkShaderModuleCreateInfo moduleInfo = VkShaderModuleCreateInfo.calloc(stack)
+                    .sType$Default()
+                    .pCode(spirv);
+            LongBuffer pModule = stack.mallocLong(1);
+            check(vkCreateShaderModule(device, moduleInfo, null, pModule), "vkCreateShaderModule " + filePath);
+            return pModule.get(0);
+        }
+    }
+
+    // Builds the swapchain or offscreen images, the depth buffer and a framebuffer per image
+    private void createTargets(int width, int height) {
+        try (MemoryStack stack = stackPush()) {
+            long[] images;
+            long[] allocations = null;
+            if (surface != VK_NULL_HANDLE) {
+                VkSurfaceCapabilitiesKHR capabilities = VkSurfaceCapabilitiesKHR.calloc(stack);
+                vkGetPhysicalDeviceSurfaceCapabilitiesKHR(physicalDevice, surface, capabilities);
+                if (capabilities.currentExtent().width() != 0xFFFFFFFF) {
+                    width = capabilities.currentExtent().width();
+                    height = capabilities.currentExtent().height();
+                }
+                int imageCount = capabilities.minImageCount() + 1;
+                if (capabilities.maxImageCount() > 0) {
+                    imageCount = Math.min(imageCount, capabilities.maxImageCount());
+                }
+
+                VkSwapchainCreateInfoKHR swapchainInfo = VkSwapchainCreateInfoKHR.calloc(stack)
+                        .sType$Default()
+                        .surface(surface)
+                        .minImageCount(imageCount)
+                        .imageFormat(colorFormat)
+                        .imageColorSpace(colorSpace)
+                        .imageArrayLayers(1)
+                        .imageUsage(VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT)
+                        .imageSharingMode(VK_SHARING_MODE_EXCLUSIVE)
+                        .preTransform(capabilities.currentTransform())
+                        .compositeAlpha(VK_COMPOSITE_ALPHA_OPAQUE_BIT_KHR)
+                        // Always available and paced by the display, like swap interval 1 on GL
+                        .presentMode(VK_PRESENT_MODE_FIFO_KHR)
+                        .clipped(true)
+                        .oldSwapchain(swapchain);
+                swapchainInfo.imageExtent().set(width, height);
+                LongBuffer pSwapchain = stack.mallocLong(1);
+                check(vkCreateSwapchainKHR(device, swapchainInfo, null, pSwapchain), "vkCreateSwapchainKHR");
+                if (swapchain != VK_NULL_HANDLE) {
+                    vkDestroySwapchainKHR(device, swapchain, null);
+                }
+                swapchain = pSwapchain.get(0);
+
+                IntBuffer count = stack.mallocInt(1);
+                vkGetSwapchainImagesKHR(device, swapchain, count, null);
+                LongBuffer swapchainImages = stack.mallocLong(count.get(0));
+                vkGetSwapchainImagesKHR(device, swapchain, count, swapchainImages);
+                images = new long[count.get(0)];
+                swapchainImages.get(images);
+            } else {
+                // One offscreen image per frame in flight, so a frame never draws over one being read
+                images = new long[FRAMES_IN_FLIGHT];
+                allocations = new long[FRAMES_IN_FLIGHT];
+                for (int i = 0; i < images.length; i++) {
+                    long[] image = createImage(width, height, colorFormat,
+                            VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT | VK_IMAGE_USAGE_TRANSFER_SRC_BIT);
+                    images[i] = image[0];
+                    allocations[i] = image[1];
+                }
+            }
+            targetWidth = width;
+            targetHeight = height;
+
+            long[] depth = createImage(width, height, DEPTH_FORMAT, VK_IMAGE_USAGE_DEPTH_STENCIL_ATTACHMENT_BIT);
+            depthImage = depth[0];
+            depthAllocation = depth[1];
+            depthView = createImageView(depthImage, DEPTH_FORMAT, VK_IMAGE_ASPECT_DEPTH_BIT);
+
+            targets = new Target[images.length];
+            for (int i = 0; i < images.length; i++) {
+                Target target = new Target();
+                target.image = images[i];
+                target.allocation = allocations != null ? allocations[i] : 0;
+                target.view = createImageView(images[i], colorFormat, VK_IMAGE_ASPECT_COLOR_BIT);
+
+                VkFramebufferCreateInfo framebufferInfo = VkFramebufferCreateInfo.calloc(stack)
+                        .sType$Default()
+                        .renderPass(renderPass)
+                        .pAttachments(stack.longs(target.view, depthView))
+                        .width(width)
+                        .height(height)
+                        .layers(1);
+                LongBuffer pFramebuffer = stack.mallocLong(1);
+                check(vkCreateFramebuffer(device, framebufferInfo, null, pFramebuffer), "vkCreateFramebuffer");
+                target.framebuffer = pFramebuffer.get(0);
+
+                if (surface != VK_NULL_HANDLE) {
+                    VkSemaphoreCreateInfo semaphoreInfo = VkSemaphoreCreateInfo.calloc(stack).sType$Default();
+                    LongBuffer pSemaphore = stack.mallocLong(1);
+                    check(vkCreateSemaphore(device, semaphoreInfo, null, pSemaphore), "vkCreateSemaphore");
+                    target.renderFinished = pSemaphore.get(0);
+                }
+                targets[i] = target;
+            }
+        }
+        targetsStale = false;
+    }
+
+    private void destroyTargets() {
+        for (Target target : targets) {
+            vkDestroyFramebuffer(device, target.framebuffer, null);
+            vkDestroyImageView(device, target.view, null);
+            if (target.allocation != 0) {
+                vmaDestroyImage(allocator, target.image, target.allocation);
+            }
+            if (target.renderFinished != VK_NULL_HANDLE) {
+                vkDestroySemaphore(device, target.renderFinished, null);
+            }
+        }
+        targets = new Target[0];
+        if (depthImage != VK_NULL_HANDLE) {
+            vkDestroyImageView(device, depthView, null);
+            vmaDestroyImage(allocator, depthImage, depthAllocation);
+            depthImage = VK_NULL_HANDLE;
+        }
+    }
+
+    private void rebuildTargets(int width, int height) {
+        vkDeviceWaitIdle(device);
+        destroyTargets();
+        createTargets(width, height);
+        swapchainRebuilds++;
+    }
+
+    @Override
+    public boolean beginFrame(int width, int height, float red, float green, float blue) {
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        Frame frame = frames[frameSlot];
+        try (MemoryStack stack = stackPush()) {
+            vkWaitForFences(device, stack.longs(frame.fence), true, Long.MAX_VALUE);
+            runDeletions(false);
+
+            if (targets.length == 0 || targetsStale || width != requestedWidth || height != requestedHeight) {
+                requestedWidth = width;
+                requestedHeight = height;
+                rebuildTargets(width, height);
+            }
+
+            if (surface != VK_NULL_HANDLE) {
+                IntBuffer pImageIndex = stack.mallocInt(1);
+                int result = vkAcquireNextImageKHR(device, swapchain, Long.MAX_VALUE, frame.imageAvailable, VK_NULL_HANDLE, pImageIndex);
+                if (result == VK_ERROR_OUT_OF_DATE_KHR) {
+                    targetsStale = true;
+                    return false;
+                } else if (result == VK_SUBOPTIMAL_KHR) {
+                    // Still presentable, rebuilt once this frame is out
+                    targetsStale = true;
+                } else {
+                    check(result, "vkAcquireNextImageKHR");
+                }
+                imageIndex = pImageIndex.get(0);
+            } else {
+                imageIndex = frameSlot;
+            }
+
+            vkResetFences(device, stack.longs(frame.fence));
+            vkResetCommandPool(device, frame.commandPool, 0);
+            for (int i = 0; i < recorderThreads; i++) {
+                vkResetCommandPool(device, frame.recordPools[i], 0);
+                frame.recordUsed[i] = 0;
+            }
+
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack)
+                    .sType$Default()
+                    .flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+            vkBeginCommandBuffer(frame.primary, beginInfo);
+
+            VkClearValue.Buffer clearValues = VkClearValue.calloc(2, stack);
+            clearValues.get(0).color()
+                    .float32(0, red)
+                    .float32(1, green)
+                    .float32(2, blue)
+                    .float32(3, 1.0f);
+            clearValues.get(1).depthStencil().set(1.0f, 0);
+            VkRenderPassBeginInfo renderPassInfo = VkRenderPassBeginInfo.calloc(stack)
+                    .sType$Default()
+                    .renderPass(renderPass)
+                    .framebuffer(targets[imageIndex].framebuffer)
+                    .pClearValues(clearValues);
+            renderPassInfo.renderArea().extent().set(targetWidth, targetHeight);
+            vkCmdBeginRenderPass(frame.primary, renderPassInfo, VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS);
+        }
+        frameNumber++;
+        frameOpen = true;
+        return true;
+    }
+
+    // Called once per frame, the camera block lives in the frame's own mapped buffer
+    @Override
+    public void setCamera(Matrix4f view, Matrix4f projection, Vector3f position) {
+        Frame frame = frames[frameSlot];
+        view.getToAddress(frame.camera.mapped);
+        CLIP_CORRECTION.mul(projection, frame.clipProjection).getToAddress(frame.camera.mapped + 64);
+        position.getToAddress(frame.camera.mapped + 128);
+    }
+
+    // Splits the list into consecutive ranges, each recorded into its own secondary command
+    // buffer from its own pool, the ranges after the first on the recorder threads
+    @Override
+    public void submit(DrawList list) {
+        int count = list.size();
+        if (count == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        Frame frame = frames[frameSlot];
+        long framebuffer = targets[imageIndex].framebuffer;
+
+        int tasks = Math.max(1, Math.min(recorderThreads, (count + DRAWS_PER_TASK - 1) / DRAWS_PER_TASK));
+        int perTask = (count + tasks - 1) / tasks;
+        VkCommandBuffer[] recorded = new VkCommandBuffer[tasks];
+        List<Future<?>> pending = new ArrayList<>();
+        for (int task = 1; task < tasks; task++) {
+            int slot = task;
+            int from = task * perTask;
+            int to = Math.min(count, from + perTask);
+            VkCommandBuffer commandBuffer = frame.nextSecondary(slot);
+            recorded[task] = commandBuffer;
+            pending.add(recorders.submit(() -> record(commandBuffer, frame, framebuffer, list, from, to)));
+        }
+        recorded[0] = frame.nextSecondary(0);
+        record(recorded[0], frame, framebuffer, list, 0, Math.min(count, perTask));
+
+        try {
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Command buffer recording interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Command buffer recording failed", e.getCause());
+        }
+
+        try (MemoryStack stack = stackPush()) {
+            PointerBuffer secondaries = stack.mallocPointer(tasks);
+            for (VkCommandBuffer commandBuffer : recorded) {
+                secondaries.put(commandBuffer);
+            }
+            vkCmdExecuteCommands(frame.primary, secondaries.flip());
+        }
+
+        RenderStats.draws(count, recordTriangles.getAndSet(0));
+        draws += count;
+        secondaryBuffers += tasks;
+        recordNanos += System.nanoTime() - start;
+    }
+
+    // Any thread, the command buffer's pool is used by this call alone
+    private void record(VkCommandBuffer commandBuffer, Frame frame, long framebuffer, DrawList list, int from, int to) {
+        try (MemoryStack stack = stackPush()) {
+            VkCommandBufferInheritanceInfo inheritance = VkCommandBufferInheritanceInfo.calloc(stack)
+                    .sType$Default()
+                    .renderPass(renderPass)
+                    .subpass(0)
+                    .framebuffer(framebuffer);
+            VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack)
+                    .sType$Default()
+                    .flags(VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT | VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT)
+                    .pInheritanceInfo(inheritance);
+            vkBeginCommandBuffer(commandBuffer, beginInfo);
+
+            VkViewport.Buffer viewport = VkViewport.calloc(1, stack)
+                    .width(targetWidth)
+                    .height(targetHeight)
+                    .minDepth(0.0f)
+                    .maxDepth(1.0f);
+            vkCmdSetViewport(commandBuffer, 0, viewport);
+            VkRect2D.Buffer scissor = VkRect2D.calloc(1, stack);
+            scissor.extent().set(targetWidth, targetHeight);
+            vkCmdSetScissor(commandBuffer, 0, scissor);
+            vkCmdBindDescriptorSets(commandBuffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipelineLayout, 0,
+                    stack.longs(frame.cameraSet), null);
+
+            LongBuffer vertexBuffers = stack.mallocLong(3);
+            LongBuffer offsets = stack.longs(0, 0, 0);
+            LongBuffer textureSet = stack.mallocLong(1);
+            FloatBuffer constants = stack.mallocFloat(DrawList.TRANSFORM_FLOATS + DrawList.COLOR_FLOATS);
+            float[] transforms = list.getTransforms();
+            float[] colors = list.getColors();
+            VulkanPipeline boundPipeline = null;
+            VulkanMesh boundMesh = null;
+            VulkanTexture boundTexture = null;
+            long triangles = 0;
+
+            for (int i = from; i < to; i++) {
+                VulkanPipeline pipeline = (VulkanPipeline) list.getPipeline(i);
+                if (pipeline != boundPipeline) {
+                    vkCmdBindPipeline(commandBuffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipeline.pipeline);
+                    boundPipeline = pipeline;
+                }
+                VulkanMesh mesh = (VulkanMesh) list.getMesh(i);
+                if (mesh != boundMesh) {
+                    for (int stream = 0; stream < 3; stream++) {
+                        vertexBuffers.put(stream, mesh.streams[stream].buffer);
+                    }
+                    vkCmdBindVertexBuffers(commandBuffer, 0, vertexBuffers, offsets);
+                    vkCmdBindIndexBuffer(commandBuffer, mesh.indices.buffer, 0, VK_INDEX_TYPE_UINT32);
+                    boundMesh = mesh;
+                }
+                VulkanTexture texture = (VulkanTexture) (list.getTexture(i) != null ? list.getTexture(i) : whiteTexture);
+                if (texture != boundTexture) {
+                    textureSet.put(0, texture.set);
+                    vkCmdBindDescriptorSets(commandBuffer, VK_PIPELINE_BIND_POINT_GRAPHICS, pipelineLayout, 1, textureSet, null);
+                    boundTexture = texture;
+                }
+
+                constants.put(0, transforms, i * DrawList.TRANSFORM_FLOATS, DrawList.TRANSFORM_FLOATS);
+                constants.put(DrawList.TRANSFORM_FLOATS, colors, i * DrawList.COLOR_FLOATS, DrawList.COLOR_FLOATS);
+                vkCmdPushConstants(commandBuffer, pipelineLayout, VK_SHADER_STAGE_VERTEX_BIT | VK_SHADER_STAGE_FRAGMENT_BIT, 0, constants);
+                vkCmdDrawIndexed(commandBuffer, mesh.indexCount, 1, 0, 0, 0);
+                triangles += mesh.indexCount / 3;
+            }
+
+            check(vkEndCommandBuffer(commandBuffer), "vkEndCommandBuffer");
+            recordTriangles.addAndGet((int) triangles);
+        }
+    }
+
+    @Override
+    public void endFrame() {
+        if (!frameOpen) {
+            return;
+        }
+        frameOpen = false;
+        Frame frame = frames[frameSlot];
+        vkCmdEndRenderPass(frame.primary);
+        check(vkEndCommandBuffer(frame.primary), "vkEndCommandBuffer");
+
+        try (MemoryStack stack = stackPush()) {
+            VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack)
+                    .sType$Default()
+                    .pCommandBuffers(stack.pointers(frame.primary));
+            if (surface != VK_NULL_HANDLE) {
+                submitInfo
+                        .waitSemaphoreCount(1)
+                        .pWaitSemaphores(stack.longs(frame.imageAvailable))
+                        .pWaitDstStageMask(stack.ints(VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT))
+                        .pSignalSemaphores(stack.longs(targets[imageIndex].renderFinished));
+            }
+            check(vkQueueSubmit(queue, submitInfo, frame.fence), "vkQueueSubmit");
+
+            if (surface != VK_NULL_HANDLE) {
+                VkPresentInfoKHR presentInfo = VkPresentInfoKHR.calloc(stack)
+                        .sType$Default()
+                        .pWaitSemaphores(stack.longs(targets[imageIndex].renderFinished))
+                        .swapchainCount(1)
+                        .pSwapchains(stack.longs(swapchain))
+                        .pImageIndices(stack.ints(imageIndex));
+                int result = vkQueuePresentKHR(queue, presentInfo);
+                if (result == VK_ERROR_OUT_OF_DATE_KHR || result == VK_SUBOPTIMAL_KHR) {
+                    targetsStale = true;
+                } else {
+                    check(result, "vkQueuePresentKHR");
+                }
+            }
+        }
+
+        lastSubmittedSlot = frameSlot;
+        lastSubmittedImage = imageIndex;
+        frameSlot = (frameSlot + 1) % FRAMES_IN_FLIGHT;
+        frameCount++;
+    }
+
+    // Headless only, a presented swapchain image is no longer ours to read
+    @Override
+    public void readPixels(ByteBuffer rgba) {
+        if (surface != VK_NULL_HANDLE) {
+            throw new UnsupportedOperationException("readPixels needs a headless VulkanBackend");
+        }
+        if (lastSubmittedSlot < 0) {
+            throw new IllegalStateException("No frame has been rendered yet");
+        }
+        int width = targetWidth;
+        int height = targetHeight;
+        long rowBytes = (long) width * 4;
+        VulkanBuffer readback = createHostBuffer(rowBytes * height, VK_BUFFER_USAGE_TRANSFER_DST_BIT, true);
+        long image = targets[lastSubmittedImage].image;
+        // Queue order puts the copy after the frame, the render pass dependency makes its writes visible
+        runOnce(commandBuffer -> {
+            try (MemoryStack stack = stackPush()) {
+                vkCmdCopyImageToBuffer(commandBuffer, image, VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, readback.buffer,
+                        imageRegion(stack, width, height));
+                // The fence alone does not make the copy visible to the host
+                VkBufferMemoryBarrier.Buffer hostRead = VkBufferMemoryBarrier.calloc(1, stack)
+                        .sType$Default()
+                        .srcAccessMask(VK_ACCESS_TRANSFER_WRITE_BIT)
+                        .dstAccessMask(VK_ACCESS_HOST_READ_BIT)
+                        .srcQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .dstQueueFamilyIndex(VK_QUEUE_FAMILY_IGNORED)
+                        .buffer(readback.buffer)
+                        .offset(0)
+                        .size(VK_WHOLE_SIZE);
+                vkCmdPipelineBarrier(commandBuffer, VK_PIPELINE_STAGE_TRANSFER_BIT, VK_PIPELINE_STAGE_HOST_BIT, 0,
+                        null, hostRead, null);
+            }
+        });
+        vmaInvalidateAllocation(allocator, readback.allocation, 0, VK_WHOLE_SIZE);
+
+        // Vulkan images start at the top row, the interface promises GL's bottom row first
+        long destination = MemoryUtil.memAddress(rgba);
+        for (int row = 0; row < height; row++) {
+            MemoryUtil.memCopy(readback.mapped + (height - 1 - row) * rowBytes, destination + row * rowBytes, rowBytes);
+        }
+        vmaDestroyBuffer(allocator, readback.buffer, readback.allocation);
+    }
+
+    // Resources are destroyed once no frame that may still use them is in flight
+    private void deferDeletion(Runnable deletion) {
+        deletions.add(new PendingDeletion(frameNumber + FRAMES_IN_FLIGHT, deletion));
+    }
+
+    private void runDeletions(boolean all) {
+        while (!deletions.isEmpty() && (all || deletions.peek().afterFrame <= frameNumber)) {
+            deletions.poll().deletion.run();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        vkDeviceWaitIdle(device);
+        recorders.shutdown();
+        whiteTexture.dispose();
+        runDeletions(true);
+        savePipelineCache();
+
+        for (Frame frame : frames) {
+            frame.destroy();
+        }
+        destroyTargets();
+        if (swapchain != VK_NULL_HANDLE) {
+            vkDestroySwapchainKHR(device, swapchain, null);
+        }
+        vkDestroyPipelineCache(device, pipelineCache, null);
+        vkDestroySampler(device, sampler, null);
+        vkDestroyDescriptorPool(device, descriptorPool, null);
+        vkDestroyPipelineLayout(device, pipelineLayout, null);
+        vkDestroyDescriptorSetLayout(device, cameraSetLayout, null);
+        vkDestroyDescriptorSetLayout(device, textureSetLayout, null);
+        vkDestroyRenderPass(device, renderPass, null);
+        vkDestroyCommandPool(device, uploadPool, null);
+        vmaDestroyAllocator(allocator);
+        vkDestroyDevice(device, null);
+        if (surface != VK_NULL_HANDLE) {
+            vkDestroySurfaceKHR(instance, surface, null);
+        }
+        vkDestroyInstance(instance, null);
+    }
+
+    @Override
+    public String toString() {
+        double perFrame = Math.max(frameCount, 1);
+        return String.format("Vulkan backend on %s (%s %dx%d, %d images): %d frames, %.1f draws in %.1f command buffers per frame on up to %d threads, %.3f ms CPU recording per frame, %d pipelines created in %.1f ms (cache %s), %d target rebuilds",
+                deviceName, surface != VK_NULL_HANDLE ? "swapchain" : "headless", targetWidth, targetHeight, targets.length,
+                frameCount, draws / perFrame, secondaryBuffers / perFrame, recorderThreads,
+                recordNanos / perFrame / 1_000_000.0, pipelinesCreated, pipelineNanos / 1_000_000.0, pipelineCacheState,
+                swapchainRebuilds);
+    }
+
+    private static void check(int result, String what) {
+        if (result != VK_SUCCESS) {
+            throw new RuntimeException(what + " failed: " + result);
+        }
+    }
+
+    private static final class PendingDeletion {
+        private final long afterFrame;
+        private final Runnable deletion;
+
+        private PendingDeletion(long afterFrame, Runnable deletion) {
+            this.afterFrame = afterFrame;
+            this.deletion = deletion;
+        }
+    }
+
+    private static final class Target {
+        private long image;
+        private long allocation;
+        private long view;
+        private long framebuffer;
+        private long renderFinished;
+    }
+
+    // Everything one frame in flight owns: its primary buffer, a command pool per recording
+    // slot with the secondaries allocated from it so far, sync objects and the camera block
+    private final class Frame {
+        private final long commandPool;
+        private final VkCommandBuffer primary;
+        private final long fence;
+        private final long imageAvailable;
+        private final long[] recordPools;
+        private final List<List<VkCommandBuffer>> recordBuffers = new ArrayList<>();
+        private final int[] recordUsed;
+        private final VulkanBuffer camera;
+        private final long cameraSet;
+        private final Matrix4f clipProjection = new Matrix4f();
+
+        private Frame() {
+            try (MemoryStack stack = stackPush()) {
+                commandPool = createCommandPool(stack, 0);
+                primary = allocateCommandBuffer(stack, commandPool, VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+
+                VkFenceCreateInfo fenceInfo = VkFenceCreateInfo.calloc(stack)
+                        .sType$Default()
+                        .flags(VK_FENCE_CREATE_SIGNALED_BIT);
+                LongBuffer pHandle = stack.mallocLong(1);
+                check(vkCreateFence(device, fenceInfo, null, pHandle), "vkCreateFence");
+                fence = pHandle.get(0);
+                if (surface != VK_NULL_HANDLE) {
+                    VkSemaphoreCreateInfo semaphoreInfo = VkSemaphoreCreateInfo.calloc(stack).sType$Default();
+                    check(vkCreateSemaphore(device, semaphoreInfo, null, pHandle), "vkCreateSemaphore");
+                    imageAvailable = pHandle.get(0);
+                } else {
+                    imageAvailable = VK_NULL_HANDLE;
+                }
+
+                recordPools = new long[recorderThreads];
+                recordUsed = new int[recorderThreads];
+                for (int i = 0; i < recorderThreads; i++) {
+                    recordPools[i] = createCommandPool(stack, VK_COMMAND_POOL_CREATE_TRANSIENT_BIT);
+                    recordBuffers.add(new ArrayList<>());
+                }
+
+                camera = createHostBuffer(CAMERA_BLOCK_SIZE, VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, false);
+                cameraSet = allocateSet(stack, cameraSetLayout);
+                VkDescriptorBufferInfo.Buffer bufferInfo = VkDescriptorBufferInfo.calloc(1, stack)
+                        .buffer(camera.buffer)
+                        .offset(0)
+                        .range(CAMERA_BLOCK_SIZE);
+                VkWriteDescriptorSet.Buffer write = VkWriteDescriptorSet.calloc(1, stack)
+                        .sType$Default()
+                        .dstSet(cameraSet)
+                        .dstBinding(0)
+                        .descriptorType(VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER)
+                        .pBufferInfo(bufferInfo)
+                        .descriptorCount(1);
+                vkUpdateDescriptorSets(device, write, null);
+            }
+        }
+
+        // Secondaries are allocated once and reused after their pool is reset each frame
+        private VkCommandBuffer nextSecondary(int slot) {
+            List<VkCommandBuffer> buffers = recordBuffers.get(slot);
+            if (recordUsed[slot] == buffers.size()) {
+                try (MemoryStack stack = stackPush()) {
+                    buffers.add(allocateCommandBuffer(stack, recordPools[slot], VK_COMMAND_BUFFER_LEVEL_SECONDARY));
+                }
+            }
+            return buffers.get(recordUsed[slot]++);
+        }
+
+        private void destroy() {
+            for (long pool : recordPools) {
+                vkDestroyCommandPool(device, pool, null);
+            }
+            vkDestroyCommandPool(device, commandPool, null);
+            vkDestroyFence(device, fence, null);
+            if (imageAvailable != VK_NULL_HANDLE) {
+                vkDestroySemaphore(device, imageAvailable, null);
+            }
+            vkFreeDescriptorSets(device, descriptorPool, cameraSet);
+            vmaDestroyBuffer(allocator, camera.buffer, camera.allocation);
+        }
+    }
+
+    private final class VulkanBuffer implements Buffer {
+        private final long buffer;
+        private final long allocation;
+        private final long size;
+        // Host address for mapped buffers, 0 for device local ones
+        private final long mapped;
+
+        private VulkanBuffer(long buffer, long allocation, long size, long mapped) {
+            this.buffer = buffer;
+            this.allocation = allocation;
+            this.size = size;
+            this.mapped = mapped;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public long getGpuMemoryBytes() {
+            return size;
+        }
+
+        @Override
+        public void dispose() {
+            deferDeletion(() -> vmaDestroyBuffer(allocator, buffer, allocation));
+        }
+    }
+
+    private final class VulkanTexture implements Texture {
+        private final long image;
+        private final long allocation;
+        private final long view;
+        private final long set;
+        private final int width;
+        private final int height;
+
+        private VulkanTexture(long image, long allocation, long view, long set, int width, int height) {
+            this.image = image;
+            this.allocation = allocation;
+            this.view = view;
+            this.set = set;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public long getGpuMemoryBytes() {
+            return (long) width * height * 4;
+        }
+
+        @Override
+        public void dispose() {
+            deferDeletion(() -> {
+                vkFreeDescriptorSets(device, descriptorPool, set);
+                vkDestroyImageView(device, view, null);
+                vmaDestroyImage(allocator, image, allocation);
+            });
+        }
+    }
+
+    private static final class VulkanMesh implements Mesh {
+        private final VulkanBuffer[] streams;
+        private final VulkanBuffer indices;
+        private final int indexCount;
+
+        private VulkanMesh(VulkanBuffer[] streams, VulkanBuffer indices, int indexCount) {
+            this.streams = streams;
+            this.indices = indices;
+            this.indexCount = indexCount;
+        }
+
+        @Override
+        public int getIndexCount() {
+            return indexCount;
+        }
+
+        @Override
+        public long getGpuMemoryBytes() {
+            long bytes = indices.getGpuMemoryBytes();
+            for (VulkanBuffer stream : streams) {
+                bytes += stream.getGpuMemoryBytes();
+            }
+            return bytes;
+        }
+
+        @Override
+        public void dispose() {
+            for (VulkanBuffer stream : streams) {
+                stream.dispose();
+            }
+            indices.dispose();
+        }
+    }
+
+    private final class VulkanPipeline implements Pipeline {
+        private final long pipeline;
+
+        private VulkanPipeline(long pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        @Override
+        public long getGpuMemoryBytes() {
+            return 0;
+        }
+
+        @Override
+        public void dispose() {
+            deferDeletion(() -> vkDestroyPipeline(device, pipeline, null));
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.coldary.utils;
+
+import com.coldary.objects.ChunkMesh;
+import com.coldary.objects.ChunkSource;
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.opengl.GL30.*;
+
+// Streams a grid of world chunks in and out around the camera.
+//
+// Every chunk whose center lies within the load radius of the camera's chunk is requested,
+// built by a ChunkSource on background workers and uploaded on the GL thread. Requests are
+// dispatched and uploaded nearest first, with chunks ahead of the camera weighted closer
+// than those behind it, and uploads stop once a frame has spent its byte budget. Chunks are
+// only evicted beyond the load radius plus a hysteresis margin, so driving back and forth
+// over a chunk border does not thrash. Must only be used from the GL thread.
+public class WorldStreamer implements GpuResource {
+
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_BUILDING = 1;
+    private static final int STATE_READY = 2;
+    private static final int STATE_RESIDENT = 3;
+    // Given up on after MAX_BUILD_ATTEMPTS failed builds, kept so it is not requested again
+    private static final int STATE_FAILED = 4;
+
+    private static final int MAX_BUILD_ATTEMPTS = 3;
+
+    // Straight ahead a chunk counts as this fraction closer, straight behind as further
+    private static final float HEADING_WEIGHT = 0.5f;
+    private static final long THROUGHPUT_WINDOW_NANOS = 1_000_000_000L;
+
+    private static final Comparator<Chunk> BY_PRIORITY = Comparator.comparingDouble(chunk -> chunk.priority);
+
+    private static class Chunk {
+        final int x;
+        final int z;
+        final float[] bounds = new float[6];
+        int state = STATE_QUEUED;
+        float priority;
+
+        // Written by the worker, handed over through the built queue
+        ChunkMesh mesh;
+        boolean failed;
+        long buildNanos;
+        volatile boolean evicted;
+        int attempts;
+
+        // GL objects once resident, vao 0 for chunks without geometry
+        int vao;
+        int vbo;
+        int ibo;
+        int indexCount;
+        int indexType;
+        long bytes;
+
+        Chunk(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+    }
+
+    private final ChunkSource source;
+    private final float chunkSize;
+    private final float loadRadius;
+    private final float evictRadius;
+    private final long uploadBudgetBytes;
+    private final int maxInFlight;
+    private final ExecutorService workers;
+
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private final List<Chunk> queued = new ArrayList<>();
+    private final List<Chunk> uploads = new ArrayList<>();
+    private final List<Chunk> resident = new ArrayList<>();
+    private final ConcurrentLinkedQueue<Chunk> built = new ConcurrentLinkedQueue<>();
+    private int inFlight;
+
+    private final Vector3f cameraPosition = new Vector3f();
+    private final Vector3f heading = new Vector3f();
+    private int centerX = Integer.MIN_VALUE;
+    private int centerZ = Integer.MIN_VALUE;
+
+    private final FrustumIntersection frustum = new FrustumIntersection();
+    private final Matrix4f viewProjection = new Matrix4f();
+    private final Matrix4f identity = new Matrix4f();
+
+    // Stats
+    private long residentBytes;
+    private long totalUploadedBytes;
+    private long frameUploadBytes;
+    private long windowStart = System.nanoTime();
+    private long windowBytes;
+    private int windowChunks;
+    private double throughputBytesPerSecond;
+    private double chunksPerSecond;
+    private long builtChunks;
+    private long totalBuildNanos;
+    private long evictedChunks;
+    private long budgetLimitedFrames;
+    private final AtomicInteger buildFailures = new AtomicInteger();
+    private long abandonedChunks;
+    private int drawnChunks;
+    private int culledChunks;
+    // Bumped whenever drawable geometry appears or goes, for caches of the rendered world
+    private long residencyVersion;
+
+    // Radii in world units; chunks are evicted past loadRadius + hysteresis
+    public WorldStreamer(ChunkSource source, float chunkSize, float loadRadius, float hysteresis, long uploadBudgetBytes) {
+        this.source = source;
+        this.chunkSize = chunkSize;
+        this.loadRadius = loadRadius;
+        this.evictRadius = loadRadius + Math.max(hysteresis, 0);
+        this.uploadBudgetBytes = uploadBudgetBytes;
+
+        // Leave cores for the GL and simulation threads
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+        this.maxInFlight = threads * 2;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(NativeMemory.workerThread(runnable), "ChunkWorker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    // Once per frame, before render, with the camera of the snapshot being drawn
+    public void update(Vector3f position, Vector3f front) {
+        cameraPosition.set(position);
+        heading.set(front.x, 0, front.z);
+        if (heading.lengthSquared() > 0) {
+            heading.normalize();
+        }
+
+        // Requests and evictions only change when the camera enters another chunk
+        int x = (int) Math.floor(position.x / chunkSize);
+        int z = (int) Math.floor(position.z / chunkSize);
+        if (x != centerX || z != centerZ) {
+            centerX = x;
+            centerZ = z;
+            evictOutside();
+            requestAround();
+        }
+
+        collectBuilt();
+        dispatch();
+        upload();
+        updateThroughput();
+    }
+
+    private void requestAround() {
+        int range = (int) Math.ceil(loadRadius / chunkSize);
+        for (int dz = -range; dz <= range; dz++) {
+            for (int dx = -range; dx <= range; dx++) {
+                if (Math.sqrt(dx * dx + dz * dz) * chunkSize > loadRadius) {
+                    continue;
+                }
+                long key = key(centerX + dx, centerZ + dz);
+                if (!chunks.containsKey(key)) {
+                    Chunk chunk = new Chunk(centerX + dx, centerZ + dz);
+                    chunks.put(key, chunk);
+                    queued.add(chunk);
+                }
+            }
+        }
+    }
+
+    private void evictOutside() {
+        Iterator<Chunk> iterator = chunks.values().iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            int dx = chunk.x - centerX;
+            int dz = chunk.z - centerZ;
+            if (Math.sqrt(dx * dx + dz * dz) * chunkSize <= evictRadius) {
+                continue;
+            }
+            iterator.remove();
+            evict(chunk);
+            evictedChunks++;
+        }
+    }
+
+    private void evict(Chunk chunk) {
+        switch (chunk.state) {
+            case STATE_QUEUED:
+                queued.remove(chunk);
+                break;
+            case STATE_BUILDING:
+                // Freed when the worker hands it back
+                chunk.evicted = true;
+                break;
+            case STATE_READY:
+                uploads.remove(chunk);
+                chunk.mesh.free();
+                chunk.mesh = null;
+                break;
+            case STATE_RESIDENT:
+                resident.remove(chunk);
+                if (chunk.vao != 0) {
+                    residencyVersion++;
+                }
+                deleteGpuObjects(chunk);
+                break;
+            case STATE_FAILED:
+                break;
+        }
+    }
+
+    private void collectBuilt() {
+        Chunk chunk;
+        while ((chunk = built.poll()) != null) {
+            inFlight--;
+            builtChunks++;
+            totalBuildNanos += chunk.buildNanos;
+            if (chunk.evicted) {
+                if (chunk.mesh != null) {
+                    chunk.mesh.free();
+                    chunk.mesh = null;
+                }
+                continue;
+            }
+            if (chunk.failed) {
+                // Back in the queue, re-sorted with the rest on the next dispatch
+                chunk.failed = false;
+                if (chunk.attempts < MAX_BUILD_ATTEMPTS) {
+                    chunk.state = STATE_QUEUED;
+                    queued.add(chunk);
+                } else {
+                    chunk.state = STATE_FAILED;
+                    abandonedChunks++;
+                    System.err.println("Giving up on chunk " + chunk.x + ", " + chunk.z + " after " + chunk.attempts + " failed builds");
+                }
+            } else if (chunk.mesh == null) {
+                // Nothing to draw, but resident so it is not requested again
+                chunk.state = STATE_RESIDENT;
+                resident.add(chunk);
+            } else {
+                chunk.state = STATE_READY;
+                uploads.add(chunk);
+            }
+        }
+    }
+
+    private void dispatch() {
+        if (queued.isEmpty() || inFlight >= maxInFlight) {
+            return;
+        }
+        // Priorities move with the camera, so they are recomputed whenever work is handed out
+        for (Chunk chunk : queued) {
+            chunk.priority = priority(chunk);
+        }
+        queued.sort(BY_PRIORITY);
+
+        int count = Math.min(maxInFlight - inFlight, queued.size());
+        for (int i = 0; i < count; i++) {
+            Chunk chunk = queued.get(i);
+            chunk.state = STATE_BUILDING;
+            chunk.attempts++;
+            inFlight++;
+            workers.execute(() -> build(chunk));
+        }
+        queued.subList(0, count).clear();
+    }
+
+    // Worker side
+    private void build(Chunk chunk) {
+        long start = System.nanoTime();
+        if (!chunk.evicted) {
+            try {
+                chunk.mesh = source.build(chunk.x, chunk.z, chunkSize);
+            } catch (RuntimeException e) {
+                chunk.failed = true;
+                buildFailures.incrementAndGet();
+                System.err.println("Failed to build chunk " + chunk.x + ", " + chunk.z + ": " + e);
+            }
+        }
+        chunk.buildNanos = System.nanoTime() - start;
+        built.add(chunk);
+    }
+
+    // Distance from the camera, scaled down ahead of it and up behind it
+    private float priority(Chunk chunk) {
+        float dx = (chunk.x + 0.5f) * chunkSize - cameraPosition.x;
+        float dz = (chunk.z + 0.5f) * chunkSize - cameraPosition.z;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+        if (distance < 1e-4f) {
+            return 0;
+        }
+        float alignment = (dx * heading.x + dz * heading.z) / distance;
+        return distance * (1.0f - HEADING_WEIGHT * alignment);
+    }
+
+    private void upload() {
+        frameUploadBytes = 0;
+        if (uploads.isEmpty()) {
+            return;
+        }
+        for (Chunk chunk : uploads) {
+            chunk.priority = priority(chunk);
+        }
+        uploads.sort(BY_PRIORITY);
+
+        // At least one chunk per frame, so a chunk larger than the budget still gets in
+        int count = 0;
+        while (count < uploads.size()) {
+            Chunk chunk = uploads.get(count);
+            long bytes = chunk.mesh.getByteSize();
+            if (count > 0 && frameUploadBytes + bytes > uploadBudgetBytes) {
+                budgetLimitedFrames++;
+                break;
+            }
+            uploadChunk(chunk);
+            frameUploadBytes += bytes;
+            count++;
+        }
+        uploads.subList(0, count).clear();
+        totalUploadedBytes += frameUploadBytes;
+        windowBytes += frameUploadBytes;
+        windowChunks += count;
+    }
+
+    private void uploadChunk(Chunk chunk) {
+        ChunkMesh mesh = chunk.mesh;
+        chunk.vao = glGenVertexArrays();
+        glBindVertexArray(chunk.vao);
+
+        chunk.vbo = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, chunk.vbo);
+        glBufferData(GL_ARRAY_BUFFER, mesh.vertices, GL_STATIC_DRAW);
+        glVertexAttribPointer(ModelLoader.POSITION_ATTRIBUTE, 3, GL_FLOAT, false, ChunkMesh.VERTEX_BYTES, 0);
+        glEnableVertexAttribArray(ModelLoader.POSITION_ATTRIBUTE);
+        glVertexAttribPointer(ModelLoader.NORMAL_ATTRIBUTE, 3, GL_FLOAT, false, ChunkMesh.VERTEX_BYTES, ChunkMesh.NORMAL_OFFSET);
+        glEnableVertexAttribArray(ModelLoader.NORMAL_ATTRIBUTE);
+        glVertexAttribPointer(ModelLoader.TEXCOORD_ATTRIBUTE, 2, GL_FLOAT, false, ChunkMesh.VERTEX_BYTES, ChunkMesh.TEXCOORD_OFFSET);
+        glEnableVertexAttribArray(ModelLoader.TEXCOORD_ATTRIBUTE);
+
+        chunk.ibo = glGenBuffers();
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, chunk.ibo);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, mesh.indices, GL_STATIC_DRAW);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        chunk.indexCount = mesh.indexCount;
+        chunk.indexType = mesh.indexSize == Short.BYTES ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT;
+        chunk.bytes = mesh.getByteSize();
+        System.arraycopy(mesh.bounds, 0, chunk.bounds, 0, 6);
+        mesh.free();
+        chunk.mesh = null;
+
+        chunk.state = STATE_RESIDENT;
+        resident.add(chunk);
+        residentBytes += chunk.bytes;
+        residencyVersion++;
+    }
+
+    private void deleteGpuObjects(Chunk chunk) {
+        if (chunk.vao == 0) {
+            return;
+        }
+        glDeleteVertexArrays(chunk.vao);
+        glDeleteBuffers(chunk.vbo);
+        glDeleteBuffers(chunk.ibo);
+        chunk.vao = 0;
+        residentBytes -= chunk.bytes;
+    }
+
+    private void updateThroughput() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed >= THROUGHPUT_WINDOW_NANOS) {
+            throughputBytesPerSecond = windowBytes * 1e9 / elapsed;
+            chunksPerSecond = windowChunks * 1e9 / elapsed;
+            windowBytes = 0;
+            windowChunks = 0;
+            windowStart = now;
+        }
+    }
+
+    // Chunk vertices are in world space, so the model matrix is the identity
+    public void render(Shaders shader, Matrix4f view, Matrix4f projection) {
+        frustum.set(projection.mul(view, viewProjection));
+        shader.setMatrixUniform(shader.getShaderProgram(), "model", identity);
+
+        drawnChunks = culledChunks = 0;
+        for (Chunk chunk : resident) {
+            if (chunk.vao == 0) {
+                continue;
+            }
+            float[] b = chunk.bounds;
+            if (!frustum.testAab(b[0], b[1], b[2], b[3], b[4], b[5])) {
+                culledChunks++;
+                continue;
+            }
+            glBindVertexArray(chunk.vao);
+            glDrawElements(GL_TRIANGLES, chunk.indexCount, chunk.indexType, 0);
+            RenderStats.stateChange();
+            RenderStats.draw(chunk.indexCount / 3);
+            drawnChunks++;
+        }
+        glBindVertexArray(0);
+    }
+
+    // Depth only pass into a shadow cascade, leaves the camera pass stats alone
+    public int renderCasters(Shaders shader, FrustumIntersection cascade) {
+        shader.setMatrixUniform(shader.getShaderProgram(), "model", identity);
+        int drawn = 0;
+        for (Chunk chunk : resident) {
+            float[] b = chunk.bounds;
+            if (chunk.vao == 0 || !cascade.testAab(b[0], b[1], b[2], b[3], b[4], b[5])) {
+                continue;
+            }
+            glBindVertexArray(chunk.vao);
+            glDrawElements(GL_TRIANGLES, chunk.indexCount, chunk.indexType, 0);
+            RenderStats.stateChange();
+            RenderStats.draw(chunk.indexCount / 3);
+            drawn++;
+        }
+        glBindVertexArray(0);
+        return drawn;
+    }
+
+    private static long key(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    // Requested chunks not yet drawable: queued, being built, or waiting for upload budget
+    public int getPendingCount() {
+        return queued.size() + inFlight + uploads.size();
+    }
+
+    public double getThroughputBytesPerSecond() {
+        return throughputBytesPerSecond;
+    }
+
+    public double getChunksPerSecond() {
+        return chunksPerSecond;
+    }
+
+    public long getTotalUploadedBytes() {
+        return totalUploadedBytes;
+    }
+
+    public long getFrameUploadBytes() {
+        return frameUploadBytes;
+    }
+
+    public long getEvictedCount() {
+        return evictedChunks;
+    }
+
+    public int getDrawnCount() {
+        return drawnChunks;
+    }
+
+    public int getCulledCount() {
+        return culledChunks;
+    }
+
+    public long getResidencyVersion() {
+        return residencyVersion;
+    }
+
+    @Override
+    public long getGpuMemoryBytes() {
+        return residentBytes;
+    }
+
+    @Override
+    public void dispose() {
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Chunk chunk;
+        while ((chunk = built.poll()) != null) {
+            if (chunk.mesh != null) {
+                chunk.mesh.free();
+            }
+        }
+        for (Chunk ready : uploads) {
+            ready.mesh.free();
+        }
+        for (Chunk loaded : resident) {
+            deleteGpuObjects(loaded);
+        }
+        uploads.clear();
+        resident.clear();
+        queued.clear();
+        chunks.clear();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("World streaming: %d resident chunks (%.1f MB), %d pending (%d queued, %d building, %d awaiting upload), "
+                        + "%.2f MB/s and %.1f chunks/s over the last second, %.1f MB uploaded in total, "
+                        + "%d built (avg %.2f ms, %d failed, %d given up on), %d evicted, upload budget hit on %d frames, "
+                        + "last frame %d drawn / %d culled",
+                resident.size(), residentBytes / (1024.0 * 1024.0), getPendingCount(), queued.size(), inFlight, uploads.size(),
+                throughputBytesPerSecond / (1024.0 * 1024.0), chunksPerSecond, totalUploadedBytes / (1024.0 * 1024.0),
+                builtChunks, builtChunks > 0 ? totalBuildNanos / 1e6 / builtChunks : 0.0, buildFailures.get(), abandonedChunks, evictedChunks,
+                budgetLimitedFrames, drawnChunks, culledChunks);
+    }
+}
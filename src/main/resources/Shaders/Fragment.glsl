@@ -1,34 +1,64 @@
 #version 330 core
 
+#include "common/Lighting.glsl"
+#ifdef CLUSTERED_LIGHTING
+#include "common/Clusters.glsl"
+#endif
+#ifdef DITHER_FADE
+#include "common/Dither.glsl"
+#endif
+#ifdef SUN_SHADOWS
+#include "common/Shadows.glsl"
+#endif
+
 in vec3 fragNormal;
 in vec3 fragPosition;
+#ifdef CLUSTERED_LIGHTING
+in float fragViewDepth;
+#endif
 
 out vec4 color;
 
-uniform vec3 ambient;
-uniform vec3 diffuse;
-uniform vec3 specular;
-uniform vec3 lightColor;
-uniform vec3 lightPos;
+uniform Material material;
 uniform vec3 viewPos;
-uniform float shininess;
+#ifdef DITHER_FADE
+// Share of the pixels handed over to the impostor, 0 to 1 across the transition band
+uniform float ditherFade;
+#endif
 
-void main() {
-    // Ambient
-    vec3 ambientComponent = ambient * lightColor;
+#ifdef CLUSTERED_LIGHTING
+uniform vec3 ambientLight;
+#elif NUM_LIGHTS > 0
+uniform Light lights[NUM_LIGHTS];
+#endif
 
-    // Diffuse
+void main() {
+#ifdef DITHER_FADE
+    if (ditherNoise(gl_FragCoord.xy) < ditherFade) {
+        discard;
+    }
+#endif
     vec3 norm = normalize(fragNormal);
-    vec3 lightDir = normalize(lightPos - fragPosition);
-    float diff = max(dot(norm, lightDir), 0.0);
-    vec3 diffuseComponent = diff * diffuse * lightColor;
-
-    // Specular
     vec3 viewDir = normalize(viewPos - fragPosition);
-    vec3 reflectDir = reflect(-lightDir, norm);
-    float spec = pow(max(dot(viewDir, reflectDir), 0.0), shininess);
-    vec3 specularComponent = spec * specular * lightColor;
 
-    vec3 result = ambientComponent + diffuseComponent + specularComponent;
+    vec3 result = vec3(0.0);
+#ifdef CLUSTERED_LIGHTING
+    result = ambientLight * material.ambient;
+    uvec2 range = clusterRange(fragViewDepth);
+    for (uint i = 0u; i < range.y; i++) {
+        int light = int(texelFetch(clusterIndices, int(range.x + i)).r);
+        result += shadeClusterLight(light, material, norm, fragPosition, viewDir);
+    }
+#elif NUM_LIGHTS > 0
+    for (int i = 0; i < NUM_LIGHTS; i++) {
+        result += shadeLight(lights[i], material, norm, fragPosition, viewDir);
+    }
+#else
+    result = material.ambient;
+#endif
+#ifdef SUN_SHADOWS
+    result += shadeSun(material, norm, viewDir, sunShadow(fragPosition, norm, viewPos));
+#endif
+
     color = vec4(result, 1.0);
-}
\ No newline at end of file
+}
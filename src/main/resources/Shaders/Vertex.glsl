@@ -3,16 +3,50 @@
 layout(location = 0) in vec3 position;
 layout(location = 1) in vec2 texCoord;
 layout(location = 2) in vec3 normal;
+#ifdef INSTANCING
+layout(location = 3) in mat4 instanceModel;
+#endif
 
 out vec3 fragNormal;
 out vec3 fragPosition;
+#ifdef CLUSTERED_LIGHTING
+out float fragViewDepth;
+#endif
 
+#ifndef INSTANCING
 uniform mat4 model;
-uniform mat4 view;
-uniform mat4 projection;
+#endif
+// Written once per frame into the streaming uniform ring
+layout(std140) uniform CameraBlock {
+    mat4 view;
+    mat4 projection;
+    vec4 viewPosition;
+};
+
+#ifdef QUANTIZED_VERTICES
+// Positions arrive as normalized shorts in [-1, 1] relative to the mesh bounds
+uniform vec3 positionScale;
+uniform vec3 positionOffset;
+#endif
 
 void main() {
-    fragPosition = vec3(model * vec4(position, 1.0));
-    fragNormal = mat3(transpose(inverse(model))) * normal;
-    gl_Position = projection * view * vec4(fragPosition, 1.0);
-}
\ No newline at end of file
+#ifdef INSTANCING
+    mat4 modelMatrix = instanceModel;
+#else
+    mat4 modelMatrix = model;
+#endif
+
+#ifdef QUANTIZED_VERTICES
+    vec3 localPosition = position * positionScale + positionOffset;
+#else
+    vec3 localPosition = position;
+#endif
+
+    fragPosition = vec3(modelMatrix * vec4(localPosition, 1.0));
+    fragNormal = mat3(transpose(inverse(modelMatrix))) * normal;
+    vec4 eyePosition = view * vec4(fragPosition, 1.0);
+#ifdef CLUSTERED_LIGHTING
+    fragViewDepth = -eyePosition.z;
+#endif
+    gl_Position = projection * eyePosition;
+}
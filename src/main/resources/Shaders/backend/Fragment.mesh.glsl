@@ -0,0 +1,30 @@
+#version 330 core
+
+#include "Interface.glsl"
+
+VARYING(0) in vec3 fragPosition;
+VARYING(1) in vec3 fragNormal;
+VARYING(2) in vec2 fragTexCoord;
+
+#ifdef VULKAN
+layout(set = 1, binding = 0) uniform sampler2D albedo;
+#else
+uniform sampler2D albedo;
+#endif
+
+layout(location = 0) out vec4 fragColor;
+
+// Fixed sun and ambient, the same on every backend so their images can be compared
+const vec3 SUN_DIRECTION = vec3(0.32, 0.87, 0.37);
+const vec3 AMBIENT = vec3(0.2);
+
+void main() {
+    vec3 normal = normalize(fragNormal);
+    vec3 viewDirection = normalize(viewPosition.xyz - fragPosition);
+    vec3 halfway = normalize(SUN_DIRECTION + viewDirection);
+    float diffuse = max(dot(normal, SUN_DIRECTION), 0.0);
+    float specular = pow(max(dot(normal, halfway), 0.0), 32.0) * 0.25;
+
+    vec4 base = texture(albedo, fragTexCoord) * color;
+    fragColor = vec4(base.rgb * (AMBIENT + diffuse) + vec3(specular), base.a);
+}
@@ -0,0 +1,30 @@
+// Declarations shared by both render backends. The GL backend compiles these sources as
+// written; for Vulkan they are compiled to SPIR-V with VULKAN defined and the version
+// raised to 450, where varyings need explicit locations and every uniform lives in a block.
+#ifdef VULKAN
+#define VARYING(n) layout(location = n)
+#else
+#define VARYING(n)
+#endif
+
+// Written once per frame, projection already in the backend's clip space conventions
+#ifdef VULKAN
+layout(set = 0, binding = 0, std140) uniform CameraBlock {
+#else
+layout(std140) uniform CameraBlock {
+#endif
+    mat4 view;
+    mat4 projection;
+    vec4 viewPosition;
+};
+
+// Per draw: push constants on Vulkan, plain uniforms on GL
+#ifdef VULKAN
+layout(push_constant) uniform DrawConstants {
+    mat4 model;
+    vec4 color;
+};
+#else
+uniform mat4 model;
+uniform vec4 color;
+#endif
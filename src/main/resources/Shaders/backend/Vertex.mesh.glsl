@@ -0,0 +1,19 @@
+#version 330 core
+
+#include "Interface.glsl"
+
+layout(location = 0) in vec3 position;
+layout(location = 1) in vec2 texCoord;
+layout(location = 2) in vec3 normal;
+
+VARYING(0) out vec3 fragPosition;
+VARYING(1) out vec3 fragNormal;
+VARYING(2) out vec2 fragTexCoord;
+
+void main() {
+    vec4 worldPosition = model * vec4(position, 1.0);
+    fragPosition = worldPosition.xyz;
+    fragNormal = mat3(model) * normal;
+    fragTexCoord = texCoord;
+    gl_Position = projection * view * worldPosition;
+}
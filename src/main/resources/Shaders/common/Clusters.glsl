@@ -0,0 +1,40 @@
+// Clustered light lists, filled by ClusteredLighting on the CPU every frame.
+// Each light is three RGBA32F texels: position + radius, color + inner cone cosine,
+// spot direction + outer cone cosine.
+uniform samplerBuffer clusterLights;
+uniform usamplerBuffer clusterGrid;    // (offset, count) into clusterIndices per cluster
+uniform usamplerBuffer clusterIndices;
+uniform uvec3 clusterDims;
+uniform vec2 clusterTileSize;          // pixels per tile
+uniform vec2 clusterDepthParams;       // slice = log(viewDepth) * x + y
+
+uvec2 clusterRange(float viewDepth) {
+    uvec2 tile = min(uvec2(gl_FragCoord.xy / clusterTileSize), clusterDims.xy - 1u);
+    float slice = log(max(viewDepth, 1e-4)) * clusterDepthParams.x + clusterDepthParams.y;
+    uint z = min(uint(max(slice, 0.0)), clusterDims.z - 1u);
+    uint cluster = (z * clusterDims.y + tile.y) * clusterDims.x + tile.x;
+    return texelFetch(clusterGrid, int(cluster)).xy;
+}
+
+vec3 shadeClusterLight(int light, Material material, vec3 norm, vec3 fragPos, vec3 viewDir) {
+    vec4 positionRadius = texelFetch(clusterLights, light * 3);
+    vec4 colorInner = texelFetch(clusterLights, light * 3 + 1);
+    vec4 directionOuter = texelFetch(clusterLights, light * 3 + 2);
+
+    vec3 toLight = positionRadius.xyz - fragPos;
+    float distance = length(toLight);
+    vec3 lightDir = toLight / max(distance, 1e-4);
+
+    // Smooth window so the light reaches exactly zero at its radius, the cluster bound
+    float ratio = distance / positionRadius.w;
+    float window = clamp(1.0 - ratio * ratio * ratio * ratio, 0.0, 1.0);
+    float attenuation = window * window / (distance * distance + 1.0);
+
+    float spot = smoothstep(directionOuter.w, colorInner.w, dot(-lightDir, directionOuter.xyz));
+
+    float diff = max(dot(norm, lightDir), 0.0);
+    vec3 reflectDir = reflect(-lightDir, norm);
+    float spec = pow(max(dot(viewDir, reflectDir), 0.0), material.shininess);
+
+    return colorInner.rgb * (diff * material.diffuse + spec * material.specular) * attenuation * spot;
+}
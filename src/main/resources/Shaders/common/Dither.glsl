@@ -0,0 +1,7 @@
+// Screen space noise in [0, 1) for dithered fades. A mesh fading out discards where the
+// noise is below the fade and its impostor keeps exactly those pixels, so the two together
+// cover every pixel once and the hand-over shows no seam or double blend.
+float ditherNoise(vec2 pixel) {
+    // Interleaved gradient noise, stable per pixel
+    return fract(52.9829189 * fract(dot(pixel, vec2(0.06711056, 0.00583715))));
+}
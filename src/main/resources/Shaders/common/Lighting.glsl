@@ -0,0 +1,30 @@
+struct Light {
+    vec3 position;
+    vec3 ambient;
+    vec3 diffuse;
+    vec3 specular;
+};
+
+struct Material {
+    vec3 ambient;
+    vec3 diffuse;
+    vec3 specular;
+    float shininess;
+};
+
+vec3 shadeLight(Light light, Material material, vec3 norm, vec3 fragPos, vec3 viewDir) {
+    // Ambient
+    vec3 ambientComponent = light.ambient * material.ambient;
+
+    // Diffuse
+    vec3 lightDir = normalize(light.position - fragPos);
+    float diff = max(dot(norm, lightDir), 0.0);
+    vec3 diffuseComponent = light.diffuse * (diff * material.diffuse);
+
+    // Specular
+    vec3 reflectDir = reflect(-lightDir, norm);
+    float spec = pow(max(dot(viewDir, reflectDir), 0.0), material.shininess);
+    vec3 specularComponent = light.specular * (spec * material.specular);
+
+    return ambientComponent + diffuseComponent + specularComponent;
+}
@@ -0,0 +1,44 @@
+// Directional sun and its cascaded shadow map, set up by ShadowCascades.bind. Cascades are
+// nested boxes around the camera, the first one containing a point has the sharpest texels.
+#define MAX_SHADOW_CASCADES 4
+
+uniform sampler2DArrayShadow shadowMap;
+uniform mat4 shadowMatrices[MAX_SHADOW_CASCADES]; // world to [0, 1] shadow map space
+uniform float shadowTexelSizes[MAX_SHADOW_CASCADES]; // world units per texel
+uniform int shadowCascadeCount;
+uniform float shadowDistance;
+uniform vec3 sunDirection; // towards the sun
+uniform vec3 sunColor;
+
+// 1 lit, 0 shadowed. Shadows fade out over the last tenth of the shadow distance.
+float sunShadow(vec3 position, vec3 normal, vec3 viewPosition) {
+    float fade = smoothstep(shadowDistance * 0.9, shadowDistance, distance(position, viewPosition));
+    if (fade >= 1.0) {
+        return 1.0;
+    }
+    // Normal offset grows at grazing angles where a texel spans the most depth
+    float grazing = 1.0 - clamp(dot(normal, sunDirection), 0.0, 1.0);
+    vec2 texel = 1.0 / vec2(textureSize(shadowMap, 0).xy);
+    for (int i = 0; i < shadowCascadeCount; i++) {
+        vec3 offset = normal * shadowTexelSizes[i] * (0.5 + 1.5 * grazing);
+        vec3 coord = (shadowMatrices[i] * vec4(position + offset, 1.0)).xyz;
+        // Keep the filter footprint inside the cascade
+        if (any(lessThan(coord.xy, 2.0 * texel)) || any(greaterThan(coord.xy, 1.0 - 2.0 * texel)) || coord.z >= 1.0) {
+            continue;
+        }
+        // Four bilinear compares, a 3x3 texel tent
+        float lit = texture(shadowMap, vec4(coord.xy + vec2(-0.5, -0.5) * texel, float(i), coord.z))
+                + texture(shadowMap, vec4(coord.xy + vec2(0.5, -0.5) * texel, float(i), coord.z))
+                + texture(shadowMap, vec4(coord.xy + vec2(-0.5, 0.5) * texel, float(i), coord.z))
+                + texture(shadowMap, vec4(coord.xy + vec2(0.5, 0.5) * texel, float(i), coord.z));
+        return mix(lit * 0.25, 1.0, fade);
+    }
+    return 1.0;
+}
+
+vec3 shadeSun(Material material, vec3 norm, vec3 viewDir, float shadow) {
+    float diff = max(dot(norm, sunDirection), 0.0);
+    vec3 reflectDir = reflect(-sunDirection, norm);
+    float spec = diff > 0.0 ? pow(max(dot(viewDir, reflectDir), 0.0), material.shininess) : 0.0;
+    return sunColor * shadow * (diff * material.diffuse + spec * material.specular);
+}
@@ -0,0 +1,13 @@
+#version 330 core
+
+in vec2 fragTexCoord;
+in vec4 fragColor;
+
+out vec4 color;
+
+// Single channel glyph coverage, solid quads sample a texel that is fully covered
+uniform sampler2D atlas;
+
+void main() {
+    color = vec4(fragColor.rgb, fragColor.a * texture(atlas, fragTexCoord).r);
+}
@@ -0,0 +1,18 @@
+#version 330 core
+
+// Pixel coordinates with the origin at the top left, like the glyph metrics
+layout(location = 0) in vec2 position;
+layout(location = 1) in vec2 texCoord;
+layout(location = 2) in vec4 color;
+
+out vec2 fragTexCoord;
+out vec4 fragColor;
+
+uniform vec2 screenSize;
+
+void main() {
+    fragTexCoord = texCoord;
+    fragColor = color;
+    vec2 ndc = position / screenSize * 2.0 - 1.0;
+    gl_Position = vec4(ndc.x, -ndc.y, 0.0, 1.0);
+}
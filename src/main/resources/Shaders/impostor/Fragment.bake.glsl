@@ -0,0 +1,21 @@
+#version 330 core
+
+in vec3 localPosition;
+in vec3 localNormal;
+
+layout(location = 0) out vec4 albedo;
+layout(location = 1) out vec4 normalOut;
+layout(location = 2) out float depthOut;
+
+uniform vec3 baseColor;
+uniform vec3 center;
+uniform float radius;
+uniform vec3 frameDirection;
+
+void main() {
+    // Alpha is coverage, the material is applied at draw time like it is for the mesh
+    albedo = vec4(baseColor, 1.0);
+    normalOut = vec4(normalize(localNormal) * 0.5 + 0.5, 1.0);
+    // Height above the frame plane through the centre, 0 at +radius (towards the viewer)
+    depthOut = 0.5 - dot(localPosition - center, frameDirection) / (2.0 * radius);
+}
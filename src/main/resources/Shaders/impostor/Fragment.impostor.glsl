@@ -0,0 +1,96 @@
+#version 330 core
+
+#include "/Shaders/common/Lighting.glsl"
+#include "/Shaders/common/Clusters.glsl"
+#include "/Shaders/common/Dither.glsl"
+#ifdef SUN_SHADOWS
+#include "/Shaders/common/Shadows.glsl"
+#endif
+#include "Octahedral.glsl"
+
+flat in vec4 frameCells01;
+flat in vec2 frameCell2;
+flat in vec4 frameWeightsFade;
+in vec4 frameUv01;
+in vec2 frameUv2;
+flat in mat4 modelMatrix;
+flat in mat3 normalMatrix;
+
+out vec4 color;
+
+layout(std140) uniform CameraBlock {
+    mat4 view;
+    mat4 projection;
+    vec4 viewPosition;
+};
+
+uniform sampler2D impostorAlbedo;
+uniform sampler2D impostorNormal;
+uniform sampler2D impostorDepth;
+uniform vec3 impostorCenter;
+uniform float impostorRadius;
+uniform float framesPerSide;
+
+// Same scene uniforms as the mesh shader, so both sides of the fade are lit alike
+uniform Material material;
+uniform vec3 ambientLight;
+
+// Accumulates one view: weighted coverage, and coverage weighted normal and object space
+// position rebuilt from the view's plane point and baked depth
+void sampleFrame(vec2 cell, vec2 uv, float weight, inout vec4 albedo, inout vec3 normal, inout vec3 position,
+                 inout float positionWeight) {
+    if (weight <= 0.0 || any(lessThan(uv, vec2(0.0))) || any(greaterThan(uv, vec2(1.0)))) {
+        return;
+    }
+    vec2 atlasUv = (cell + uv) / framesPerSide;
+    vec4 frameAlbedo = texture(impostorAlbedo, atlasUv);
+    albedo += frameAlbedo * weight;
+
+    float w = weight * frameAlbedo.a;
+    vec3 direction = octahedronDecode(cell / (framesPerSide - 1.0));
+    vec3 right, up;
+    frameBasis(direction, right, up);
+    float height = impostorRadius * (1.0 - 2.0 * texture(impostorDepth, atlasUv).r);
+    vec3 onPlane = (right * (uv.x - 0.5) + up * (uv.y - 0.5)) * 2.0 * impostorRadius;
+    normal += (texture(impostorNormal, atlasUv).xyz * 2.0 - 1.0) * w;
+    position += (onPlane + direction * height) * w;
+    positionWeight += w;
+}
+
+void main() {
+    vec4 albedo = vec4(0.0);
+    vec3 normal = vec3(0.0);
+    vec3 position = vec3(0.0);
+    float positionWeight = 0.0;
+    sampleFrame(frameCells01.xy, frameUv01.xy, frameWeightsFade.x, albedo, normal, position, positionWeight);
+    sampleFrame(frameCells01.zw, frameUv01.zw, frameWeightsFade.y, albedo, normal, position, positionWeight);
+    sampleFrame(frameCell2, frameUv2, frameWeightsFade.z, albedo, normal, position, positionWeight);
+
+    // Fading in keeps the pixels the fading out mesh discards
+    if (albedo.a < 0.5 || ditherNoise(gl_FragCoord.xy) >= frameWeightsFade.w) {
+        discard;
+    }
+
+    vec3 worldPosition = (modelMatrix * vec4(impostorCenter + position / positionWeight, 1.0)).xyz;
+    vec3 norm = normalize(normalMatrix * normal);
+    vec3 viewDir = normalize(viewPosition.xyz - worldPosition);
+    vec4 eyePosition = view * vec4(worldPosition, 1.0);
+
+    // Real depth instead of the quad's, so impostors intersect terrain and each other
+    vec4 clip = projection * eyePosition;
+    gl_FragDepth = clip.z / clip.w * 0.5 + 0.5;
+
+    Material surface = material;
+    surface.ambient *= albedo.rgb / albedo.a;
+    surface.diffuse *= albedo.rgb / albedo.a;
+    vec3 result = ambientLight * surface.ambient;
+    uvec2 range = clusterRange(-eyePosition.z);
+    for (uint i = 0u; i < range.y; i++) {
+        int light = int(texelFetch(clusterIndices, int(range.x + i)).r);
+        result += shadeClusterLight(light, surface, norm, worldPosition, viewDir);
+    }
+#ifdef SUN_SHADOWS
+    result += shadeSun(surface, norm, viewDir, sunShadow(worldPosition, norm, viewPosition.xyz));
+#endif
+    color = vec4(result, 1.0);
+}
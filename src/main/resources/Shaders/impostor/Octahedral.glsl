@@ -0,0 +1,30 @@
+// Full octahedron mapping between unit directions and [0, 1]^2 with +Y at the centre, the
+// layout of impostor atlases. Impostor.octahedronDirection is the CPU twin of the decode.
+
+vec2 signNotZero(vec2 v) {
+    return vec2(v.x >= 0.0 ? 1.0 : -1.0, v.y >= 0.0 ? 1.0 : -1.0);
+}
+
+vec2 octahedronEncode(vec3 direction) {
+    vec2 p = direction.xz / (abs(direction.x) + abs(direction.y) + abs(direction.z));
+    if (direction.y < 0.0) {
+        p = (1.0 - abs(p.yx)) * signNotZero(p);
+    }
+    return p * 0.5 + 0.5;
+}
+
+vec3 octahedronDecode(vec2 uv) {
+    vec2 p = uv * 2.0 - 1.0;
+    vec3 direction = vec3(p.x, 1.0 - abs(p.x) - abs(p.y), p.y);
+    if (direction.y < 0.0) {
+        direction.xz = (1.0 - abs(direction.zx)) * signNotZero(direction.xz);
+    }
+    return normalize(direction);
+}
+
+// Screen axes of the orthographic camera that baked a frame looking back along -direction
+void frameBasis(vec3 direction, out vec3 right, out vec3 up) {
+    vec3 reference = abs(direction.y) > 0.999 ? vec3(0.0, 0.0, 1.0) : vec3(0.0, 1.0, 0.0);
+    right = normalize(cross(reference, direction));
+    up = cross(direction, right);
+}
@@ -0,0 +1,16 @@
+#version 330 core
+
+layout(location = 0) in vec3 position;
+layout(location = 2) in vec3 normal;
+
+out vec3 localPosition;
+out vec3 localNormal;
+
+// Orthographic view of the bounding sphere from one atlas direction
+uniform mat4 viewProjection;
+
+void main() {
+    localPosition = position;
+    localNormal = normal;
+    gl_Position = viewProjection * vec4(position, 1.0);
+}
@@ -0,0 +1,79 @@
+#version 330 core
+
+// Per instance, the world matrix of the object the quad stands in for and its fade in
+layout(location = 0) in mat4 instanceModel;
+layout(location = 4) in float instanceFade;
+
+layout(std140) uniform CameraBlock {
+    mat4 view;
+    mat4 projection;
+    vec4 viewPosition;
+};
+
+#include "Octahedral.glsl"
+
+uniform vec3 impostorCenter;
+uniform float impostorRadius;
+uniform float framesPerSide;
+
+// The three baked views nearest the view direction: their atlas cells, blend weights and
+// where this vertex's view ray crosses each view's plane
+flat out vec4 frameCells01;
+flat out vec2 frameCell2;
+flat out vec4 frameWeightsFade;
+out vec4 frameUv01;
+out vec2 frameUv2;
+flat out mat4 modelMatrix;
+flat out mat3 normalMatrix;
+
+vec2 frameUv(vec2 cell, vec3 localPoint, vec3 localRay) {
+    vec3 direction = octahedronDecode(cell / (framesPerSide - 1.0));
+    vec3 right, up;
+    frameBasis(direction, right, up);
+    float facing = dot(localRay, direction);
+    float t = abs(facing) > 1e-4 ? -dot(localPoint, direction) / facing : 0.0;
+    vec3 onPlane = localPoint + localRay * t;
+    return vec2(dot(onPlane, right), dot(onPlane, up)) / (2.0 * impostorRadius) + 0.5;
+}
+
+void main() {
+    mat3 linear = mat3(instanceModel);
+    mat3 toLocal = inverse(linear);
+    vec3 centerWorld = (instanceModel * vec4(impostorCenter, 1.0)).xyz;
+    float scale = max(length(linear[0]), max(length(linear[1]), length(linear[2])));
+
+    // Triangle of grid views around the direction to the camera, in object space so the
+    // views turn with the instance
+    vec2 grid = octahedronEncode(normalize(toLocal * (viewPosition.xyz - centerWorld))) * (framesPerSide - 1.0);
+    vec2 base = min(floor(grid), vec2(framesPerSide - 2.0));
+    vec2 f = grid - base;
+    vec2 cell0;
+    vec3 weights;
+    if (f.x + f.y < 1.0) {
+        cell0 = base;
+        weights = vec3(1.0 - f.x - f.y, f.x, f.y);
+    } else {
+        cell0 = base + 1.0;
+        weights = vec3(f.x + f.y - 1.0, 1.0 - f.y, 1.0 - f.x);
+    }
+    vec2 cell1 = base + vec2(1.0, 0.0);
+    vec2 cell2 = base + vec2(0.0, 1.0);
+
+    // Camera facing quad over the bounding sphere
+    vec2 corner = vec2(gl_VertexID & 1, gl_VertexID >> 1) * 2.0 - 1.0;
+    vec3 right = vec3(view[0][0], view[1][0], view[2][0]);
+    vec3 up = vec3(view[0][1], view[1][1], view[2][1]);
+    vec3 worldPosition = centerWorld + (right * corner.x + up * corner.y) * impostorRadius * scale;
+
+    vec3 localPoint = toLocal * (worldPosition - centerWorld);
+    vec3 localRay = toLocal * (worldPosition - viewPosition.xyz);
+    frameCells01 = vec4(cell0, cell1);
+    frameCell2 = cell2;
+    frameWeightsFade = vec4(weights, instanceFade);
+    frameUv01 = vec4(frameUv(cell0, localPoint, localRay), frameUv(cell1, localPoint, localRay));
+    frameUv2 = frameUv(cell2, localPoint, localRay);
+    modelMatrix = instanceModel;
+    normalMatrix = transpose(toLocal);
+
+    gl_Position = projection * view * vec4(worldPosition, 1.0);
+}
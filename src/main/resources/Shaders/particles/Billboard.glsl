@@ -0,0 +1,21 @@
+// Camera facing quads drawn as 4 vertex triangle strips, one instance per particle
+layout(std140) uniform CameraBlock {
+    mat4 view;
+    mat4 projection;
+    vec4 viewPosition;
+};
+
+// Clip space position of this vertex's corner, uv in [0, 1] across the quad
+vec4 billboard(vec3 center, float size, out vec2 uv) {
+    uv = vec2(gl_VertexID & 1, gl_VertexID >> 1);
+    vec2 offset = (uv - 0.5) * size;
+    // The rows of the view rotation are the camera axes in world space
+    vec3 right = vec3(view[0][0], view[1][0], view[2][0]);
+    vec3 up = vec3(view[0][1], view[1][1], view[2][1]);
+    return projection * view * vec4(center + right * offset.x + up * offset.y, 1.0);
+}
+
+// Fades in quickly after spawning and out over the last part of the lifetime
+float particleFade(float t) {
+    return smoothstep(0.0, 0.05, t) * (1.0 - smoothstep(0.6, 1.0, t));
+}
@@ -0,0 +1,204 @@
+#version 430 core
+
+// All particle stages in one file, ParticleSystem compiles one program per stage define:
+// PARTICLE_INIT     fills the dead list with every slot of the pool
+// PARTICLE_EMIT     pops slots from the dead list and appends them to the alive list
+// PARTICLE_PREPARE  sizes the simulate dispatch from the alive count, resets the output list
+// PARTICLE_SIMULATE integrates the alive particles, compacting survivors into the output list
+// PARTICLE_FINALIZE writes the instance count of the indirect draw
+#ifndef WORKGROUP_SIZE
+#define WORKGROUP_SIZE 256
+#endif
+
+layout(local_size_x = WORKGROUP_SIZE) in;
+
+#include "Particle.glsl"
+
+layout(std430, binding = 0) buffer Particles {
+    Particle particles[];
+};
+
+// Stack of free slots, deadCount entries are valid
+layout(std430, binding = 1) buffer DeadList {
+    uint dead[];
+};
+
+// Ping-ponged every frame: survivors written to AliveOut are next frame's AliveIn
+layout(std430, binding = 2) buffer AliveIn {
+    uint aliveInCount;
+    uint aliveInPad0;
+    uint aliveInPad1;
+    uint aliveInPad2;
+    uint aliveIn[];
+};
+layout(std430, binding = 3) buffer AliveOut {
+    uint aliveOutCount;
+    uint aliveOutPad0;
+    uint aliveOutPad1;
+    uint aliveOutPad2;
+    uint aliveOut[];
+};
+
+// Bound as GL_DRAW_INDIRECT_BUFFER at offset 0 and GL_DISPATCH_INDIRECT_BUFFER at offset 16
+layout(std430, binding = 4) buffer State {
+    uint drawVertexCount;
+    uint drawInstanceCount;
+    uint drawFirstVertex;
+    uint drawBaseInstance;
+    uint dispatchX;
+    uint dispatchY;
+    uint dispatchZ;
+    uint statePad;
+    int deadCount;
+    uint emittedTotal;
+    uint diedTotal;
+    uint capacity;
+};
+
+uniform float deltaTime;
+uniform float time;
+uniform uint seed;
+
+uint hash(uint x) {
+    x ^= x >> 16;
+    x *= 0x7feb352du;
+    x ^= x >> 15;
+    x *= 0x846ca68bu;
+    x ^= x >> 16;
+    return x;
+}
+
+// Uniform in [0, 1), advancing the state
+float random(inout uint state) {
+    state = hash(state);
+    return float(state >> 8) * (1.0 / 16777216.0);
+}
+
+#ifdef PARTICLE_INIT
+void main() {
+    uint index = gl_GlobalInvocationID.x;
+    if (index < capacity) {
+        dead[index] = index;
+    }
+}
+#endif
+
+#ifdef PARTICLE_EMIT
+uniform uint emitCount;
+uniform vec3 emitPosition;
+uniform vec3 emitVelocity;
+uniform vec2 emitSpread;      // position radius, velocity per axis
+uniform vec2 emitLifetime;    // min, max
+uniform vec4 emitShape;       // start size, end size, drag, gravity scale
+uniform vec4 emitColor;
+
+void main() {
+    if (gl_GlobalInvocationID.x >= emitCount) {
+        return;
+    }
+
+    // Undo the decrement when the pool is exhausted, the particle is simply not spawned
+    int remaining = atomicAdd(deadCount, -1);
+    if (remaining <= 0) {
+        atomicAdd(deadCount, 1);
+        return;
+    }
+    uint index = dead[remaining - 1];
+
+    uint state = hash(gl_GlobalInvocationID.x ^ hash(seed));
+    vec3 jitter = vec3(random(state), random(state), random(state)) * 2.0 - 1.0;
+    vec3 velocityJitter = vec3(random(state), random(state), random(state)) * 2.0 - 1.0;
+
+    Particle particle;
+    particle.position = vec4(emitPosition + jitter * emitSpread.x, 0.0);
+    particle.velocity = vec4(emitVelocity + velocityJitter * emitSpread.y,
+                             mix(emitLifetime.x, emitLifetime.y, random(state)));
+    particle.shape = emitShape;
+    particle.color = emitColor;
+    particles[index] = particle;
+
+    aliveIn[atomicAdd(aliveInCount, 1u)] = index;
+    atomicAdd(emittedTotal, 1u);
+}
+#endif
+
+#ifdef PARTICLE_PREPARE
+void main() {
+    dispatchX = (aliveInCount + WORKGROUP_SIZE - 1u) / WORKGROUP_SIZE;
+    dispatchY = 1u;
+    dispatchZ = 1u;
+    aliveOutCount = 0u;
+}
+#endif
+
+#ifdef PARTICLE_SIMULATE
+uniform vec3 gravity;
+uniform vec3 wind;
+uniform float noiseFrequency;
+uniform float noiseStrength;
+uniform float groundHeight;
+
+float lattice(vec3 cell) {
+    uvec3 c = uvec3(ivec3(cell));
+    return float(hash(c.x ^ hash(c.y ^ hash(c.z))) >> 8) * (2.0 / 16777216.0) - 1.0;
+}
+
+// Trilinear value noise in [-1, 1]
+float valueNoise(vec3 p) {
+    vec3 cell = floor(p);
+    vec3 f = p - cell;
+    vec3 s = f * f * (3.0 - 2.0 * f);
+    float x00 = mix(lattice(cell), lattice(cell + vec3(1, 0, 0)), s.x);
+    float x10 = mix(lattice(cell + vec3(0, 1, 0)), lattice(cell + vec3(1, 1, 0)), s.x);
+    float x01 = mix(lattice(cell + vec3(0, 0, 1)), lattice(cell + vec3(1, 0, 1)), s.x);
+    float x11 = mix(lattice(cell + vec3(0, 1, 1)), lattice(cell + vec3(1, 1, 1)), s.x);
+    return mix(mix(x00, x10, s.y), mix(x01, x11, s.y), s.z);
+}
+
+// Three decorrelated noise channels drifting with time, enough to break up smoke plumes
+vec3 turbulence(vec3 p) {
+    vec3 q = p + vec3(0.0, 0.0, time * 0.5);
+    return vec3(valueNoise(q), valueNoise(q + vec3(31.7, 11.3, 5.1)), valueNoise(q + vec3(7.9, 43.1, 19.3)));
+}
+
+void main() {
+    uint slot = gl_GlobalInvocationID.x;
+    if (slot >= aliveInCount) {
+        return;
+    }
+    uint index = aliveIn[slot];
+    Particle particle = particles[index];
+
+    float age = particle.position.w + deltaTime;
+    if (age >= particle.velocity.w) {
+        dead[atomicAdd(deadCount, 1)] = index;
+        atomicAdd(diedTotal, 1u);
+        return;
+    }
+
+    // Gravity, then relax towards the turbulent air velocity at the particle's drag rate
+    vec3 velocity = particle.velocity.xyz + gravity * (particle.shape.w * deltaTime);
+    vec3 air = wind + turbulence(particle.position.xyz * noiseFrequency) * noiseStrength;
+    velocity = mix(velocity, air, 1.0 - exp(-particle.shape.z * deltaTime));
+    vec3 position = particle.position.xyz + velocity * deltaTime;
+
+    if (position.y < groundHeight) {
+        position.y = groundHeight;
+        velocity.y = abs(velocity.y) * 0.3;
+        velocity.xz *= 0.7;
+    }
+
+    particles[index].position = vec4(position, age);
+    particles[index].velocity.xyz = velocity;
+    aliveOut[atomicAdd(aliveOutCount, 1u)] = index;
+}
+#endif
+
+#ifdef PARTICLE_FINALIZE
+void main() {
+    drawVertexCount = 4u;
+    drawInstanceCount = aliveOutCount;
+    drawFirstVertex = 0u;
+    drawBaseInstance = 0u;
+}
+#endif
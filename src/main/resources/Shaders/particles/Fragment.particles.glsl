@@ -0,0 +1,16 @@
+#version 330 core
+
+in vec2 spriteCoord;
+in vec4 spriteColor;
+
+out vec4 color;
+
+void main() {
+    // Soft round sprite, no texture fetch so a million of them stay fill rate bound only
+    float distance = length(spriteCoord * 2.0 - 1.0);
+    float alpha = spriteColor.a * (1.0 - smoothstep(0.4, 1.0, distance));
+    if (alpha < 0.004) {
+        discard;
+    }
+    color = vec4(spriteColor.rgb, alpha);
+}
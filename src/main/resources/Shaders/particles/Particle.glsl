@@ -0,0 +1,7 @@
+// One particle as laid out in the particle pool SSBO, 64 bytes in std430
+struct Particle {
+    vec4 position;  // xyz, age in seconds
+    vec4 velocity;  // xyz, lifetime in seconds
+    vec4 shape;     // start size, end size, drag, gravity scale
+    vec4 color;
+};
@@ -0,0 +1,15 @@
+#version 330 core
+
+// Per instance, streamed by the CPU simulation every frame
+layout(location = 0) in vec4 centerSize;
+layout(location = 1) in vec4 color;
+
+#include "Billboard.glsl"
+
+out vec2 spriteCoord;
+out vec4 spriteColor;
+
+void main() {
+    gl_Position = billboard(centerSize.xyz, centerSize.w, spriteCoord);
+    spriteColor = color;
+}
@@ -0,0 +1,28 @@
+#version 430 core
+
+#include "Particle.glsl"
+
+// Written by the simulate stage, read in place without going through the CPU
+layout(std430, binding = 0) readonly buffer Particles {
+    Particle particles[];
+};
+layout(std430, binding = 3) readonly buffer AliveOut {
+    uint aliveCount;
+    uint alivePad0;
+    uint alivePad1;
+    uint alivePad2;
+    uint alive[];
+};
+
+#include "Billboard.glsl"
+
+out vec2 spriteCoord;
+out vec4 spriteColor;
+
+void main() {
+    Particle particle = particles[alive[gl_InstanceID]];
+    float t = clamp(particle.position.w / particle.velocity.w, 0.0, 1.0);
+    float size = mix(particle.shape.x, particle.shape.y, t);
+    gl_Position = billboard(particle.position.xyz, size, spriteCoord);
+    spriteColor = vec4(particle.color.rgb, particle.color.a * particleFade(t));
+}
@@ -0,0 +1,40 @@
+#version 330 core
+
+in vec2 uv;
+
+out vec4 color;
+
+// The scene is rendered into the lower left sourceScale part of the texture
+uniform sampler2D source;
+uniform vec2 sourceScale;
+uniform vec2 sourceTexel;
+// 0 is plain bilinear, 1 the strongest sharpening
+uniform float sharpness;
+
+vec3 fetch(vec2 st, vec2 limit) {
+    return texture(source, clamp(st, 0.5 * sourceTexel, limit)).rgb;
+}
+
+void main() {
+    // Bilinear filtering must not pull in texels outside the rendered rectangle
+    vec2 limit = sourceScale - 0.5 * sourceTexel;
+    vec2 st = uv * sourceScale;
+    vec3 center = fetch(st, limit);
+
+    if (sharpness > 0.0) {
+        vec3 north = fetch(st + vec2(0.0, sourceTexel.y), limit);
+        vec3 south = fetch(st - vec2(0.0, sourceTexel.y), limit);
+        vec3 east = fetch(st + vec2(sourceTexel.x, 0.0), limit);
+        vec3 west = fetch(st - vec2(sourceTexel.x, 0.0), limit);
+
+        // Contrast adaptive: the negative lobe shrinks where the neighbourhood already
+        // spans the full range, so hard edges do not ring
+        vec3 low = min(center, min(min(north, south), min(east, west)));
+        vec3 high = max(center, max(max(north, south), max(east, west)));
+        vec3 amount = sqrt(clamp(min(low, 1.0 - high) / max(high, 1e-4), 0.0, 1.0));
+        vec3 weight = -amount * mix(0.125, 0.2, sharpness);
+        center = clamp((center + (north + south + east + west) * weight) / (1.0 + 4.0 * weight), 0.0, 1.0);
+    }
+
+    color = vec4(center, 1.0);
+}
@@ -0,0 +1,11 @@
+#version 330 core
+
+layout(location = 0) in vec3 position;
+
+uniform mat4 model;
+// The cascade being drawn, light view and orthographic projection
+uniform mat4 lightViewProjection;
+
+void main() {
+    gl_Position = lightViewProjection * model * vec4(position, 1.0);
+}
@@ -0,0 +1,212 @@
+package com.coldary.utils;
+
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Times MeshProcessing against a straightforward object-per-triangle implementation on a
+// generated heightfield. Run with --add-modules jdk.incubator.vector to include the
+// vectorized kernel, e.g. main(4000000) for a four million triangle mesh. Lives under
+// src/test so it stays out of the runtime jar, mvn -Pbench test runs it.
+public class MeshProcessingBenchmark {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int triangles = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        int size = Math.max(1, (int) Math.sqrt(triangles / 2.0));
+
+        float[] positions = new float[(size + 1) * (size + 1) * 3];
+        float[] texCoords = new float[(size + 1) * (size + 1) * 2];
+        int[] indices = new int[size * size * 6];
+        buildHeightfield(size, positions, texCoords, indices);
+        System.out.printf("Mesh: %d vertices, %d triangles, %d cores, vector kernel %s%n",
+                positions.length / 3, indices.length / 3, Runtime.getRuntime().availableProcessors(),
+                MeshProcessing.isVectorized() ? "available" : "unavailable");
+
+        float[] reference = time("naive normals", () -> naiveNormals(positions, indices));
+        float[] normals = time("scalar normals, 1 thread", () ->
+                MeshProcessing.computeNormals(positions, indices, new ScalarMeshKernel(), false));
+        time("scalar normals, parallel", () ->
+                MeshProcessing.computeNormals(positions, indices, new ScalarMeshKernel(), true));
+        if (MeshProcessing.isVectorized()) {
+            time("vector normals, 1 thread", () -> MeshProcessing.computeNormals(positions, indices, new VectorMeshKernel(), false));
+            normals = time("vector normals, parallel", () -> MeshProcessing.computeNormals(positions, indices));
+        }
+        System.out.printf("  max normal deviation from naive: %.3g%n", maxDifference(reference, normals, 3, 3));
+
+        float[] finalNormals = normals;
+        float[] referenceTangents = time("naive tangents", () -> naiveTangents(positions, finalNormals, texCoords, indices));
+        float[] tangents = time("scalar tangents, 1 thread", () ->
+                MeshProcessing.computeTangents(positions, finalNormals, texCoords, indices, new ScalarMeshKernel(), false));
+        time("scalar tangents, parallel", () ->
+                MeshProcessing.computeTangents(positions, finalNormals, texCoords, indices, new ScalarMeshKernel(), true));
+        if (MeshProcessing.isVectorized()) {
+            time("vector tangents, 1 thread", () ->
+                    MeshProcessing.computeTangents(positions, finalNormals, texCoords, indices, new VectorMeshKernel(), false));
+            tangents = time("vector tangents, parallel", () -> MeshProcessing.computeTangents(positions, finalNormals, texCoords, indices));
+        }
+        System.out.printf("  max tangent deviation from naive: %.3g%n", maxDifference(referenceTangents, tangents, 4, 4));
+    }
+
+    private static void buildHeightfield(int size, float[] positions, float[] texCoords, int[] indices) {
+        int row = size + 1;
+        for (int z = 0; z <= size; z++) {
+            for (int x = 0; x <= size; x++) {
+                int v = z * row + x;
+                float u = (float) x / size;
+                float w = (float) z / size;
+                positions[v * 3] = u * 100;
+                positions[v * 3 + 1] = (float) (Math.sin(u * 40) * Math.cos(w * 30) * 2);
+                positions[v * 3 + 2] = w * 100;
+                texCoords[v * 2] = u * 8;
+                texCoords[v * 2 + 1] = w * 8;
+            }
+        }
+        int i = 0;
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                int v = z * row + x;
+                indices[i++] = v;
+                indices[i++] = v + row;
+                indices[i++] = v + 1;
+                indices[i++] = v + 1;
+                indices[i++] = v + row;
+                indices[i++] = v + row + 1;
+            }
+        }
+    }
+
+    private static float[] time(String name, java.util.function.Supplier<float[]> task) {
+        float[] result = null;
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            result = task.get();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %8.1f ms (best of %d)%n", name, best / 1e6, RUNS);
+        return result;
+    }
+
+    private static float maxDifference(float[] a, float[] b, int stride, int components) {
+        float max = 0;
+        for (int i = 0; i < a.length; i += stride) {
+            for (int k = 0; k < components; k++) {
+                max = Math.max(max, Math.abs(a[i + k] - b[i + k]));
+            }
+        }
+        return max;
+    }
+
+    // The textbook version: one object per triangle, vector objects for every intermediate
+    private static class Triangle {
+        final int[] vertices = new int[3];
+        final Vector3f normal = new Vector3f();
+        final float[] angles = new float[3];
+        final Vector3f tangent = new Vector3f();
+        final Vector3f bitangent = new Vector3f();
+    }
+
+    private static List<Triangle> naiveTriangles(float[] positions, int[] indices) {
+        List<Triangle> triangles = new ArrayList<>();
+        for (int t = 0; t < indices.length / 3; t++) {
+            Triangle triangle = new Triangle();
+            Vector3f[] p = new Vector3f[3];
+            for (int k = 0; k < 3; k++) {
+                triangle.vertices[k] = indices[t * 3 + k];
+                p[k] = vertex(positions, triangle.vertices[k]);
+            }
+            Vector3f edge1 = new Vector3f(p[1]).sub(p[0]);
+            Vector3f edge2 = new Vector3f(p[2]).sub(p[0]);
+            triangle.normal.set(edge1).cross(edge2);
+            if (triangle.normal.lengthSquared() > 0) {
+                triangle.normal.normalize();
+                triangle.angles[0] = edge1.angle(edge2);
+                triangle.angles[1] = new Vector3f(edge1).negate().angle(new Vector3f(p[2]).sub(p[1]));
+                triangle.angles[2] = Math.max(0, (float) Math.PI - triangle.angles[0] - triangle.angles[1]);
+            }
+            triangles.add(triangle);
+        }
+        return triangles;
+    }
+
+    private static float[] naiveNormals(float[] positions, int[] indices) {
+        Vector3f[] sums = new Vector3f[positions.length / 3];
+        for (int v = 0; v < sums.length; v++) {
+            sums[v] = new Vector3f();
+        }
+        for (Triangle triangle : naiveTriangles(positions, indices)) {
+            for (int k = 0; k < 3; k++) {
+                sums[triangle.vertices[k]].add(new Vector3f(triangle.normal).mul(triangle.angles[k]));
+            }
+        }
+        float[] normals = new float[positions.length];
+        for (int v = 0; v < sums.length; v++) {
+            Vector3f n = sums[v].lengthSquared() > 0 ? sums[v].normalize() : new Vector3f(0, 1, 0);
+            normals[v * 3] = n.x;
+            normals[v * 3 + 1] = n.y;
+            normals[v * 3 + 2] = n.z;
+        }
+        return normals;
+    }
+
+    private static float[] naiveTangents(float[] positions, float[] normals, float[] texCoords, int[] indices) {
+        int vertexCount = positions.length / 3;
+        Vector3f[] tangentSums = new Vector3f[vertexCount];
+        Vector3f[] bitangentSums = new Vector3f[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            tangentSums[v] = new Vector3f();
+            bitangentSums[v] = new Vector3f();
+        }
+
+        for (Triangle triangle : naiveTriangles(positions, indices)) {
+            Vector3f p0 = vertex(positions, triangle.vertices[0]);
+            Vector3f edge1 = vertex(positions, triangle.vertices[1]).sub(p0);
+            Vector3f edge2 = vertex(positions, triangle.vertices[2]).sub(p0);
+            Vector2f uv0 = uv(texCoords, triangle.vertices[0]);
+            Vector2f delta1 = uv(texCoords, triangle.vertices[1]).sub(uv0);
+            Vector2f delta2 = uv(texCoords, triangle.vertices[2]).sub(uv0);
+            float area = delta1.x * delta2.y - delta2.x * delta1.y;
+            if (area != 0) {
+                triangle.tangent.set(new Vector3f(edge1).mul(delta2.y).sub(new Vector3f(edge2).mul(delta1.y))).div(area);
+                triangle.bitangent.set(new Vector3f(edge2).mul(delta1.x).sub(new Vector3f(edge1).mul(delta2.x))).div(area);
+            }
+            for (int k = 0; k < 3; k++) {
+                int v = triangle.vertices[k];
+                Vector3f n = vertex(normals, v);
+                Vector3f t = new Vector3f(triangle.tangent).sub(new Vector3f(n).mul(n.dot(triangle.tangent)));
+                Vector3f b = new Vector3f(triangle.bitangent).sub(new Vector3f(n).mul(n.dot(triangle.bitangent)));
+                if (t.lengthSquared() > 0) {
+                    tangentSums[v].add(t.normalize().mul(triangle.angles[k]));
+                }
+                if (b.lengthSquared() > 0) {
+                    bitangentSums[v].add(b.normalize().mul(triangle.angles[k]));
+                }
+            }
+        }
+
+        float[] tangents = new float[vertexCount * 4];
+        for (int v = 0; v < vertexCount; v++) {
+            Vector3f n = vertex(normals, v);
+            Vector3f t = tangentSums[v].sub(new Vector3f(n).mul(n.dot(tangentSums[v])));
+            t = t.lengthSquared() > 0 ? t.normalize() : new Vector3f(n).orthogonalizeUnit(n);
+            float w = new Vector3f(n).cross(t).dot(bitangentSums[v]) < 0 ? -1 : 1;
+            tangents[v * 4] = t.x;
+            tangents[v * 4 + 1] = t.y;
+            tangents[v * 4 + 2] = t.z;
+            tangents[v * 4 + 3] = w;
+        }
+        return tangents;
+    }
+
+    private static Vector3f vertex(float[] data, int v) {
+        return new Vector3f(data[v * 3], data[v * 3 + 1], data[v * 3 + 2]);
+    }
+
+    private static Vector2f uv(float[] data, int v) {
+        return new Vector2f(data[v * 2], data[v * 2 + 1]);
+    }
+}